@@ -18,6 +18,16 @@ group = packageGroup
 
 java.toolchain.languageVersion = JavaLanguageVersion.of(17)
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations {
+    named(jmh.implementationConfigurationName) { extendsFrom(configurations.implementation.get()) }
+    named(jmh.compileOnlyConfigurationName) { extendsFrom(configurations.compileOnly.get()) }
+}
+
 repositories {
     mavenCentral()
     maven {
@@ -47,6 +57,9 @@ dependencies {
     testImplementation("org.mockito:mockito-core:4.1.0")
     testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.2")
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.2")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.35")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.35")
 }
 
 publishing {
@@ -70,6 +83,35 @@ publishing {
     }
 }
 
+// Pre-generates the R5CPU implementation from R5CPUTemplate, so it is packaged in the jar and loaded like
+// a regular class instead of being generated on startup. R5CPUGenerator falls back to runtime generation
+// if the class is missing.
+val generatedCPUClassesDir = layout.buildDirectory.dir("generated/cpu-classes")
+val generateCPUClass by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Generates the R5CPU implementation from R5CPUTemplate."
+    classpath = files(sourceSets.main.get().output.classesDirs, tasks.processResources, configurations.runtimeClasspath)
+    mainClass = "li.cil.sedna.riscv.R5CPUGenerator"
+    outputs.dir(generatedCPUClassesDir)
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(generatedCPUClassesDir.get().asFile.absolutePath)
+    })
+    doFirst { delete(generatedCPUClassesDir) }
+}
+
+sourceSets.main {
+    output.dir(mapOf("builtBy" to generateCPUClass), generatedCPUClassesDir)
+}
+
 tasks.test {
     useJUnitPlatform()
 }
+
+// Runs the benchmarks in src/jmh. Arguments are passed on to JMH, e.g. -PjmhArgs="R5CPUBenchmark.memcpy -p paging=SV39".
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    args = (project.findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotBlank() }
+}
@@ -0,0 +1,132 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+
+/**
+ * A single hart with a block of RAM, running a kernel at {@link #KERNEL_ADDRESS}.
+ * <p>
+ * Without paging the kernel runs in machine mode. With paging it runs in supervisor mode, with all
+ * of RAM identity mapped using 4KiB pages, so that strided accesses over large ranges miss in the TLB
+ * and have to walk the page table.
+ */
+public final class BenchmarkMachine implements AutoCloseable {
+    public enum Paging {
+        BARE(R5.SATP_MODE_NONE, 0),
+        SV39(R5.SATP_MODE_SV39, R5.SV39_LEVELS),
+        SV48(R5.SATP_MODE_SV48, R5.SV48_LEVELS);
+
+        final long mode;
+        final int levels;
+
+        Paging(final long mode, final int levels) {
+            this.mode = mode;
+            this.levels = levels;
+        }
+    }
+
+    static final long MEMORY_ADDRESS = 0x80000000L;
+    static final int MEMORY_SIZE = 32 * 1024 * 1024;
+    static final long KERNEL_ADDRESS = MEMORY_ADDRESS + 0x1000;
+    static final long DATA_ADDRESS = MEMORY_ADDRESS + 0x100000;
+    static final int DATA_SIZE = 24 * 1024 * 1024;
+
+    // Page tables live at the end of memory, after the data area.
+    private static final long PAGE_TABLE_ADDRESS = DATA_ADDRESS + DATA_SIZE;
+    private static final int PAGE_SIZE = 1 << R5.PAGE_ADDRESS_SHIFT;
+    private static final int PTE_INDEX_BITS = 9;
+
+    final MemoryMap memoryMap = new SimpleMemoryMap();
+    final R5CPU cpu = R5CPU.create(memoryMap);
+    private final PhysicalMemory memory = Memory.create(MEMORY_SIZE);
+    private final Paging paging;
+    private long nextPageTable = PAGE_TABLE_ADDRESS;
+
+    BenchmarkMachine(final Paging paging) {
+        this.paging = paging;
+        memoryMap.addDevice(MEMORY_ADDRESS, memory);
+    }
+
+    @Override
+    public void close() throws Exception {
+        memory.close();
+    }
+
+    /**
+     * Sets up paging if enabled and resets the CPU into a boot stub that enters the kernel.
+     */
+    void boot() throws MemoryAccessException {
+        final long satp;
+        final long mpp;
+        if (paging == Paging.BARE) {
+            satp = 0;
+            mpp = R5.PRIVILEGE_M;
+        } else {
+            final long root = allocatePageTable();
+            for (long address = MEMORY_ADDRESS; address < MEMORY_ADDRESS + MEMORY_SIZE; address += PAGE_SIZE) {
+                map(root, address);
+            }
+            satp = paging.mode | (root >>> R5.PAGE_ADDRESS_SHIFT);
+            mpp = R5.PRIVILEGE_S;
+        }
+
+        new R5Assembler(MEMORY_ADDRESS)
+            .define("SATP", satp)
+            .define("MSTATUS", (mpp << R5.STATUS_MPP_SHIFT) | ((long) R5.FS_INITIAL << R5.STATUS_FS_SHIFT))
+            .define("KERNEL", KERNEL_ADDRESS)
+            .assemble("""
+                li   t0, SATP
+                csrw satp, t0
+                li   t0, MSTATUS
+                csrs mstatus, t0
+                li   t0, KERNEL
+                csrw mepc, t0
+                mret
+                """)
+            .writeTo(memoryMap);
+
+        cpu.reset(true, MEMORY_ADDRESS);
+    }
+
+    void store64(final long address, final long value) throws MemoryAccessException {
+        memoryMap.store(address, value, Sizes.SIZE_64_LOG2);
+    }
+
+    private void map(final long root, final long address) throws MemoryAccessException {
+        long table = root;
+        for (int level = paging.levels - 1; level > 0; level--) {
+            final long pteAddress = table + getIndex(address, level) * 8L;
+            long pte = memoryMap.load(pteAddress, Sizes.SIZE_64_LOG2);
+            if ((pte & R5.PTE_V_MASK) == 0) {
+                pte = ((allocatePageTable() >>> R5.PAGE_ADDRESS_SHIFT) << R5.PTE_DATA_BITS) | R5.PTE_V_MASK;
+                store64(pteAddress, pte);
+            }
+            table = (pte >>> R5.PTE_DATA_BITS) << R5.PAGE_ADDRESS_SHIFT;
+        }
+
+        final long pte = ((address >>> R5.PAGE_ADDRESS_SHIFT) << R5.PTE_DATA_BITS) |
+                         R5.PTE_V_MASK | R5.PTE_R_MASK | R5.PTE_W_MASK | R5.PTE_X_MASK |
+                         R5.PTE_A_MASK | R5.PTE_D_MASK;
+        store64(table + getIndex(address, 0) * 8L, pte);
+    }
+
+    private long allocatePageTable() throws MemoryAccessException {
+        final long table = nextPageTable;
+        nextPageTable += PAGE_SIZE;
+        if (nextPageTable > MEMORY_ADDRESS + MEMORY_SIZE) {
+            throw new IllegalStateException("out of page table memory");
+        }
+        for (int offset = 0; offset < PAGE_SIZE; offset += 8) {
+            store64(table + offset, 0);
+        }
+        return table;
+    }
+
+    private static int getIndex(final long address, final int level) {
+        return (int) (address >>> (R5.PAGE_ADDRESS_SHIFT + level * PTE_INDEX_BITS)) & ((1 << PTE_INDEX_BITS) - 1);
+    }
+}
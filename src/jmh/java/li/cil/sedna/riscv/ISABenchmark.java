@@ -0,0 +1,171 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.MemoryMappedDevice;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.elf.*;
+import li.cil.sedna.memory.MemoryMaps;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpretation throughput of {@link R5CPU} running the riscv-tests binaries used by the ISA tests.
+ * <p>
+ * The {@code -p} variants run in machine mode without paging, the {@code -v} variants run the same
+ * code in user mode with Sv39 paging. Each invocation runs one test to completion, the {@code instructions}
+ * counter reports throughput in guest MIPS.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ISABenchmark {
+    private static final long PHYSICAL_MEMORY_START = 0x80000000L;
+    private static final int PHYSICAL_MEMORY_LENGTH = 512 * 1024;
+
+    @Param({
+            "rv64ui-p-add", "rv64ui-v-add",
+            "rv64ui-p-ld", "rv64ui-v-ld",
+            "rv64um-p-mul", "rv64um-v-mul",
+            "rv64ua-p-amoadd_d", "rv64ua-v-amoadd_d",
+            "rv64ud-p-fmadd", "rv64ud-v-fmadd",
+            "rv64uc-p-rvc", "rv64uc-v-rvc",
+    })
+    public String test;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    private final MemoryMap memoryMap = new SimpleMemoryMap();
+    private final R5CPU cpu = R5CPU.create(memoryMap);
+    private final HostTargetInterface htif = new HostTargetInterface();
+    private final List<PhysicalMemory> memories = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long entryPoint;
+
+    private record Segment(long address, ByteBuffer data) { }
+
+    @Setup
+    public void setup() throws IOException {
+        final ELF elf = ELFParser.parse(new File("src/test/data/riscv-tests", test));
+
+        long toHostAddress = -1;
+        for (final SectionHeader header : elf.sectionHeaderTable) {
+            if (".tohost".equals(header.name)) {
+                toHostAddress = header.virtualAddress;
+            }
+        }
+        if (toHostAddress < 0) {
+            throw new IllegalStateException(".tohost not found in ELF");
+        }
+
+        // RAM around the HTIF, same layout as the ISA tests.
+        if (PHYSICAL_MEMORY_START < toHostAddress) {
+            final long end = Math.min(PHYSICAL_MEMORY_START + PHYSICAL_MEMORY_LENGTH, toHostAddress);
+            addMemory(PHYSICAL_MEMORY_START, (int) (end - PHYSICAL_MEMORY_START));
+        }
+        if (PHYSICAL_MEMORY_START + PHYSICAL_MEMORY_LENGTH > toHostAddress + htif.getLength()) {
+            final long start = Math.max(PHYSICAL_MEMORY_START, toHostAddress + htif.getLength());
+            addMemory(start, (int) (PHYSICAL_MEMORY_START + PHYSICAL_MEMORY_LENGTH - start));
+        }
+        memoryMap.addDevice(toHostAddress, htif);
+
+        // Keep segments including their zero-initialized part, tests modify memory, so each run
+        // has to start from a fresh copy.
+        for (final ProgramHeader header : elf.programHeaderTable) {
+            if (header.is(ProgramHeaderType.PT_LOAD)) {
+                final ByteBuffer view = header.getView();
+                view.limit(view.position() + (int) header.sizeInFile);
+                final ByteBuffer data = ByteBuffer.allocate((int) header.sizeInMemory);
+                data.put(view).clear();
+                segments.add(new Segment(header.physicalAddress, data));
+            }
+        }
+
+        entryPoint = elf.entryPoint;
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        for (final PhysicalMemory memory : memories) {
+            memory.close();
+        }
+    }
+
+    @Benchmark
+    public void run(final Counters counters) throws MemoryAccessException {
+        for (final Segment segment : segments) {
+            MemoryMaps.store(memoryMap, segment.address(), segment.data().duplicate());
+        }
+
+        htif.toHost = 0;
+        cpu.reset(true, entryPoint);
+
+        final long start = cpu.getTime();
+        while (htif.toHost == 0) {
+            cpu.step(1_000);
+        }
+        counters.instructions += cpu.getTime() - start;
+
+        if ((htif.toHost >>> 1) != 0) {
+            throw new IllegalStateException("Test failed with exit code [" + (htif.toHost >>> 1) + "].");
+        }
+    }
+
+    private void addMemory(final long address, final int length) {
+        final PhysicalMemory memory = Memory.create(length);
+        memories.add(memory);
+        memoryMap.addDevice(address, memory);
+    }
+
+    private static final class HostTargetInterface implements MemoryMappedDevice {
+        long toHost;
+
+        @Override
+        public int getLength() {
+            return 0x48;
+        }
+
+        @Override
+        public int getSupportedSizes() {
+            return (1 << Sizes.SIZE_32_LOG2) | (1 << Sizes.SIZE_64_LOG2);
+        }
+
+        @Override
+        public long load(final int offset, final int sizeLog2) {
+            return switch (offset) {
+                case 0x00 -> toHost;
+                case 0x04 -> (int) (toHost >> 32);
+                default -> 0;
+            };
+        }
+
+        @Override
+        public void store(final int offset, final long value, final int sizeLog2) {
+            switch (offset) {
+                case 0x00 -> toHost = sizeLog2 == Sizes.SIZE_32_LOG2 ? (toHost & ~0xFFFFFFFFL) | (value & 0xFFFFFFFFL) : value;
+                case 0x04 -> toHost = (toHost & 0xFFFFFFFFL) | (value << 32);
+            }
+        }
+    }
+}
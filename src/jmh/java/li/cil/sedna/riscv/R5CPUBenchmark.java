@@ -0,0 +1,204 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.memory.MemoryAccessException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpretation throughput of {@link R5CPU} for a set of synthetic kernels, in guest MIPS.
+ * <p>
+ * Each kernel is an endless loop, so every invocation executes exactly {@link #CYCLES_PER_INVOCATION}
+ * instructions, and the reported throughput in operations per microsecond is millions of guest
+ * instructions per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class R5CPUBenchmark {
+    private static final int CYCLES_PER_INVOCATION = 100_000;
+
+    private static final long MEMCPY_SOURCE = BenchmarkMachine.DATA_ADDRESS;
+    private static final long MEMCPY_TARGET = MEMCPY_SOURCE + 0x10000;
+    private static final int MEMCPY_LENGTH = 0x10000;
+    private static final long CONSTANTS = BenchmarkMachine.DATA_ADDRESS + 0x20000;
+    private static final long LIST_NODES = BenchmarkMachine.DATA_ADDRESS + 0x100000;
+    private static final int LIST_NODE_SIZE = 64;
+    private static final int LIST_NODE_COUNT = 0x10000; // 4MiB, 1024 pages.
+    private static final long STRIDE_START = BenchmarkMachine.DATA_ADDRESS + 0x800000;
+    private static final int STRIDE_LENGTH = 0x800000; // 8MiB, 2048 pages.
+
+    private static final String INTEGER_KERNEL = """
+                li    a0, 1
+                li    a1, 3
+                li    a5, 0
+        loop:   add   a2, a0, a1
+                xor   a0, a2, a5
+                slli  a3, a0, 3
+                srli  a4, a2, 5
+                mul   a1, a3, a4
+                or    a1, a1, a5
+                sub   a0, a0, a4
+                addi  a5, a5, 1
+                andi  t0, a5, 0xFF
+                bnez  t0, loop
+                divu  a0, a0, a5
+                j     loop
+        """;
+
+    private static final String MEMCPY_KERNEL = """
+        outer:  la    a0, MEMCPY_SOURCE
+                la    a1, MEMCPY_TARGET
+                li    a2, MEMCPY_LENGTH
+                add   a2, a2, a0
+        loop:   ld    t0, 0(a0)
+                ld    t1, 8(a0)
+                ld    t2, 16(a0)
+                ld    t3, 24(a0)
+                sd    t0, 0(a1)
+                sd    t1, 8(a1)
+                sd    t2, 16(a1)
+                sd    t3, 24(a1)
+                addi  a0, a0, 32
+                addi  a1, a1, 32
+                bltu  a0, a2, loop
+                j     outer
+        """;
+
+    private static final String POINTER_CHASE_KERNEL = """
+                la    a0, LIST_NODES
+        loop:   ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                ld    a0, 0(a0)
+                j     loop
+        """;
+
+    private static final String FP_KERNEL = """
+                la      a0, CONSTANTS
+                fld     f0, 0(a0)
+                fld     f1, 8(a0)
+                fld     f2, 16(a0)
+        loop:   fmadd.d f3, f0, f1, f2
+                fmul.d  f4, f3, f1
+                fadd.d  f0, f4, f2
+                fdiv.d  f5, f0, f1
+                j       loop
+        """;
+
+    private static final String AMO_KERNEL = """
+                la        a0, CONSTANTS
+                addi      a2, a0, 8
+                li        a1, 1
+        loop:   amoadd.d  t0, a1, (a0)
+                amoswap.d t1, t0, (a2)
+                amomaxu.d t2, t1, (a2)
+        retry:  lr.d      t3, (a0)
+                add       t3, t3, a1
+                sc.d      t4, t3, (a0)
+                bnez      t4, retry
+                j         loop
+        """;
+
+    private static final String TLB_STRIDE_KERNEL = """
+        outer:  la    a0, STRIDE_START
+                li    a2, STRIDE_LENGTH
+                add   a2, a2, a0
+                li    t0, PAGE_SIZE
+        loop:   ld    t1, 0(a0)
+                sd    t1, 8(a0)
+                add   a0, a0, t0
+                bltu  a0, a2, loop
+                j     outer
+        """;
+
+    public enum Workload {
+        INTEGER,
+        MEMCPY,
+        POINTER_CHASE,
+        FP,
+        AMO,
+        TLB_STRIDE,
+    }
+
+    @Param
+    public Workload workload;
+
+    @Param
+    public BenchmarkMachine.Paging paging;
+
+    private BenchmarkMachine machine;
+
+    @Setup
+    public void setup() throws MemoryAccessException {
+        machine = new BenchmarkMachine(paging);
+
+        final R5Assembler kernel = new R5Assembler(BenchmarkMachine.KERNEL_ADDRESS)
+            .define("MEMCPY_SOURCE", MEMCPY_SOURCE)
+            .define("MEMCPY_TARGET", MEMCPY_TARGET)
+            .define("MEMCPY_LENGTH", MEMCPY_LENGTH)
+            .define("CONSTANTS", CONSTANTS)
+            .define("LIST_NODES", LIST_NODES)
+            .define("STRIDE_START", STRIDE_START)
+            .define("STRIDE_LENGTH", STRIDE_LENGTH)
+            .define("PAGE_SIZE", 1 << R5.PAGE_ADDRESS_SHIFT);
+        switch (workload) {
+            case INTEGER -> kernel.assemble(INTEGER_KERNEL);
+            case MEMCPY -> kernel.assemble(MEMCPY_KERNEL);
+            case POINTER_CHASE -> {
+                initializeList();
+                kernel.assemble(POINTER_CHASE_KERNEL);
+            }
+            case FP -> {
+                machine.store64(CONSTANTS, Double.doubleToRawLongBits(1.0));
+                machine.store64(CONSTANTS + 8, Double.doubleToRawLongBits(0.5));
+                machine.store64(CONSTANTS + 16, Double.doubleToRawLongBits(0.25));
+                kernel.assemble(FP_KERNEL);
+            }
+            case AMO -> kernel.assemble(AMO_KERNEL);
+            case TLB_STRIDE -> kernel.assemble(TLB_STRIDE_KERNEL);
+        }
+        kernel.writeTo(machine.memoryMap);
+
+        machine.boot();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        machine.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_INVOCATION)
+    public void run() {
+        machine.cpu.step(CYCLES_PER_INVOCATION);
+    }
+
+    // Links list nodes in a random order, so that consecutive loads are spread over all pages.
+    private void initializeList() throws MemoryAccessException {
+        final int[] order = new int[LIST_NODE_COUNT];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final Random random = new Random(0);
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int i = 0; i < order.length; i++) {
+            final long node = LIST_NODES + (long) order[i] * LIST_NODE_SIZE;
+            final long next = LIST_NODES + (long) order[(i + 1) % order.length] * LIST_NODE_SIZE;
+            machine.store64(node, next);
+        }
+    }
+}
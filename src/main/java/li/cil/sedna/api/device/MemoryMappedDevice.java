@@ -20,6 +20,18 @@ public interface MemoryMappedDevice extends Device {
      */
     int getLength();
 
+    /**
+     * The number of bytes this device occupies in memory, for devices that may be larger than 2GiB.
+     * <p>
+     * Such devices return {@link Integer#MAX_VALUE} from {@link #getLength()}, and their actual
+     * size from this method. Code computing the memory range a device occupies must use this.
+     *
+     * @return the size of the device in bytes.
+     */
+    default long getLongLength() {
+        return getLength();
+    }
+
     /**
      * Returns a bitmask indicating the value sizes supported by this device.
      * <p>
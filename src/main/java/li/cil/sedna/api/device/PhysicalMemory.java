@@ -4,7 +4,9 @@ import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.memory.MappedMemoryRange;
 import li.cil.sedna.api.memory.MemoryAccessException;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Instances marked with this interface can be treated as random-access memory.
@@ -31,6 +33,12 @@ public abstract class PhysicalMemory implements MemoryMappedDevice, AutoCloseabl
      * @throws MemoryAccessException if the device fails copying the data.
      */
     public void load(int offset, final ByteBuffer dst) throws MemoryAccessException {
+        final boolean isLittleEndian = dst.order() == ByteOrder.LITTLE_ENDIAN;
+        while (dst.remaining() >= Long.BYTES) {
+            final long value = load(offset, Sizes.SIZE_64_LOG2);
+            dst.putLong(isLittleEndian ? value : Long.reverseBytes(value));
+            offset += Long.BYTES;
+        }
         while (dst.hasRemaining()) {
             dst.put((byte) load(offset++, Sizes.SIZE_8_LOG2));
         }
@@ -44,15 +52,183 @@ public abstract class PhysicalMemory implements MemoryMappedDevice, AutoCloseabl
      * @throws MemoryAccessException if the device fails copying the data.
      */
     public void store(int offset, final ByteBuffer src) throws MemoryAccessException {
+        final boolean isLittleEndian = src.order() == ByteOrder.LITTLE_ENDIAN;
+        while (src.remaining() >= Long.BYTES) {
+            final long value = src.getLong();
+            store(offset, isLittleEndian ? value : Long.reverseBytes(value), Sizes.SIZE_64_LOG2);
+            offset += Long.BYTES;
+        }
         while (src.hasRemaining()) {
             store(offset++, src.get(), Sizes.SIZE_8_LOG2);
         }
     }
 
+    /**
+     * Returns a buffer directly accessing the specified region of this memory, if supported.
+     * <p>
+     * Data written to the returned buffer bypasses any dirty tracking, callers writing to it
+     * should report the changed region via {@link li.cil.sedna.api.memory.MemoryMap#setDirty}.
+     *
+     * @param offset the offset in this memory the view starts at.
+     * @param length the length of the view.
+     * @return a little-endian view of the region; {@code null} if this memory does not support views.
+     * @throws MemoryAccessException if the region is out of bounds.
+     */
+    @Nullable
+    public ByteBuffer getView(final int offset, final int length) throws MemoryAccessException {
+        return null;
+    }
+
+    /**
+     * Returns the memory holding the data at the specified offset in this memory.
+     * <p>
+     * Memories larger than 2GiB cannot be accessed using the {@code int} offsets of the
+     * {@link MemoryMappedDevice} interface. Instead, they are split into segments that can, and
+     * code caching direct references to memory, such as CPUs for their TLBs, uses the segment.
+     * <p>
+     * Offsets into the segment are relative to {@link #getSegmentOffset(long)}. Segments must be
+     * aligned to, and a multiple of, 4KiB, so that no page of memory ever spans two segments.
+     *
+     * @param offset the offset in this memory.
+     * @return the segment holding the data at the offset.
+     */
+    public PhysicalMemory getSegment(final long offset) {
+        return this;
+    }
+
+    /**
+     * Returns the offset of the {@link #getSegment(long) segment} holding the data at the
+     * specified offset in this memory.
+     *
+     * @param offset the offset in this memory.
+     * @return the offset of the segment holding the data at the offset.
+     */
+    public long getSegmentOffset(final long offset) {
+        return 0;
+    }
+
+    /**
+     * Reads a value from this memory, using an offset that may exceed 2GiB.
+     *
+     * @param offset   the offset in this memory to read from.
+     * @param sizeLog2 the size of the value to read, log2. See {@link Sizes}.
+     * @return the value read from the memory.
+     * @throws MemoryAccessException if there was an error accessing the data in this memory.
+     */
+    public long load(final long offset, final int sizeLog2) throws MemoryAccessException {
+        final PhysicalMemory segment = getSegment(offset);
+        return segment.load(toSegmentOffset(offset), sizeLog2);
+    }
+
+    /**
+     * Writes a value to this memory, using an offset that may exceed 2GiB.
+     *
+     * @param offset   the offset in this memory to write to.
+     * @param value    the value to write to the memory.
+     * @param sizeLog2 the size of the value to write, log2. See {@link Sizes}.
+     * @throws MemoryAccessException if there was an error accessing the data in this memory.
+     */
+    public void store(final long offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        final PhysicalMemory segment = getSegment(offset);
+        segment.store(toSegmentOffset(offset), value, sizeLog2);
+    }
+
+    /**
+     * Block-copy data from this physical memory into the specified buffer, using an offset
+     * that may exceed 2GiB.
+     *
+     * @param offset the offset in this memory to start copying from.
+     * @param dst    the buffer to copy into.
+     * @throws MemoryAccessException if the device fails copying the data.
+     */
+    public void load(long offset, final ByteBuffer dst) throws MemoryAccessException {
+        while (dst.hasRemaining()) {
+            final PhysicalMemory segment = getSegment(offset);
+            final int segmentOffset = toSegmentOffset(offset);
+            final int length = Math.min(dst.remaining(), segment.getLength() - segmentOffset);
+            if (length <= 0) {
+                throw new MemoryAccessException();
+            }
+
+            final int limit = dst.limit();
+            dst.limit(dst.position() + length);
+            segment.load(segmentOffset, dst);
+            dst.limit(limit);
+            offset += length;
+        }
+    }
+
+    /**
+     * Block-copy data to this physical memory from the specified buffer, using an offset
+     * that may exceed 2GiB.
+     *
+     * @param offset the offset in this memory to start copying to.
+     * @param src    the buffer to copy from.
+     * @throws MemoryAccessException if the device fails copying the data.
+     */
+    public void store(long offset, final ByteBuffer src) throws MemoryAccessException {
+        while (src.hasRemaining()) {
+            final PhysicalMemory segment = getSegment(offset);
+            final int segmentOffset = toSegmentOffset(offset);
+            final int length = Math.min(src.remaining(), segment.getLength() - segmentOffset);
+            if (length <= 0) {
+                throw new MemoryAccessException();
+            }
+
+            final int limit = src.limit();
+            src.limit(src.position() + length);
+            segment.store(segmentOffset, src);
+            src.limit(limit);
+            offset += length;
+        }
+    }
+
+    /**
+     * Discards the contents of the specified region of this memory, allowing the host memory
+     * backing it to be released.
+     * <p>
+     * This is used for memory the guest reported as unused, e.g. via a memory balloon. The contents
+     * of the region are undefined afterwards: they may be unchanged, or read as zero. Implementations
+     * may only release memory in units larger than single pages, in which case partially covered
+     * units are left as they are.
+     * <p>
+     * By default this forwards to the {@link #getSegment(long) segments} of this memory, if any,
+     * and does nothing otherwise.
+     *
+     * @param offset the offset in this memory of the region to discard.
+     * @param length the length of the region to discard.
+     * @throws MemoryAccessException if the region is out of bounds.
+     */
+    public void discard(long offset, long length) throws MemoryAccessException {
+        if (offset < 0 || length < 0 || offset > getLongLength() - length) {
+            throw new MemoryAccessException();
+        }
+        while (length > 0) {
+            final PhysicalMemory segment = getSegment(offset);
+            if (segment == this) {
+                return;
+            }
+
+            final int segmentOffset = toSegmentOffset(offset);
+            final int count = (int) Math.min(length, segment.getLength() - segmentOffset);
+            segment.discard(segmentOffset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void close() throws Exception {
     }
+
+    private int toSegmentOffset(final long offset) throws MemoryAccessException {
+        final long segmentOffset = offset - getSegmentOffset(offset);
+        if (segmentOffset < 0 || segmentOffset > Integer.MAX_VALUE) {
+            throw new MemoryAccessException();
+        }
+        return (int) segmentOffset;
+    }
 }
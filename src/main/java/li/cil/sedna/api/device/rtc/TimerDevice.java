@@ -0,0 +1,24 @@
+package li.cil.sedna.api.device.rtc;
+
+import li.cil.sedna.api.device.Device;
+
+import java.util.OptionalLong;
+
+/**
+ * Timer devices know the next point in time at which they need to do work.
+ * <p>
+ * This allows boards to skip ahead in time while all harts are waiting for an
+ * interrupt, instead of stepping devices that have nothing to do.
+ * <p>
+ * Deadlines are expressed in ticks of the {@link RealTimeCounter} driving the board
+ * this device is part of. Devices with pending work that should not be deferred
+ * should return a deadline of zero.
+ */
+public interface TimerDevice extends Device {
+    /**
+     * Returns the time at which this device next needs to be stepped, if any.
+     *
+     * @return the next deadline, or nothing if this device is idle indefinitely.
+     */
+    OptionalLong getNextDeadline();
+}
@@ -19,7 +19,7 @@ public final class MappedMemoryRange extends MemoryRange {
     }
 
     public MappedMemoryRange(final MemoryMappedDevice device, final long address) {
-        this(device, address, address + device.getLength() - 1);
+        this(device, address, address + device.getLongLength() - 1);
     }
 
     @Override
@@ -4,12 +4,18 @@ import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.MemoryMappedDevice;
 
 import javax.annotation.Nullable;
+import java.util.BitSet;
 import java.util.Optional;
 
 /**
  * Represents a physical memory mapping of devices.
  */
 public interface MemoryMap {
+    /**
+     * The granularity at which dirty memory is tracked, as the log2 of the page size in bytes.
+     */
+    int DIRTY_PAGE_SIZE_LOG2 = 12;
+
     /**
      * Tries to add a new device to the mapping at the specified address.
      * <p>
@@ -72,7 +78,33 @@ public interface MemoryMap {
      * @param range  the memory range in which data has changed.
      * @param offset the offset inside that memory range at which data has changed.
      */
-    void setDirty(final MemoryRange range, final int offset);
+    void setDirty(final MemoryRange range, final long offset);
+
+    /**
+     * Returns the pages of the specified device that were written to since the last call, and
+     * marks them clean.
+     * <p>
+     * The first call for a device starts tracking it and reports all of its pages dirty. Until
+     * then, marking memory dirty costs next to nothing. Page {@code i} in the returned set covers
+     * the bytes at offsets {@code [i << DIRTY_PAGE_SIZE_LOG2, (i + 1) << DIRTY_PAGE_SIZE_LOG2)}.
+     * <p>
+     * Each call advances the {@link #getDirtyTrackingEpoch() dirty tracking epoch}. Systems that
+     * cache direct references to devices for stores have to drop these caches when the epoch
+     * changes, so that subsequent writes get marked dirty again. CPUs do so at the start of each
+     * step, so to get exact results, call this from the thread stepping them or while they are paused.
+     *
+     * @param device the device to get the dirty pages for.
+     * @return the pages of the device written to since the last call.
+     * @throws IllegalArgumentException if the device is not in this mapping.
+     */
+    BitSet getAndClearDirtyPages(final MemoryMappedDevice device);
+
+    /**
+     * Returns a value that changes whenever dirty pages are {@link #getAndClearDirtyPages harvested}.
+     *
+     * @return the current dirty tracking epoch.
+     */
+    long getDirtyTrackingEpoch();
 
     /**
      * Reads a value from the specified physical address.
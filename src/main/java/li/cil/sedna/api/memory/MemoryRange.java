@@ -10,7 +10,7 @@ public class MemoryRange {
         return new MemoryRange(start, end);
     }
 
-    public static MemoryRange at(final long address, final int length) {
+    public static MemoryRange at(final long address, final long length) {
         return new MemoryRange(address, address + length - 1);
     }
 
@@ -28,7 +28,7 @@ public class MemoryRange {
         if (Long.compareUnsigned(start, end) > 0) {
             throw new IllegalArgumentException();
         }
-        if (Long.compareUnsigned(end - start + 1, 0xFFFFFFFFL) > 0) {
+        if (end - start + 1 <= 0) { // Length must fit into a positive long.
             throw new IllegalArgumentException();
         }
 
@@ -49,6 +49,8 @@ public class MemoryRange {
 
     /**
      * The size of this memory range, in bytes.
+     * <p>
+     * For ranges larger than 2GiB this is truncated, use {@link #length()} for those.
      *
      * @return the size of this memory range.
      */
@@ -56,6 +58,15 @@ public class MemoryRange {
         return (int) (end - start + 1);
     }
 
+    /**
+     * The size of this memory range, in bytes.
+     *
+     * @return the size of this memory range.
+     */
+    public final long length() {
+        return end - start + 1;
+    }
+
     /**
      * Checks if the specified address is contained within this memory range.
      *
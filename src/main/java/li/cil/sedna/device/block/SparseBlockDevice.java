@@ -8,6 +8,7 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.BitSet;
 
 public final class SparseBlockDevice implements BlockDevice {
     private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
@@ -18,6 +19,9 @@ public final class SparseBlockDevice implements BlockDevice {
 
     @Serialized private final SparseBlockMap blocks;
 
+    private final BitSet dirtyBlocks = new BitSet();
+    private boolean isTrackingDirtyBlocks;
+
     public SparseBlockDevice(final BlockDevice lower) {
         this(lower, false, DEFAULT_BLOCK_SIZE);
     }
@@ -42,6 +46,80 @@ public final class SparseBlockDevice implements BlockDevice {
         return blocks.size();
     }
 
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the indices of all shadow blocks, i.e. of all blocks written to at least once.
+     *
+     * @return the indices of all shadow blocks.
+     */
+    public BitSet getShadowBlocks() {
+        final BitSet result = new BitSet();
+        blocks.keySet().forEach(result::set);
+        return result;
+    }
+
+    /**
+     * Returns the shadow blocks written to since the last call, and marks them clean.
+     * <p>
+     * The first call starts tracking and reports all shadow blocks present at that time.
+     * Blocks are never removed, so the union of all results so far is always the set of
+     * all shadow blocks.
+     *
+     * @return the indices of the blocks written to since the last call.
+     */
+    public BitSet getAndClearDirtyBlocks() {
+        final BitSet result;
+        if (!isTrackingDirtyBlocks) {
+            isTrackingDirtyBlocks = true;
+            result = getShadowBlocks();
+        } else {
+            result = (BitSet) dirtyBlocks.clone();
+        }
+        dirtyBlocks.clear();
+        return result;
+    }
+
+    /**
+     * Copies the contents of a shadow block into the specified array.
+     *
+     * @param index the index of the block to copy.
+     * @param dst   the array to copy the block into, at least {@link #getBlockSize()} long.
+     * @return {@code true} if there is a shadow block at the index; {@code false} otherwise.
+     */
+    public boolean getBlock(final int index, final byte[] dst) {
+        final byte[] block = blocks.get(index);
+        if (block == null) {
+            return false;
+        }
+        System.arraycopy(block, 0, dst, 0, blockSize);
+        return true;
+    }
+
+    /**
+     * Replaces the contents of a shadow block, creating it if necessary.
+     * <p>
+     * Unlike writes through {@link #getOutputStream(long)}, this does not mark the block
+     * dirty. It is intended for restoring previously saved blocks, and works on read-only
+     * devices, too.
+     *
+     * @param index the index of the block to replace.
+     * @param src   the new contents of the block, at least {@link #getBlockSize()} long.
+     */
+    public void putBlock(final int index, final byte[] src) {
+        if (index < 0 || (long) index * blockSize >= getCapacity()) {
+            throw new IllegalArgumentException(String.format("Block index out of bounds [%d].", index));
+        }
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            block = new byte[blockSize];
+            blocks.put(index, block);
+        }
+        System.arraycopy(src, 0, block, 0, blockSize);
+    }
+
     @Override
     public boolean isReadonly() {
         return readonly;
@@ -167,6 +245,7 @@ public final class SparseBlockDevice implements BlockDevice {
             final int localOffset = (int) (offset - startOffset);
 
             block[localOffset] = (byte) b;
+            dirtyBlocks.set(blockIndex);
             offset++;
         }
 
@@ -184,6 +263,7 @@ public final class SparseBlockDevice implements BlockDevice {
             final int writtenBytes = Math.min(len, blockSize - localOffset);
 
             System.arraycopy(b, off, block, localOffset, writtenBytes);
+            dirtyBlocks.set(blockIndex);
             offset += writtenBytes;
 
             if (writtenBytes < len) {
@@ -79,6 +79,14 @@ public class ByteBufferMemory extends PhysicalMemory {
         dst.put(slice);
     }
 
+    @Override
+    public ByteBuffer getView(final int offset, final int length) throws MemoryAccessException {
+        if (offset < 0 || length < 0 || offset > getLength() - length) {
+            throw new MemoryAccessException();
+        }
+        return data.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     @Override
     public void store(final int offset, final ByteBuffer src) throws MemoryAccessException {
         if (offset < 0 || offset > getLength() - src.remaining()) {
@@ -1,25 +1,56 @@
 package li.cil.sedna.device.memory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
+/**
+ * Physical memory backed by a memory mapped file.
+ * <p>
+ * When mapped copy-on-write, the file is never modified. Writes to memory go to private copies of
+ * the written pages, so the same file, e.g. a snapshot of memory after booting, can be mapped by
+ * many boards at once. Pages that are never written stay shared between all of them in the host's
+ * page cache.
+ */
 public final class FileMappedMemory extends ByteBufferMemory {
     private final FileChannel channel;
     private int size;
 
+    /**
+     * Maps the specified file for reading and writing. Changes to memory are written to the file.
+     *
+     * @param size the size of the memory. The file is grown to this size if it is smaller.
+     * @param file the file to map.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
     public FileMappedMemory(final int size, final File file) throws IOException {
-        this(size, new RandomAccessFile(file, "rw"));
+        this(size, file, false);
     }
 
-    private FileMappedMemory(final int size, final RandomAccessFile file) throws IOException {
-        this(size, file.getChannel());
+    /**
+     * Maps the specified file, optionally copy-on-write.
+     *
+     * @param size        the size of the memory. For copy-on-write mappings the file must be at least this large.
+     * @param file        the file to map.
+     * @param copyOnWrite whether changes to memory are kept private instead of being written to the file.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    public FileMappedMemory(final int size, final File file, final boolean copyOnWrite) throws IOException {
+        // Private mappings still require a channel opened for writing, even though they never write.
+        this(size, new RandomAccessFile(requireExisting(file, copyOnWrite), "rw"), copyOnWrite);
     }
 
-    private FileMappedMemory(final int size, final FileChannel channel) throws IOException {
-        super(size, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    private FileMappedMemory(final int size, final RandomAccessFile file, final boolean copyOnWrite) throws IOException {
+        this(size, file.getChannel(), copyOnWrite);
+    }
+
+    private FileMappedMemory(final int size, final FileChannel channel, final boolean copyOnWrite) throws IOException {
+        super(size, map(channel, size, copyOnWrite));
         this.channel = channel;
+        this.size = size;
     }
 
     @Override
@@ -36,4 +67,28 @@ public final class FileMappedMemory extends ByteBufferMemory {
     public int getLength() {
         return size;
     }
+
+    private static File requireExisting(final File file, final boolean copyOnWrite) throws FileNotFoundException {
+        // Opening for writing would create the file, which is pointless for copy-on-write mappings.
+        if (copyOnWrite && !file.isFile()) {
+            throw new FileNotFoundException(file.toString());
+        }
+        return file;
+    }
+
+    private static MappedByteBuffer map(final FileChannel channel, final int size, final boolean copyOnWrite) throws IOException {
+        try {
+            if (copyOnWrite) {
+                if (channel.size() < size) {
+                    throw new IOException(String.format("File is smaller than memory size [%d].", size));
+                }
+                return channel.map(FileChannel.MapMode.PRIVATE, 0, size);
+            } else {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
 }
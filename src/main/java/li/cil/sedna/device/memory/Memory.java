@@ -12,4 +12,20 @@ public final class Memory {
             return UnsafeMemory.create(sizeInBytes);
         }
     }
+
+    public static PhysicalMemory create(final long sizeInBytes) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            if (sizeInBytes > Integer.MAX_VALUE) {
+                return new SegmentedMemory(sizeInBytes, ByteBufferMemory::new);
+            } else {
+                return new ByteBufferMemory((int) sizeInBytes);
+            }
+        } else {
+            return UnsafeMemory.create(sizeInBytes);
+        }
+    }
+
+    public static SparseMemory createSparse(final int sizeInBytes) {
+        return new SparseMemory(sizeInBytes);
+    }
 }
@@ -0,0 +1,176 @@
+package li.cil.sedna.device.memory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges chunks with identical contents across {@link SparseMemory} instances.
+ * <p>
+ * Memories are scanned incrementally via {@link #scan(SparseMemory, int)}. A chunk is merged once
+ * its contents have not changed between two scans, so that chunks that are actively written to
+ * are not repeatedly merged and copied again. Merged chunks are shared between all memories with
+ * a chunk of the same contents, and copied by a memory when it writes to them. Chunks holding only
+ * zeroes are dropped altogether. Chunks pinned by a view into the memory are never merged.
+ * <p>
+ * Memories may be scanned from different threads, but each memory must only be scanned by the
+ * thread that is also stepping the board it belongs to, or while that board is paused. A good time
+ * to scan is when the board is idle.
+ */
+public final class PageDeduplicator {
+    private final int chunkSize;
+    private final Map<SparseMemory, ScanState> states = new ConcurrentHashMap<>();
+    private final Map<Long, SharedChunk> sharedChunks = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ByteBuffer> collectedChunks = new ReferenceQueue<>();
+
+    /**
+     * Creates a new deduplicator for memories using the specified chunk size.
+     *
+     * @param chunkSize the chunk size of memories that may be registered.
+     */
+    public PageDeduplicator(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Registers a memory to be scanned for chunks to merge.
+     *
+     * @param memory the memory to register.
+     * @throws IllegalArgumentException if the chunk size of the memory does not match this deduplicator's.
+     */
+    public void register(final SparseMemory memory) {
+        if (memory.getChunkSize() != chunkSize) {
+            throw new IllegalArgumentException(String.format("Memory chunk size does not match [%d].", chunkSize));
+        }
+        states.putIfAbsent(memory, new ScanState(memory.getChunkCount()));
+    }
+
+    /**
+     * Unregisters a memory. Chunks it already shares stay shared until it writes to them.
+     *
+     * @param memory the memory to unregister.
+     */
+    public void unregister(final SparseMemory memory) {
+        states.remove(memory);
+    }
+
+    /**
+     * The number of distinct shared chunks still in use by any memory.
+     *
+     * @return the number of shared chunks.
+     */
+    public int getSharedChunkCount() {
+        purgeCollectedChunks();
+        return sharedChunks.size();
+    }
+
+    /**
+     * Scans the next chunks of the specified memory, merging those that did not change since the
+     * last scan with identical chunks of this and other memories.
+     *
+     * @param memory    the memory to scan.
+     * @param maxChunks the maximum number of chunks to scan.
+     * @return the number of chunks that were merged into shared ones or dropped.
+     * @throws IllegalArgumentException if the memory is not registered.
+     */
+    public int scan(final SparseMemory memory, final int maxChunks) {
+        final ScanState state = states.get(memory);
+        if (state == null) {
+            throw new IllegalArgumentException(String.format("Memory not registered [%s].", memory));
+        }
+
+        purgeCollectedChunks();
+
+        int mergedCount = 0;
+        for (int i = 0; i < maxChunks; i++) {
+            final int index = state.cursor;
+            state.cursor = (index + 1) % state.hashes.length;
+
+            final ByteBuffer chunk = memory.getChunk(index);
+            if (chunk == null || memory.isChunkShared(index) || memory.isChunkPinned(index)) {
+                continue;
+            }
+
+            final long hash = hash(chunk);
+            final boolean isStable = state.isHashed[index] && state.hashes[index] == hash;
+            state.hashes[index] = hash;
+            state.isHashed[index] = true;
+            if (!isStable) {
+                continue;
+            }
+
+            if (isZero(chunk)) {
+                memory.shareChunk(index, null);
+                mergedCount++;
+                continue;
+            }
+
+            final SharedChunk sharedChunk = sharedChunks.compute(hash, (key, existing) -> {
+                if (existing != null && existing.get() != null) {
+                    return existing;
+                }
+                return new SharedChunk(hash, chunk, collectedChunks);
+            });
+
+            // The first stable chunk with some contents becomes the shared one. It is read-only from
+            // then on, but that does not save any memory yet, so we don't count it as merged.
+            final ByteBuffer sharedData = sharedChunk.get();
+            if (sharedData == chunk) {
+                memory.shareChunk(index, sharedData);
+            } else if (sharedData != null && sharedData.equals(chunk)) {
+                memory.shareChunk(index, sharedData);
+                mergedCount++;
+            }
+        }
+
+        return mergedCount;
+    }
+
+    private void purgeCollectedChunks() {
+        SharedChunk chunk;
+        while ((chunk = (SharedChunk) collectedChunks.poll()) != null) {
+            sharedChunks.remove(chunk.hash, chunk);
+        }
+    }
+
+    private static long hash(final ByteBuffer chunk) {
+        long hash = 0;
+        for (int offset = 0; offset < chunk.capacity(); offset += Long.BYTES) {
+            hash = (hash + chunk.getLong(offset)) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static boolean isZero(final ByteBuffer chunk) {
+        for (int offset = 0; offset < chunk.capacity(); offset += Long.BYTES) {
+            if (chunk.getLong(offset) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class ScanState {
+        public final long[] hashes;
+        public final boolean[] isHashed;
+        public int cursor;
+
+        public ScanState(final int chunkCount) {
+            hashes = new long[chunkCount];
+            isHashed = new boolean[chunkCount];
+        }
+    }
+
+    // Weakly referenced, so chunks get collected once no memory uses them anymore.
+    private static final class SharedChunk extends WeakReference<ByteBuffer> {
+        public final long hash;
+
+        public SharedChunk(final long hash, final ByteBuffer chunk, final ReferenceQueue<ByteBuffer> queue) {
+            super(chunk, queue);
+            this.hash = hash;
+        }
+    }
+}
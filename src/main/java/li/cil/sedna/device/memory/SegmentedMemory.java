@@ -0,0 +1,136 @@
+package li.cil.sedna.device.memory;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * Physical memory larger than 2GiB, composed of 1GiB segments.
+ * <p>
+ * The {@code int} offset based accessors only reach the first 2GiB of this memory. Use the
+ * {@code long} offset based accessors of {@link PhysicalMemory}, or access the segments directly,
+ * to reach the rest.
+ */
+public final class SegmentedMemory extends PhysicalMemory {
+    public static final int SEGMENT_SIZE_LOG2 = 30;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_SIZE_LOG2;
+
+    private final long size;
+    private final PhysicalMemory[] segments;
+
+    public SegmentedMemory(final long size) {
+        this(size, Memory::create);
+    }
+
+    /**
+     * Creates a new memory of the specified size using the specified factory to create segments.
+     *
+     * @param size           the size of the memory, in bytes.
+     * @param segmentFactory creates a segment of the specified size.
+     */
+    public SegmentedMemory(final long size, final IntFunction<PhysicalMemory> segmentFactory) {
+        if (size <= 0 || (size & 0b11) != 0)
+            throw new IllegalArgumentException("size must be a positive multiple of four");
+
+        this.size = size;
+        this.segments = new PhysicalMemory[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SIZE_LOG2)];
+        for (int i = 0; i < segments.length; i++) {
+            final long segmentSize = Math.min(SEGMENT_SIZE, size - ((long) i << SEGMENT_SIZE_LOG2));
+            segments[i] = segmentFactory.apply((int) segmentSize);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (final PhysicalMemory segment : segments) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public int getLength() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getLongLength() {
+        return size;
+    }
+
+    @Override
+    public PhysicalMemory getSegment(final long offset) {
+        final long index = offset >>> SEGMENT_SIZE_LOG2;
+        return segments[index < segments.length ? (int) index : segments.length - 1];
+    }
+
+    @Override
+    public long getSegmentOffset(final long offset) {
+        final long index = offset >>> SEGMENT_SIZE_LOG2;
+        return (index < segments.length ? index : segments.length - 1) << SEGMENT_SIZE_LOG2;
+    }
+
+    @Override
+    public long load(final int offset, final int sizeLog2) throws MemoryAccessException {
+        return load((long) offset, sizeLog2);
+    }
+
+    @Override
+    public void store(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        store((long) offset, value, sizeLog2);
+    }
+
+    @Override
+    public long load(final long offset, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > size - (1 << sizeLog2)) {
+            throw new MemoryAccessException();
+        }
+        if ((offset >>> SEGMENT_SIZE_LOG2) != ((offset + (1 << sizeLog2) - 1) >>> SEGMENT_SIZE_LOG2)) {
+            return loadSplit(offset, sizeLog2);
+        }
+        return super.load(offset, sizeLog2);
+    }
+
+    @Override
+    public void store(final long offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > size - (1 << sizeLog2)) {
+            throw new MemoryAccessException();
+        }
+        if ((offset >>> SEGMENT_SIZE_LOG2) != ((offset + (1 << sizeLog2) - 1) >>> SEGMENT_SIZE_LOG2)) {
+            storeSplit(offset, value, sizeLog2);
+            return;
+        }
+        super.store(offset, value, sizeLog2);
+    }
+
+    @Override
+    public void load(final int offset, final ByteBuffer dst) throws MemoryAccessException {
+        load((long) offset, dst);
+    }
+
+    @Override
+    public void store(final int offset, final ByteBuffer src) throws MemoryAccessException {
+        store((long) offset, src);
+    }
+
+    // Accesses straddling two segments, only possible when not naturally aligned.
+    private long loadSplit(final long offset, final int sizeLog2) throws MemoryAccessException {
+        long value = 0;
+        for (int i = 0; i < (1 << sizeLog2); i++) {
+            value |= (load(offset + i, Sizes.SIZE_8_LOG2) & 0xFF) << (i * 8);
+        }
+        return switch (sizeLog2) {
+            case Sizes.SIZE_16_LOG2 -> (short) value;
+            case Sizes.SIZE_32_LOG2 -> (int) value;
+            default -> value;
+        };
+    }
+
+    private void storeSplit(final long offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        for (int i = 0; i < (1 << sizeLog2); i++) {
+            store(offset + i, value >>> (i * 8), Sizes.SIZE_8_LOG2);
+        }
+    }
+}
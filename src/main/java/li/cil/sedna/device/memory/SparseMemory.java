@@ -0,0 +1,337 @@
+package li.cil.sedna.device.memory;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.utils.DirectByteBufferUtils;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Physical memory that only allocates host memory for chunks that have been written to.
+ * <p>
+ * Reading from a chunk that was never written to yields zeroes. This allows configuring large
+ * amounts of memory of which guests only end up using a fraction, without committing host memory
+ * for all of it up front.
+ * <p>
+ * Chunks may be shared with other memories by a {@link PageDeduplicator}. Shared chunks are copied
+ * on the first write to them. Chunks a view was returned for are pinned: they are never shared, and
+ * are zeroed instead of released when discarded or cleared, so that views stay valid.
+ * <p>
+ * Like the other memory implementations, this is not safe for concurrent writes from multiple threads.
+ */
+public final class SparseMemory extends PhysicalMemory {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+    private final int size;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final ByteBuffer[] chunks;
+    private final boolean[] isShared;
+    private final boolean[] isPinned;
+    private int residentChunkCount, sharedChunkCount;
+
+    public SparseMemory(final int size) {
+        this(size, DEFAULT_CHUNK_SIZE);
+    }
+
+    public SparseMemory(final int size, final int chunkSize) {
+        if ((size & 0b11) != 0)
+            throw new IllegalArgumentException("size must be a multiple of four");
+        if (chunkSize < MIN_CHUNK_SIZE || Integer.bitCount(chunkSize) != 1)
+            throw new IllegalArgumentException(String.format("Chunk size must be a power of two of at least [%d].", MIN_CHUNK_SIZE));
+
+        this.size = size;
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkMask = chunkSize - 1;
+        this.chunks = new ByteBuffer[(int) ((Integer.toUnsignedLong(size) + chunkMask) >>> chunkShift)];
+        this.isShared = new boolean[chunks.length];
+        this.isPinned = new boolean[chunks.length];
+    }
+
+    /**
+     * The size of the chunks memory is allocated in, in bytes.
+     *
+     * @return the chunk size.
+     */
+    public int getChunkSize() {
+        return chunkMask + 1;
+    }
+
+    /**
+     * The amount of host memory currently allocated for this memory, in bytes.
+     * <p>
+     * This does not include chunks shared with other memories, see {@link #getSharedSize()}.
+     *
+     * @return the resident size.
+     */
+    public long getResidentSize() {
+        return (long) residentChunkCount << chunkShift;
+    }
+
+    /**
+     * The amount of memory in chunks this memory shares with other memories, in bytes.
+     *
+     * @return the shared size.
+     */
+    public long getSharedSize() {
+        return (long) sharedChunkCount << chunkShift;
+    }
+
+    /**
+     * Releases all allocated chunks, resetting the contents of this memory to all zeroes.
+     */
+    public void clear() {
+        for (int i = 0; i < chunks.length; i++) {
+            releaseChunk(i);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        // Views may still reference pinned chunks, so leave them to the garbage collector.
+        for (int i = 0; i < chunks.length; i++) {
+            if (isPinned[i]) {
+                chunks[i] = null;
+                isPinned[i] = false;
+                residentChunkCount--;
+            }
+        }
+        clear();
+    }
+
+    @Override
+    public int getLength() {
+        return size;
+    }
+
+    @Override
+    public long load(final int offset, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > getLength() - (1 << sizeLog2)) {
+            throw new MemoryAccessException();
+        }
+        if ((offset & chunkMask) > chunkMask + 1 - (1 << sizeLog2)) {
+            return loadSplit(offset, sizeLog2);
+        }
+
+        final ByteBuffer chunk = chunks[offset >>> chunkShift];
+        if (chunk == null) {
+            return 0;
+        }
+
+        final int chunkOffset = offset & chunkMask;
+        return switch (sizeLog2) {
+            case Sizes.SIZE_8_LOG2 -> chunk.get(chunkOffset);
+            case Sizes.SIZE_16_LOG2 -> chunk.getShort(chunkOffset);
+            case Sizes.SIZE_32_LOG2 -> chunk.getInt(chunkOffset);
+            case Sizes.SIZE_64_LOG2 -> chunk.getLong(chunkOffset);
+            default -> throw new IllegalArgumentException();
+        };
+    }
+
+    @Override
+    public void store(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > getLength() - (1 << sizeLog2)) {
+            throw new MemoryAccessException();
+        }
+        if ((offset & chunkMask) > chunkMask + 1 - (1 << sizeLog2)) {
+            storeSplit(offset, value, sizeLog2);
+            return;
+        }
+
+        final ByteBuffer chunk = getWritableChunk(offset >>> chunkShift);
+        final int chunkOffset = offset & chunkMask;
+        switch (sizeLog2) {
+            case Sizes.SIZE_8_LOG2 -> chunk.put(chunkOffset, (byte) value);
+            case Sizes.SIZE_16_LOG2 -> chunk.putShort(chunkOffset, (short) value);
+            case Sizes.SIZE_32_LOG2 -> chunk.putInt(chunkOffset, (int) value);
+            case Sizes.SIZE_64_LOG2 -> chunk.putLong(chunkOffset, value);
+            default -> throw new IllegalArgumentException();
+        }
+    }
+
+    @Override
+    public void load(int offset, final ByteBuffer dst) throws MemoryAccessException {
+        if (offset < 0 || offset > getLength() - dst.remaining()) {
+            throw new MemoryAccessException();
+        }
+        while (dst.hasRemaining()) {
+            final int chunkOffset = offset & chunkMask;
+            final int length = Math.min(dst.remaining(), chunkMask + 1 - chunkOffset);
+            final ByteBuffer chunk = chunks[offset >>> chunkShift];
+            if (chunk != null) {
+                dst.put(chunk.slice(chunkOffset, length));
+            } else {
+                fillZero(dst, length);
+            }
+            offset += length;
+        }
+    }
+
+    @Override
+    public void store(int offset, final ByteBuffer src) throws MemoryAccessException {
+        if (offset < 0 || offset > getLength() - src.remaining()) {
+            throw new MemoryAccessException();
+        }
+        while (src.hasRemaining()) {
+            final int chunkOffset = offset & chunkMask;
+            final int length = Math.min(src.remaining(), chunkMask + 1 - chunkOffset);
+            final ByteBuffer chunk = getWritableChunk(offset >>> chunkShift);
+            chunk.put(chunkOffset, src, src.position(), length);
+            src.position(src.position() + length);
+            offset += length;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Views are only supported for regions inside a single chunk. Getting a view allocates the
+     * chunk, or copies it if it is shared, since the view may be written to. The chunk is pinned
+     * from then on, i.e. it is never shared with other memories and never released before
+     * this memory is closed.
+     */
+    @Nullable
+    @Override
+    public ByteBuffer getView(final int offset, final int length) throws MemoryAccessException {
+        if (offset < 0 || length < 0 || offset > getLength() - length) {
+            throw new MemoryAccessException();
+        }
+        final int chunkOffset = offset & chunkMask;
+        if (chunkOffset + length > chunkMask + 1) {
+            return null;
+        }
+        final int index = offset >>> chunkShift;
+        final ByteBuffer chunk = getWritableChunk(index);
+        isPinned[index] = true;
+        return chunk.slice(chunkOffset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Releases all chunks completely covered by the region, so they read as zero afterwards. Pinned
+     * chunks are zeroed instead.
+     */
+    @Override
+    public void discard(final long offset, final long length) throws MemoryAccessException {
+        if (offset < 0 || length < 0 || offset > getLength() - length) {
+            throw new MemoryAccessException();
+        }
+        final long first = (offset + chunkMask) >>> chunkShift;
+        final long last = (offset + length) >>> chunkShift;
+        for (long i = first; i < last; i++) {
+            releaseChunk((int) i);
+        }
+    }
+
+    // Accesses straddling two chunks, only possible when not naturally aligned.
+    private long loadSplit(final int offset, final int sizeLog2) throws MemoryAccessException {
+        long value = 0;
+        for (int i = 0; i < (1 << sizeLog2); i++) {
+            value |= (load(offset + i, Sizes.SIZE_8_LOG2) & 0xFF) << (i * 8);
+        }
+        return switch (sizeLog2) {
+            case Sizes.SIZE_16_LOG2 -> (short) value;
+            case Sizes.SIZE_32_LOG2 -> (int) value;
+            default -> value;
+        };
+    }
+
+    private void storeSplit(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        for (int i = 0; i < (1 << sizeLog2); i++) {
+            store(offset + i, value >>> (i * 8), Sizes.SIZE_8_LOG2);
+        }
+    }
+
+    private static void fillZero(final ByteBuffer dst, final int length) {
+        final byte[] zeroes = new byte[Math.min(length, 4 * 1024)];
+        for (int remaining = length; remaining > 0; remaining -= zeroes.length) {
+            dst.put(zeroes, 0, Math.min(remaining, zeroes.length));
+        }
+    }
+
+    int getChunkCount() {
+        return chunks.length;
+    }
+
+    @Nullable
+    ByteBuffer getChunk(final int index) {
+        return chunks[index];
+    }
+
+    boolean isChunkShared(final int index) {
+        return isShared[index];
+    }
+
+    boolean isChunkPinned(final int index) {
+        return isPinned[index];
+    }
+
+    /**
+     * Replaces a chunk with a shared one with the same contents, or drops it if it only holds zeroes.
+     */
+    void shareChunk(final int index, @Nullable final ByteBuffer sharedChunk) {
+        if (isPinned[index]) {
+            return;
+        }
+
+        if (sharedChunk != null && sharedChunk == chunks[index]) {
+            // Our own chunk becomes the shared one, so it must not be released.
+            if (!isShared[index]) {
+                isShared[index] = true;
+                residentChunkCount--;
+                sharedChunkCount++;
+            }
+            return;
+        }
+
+        releaseChunk(index);
+        if (sharedChunk != null) {
+            chunks[index] = sharedChunk;
+            isShared[index] = true;
+            sharedChunkCount++;
+        }
+    }
+
+    private ByteBuffer getWritableChunk(final int index) {
+        ByteBuffer chunk = chunks[index];
+        if (chunk == null || isShared[index]) {
+            // Direct buffers are zero-initialized, which is exactly what reads returned so far.
+            final ByteBuffer sharedChunk = chunk;
+            chunk = ByteBuffer.allocateDirect(chunkMask + 1).order(ByteOrder.LITTLE_ENDIAN);
+            if (sharedChunk != null) {
+                chunk.put(0, sharedChunk, 0, chunkMask + 1);
+                isShared[index] = false;
+                sharedChunkCount--;
+            }
+            chunks[index] = chunk;
+            residentChunkCount++;
+        }
+        return chunk;
+    }
+
+    private void releaseChunk(final int index) {
+        final ByteBuffer chunk = chunks[index];
+        if (chunk != null && isPinned[index]) {
+            // Views of the chunk may still be in use, writes through them must remain visible.
+            for (int offset = 0; offset <= chunkMask; offset += Long.BYTES) {
+                chunk.putLong(offset, 0);
+            }
+        } else if (chunk != null) {
+            chunks[index] = null;
+            if (isShared[index]) {
+                // Still used by other memories, it'll get collected once none use it anymore.
+                isShared[index] = false;
+                sharedChunkCount--;
+            } else {
+                residentChunkCount--;
+                DirectByteBufferUtils.release(chunk);
+            }
+        }
+    }
+}
@@ -3,45 +3,76 @@ package li.cil.sedna.device.memory;
 import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.PhysicalMemory;
 import li.cil.sedna.api.memory.MemoryAccessException;
-import li.cil.sedna.utils.DirectByteBufferUtils;
 import li.cil.sedna.utils.UnsafeGetter;
 import sun.misc.Unsafe;
 
-import java.lang.reflect.Field;
-import java.nio.Buffer;
+import javax.annotation.Nullable;
+import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 // Tends to be around 10% faster than ByteBufferMemory during regular emulation.
+// Memory is allocated natively and owned by the instance, and freed when it is closed, or, if it
+// never is, when the instance is garbage collected. Memories larger than 2GiB are accessed through
+// segments, which are views into the same allocation.
 public final class UnsafeMemory extends PhysicalMemory {
     private static final Unsafe UNSAFE = UnsafeGetter.get();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final int SEGMENT_SIZE_LOG2 = 30;
+
+    // Intermediate array used for copying from and to buffers without an accessible array.
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[COPY_BUFFER_SIZE]);
 
     public static PhysicalMemory create(final int size) {
+        return create((long) size);
+    }
+
+    public static PhysicalMemory create(final long size) {
         if ((size & 0b11) != 0)
             throw new IllegalArgumentException("size must be a multiple of four");
 
-        // Extra padding after original size, so we don't have to do size specific
-        // bounds checks -- if trying to read something out of bounds it'll just
-        // result in bogus, but that's fine.
-        final ByteBuffer buffer = ByteBuffer.allocateDirect(size + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
-        try {
-            final Field addressField = Buffer.class.getDeclaredField("address");
-            final long addressFieldOffset = UNSAFE.objectFieldOffset(addressField);
-            final long address = UNSAFE.getLong(buffer, addressFieldOffset);
-            return new UnsafeMemory(buffer, address, size);
-        } catch (final Throwable e) {
-            return new ByteBufferMemory(size, buffer);
+        if (UNSAFE == null) {
+            if (size > Integer.MAX_VALUE) {
+                return new SegmentedMemory(size, ByteBufferMemory::new);
+            } else {
+                return new ByteBufferMemory((int) size);
+            }
         }
+
+        final long address = UNSAFE.allocateMemory(size);
+        UNSAFE.setMemory(address, size, (byte) 0);
+        return new UnsafeMemory(address, size);
     }
 
-    private final ByteBuffer buffer;
     private final long address;
     private long size;
+    @Nullable private final Cleaner.Cleanable allocation; // Only set for the instance owning the memory.
+    @Nullable private final UnsafeMemory[] segments; // Only set for memories larger than 2GiB.
+    @Nullable private final UnsafeMemory owner; // Only set for segments, keeps the allocation alive.
 
-    private UnsafeMemory(final ByteBuffer buffer, final long address, final int size) {
-        this.buffer = buffer;
+    private UnsafeMemory(final long address, final long size) {
         this.address = address;
         this.size = size;
+        this.allocation = CLEANER.register(this, new Deallocator(address));
+        this.owner = null;
+        if (size > Integer.MAX_VALUE) {
+            this.segments = new UnsafeMemory[(int) ((size + (1L << SEGMENT_SIZE_LOG2) - 1) >>> SEGMENT_SIZE_LOG2)];
+            for (int i = 0; i < segments.length; i++) {
+                final long offset = (long) i << SEGMENT_SIZE_LOG2;
+                segments[i] = new UnsafeMemory(address + offset, Math.min(1L << SEGMENT_SIZE_LOG2, size - offset), this);
+            }
+        } else {
+            this.segments = null;
+        }
+    }
+
+    private UnsafeMemory(final long address, final long size, final UnsafeMemory owner) {
+        this.address = address;
+        this.size = size;
+        this.allocation = null;
+        this.segments = null;
+        this.owner = owner;
     }
 
     @Override
@@ -50,18 +81,58 @@ public final class UnsafeMemory extends PhysicalMemory {
     }
 
     public void dispose() {
+        if (allocation == null) {
+            return; // Segments are released with the memory they belong to.
+        }
+
         size = 0;
-        DirectByteBufferUtils.release(buffer);
+        if (segments != null) {
+            for (final UnsafeMemory segment : segments) {
+                segment.size = 0;
+            }
+        }
+        allocation.clean();
     }
 
     @Override
     public int getLength() {
-        return (int) size;
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getLongLength() {
+        return size;
+    }
+
+    @Override
+    public PhysicalMemory getSegment(final long offset) {
+        if (segments == null) {
+            return this;
+        }
+        return segments[(int) Math.min(offset >>> SEGMENT_SIZE_LOG2, segments.length - 1)];
+    }
+
+    @Override
+    public long getSegmentOffset(final long offset) {
+        if (segments == null) {
+            return 0;
+        }
+        return Math.min(offset >>> SEGMENT_SIZE_LOG2, segments.length - 1) << SEGMENT_SIZE_LOG2;
     }
 
     @Override
     public long load(final int offset, final int sizeLog2) throws MemoryAccessException {
-        if (offset < 0 || offset > getLength() - (1 << sizeLog2)) {
+        return load((long) offset, sizeLog2);
+    }
+
+    @Override
+    public void store(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        store((long) offset, value, sizeLog2);
+    }
+
+    @Override
+    public long load(final long offset, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > size - (1 << sizeLog2)) {
             throw new MemoryAccessException();
         }
         return switch (sizeLog2) {
@@ -74,8 +145,8 @@ public final class UnsafeMemory extends PhysicalMemory {
     }
 
     @Override
-    public void store(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
-        if (offset < 0 || offset > getLength() - (1 << sizeLog2)) {
+    public void store(final long offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        if (offset < 0 || offset > size - (1 << sizeLog2)) {
             throw new MemoryAccessException();
         }
         switch (sizeLog2) {
@@ -88,22 +159,81 @@ public final class UnsafeMemory extends PhysicalMemory {
     }
 
     @Override
-    public void load(int offset, final ByteBuffer dst) throws MemoryAccessException {
-        if (offset < 0 || offset > getLength() - dst.remaining()) {
+    public void load(final int offset, final ByteBuffer dst) throws MemoryAccessException {
+        load((long) offset, dst);
+    }
+
+    @Override
+    public void store(final int offset, final ByteBuffer src) throws MemoryAccessException {
+        store((long) offset, src);
+    }
+
+    @Override
+    public void load(long offset, final ByteBuffer dst) throws MemoryAccessException {
+        if (offset < 0 || offset > size - dst.remaining()) {
             throw new MemoryAccessException();
         }
-        while (dst.hasRemaining()) {
-            dst.put(UNSAFE.getByte(address + offset++));
+
+        if (dst.hasArray()) {
+            final int length = dst.remaining();
+            UNSAFE.copyMemory(null, address + offset, dst.array(), arrayAddress(dst), length);
+            dst.position(dst.position() + length);
+        } else {
+            // We have no access to the address of direct buffers, so copy via an array instead.
+            final byte[] buffer = COPY_BUFFER.get();
+            while (dst.hasRemaining()) {
+                final int length = Math.min(dst.remaining(), buffer.length);
+                UNSAFE.copyMemory(null, address + offset, buffer, Unsafe.ARRAY_BYTE_BASE_OFFSET, length);
+                dst.put(buffer, 0, length);
+                offset += length;
+            }
+        }
+    }
+
+    @Override
+    public void store(long offset, final ByteBuffer src) throws MemoryAccessException {
+        if (offset < 0 || offset > size - src.remaining()) {
+            throw new MemoryAccessException();
+        }
+
+        if (src.hasArray()) {
+            final int length = src.remaining();
+            UNSAFE.copyMemory(src.array(), arrayAddress(src), null, address + offset, length);
+            src.position(src.position() + length);
+        } else {
+            final byte[] buffer = COPY_BUFFER.get();
+            while (src.hasRemaining()) {
+                final int length = Math.min(src.remaining(), buffer.length);
+                src.get(buffer, 0, length);
+                UNSAFE.copyMemory(buffer, Unsafe.ARRAY_BYTE_BASE_OFFSET, null, address + offset, length);
+                offset += length;
+            }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The native allocation cannot be released in parts, so this zeroes the region instead. This does
+     * not return memory to the host, but lets snapshots and migration skip the discarded pages.
+     */
     @Override
-    public void store(int offset, final ByteBuffer src) throws MemoryAccessException {
-        if (offset < 0 || offset > getLength() - src.remaining()) {
+    public void discard(final long offset, final long length) throws MemoryAccessException {
+        if (offset < 0 || length < 0 || offset > size - length) {
             throw new MemoryAccessException();
         }
-        while (src.hasRemaining()) {
-            UNSAFE.putByte(address + offset++, src.get());
+        UNSAFE.setMemory(address + offset, length, (byte) 0);
+    }
+
+    private static long arrayAddress(final ByteBuffer buffer) {
+        return Unsafe.ARRAY_BYTE_BASE_OFFSET + buffer.arrayOffset() + buffer.position();
+    }
+
+    // Must not reference the memory, or it would never become unreachable.
+    private record Deallocator(long address) implements Runnable {
+        @Override
+        public void run() {
+            UNSAFE.freeMemory(address);
         }
     }
 }
@@ -18,6 +18,11 @@ import static java.util.Collections.singleton;
  * This is not a cycle-correct implementation. It does not care about baudrates and
  * timeout delays. But it's good enough to pump data into and out of a virtual machine.
  * <p>
+ * The host side, i.e. {@link #read()}, {@link #putByte(byte)} and {@link #putBreak()}, may be called from
+ * any thread. These raise or lower the UART's interrupt right away, on the calling thread, so input wakes
+ * a board waiting for an interrupt without it having to be stepped first. Register accesses by the guest
+ * happen on the thread stepping the board.
+ * <p>
  * See: https://web.archive.org/web/20200207194832/https://www.lammertbies.nl/comm/info/serial-uart
  */
 @SuppressWarnings("PointlessBitwiseExpression")
@@ -128,6 +133,8 @@ public final class UART16550A implements Resettable, Steppable, MemoryMappedDevi
     private final ByteArrayFIFOQueue receiveFifo = new ByteArrayFIFOQueue(FIFO_QUEUE_CAPACITY);
     private final ByteArrayFIFOQueue transmitFifo = new ByteArrayFIFOQueue(FIFO_QUEUE_CAPACITY);
 
+    // Interrupts used to be updated in step(). This is only still set when loading state saved
+    // back then, and kept so that such state still loads.
     private boolean interruptUpdatePending;
     private boolean transmitInterruptPending;
     private boolean timeoutInterruptPending;
@@ -163,7 +170,7 @@ public final class UART16550A implements Resettable, Steppable, MemoryMappedDevi
 
             if ((lsr & UART_LSR_THRE) != 0 && !transmitInterruptPending) {
                 transmitInterruptPending = true;
-                interruptUpdatePending = true;
+                updateInterrupts();
             }
 
             return value;
@@ -194,7 +201,7 @@ public final class UART16550A implements Resettable, Steppable, MemoryMappedDevi
             lsr |= UART_LSR_DR;
 
             timeoutInterruptPending = true; // Not correct, but good enough.
-            interruptUpdatePending = true;
+            updateInterrupts();
         }
     }
 
@@ -204,6 +211,7 @@ public final class UART16550A implements Resettable, Steppable, MemoryMappedDevi
             // QEMU says: when the LSR_DR is set a null byte is pushed into the fifo.
             putByte((byte) 0);
             lsr |= UART_LSR_BI | UART_LSR_DR;
+            updateInterrupts();
         }
     }
 
@@ -235,7 +243,10 @@ public final class UART16550A implements Resettable, Steppable, MemoryMappedDevi
     @Override
     public void step(final int cycles) {
         if (interruptUpdatePending) {
-            updateInterrupts();
+            synchronized (lock) {
+                interruptUpdatePending = false;
+                updateInterrupts();
+            }
         }
     }
 
@@ -357,6 +357,15 @@ public abstract class AbstractVirtIODevice implements MemoryMappedDevice, Interr
         return status;
     }
 
+    /**
+     * Get the memory map this device reads descriptors and buffers from.
+     *
+     * @return the memory map of this device.
+     */
+    protected final MemoryMap getMemoryMap() {
+        return memoryMap;
+    }
+
     /**
      * Gets the set of features negotiated with a driver.
      * <p>
@@ -1098,6 +1107,22 @@ public abstract class AbstractVirtIODevice implements MemoryMappedDevice, Interr
                 return writableByteCount - writtenByteCount;
             }
 
+            @Override
+            public long address() {
+                if (isUsed) {
+                    throw new IllegalStateException();
+                }
+                return address + position;
+            }
+
+            @Override
+            public int contiguousBytes() {
+                if (isUsed) {
+                    throw new IllegalStateException();
+                }
+                return Math.min(length - position, readableBytes() + writableBytes());
+            }
+
             @Override
             public void skip(int count) throws VirtIODeviceException, MemoryAccessException {
                 if (isUsed) {
@@ -1113,10 +1138,10 @@ public abstract class AbstractVirtIODevice implements MemoryMappedDevice, Interr
                     final int skip = Math.min(count, remaining);
                     count -= skip;
                     if (readableBytes() > 0) {
-                        assert readableBytes() <= skip;
+                        assert skip <= readableBytes();
                         readByteCount += skip;
                     } else {
-                        assert writableBytes() <= skip;
+                        assert skip <= writableBytes();
                         writtenByteCount += skip;
                     }
                     position += skip;
@@ -65,6 +65,28 @@ public interface DescriptorChain {
      */
     int writableBytes();
 
+    /**
+     * The guest physical address of the next byte that will be read from or written to this descriptor chain.
+     * <p>
+     * This is useful for devices operating on the memory referenced by descriptors itself, rather than
+     * on its contents. Use {@link #contiguousBytes()} to get the length of the memory region starting at
+     * this address, and {@link #skip(int)} to advance past it.
+     *
+     * @return the physical address of the current position in the descriptor chain.
+     * @throws IllegalStateException when called after {@link #use()} has been called.
+     */
+    long address();
+
+    /**
+     * The number of bytes remaining in the descriptor the current position in this descriptor chain is in.
+     * <p>
+     * This is the length of the contiguous memory region starting at {@link #address()}.
+     *
+     * @return the number of remaining bytes in the current descriptor.
+     * @throws IllegalStateException when called after {@link #use()} has been called.
+     */
+    int contiguousBytes();
+
     /**
      * Skips the specified number of bytes in this descriptor chain.
      * <p>
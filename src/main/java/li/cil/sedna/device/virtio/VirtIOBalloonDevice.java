@@ -0,0 +1,310 @@
+package li.cil.sedna.device.virtio;
+
+import li.cil.ceres.api.Serialized;
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.memory.MemoryMaps;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memory balloon, allowing the host to reclaim memory the guest does not use.
+ * <p>
+ * The host sets a target size using {@link #setTargetSize(long)}, and the driver inflates or
+ * deflates the balloon to match it. Pages put into the balloon are discarded in the backing
+ * memory, see {@link li.cil.sedna.api.device.PhysicalMemory#discard(long, long)}. With free page
+ * reporting, the driver also reports free memory outside the balloon, which gets discarded the
+ * same way. This way, memory implementations such as {@link li.cil.sedna.device.memory.SparseMemory}
+ * will release host memory as the guest's memory usage shrinks.
+ * <p>
+ * Whether host memory is actually released depends on the backing memory. The default memory created
+ * by {@link li.cil.sedna.device.memory.Memory#create(int)} is a single native allocation, which only
+ * zeroes discarded pages. They stay allocated, but snapshots and migration skip them. Memories that
+ * cannot do either, such as {@link li.cil.sedna.device.memory.ByteBufferMemory}, keep them as they are.
+ * Use a {@link li.cil.sedna.device.memory.SparseMemory} for host memory to follow the guest's usage.
+ * <p>
+ * Statistics reported by the driver can be polled using {@link #updateStatistics()}.
+ */
+@SuppressWarnings("PointlessBitwiseExpression")
+public final class VirtIOBalloonDevice extends AbstractVirtIODevice {
+    public static final int VIRTIO_BALLOON_S_SWAP_IN = 0; // Amount of memory swapped in, in bytes.
+    public static final int VIRTIO_BALLOON_S_SWAP_OUT = 1; // Amount of memory swapped out, in bytes.
+    public static final int VIRTIO_BALLOON_S_MAJFLT = 2; // Number of major faults.
+    public static final int VIRTIO_BALLOON_S_MINFLT = 3; // Number of minor faults.
+    public static final int VIRTIO_BALLOON_S_MEMFREE = 4; // Amount of unused memory, in bytes.
+    public static final int VIRTIO_BALLOON_S_MEMTOT = 5; // Total amount of memory, in bytes.
+    public static final int VIRTIO_BALLOON_S_AVAIL = 6; // Amount of available memory, in bytes.
+    public static final int VIRTIO_BALLOON_S_CACHES = 7; // Amount of memory used for disk caches, in bytes.
+    public static final int VIRTIO_BALLOON_S_HTLB_PGALLOC = 8; // Number of successful hugetlb page allocations.
+    public static final int VIRTIO_BALLOON_S_HTLB_PGFAIL = 9; // Number of failed hugetlb page allocations.
+
+    private static final int VIRTIO_BALLOON_S_COUNT = 10;
+
+    private static final long VIRTIO_BALLOON_F_MUST_TELL_HOST = 1L << 0; // Host has to be told before pages from the balloon are used.
+    private static final long VIRTIO_BALLOON_F_STATS_VQ = 1L << 1; // A virtqueue for reporting guest memory statistics is present.
+    private static final long VIRTIO_BALLOON_F_DEFLATE_ON_OOM = 1L << 2; // Deflate balloon on guest out of memory condition.
+    private static final long VIRTIO_BALLOON_F_FREE_PAGE_HINT = 1L << 3; // The device has support for free page hinting.
+    private static final long VIRTIO_BALLOON_F_PAGE_POISON = 1L << 4; // A hint to the device, that the driver will immediately write poison_val to pages after deflating them.
+    private static final long VIRTIO_BALLOON_F_REPORTING = 1L << 5; // The device has support for free page reporting.
+
+    private static final int VIRTIO_BALLOON_PFN_SHIFT = 12;
+    private static final int VIRTIO_BALLOON_STAT_SIZE = 10;
+
+    private static final int VIRTIO_BALLOON_CFG_NUM_PAGES_OFFSET = 0;
+    private static final int VIRTIO_BALLOON_CFG_ACTUAL_OFFSET = 4;
+
+    private static final int VIRTQ_INFLATE = 0;
+    private static final int VIRTQ_DEFLATE = 1;
+    private static final int VIRTQ_STATS = 2;
+
+    private static final int MAX_QUEUE_COUNT = 4;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(4 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Serialized private int targetPageCount;
+    @Serialized private final long[] statistics = new long[VIRTIO_BALLOON_S_COUNT];
+    @Serialized private long discardedPageCount;
+
+    public VirtIOBalloonDevice(final MemoryMap memoryMap) {
+        super(memoryMap, VirtIODeviceSpec
+            .builder(VirtIODeviceType.VIRTIO_DEVICE_ID_MEMORY_BALLOONING_TRADITIONAL)
+            .features(VIRTIO_BALLOON_F_STATS_VQ |
+                VIRTIO_BALLOON_F_DEFLATE_ON_OOM |
+                VIRTIO_BALLOON_F_REPORTING)
+            .queueCount(MAX_QUEUE_COUNT)
+            .configSpaceSize(8)
+            .build());
+        Arrays.fill(statistics, -1);
+    }
+
+    /**
+     * Sets the size the guest should inflate the balloon to.
+     * <p>
+     * The guest will try to give up this much memory, but there is no guarantee it will, or how
+     * quickly it will do so. Use {@link #getBalloonSize()} to check the current size of the balloon.
+     *
+     * @param value the target size of the balloon, in bytes.
+     */
+    public void setTargetSize(final long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative");
+        }
+        targetPageCount = (int) Math.min(value >>> VIRTIO_BALLOON_PFN_SHIFT, Integer.MAX_VALUE);
+        setConfigValue(VIRTIO_BALLOON_CFG_NUM_PAGES_OFFSET, targetPageCount);
+    }
+
+    /**
+     * The size the guest was asked to inflate the balloon to.
+     *
+     * @return the target size of the balloon, in bytes.
+     */
+    public long getTargetSize() {
+        return (long) targetPageCount << VIRTIO_BALLOON_PFN_SHIFT;
+    }
+
+    /**
+     * The size of the balloon as reported by the driver.
+     *
+     * @return the current size of the balloon, in bytes.
+     */
+    public long getBalloonSize() {
+        return Integer.toUnsignedLong(getConfiguration().getInt(VIRTIO_BALLOON_CFG_ACTUAL_OFFSET)) << VIRTIO_BALLOON_PFN_SHIFT;
+    }
+
+    /**
+     * The total amount of memory discarded due to the balloon inflating or free page reports.
+     * <p>
+     * Memory may be counted multiple times, if it was discarded, reused by the guest and then discarded again.
+     *
+     * @return the total amount of discarded memory, in bytes.
+     */
+    public long getDiscardedSize() {
+        return discardedPageCount << VIRTIO_BALLOON_PFN_SHIFT;
+    }
+
+    /**
+     * Reads the statistics last provided by the driver and requests new ones.
+     * <p>
+     * The driver provides new statistics asynchronously, so values read here are those provided
+     * in response to the previous call of this method.
+     * <p>
+     * This accesses the device's virtqueue and may raise its interrupt, so like the guest's register
+     * accesses, it must be called on the thread stepping the board, e.g. between two steps.
+     *
+     * @return {@code true} if statistics were updated; {@code false} if none were available.
+     */
+    public boolean updateStatistics() {
+        if ((getNegotiatedFeatures() & VIRTIO_BALLOON_F_STATS_VQ) == 0) {
+            return false;
+        }
+
+        try {
+            // The driver keeps at most one buffer in the statsq, holding the current statistics.
+            final DescriptorChain chain = validateReadOnlyDescriptorChain(VIRTQ_STATS, null);
+            if (chain == null) {
+                return false;
+            }
+
+            // struct virtio_balloon_stat {
+            //     le16 tag;
+            //     le64 val;
+            // } __attribute__((packed));
+            while (chain.readableBytes() >= VIRTIO_BALLOON_STAT_SIZE) {
+                buffer.clear().limit(VIRTIO_BALLOON_STAT_SIZE);
+                chain.get(buffer);
+                final int tag = buffer.getShort(0) & 0xFFFF;
+                // Ignore statistics we don't know about.
+                if (tag < statistics.length) {
+                    statistics[tag] = buffer.getLong(2);
+                }
+            }
+
+            // Returning the buffer is how the device requests new statistics.
+            chain.use();
+            return true;
+        } catch (final VirtIODeviceException | MemoryAccessException e) {
+            error();
+            return false;
+        }
+    }
+
+    /**
+     * Gets a statistic last reported by the driver.
+     *
+     * @param tag the statistic to get, e.g. {@link #VIRTIO_BALLOON_S_MEMFREE}.
+     * @return the value of the statistic; {@code -1} if it has not been reported.
+     */
+    public long getStatistic(final int tag) {
+        if (tag < 0 || tag >= statistics.length) {
+            return -1;
+        }
+        return statistics[tag];
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        Arrays.fill(statistics, -1);
+    }
+
+    @Override
+    protected void initializeConfig() {
+        // struct virtio_balloon_config {
+        //     le32 num_pages;
+        //     le32 actual;
+        // };
+        setConfigValue(VIRTIO_BALLOON_CFG_NUM_PAGES_OFFSET, targetPageCount);
+        setConfigValue(VIRTIO_BALLOON_CFG_ACTUAL_OFFSET, 0);
+    }
+
+    @Override
+    protected void storeConfig(final int offset, final long value, final int sizeLog2) {
+        // num_pages is read-only for the driver.
+        if (offset == VIRTIO_BALLOON_CFG_ACTUAL_OFFSET && sizeLog2 == Sizes.SIZE_32_LOG2) {
+            super.storeConfig(offset, value, sizeLog2);
+        }
+    }
+
+    @Override
+    protected void handleFeaturesNegotiated() {
+        if ((getNegotiatedFeatures() & VIRTIO_BALLOON_F_STATS_VQ) != 0) {
+            setQueueNotifications(VIRTQ_STATS, false);
+        }
+    }
+
+    @Override
+    protected void handleQueueNotification(final int queueIndex) throws VirtIODeviceException, MemoryAccessException {
+        if (queueIndex == VIRTQ_INFLATE) {
+            processInflateQueue();
+        } else if (queueIndex == VIRTQ_DEFLATE) {
+            processDeflateQueue();
+        } else if (queueIndex == getReportingQueueIndex()) {
+            processReportingQueue();
+        }
+    }
+
+    private int getReportingQueueIndex() {
+        // Queues of features not negotiated are skipped when numbering queues.
+        final long features = getNegotiatedFeatures();
+        if ((features & VIRTIO_BALLOON_F_REPORTING) == 0) {
+            return -1;
+        }
+        return VIRTQ_STATS + ((features & VIRTIO_BALLOON_F_STATS_VQ) != 0 ? 1 : 0);
+    }
+
+    private void processInflateQueue() throws VirtIODeviceException, MemoryAccessException {
+        DescriptorChain chain;
+        while ((chain = validateReadOnlyDescriptorChain(VIRTQ_INFLATE, null)) != null) {
+            // Chains are arrays of le32 page frame numbers. Discard runs of consecutive pages at
+            // once, since memories may only release memory in units larger than single pages.
+            long runStart = 0, runLength = 0;
+            while (chain.readableBytes() >= Integer.BYTES) {
+                buffer.clear().limit(Math.min(chain.readableBytes() & ~(Integer.BYTES - 1), buffer.capacity()));
+                chain.get(buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    final long pfn = Integer.toUnsignedLong(buffer.getInt());
+                    if (runLength > 0 && pfn == runStart + runLength) {
+                        runLength++;
+                    } else {
+                        discardPages(runStart, runLength);
+                        runStart = pfn;
+                        runLength = 1;
+                    }
+                }
+            }
+            discardPages(runStart, runLength);
+            chain.use();
+        }
+    }
+
+    private void processDeflateQueue() throws VirtIODeviceException, MemoryAccessException {
+        // Pages are reallocated by the memory when the guest writes to them again, so there is
+        // nothing to do here, other than handing back the buffers.
+        DescriptorChain chain;
+        while ((chain = validateReadOnlyDescriptorChain(VIRTQ_DEFLATE, null)) != null) {
+            chain.skip(chain.readableBytes());
+            chain.use();
+        }
+    }
+
+    private void processReportingQueue() throws VirtIODeviceException, MemoryAccessException {
+        final VirtqueueIterator queue = getQueueIterator(getReportingQueueIndex());
+        if (queue == null) {
+            return;
+        }
+
+        // Chains reference the free memory itself, its contents are irrelevant.
+        while (queue.hasNext()) {
+            final DescriptorChain chain = queue.next();
+            while (chain.readableBytes() + chain.writableBytes() > 0) {
+                final int length = chain.contiguousBytes();
+                if (length <= 0) {
+                    error();
+                    throw new VirtIODeviceException();
+                }
+                discard(chain.address(), length);
+                chain.skip(length);
+            }
+            chain.use();
+        }
+    }
+
+    private void discardPages(final long pfn, final long count) {
+        if (count > 0) {
+            discard(pfn << VIRTIO_BALLOON_PFN_SHIFT, count << VIRTIO_BALLOON_PFN_SHIFT);
+        }
+    }
+
+    private void discard(final long address, final long length) {
+        try {
+            MemoryMaps.discard(getMemoryMap(), address, length);
+            discardedPageCount += length >>> VIRTIO_BALLOON_PFN_SHIFT;
+        } catch (final MemoryAccessException ignored) {
+            // The driver reported memory we don't know about, nothing to release there.
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package li.cil.sedna.device.virtio;
 
+import jdk.jfr.EventType;
 import li.cil.ceres.api.Serialized;
 import li.cil.sedna.api.device.BlockDevice;
 import li.cil.sedna.api.device.Steppable;
+import li.cil.sedna.api.device.rtc.TimerDevice;
 import li.cil.sedna.api.memory.MemoryAccessException;
 import li.cil.sedna.api.memory.MemoryMap;
 import li.cil.sedna.device.block.NullBlockDevice;
+import li.cil.sedna.jfr.VirtIORequestEvent;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,8 +18,9 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ReadOnlyBufferException;
+import java.util.OptionalLong;
 
-public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Steppable, Closeable {
+public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Steppable, TimerDevice, Closeable {
     private static final int VIRTIO_BLK_SECTOR_SIZE = 512;
 
     /**
@@ -100,6 +105,8 @@ public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Ste
         ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN));
     private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[MAX_SEGMENT_SIZE * MAX_SEGMENT_COUNT]);
 
+    private static final EventType REQUEST_EVENT_TYPE = EventType.getEventType(VirtIORequestEvent.class);
+
     private BlockDevice block;
     private int remainingByteProcessingQuota;
     @Serialized private boolean hasPendingRequest;
@@ -150,9 +157,14 @@ public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Ste
         hasPendingRequest = false;
     }
 
+    @Override
+    public OptionalLong getNextDeadline() {
+        return hasPendingRequest ? OptionalLong.of(0) : OptionalLong.empty();
+    }
+
     @Override
     public void step(final int cycles) {
-        final int byteQuota = Math.max(1, cycles * maxBytesPerThousandCycles / 1000);
+        final int byteQuota = (int) Math.max(1, Math.min((long) cycles * maxBytesPerThousandCycles / 1000, Integer.MAX_VALUE));
         if (remainingByteProcessingQuota <= 0) {
             remainingByteProcessingQuota += byteQuota;
         } else {
@@ -254,6 +266,11 @@ public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Ste
 
         final int processedBytes = chain.readableBytes() + chain.writableBytes();
 
+        @Nullable final VirtIORequestEvent event = REQUEST_EVENT_TYPE.isEnabled() ? new VirtIORequestEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+
         // struct virtio_blk_req {
         //     le32 type;
         //     le32 reserved;
@@ -396,6 +413,13 @@ public final class VirtIOBlockDevice extends AbstractVirtIODevice implements Ste
 
         chain.use();
 
+        if (event != null && event.shouldCommit()) {
+            event.device = getClass();
+            event.type = type;
+            event.bytes = processedBytes;
+            event.commit();
+        }
+
         return processedBytes;
     }
 
@@ -1,11 +1,14 @@
 package li.cil.sedna.device.virtio;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import jdk.jfr.EventType;
 import li.cil.ceres.api.Serialized;
 import li.cil.sedna.api.device.Steppable;
+import li.cil.sedna.api.device.rtc.TimerDevice;
 import li.cil.sedna.api.memory.MemoryAccessException;
 import li.cil.sedna.api.memory.MemoryMap;
 import li.cil.sedna.fs.*;
+import li.cil.sedna.jfr.VirtIORequestEvent;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
@@ -21,6 +24,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.OptionalLong;
 
 /**
  * Plan 9 file protocol device.
@@ -36,7 +40,7 @@ import java.util.List;
  * </ul>
  */
 @SuppressWarnings("PointlessBitwiseExpression")
-public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implements Steppable {
+public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implements Steppable, TimerDevice {
     private static final int VIRTIO_9P_MAX_MESSAGE_SIZE = 8 * 1024;
     private static final String VIRTIO_9P_VERSION = "9P2000.L";
     private static final int BYTES_PER_THOUSAND_CYCLES = 32;
@@ -164,6 +168,8 @@ public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implement
 
     private static final int VIRTQ_REQUEST = 0;
 
+    private static final EventType REQUEST_EVENT_TYPE = EventType.getEventType(VirtIORequestEvent.class);
+
     private final String tag;
     private final FileSystem fileSystem;
     private int remainingByteProcessingQuota;
@@ -189,6 +195,11 @@ public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implement
         closeFilesAndClearFIDs();
     }
 
+    @Override
+    public OptionalLong getNextDeadline() {
+        return hasPendingRequest ? OptionalLong.of(0) : OptionalLong.empty();
+    }
+
     @Override
     public void step(final int cycles) {
         if (remainingByteProcessingQuota <= 0) {
@@ -246,6 +257,11 @@ public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implement
 
         final int processedBytes = chain.readableBytes() + chain.writableBytes();
 
+        @Nullable final VirtIORequestEvent event = REQUEST_EVENT_TYPE.isEnabled() ? new VirtIORequestEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+
         // struct p9_fcall {
         //     u32 size;
         //     u8 id;
@@ -367,6 +383,13 @@ public final class VirtIOFileSystemDevice extends AbstractVirtIODevice implement
 
         chain.use();
 
+        if (event != null && event.shouldCommit()) {
+            event.device = getClass();
+            event.type = id;
+            event.bytes = processedBytes;
+            event.commit();
+        }
+
         return processedBytes;
     }
 
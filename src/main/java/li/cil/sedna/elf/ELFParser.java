@@ -3,6 +3,7 @@ package li.cil.sedna.elf;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -36,21 +37,30 @@ public final class ELFParser {
             throw new IllegalArgumentException("name section is not of type SHT_STRTAB");
         }
 
-        final long nameListBase = nameSection.offset;
         for (final SectionHeader sectionHeader : elf.sectionHeaderTable) {
-            final long nameStart = nameListBase + sectionHeader.nameOffset;
-            elf.data.position((int) nameStart);
-            final StringBuilder sb = new StringBuilder();
-            char ch;
-            while ((ch = (char) elf.data.get()) != '\0') {
-                sb.append(ch);
-            }
-            sectionHeader.name = sb.toString();
+            sectionHeader.name = readString(elf, nameSection.offset + sectionHeader.nameOffset);
         }
 
         return elf;
     }
 
+    /**
+     * Reads the symbols in the {@code SHT_SYMTAB} and {@code SHT_DYNSYM} sections of a parsed ELF file.
+     * <p>
+     * Symbols are not needed to load a file, so they are only read when asked for.
+     *
+     * @param elf the ELF file to read the symbols of.
+     * @return the symbols of the file, empty if it has no symbol tables.
+     * @throws IllegalArgumentException if a symbol table is malformed.
+     */
+    public static List<Symbol> parseSymbolTable(final ELF elf) {
+        try {
+            return readSymbolTable(elf);
+        } catch (final IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IllegalArgumentException("symbol table out of bounds", e);
+        }
+    }
+
     private static byte read(final ELF elf) {
         return elf.data.get();
     }
@@ -95,6 +105,16 @@ public final class ELFParser {
         };
     }
 
+    private static String readString(final ELF elf, final long offset) {
+        elf.data.position((int) offset);
+        final StringBuilder sb = new StringBuilder();
+        char ch;
+        while ((ch = (char) elf.data.get()) != '\0') {
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
     private static void skip(final ELF elf, final long count) {
         for (int i = 0; i < count; i++) {
             read(elf);
@@ -343,4 +363,84 @@ public final class ELFParser {
 
         return result;
     }
+
+    private static List<Symbol> readSymbolTable(final ELF elf) {
+        final int minEntrySize = switch (elf.format) {
+            case x32 -> 0x10;
+            case x64 -> 0x18;
+        };
+
+        final ArrayList<Symbol> result = new ArrayList<>();
+
+        for (final SectionHeader symbolSection : elf.sectionHeaderTable) {
+            if (!symbolSection.is(SectionHeaderType.SHT_SYMTAB) && !symbolSection.is(SectionHeaderType.SHT_DYNSYM)) {
+                continue;
+            }
+
+            if (symbolSection.entrySize < minEntrySize) {
+                throw new IllegalArgumentException("invalid symbol table entry size");
+            }
+
+            if (symbolSection.offset < 0 || symbolSection.size < 0 || symbolSection.offset > elf.data.limit() - symbolSection.size) {
+                throw new IllegalArgumentException("symbol table out of bounds");
+            }
+
+            if (symbolSection.link >= elf.sectionHeaderTable.size() ||
+                !elf.sectionHeaderTable.get(symbolSection.link).is(SectionHeaderType.SHT_STRTAB)) {
+                throw new IllegalArgumentException("symbol table string section is not of type SHT_STRTAB");
+            }
+
+            final SectionHeader nameSection = elf.sectionHeaderTable.get(symbolSection.link);
+            final long entryCount = symbolSection.size / symbolSection.entrySize;
+            for (long i = 0; i < entryCount; i++) {
+                elf.data.position((int) (symbolSection.offset + i * symbolSection.entrySize));
+
+                final Symbol symbol = new Symbol(elf);
+
+                // st_name
+                symbol.nameOffset = read32(elf);
+
+                switch (elf.format) {
+                    case x32 -> {
+                        // st_value
+                        symbol.value = read32l(elf);
+
+                        // st_size
+                        symbol.size = read32l(elf);
+
+                        // st_info
+                        symbol.info = readi(elf);
+
+                        // st_other
+                        symbol.other = readi(elf);
+
+                        // st_shndx
+                        symbol.sectionIndex = read16i(elf);
+                    }
+                    case x64 -> {
+                        // st_info
+                        symbol.info = readi(elf);
+
+                        // st_other
+                        symbol.other = readi(elf);
+
+                        // st_shndx
+                        symbol.sectionIndex = read16i(elf);
+
+                        // st_value
+                        symbol.value = read64(elf);
+
+                        // st_size
+                        symbol.size = read64(elf);
+                    }
+                }
+
+                symbol.name = readString(elf, nameSection.offset + symbol.nameOffset);
+
+                result.add(symbol);
+            }
+        }
+
+        return result;
+    }
 }
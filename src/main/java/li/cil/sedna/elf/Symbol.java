@@ -0,0 +1,50 @@
+package li.cil.sedna.elf;
+
+import javax.annotation.Nullable;
+
+public final class Symbol {
+    public final ELF elf;
+
+    public String name;
+    public int nameOffset;
+    public int info;
+    public int other;
+    public int sectionIndex;
+
+    public long value;
+    public long size;
+
+    Symbol(final ELF elf) {
+        this.elf = elf;
+    }
+
+    public int getBinding() {
+        return info >>> 4;
+    }
+
+    public boolean is(final SymbolType type) {
+        return (info & 0xF) == type.value;
+    }
+
+    @Nullable
+    public SymbolType getType() {
+        for (final SymbolType type : SymbolType.values()) {
+            if (is(type)) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        final SymbolType type = getType();
+        return "Symbol{" +
+            "name=" + (name != null ? name : nameOffset) +
+            ", type=" + (type != null ? type : ("0x" + Integer.toHexString(info & 0xF))) +
+            ", value=0x" + Long.toHexString(value) +
+            ", size=0x" + Long.toHexString(size) +
+            '}';
+    }
+}
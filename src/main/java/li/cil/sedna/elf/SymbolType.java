@@ -0,0 +1,18 @@
+package li.cil.sedna.elf;
+
+public enum SymbolType {
+    STT_NOTYPE(0x0),
+    STT_OBJECT(0x1),
+    STT_FUNC(0x2),
+    STT_SECTION(0x3),
+    STT_FILE(0x4),
+    STT_COMMON(0x5),
+    STT_TLS(0x6),
+    ;
+
+    public final int value;
+
+    SymbolType(final int value) {
+        this.value = value;
+    }
+}
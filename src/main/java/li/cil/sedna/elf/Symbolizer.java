@@ -0,0 +1,106 @@
+package li.cil.sedna.elf;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves addresses to the names of the functions containing them, based on the symbol tables of
+ * one or more {@link ELF} files.
+ * <p>
+ * Functions with a size of zero, as is common for functions written in assembly, are assumed to
+ * extend up to the next known function. Files with a malformed symbol table are treated like
+ * files without symbols.
+ */
+public final class Symbolizer {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private record Function(long start, long size, String name) { }
+
+    private final List<Function> functions = new ArrayList<>();
+    private boolean isSorted = true;
+
+    /**
+     * Adds all function symbols in the specified ELF file, at the addresses they were linked at.
+     *
+     * @param elf the ELF file to add the symbols of.
+     */
+    public void add(final ELF elf) {
+        add(elf, 0);
+    }
+
+    /**
+     * Adds all function symbols in the specified ELF file, relocated by the specified offset.
+     * <p>
+     * This is useful for position independent executables, which may be loaded at any address.
+     *
+     * @param elf    the ELF file to add the symbols of.
+     * @param offset the offset to add to the addresses of the symbols.
+     */
+    public void add(final ELF elf, final long offset) {
+        final List<Symbol> symbols;
+        try {
+            symbols = ELFParser.parseSymbolTable(elf);
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn("Ignoring malformed symbol table: {}", e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            for (final Symbol symbol : symbols) {
+                if (symbol.is(SymbolType.STT_FUNC) && symbol.value != 0 && !symbol.name.isEmpty()) {
+                    functions.add(new Function(symbol.value + offset, symbol.size, symbol.name));
+                    isSorted = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all known symbols.
+     */
+    public synchronized void clear() {
+        functions.clear();
+        isSorted = true;
+    }
+
+    /**
+     * Returns the name of the function containing the specified address, if known.
+     *
+     * @param address the address to resolve.
+     * @return the name of the function, or {@code null} if it is unknown.
+     */
+    @Nullable
+    public synchronized String resolve(final long address) {
+        if (!isSorted) {
+            functions.sort((f1, f2) -> Long.compareUnsigned(f1.start(), f2.start()));
+            isSorted = true;
+        }
+
+        // Binary search for last function starting at or before the address.
+        int low = 0, high = functions.size() - 1, index = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(functions.get(mid).start(), address) <= 0) {
+                index = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (index < 0) {
+            return null;
+        }
+
+        final Function function = functions.get(index);
+        if (function.size() != 0 && Long.compareUnsigned(address - function.start(), function.size()) >= 0) {
+            return null;
+        }
+
+        return function.name();
+    }
+}
@@ -3,17 +3,23 @@ package li.cil.sedna.instruction;
 import java.util.function.IntUnaryOperator;
 
 public enum FieldPostprocessor {
-    NONE((x) -> x),
-    ADD_8((x) -> x + 8),
+    NONE((x) -> x, (x) -> x),
+    ADD_8((x) -> x + 8, (x) -> x - 8),
     ;
 
     private final IntUnaryOperator callback;
+    private final IntUnaryOperator inverse;
 
-    FieldPostprocessor(final IntUnaryOperator callback) {
+    FieldPostprocessor(final IntUnaryOperator callback, final IntUnaryOperator inverse) {
         this.callback = callback;
+        this.inverse = inverse;
     }
 
     public int apply(final int value) {
         return callback.applyAsInt(value);
     }
+
+    public int unapply(final int value) {
+        return inverse.applyAsInt(value);
+    }
 }
@@ -0,0 +1,49 @@
+package li.cil.sedna.instruction.decoder;
+
+import li.cil.sedna.instruction.InstructionDeclaration;
+import li.cil.sedna.instruction.InstructionDefinition;
+import li.cil.sedna.instruction.decoder.tree.AbstractDecoderTreeNode;
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Decoder generator which additionally counts how often each instruction is executed.
+ * <p>
+ * In addition to the requirements of the {@link DecoderGenerator}, the class being visited <em>must</em>
+ * have a non-static field of type {@code long[]} named as specified in the {@code countersField}
+ * constructor parameter. It must be large enough to hold the counters for all indices returned by
+ * the {@code counterIndexProvider}. Each time an instruction is executed, the counter at its index
+ * is incremented.
+ */
+public class CountingDecoderGenerator extends DecoderGenerator {
+    private final String countersField;
+    private final ToIntFunction<InstructionDeclaration> counterIndexProvider;
+
+    public CountingDecoderGenerator(final ClassVisitor cv,
+                                    final AbstractDecoderTreeNode decoderTree,
+                                    final Function<InstructionDeclaration, InstructionDefinition> definitionProvider,
+                                    final Class<?> illegalInstructionExceptionClass,
+                                    final String decoderMethod,
+                                    final String decoderHook,
+                                    final String countersField,
+                                    final ToIntFunction<InstructionDeclaration> counterIndexProvider) {
+        super(cv, decoderTree, definitionProvider, illegalInstructionExceptionClass, decoderMethod, decoderHook);
+        this.countersField = countersField;
+        this.counterIndexProvider = counterIndexProvider;
+    }
+
+    @Override
+    protected void emitInstructionPrologue(final GeneratorContext context, final InstructionDeclaration declaration) {
+        // this.counters[index]++
+        context.methodVisitor.visitVarInsn(ALOAD, GeneratorContext.LOCAL_THIS); // [this]
+        context.methodVisitor.visitFieldInsn(GETFIELD, getHostClassInternalName(), countersField, "[J"); // [counters]
+        context.methodVisitor.visitLdcInsn(counterIndexProvider.applyAsInt(declaration)); // [counters, index]
+        context.methodVisitor.visitInsn(DUP2); // [counters, index, counters, index]
+        context.methodVisitor.visitInsn(LALOAD); // [counters, index, count]
+        context.methodVisitor.visitInsn(LCONST_1); // [counters, index, count, 1]
+        context.methodVisitor.visitInsn(LADD); // [counters, index, count + 1]
+        context.methodVisitor.visitInsn(LASTORE); // []
+    }
+}
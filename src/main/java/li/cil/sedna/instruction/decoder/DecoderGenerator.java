@@ -99,6 +99,23 @@ public class DecoderGenerator extends ClassVisitor implements Opcodes {
         this.illegalInstructionInternalName = Type.getInternalName(illegalInstructionExceptionClass);
     }
 
+    protected String getHostClassInternalName() {
+        return hostClassInternalName;
+    }
+
+    /**
+     * Called before the code for an instruction is emitted, including no-op instructions.
+     * <p>
+     * Allows subclasses to inject additional code into the leaf nodes of the decoder. Code emitted here
+     * must leave the operand stack as it was.
+     *
+     * @param context     the context of the leaf node being generated.
+     * @param declaration the declaration of the instruction the leaf node is for.
+     */
+    protected void emitInstructionPrologue(final GeneratorContext context,
+                                           final InstructionDeclaration declaration) {
+    }
+
     protected void emitInstruction(final GeneratorContext context,
                                    final InstructionDeclaration declaration,
                                    final InstructionDefinition definition) {
@@ -864,6 +881,8 @@ public class DecoderGenerator extends ClassVisitor implements Opcodes {
                 return;
             }
 
+            emitInstructionPrologue(context, declaration);
+
             if (declaration.type == InstructionType.NOP) {
                 context.emitIncrementPC(declaration.size);
                 context.emitContinue();
@@ -0,0 +1,50 @@
+package li.cil.sedna.instruction.decoder;
+
+import li.cil.sedna.instruction.InstructionDeclaration;
+import li.cil.sedna.instruction.InstructionDefinition;
+import li.cil.sedna.instruction.decoder.tree.AbstractDecoderTreeNode;
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.function.Function;
+
+/**
+ * Decoder generator which additionally passes each instruction to a tracing method before it is executed.
+ * <p>
+ * In addition to the requirements of the {@link DecoderGenerator}, the class being visited <em>must</em>
+ * have a non-static, private method with the signature {@code (IJ)V} named as specified in the
+ * {@code traceMethod} constructor parameter. It is called with the raw instruction and its program counter.
+ */
+public class TracingDecoderGenerator extends DecoderGenerator {
+    private final String traceMethod;
+
+    public TracingDecoderGenerator(final ClassVisitor cv,
+                                   final AbstractDecoderTreeNode decoderTree,
+                                   final Function<InstructionDeclaration, InstructionDefinition> definitionProvider,
+                                   final Class<?> illegalInstructionExceptionClass,
+                                   final String decoderMethod,
+                                   final String decoderHook,
+                                   final String traceMethod) {
+        super(cv, decoderTree, definitionProvider, illegalInstructionExceptionClass, decoderMethod, decoderHook);
+        this.traceMethod = traceMethod;
+    }
+
+    @Override
+    protected void emitInstructionPrologue(final GeneratorContext context, final InstructionDeclaration declaration) {
+        emitTraceCall(context, getHostClassInternalName(), traceMethod);
+    }
+
+    /**
+     * Emits a call to the tracing method, for generators combining tracing with other prologues.
+     *
+     * @param context               the context of the leaf node being generated.
+     * @param hostClassInternalName the internal name of the class being visited.
+     * @param traceMethod           the name of the tracing method.
+     */
+    public static void emitTraceCall(final GeneratorContext context, final String hostClassInternalName, final String traceMethod) {
+        // this.traceMethod(inst, pc)
+        context.methodVisitor.visitVarInsn(ALOAD, GeneratorContext.LOCAL_THIS); // [this]
+        context.methodVisitor.visitVarInsn(ILOAD, context.localInst); // [this, inst]
+        context.methodVisitor.visitVarInsn(LLOAD, context.localPc); // [this, inst, pc]
+        context.methodVisitor.visitMethodInsn(INVOKESPECIAL, hostClassInternalName, traceMethod, "(IJ)V", false); // []
+    }
+}
@@ -0,0 +1,20 @@
+package li.cil.sedna.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted for each step of a board, spanning the time it took to step the hart and all devices.
+ */
+@Name("li.cil.sedna.BoardStep")
+@Label("Board Step")
+@Category("Sedna")
+@Description("A board ran a slice of cycles.")
+@StackTrace(false)
+public final class BoardStepEvent extends Event {
+    @Label("Cycles")
+    public int cycles;
+
+    @Label("Page Walks")
+    @Description("The number of page table walks the hart performed during the step.")
+    public long pageWalks;
+}
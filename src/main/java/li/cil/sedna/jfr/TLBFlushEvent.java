@@ -0,0 +1,15 @@
+package li.cil.sedna.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted when a hart flushes all of its TLBs, e.g. for an {@code SFENCE.VMA} without address or
+ * a write to {@code satp}.
+ */
+@Name("li.cil.sedna.TLBFlush")
+@Label("TLB Flush")
+@Category({"Sedna", "CPU"})
+@Description("A hart flushed all entries of its TLBs.")
+@StackTrace(false)
+public final class TLBFlushEvent extends Event {
+}
@@ -0,0 +1,34 @@
+package li.cil.sedna.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted when a hart takes a trap, i.e. an exception or an interrupt.
+ */
+@Name("li.cil.sedna.Trap")
+@Label("Guest Trap")
+@Category({"Sedna", "CPU"})
+@Description("A hart took an exception or interrupt.")
+@StackTrace(false)
+public final class TrapEvent extends Event {
+    @Label("Interrupt")
+    @Description("Whether the trap is an interrupt, as opposed to a synchronous exception.")
+    public boolean interrupt;
+
+    @Label("Cause")
+    @Description("The exception code, without the interrupt bit.")
+    public long cause;
+
+    @Label("Program Counter")
+    @Unsigned
+    public long pc;
+
+    @Label("Trap Value")
+    @Description("The value written to mtval or stval, e.g. the faulting address.")
+    @Unsigned
+    public long value;
+
+    @Label("Privilege")
+    @Description("The privilege level the hart was running at when the trap was taken.")
+    public int privilege;
+}
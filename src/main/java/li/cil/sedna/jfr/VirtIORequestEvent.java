@@ -0,0 +1,25 @@
+package li.cil.sedna.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted for each request a VirtIO device processes, spanning the time it took to process it.
+ */
+@Name("li.cil.sedna.VirtIORequest")
+@Label("VirtIO Request")
+@Category({"Sedna", "Devices"})
+@Description("A VirtIO device processed a request.")
+@StackTrace(false)
+public final class VirtIORequestEvent extends Event {
+    @Label("Device")
+    public Class<?> device;
+
+    @Label("Request Type")
+    @Description("The device specific request type, e.g. the virtio-blk request type or the 9P message id.")
+    public int type;
+
+    @Label("Bytes")
+    @Description("The size of the request's descriptor chain.")
+    @DataAmount
+    public long bytes;
+}
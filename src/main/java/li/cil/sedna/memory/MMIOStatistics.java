@@ -0,0 +1,164 @@
+package li.cil.sedna.memory;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import li.cil.sedna.api.device.MemoryMappedDevice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts and times loads and stores to memory mapped devices, per device and per register.
+ * <p>
+ * Accesses are recorded by whoever dispatches them to the device, usually a CPU, see
+ * {@link li.cil.sedna.riscv.R5CPU#setMMIOStatistics(MMIOStatistics)}. Registers are grouped into
+ * buckets of a fixed size, by default four bytes, so that each bucket usually corresponds to a
+ * single register. Timings include everything the device does in response to the access, which
+ * makes them a good measure for how expensive guest drivers polling or kicking devices are.
+ * <p>
+ * Accesses may be recorded and reports may be generated from any thread.
+ */
+public final class MMIOStatistics {
+    public static final int DEFAULT_BUCKET_SIZE_LOG2 = 2;
+
+    private final int bucketSizeLog2;
+    private final ConcurrentHashMap<MemoryMappedDevice, DeviceCounters> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Accumulated accesses to a device or a register bucket of a device.
+     *
+     * @param device     the device accessed.
+     * @param offset     the offset of the bucket in the device; zero for whole devices.
+     * @param length     the size of the bucket; the length of the device for whole devices.
+     * @param loads      the number of loads.
+     * @param stores     the number of stores.
+     * @param loadNanos  the total time spent in loads, in nanoseconds.
+     * @param storeNanos the total time spent in stores, in nanoseconds.
+     */
+    public record Entry(MemoryMappedDevice device, int offset, int length,
+                        long loads, long stores, long loadNanos, long storeNanos) {
+        public long accesses() {
+            return loads + stores;
+        }
+
+        public long nanos() {
+            return loadNanos + storeNanos;
+        }
+    }
+
+    public MMIOStatistics() {
+        this(DEFAULT_BUCKET_SIZE_LOG2);
+    }
+
+    /**
+     * Creates new statistics grouping registers into buckets of the specified size.
+     *
+     * @param bucketSizeLog2 the size of register buckets, log2.
+     */
+    public MMIOStatistics(final int bucketSizeLog2) {
+        if (bucketSizeLog2 < 0 || bucketSizeLog2 > 30) {
+            throw new IllegalArgumentException(String.format("Bucket size out of range [%d].", bucketSizeLog2));
+        }
+        this.bucketSizeLog2 = bucketSizeLog2;
+    }
+
+    /**
+     * Records a load from a device.
+     *
+     * @param device the device loaded from.
+     * @param offset the offset in the device loaded from.
+     * @param nanos  the time the load took, in nanoseconds.
+     */
+    public void recordLoad(final MemoryMappedDevice device, final int offset, final long nanos) {
+        final Counters counters = getCounters(device, offset);
+        synchronized (counters) {
+            counters.loads++;
+            counters.loadNanos += nanos;
+        }
+    }
+
+    /**
+     * Records a store to a device.
+     *
+     * @param device the device stored to.
+     * @param offset the offset in the device stored to.
+     * @param nanos  the time the store took, in nanoseconds.
+     */
+    public void recordStore(final MemoryMappedDevice device, final int offset, final long nanos) {
+        final Counters counters = getCounters(device, offset);
+        synchronized (counters) {
+            counters.stores++;
+            counters.storeNanos += nanos;
+        }
+    }
+
+    /**
+     * Returns the accesses to each register bucket accessed at least once, most expensive first.
+     *
+     * @return the accesses per register bucket.
+     */
+    public List<Entry> getRegisterReport() {
+        final List<Entry> result = new ArrayList<>();
+        devices.forEach((device, deviceCounters) -> {
+            synchronized (deviceCounters) {
+                deviceCounters.buckets.int2ObjectEntrySet().forEach(bucket -> {
+                    final Counters counters = bucket.getValue();
+                    synchronized (counters) {
+                        result.add(new Entry(device, bucket.getIntKey() << bucketSizeLog2, 1 << bucketSizeLog2,
+                            counters.loads, counters.stores, counters.loadNanos, counters.storeNanos));
+                    }
+                });
+            }
+        });
+        result.sort(Comparator.comparingLong(Entry::nanos).thenComparingLong(Entry::accesses).reversed());
+        return result;
+    }
+
+    /**
+     * Returns the accesses to each device accessed at least once, most expensive first.
+     *
+     * @return the accesses per device.
+     */
+    public List<Entry> getDeviceReport() {
+        final List<Entry> result = new ArrayList<>();
+        devices.forEach((device, deviceCounters) -> {
+            long loads = 0, stores = 0, loadNanos = 0, storeNanos = 0;
+            synchronized (deviceCounters) {
+                for (final Counters counters : deviceCounters.buckets.values()) {
+                    synchronized (counters) {
+                        loads += counters.loads;
+                        stores += counters.stores;
+                        loadNanos += counters.loadNanos;
+                        storeNanos += counters.storeNanos;
+                    }
+                }
+            }
+            result.add(new Entry(device, 0, device.getLength(), loads, stores, loadNanos, storeNanos));
+        });
+        result.sort(Comparator.comparingLong(Entry::nanos).thenComparingLong(Entry::accesses).reversed());
+        return result;
+    }
+
+    /**
+     * Discards all recorded accesses.
+     */
+    public void reset() {
+        devices.clear();
+    }
+
+    private Counters getCounters(final MemoryMappedDevice device, final int offset) {
+        final DeviceCounters deviceCounters = devices.computeIfAbsent(device, key -> new DeviceCounters());
+        synchronized (deviceCounters) {
+            return deviceCounters.buckets.computeIfAbsent(offset >>> bucketSizeLog2, key -> new Counters());
+        }
+    }
+
+    private static final class DeviceCounters {
+        public final Int2ObjectOpenHashMap<Counters> buckets = new Int2ObjectOpenHashMap<>();
+    }
+
+    private static final class Counters {
+        public long loads, stores, loadNanos, storeNanos;
+    }
+}
@@ -13,6 +13,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public final class MemoryMaps {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Computes the size of continuous physical memory starting at and including the specified address.
      *
@@ -20,13 +22,68 @@ public final class MemoryMaps {
      * @param address the address to start at.
      * @return the size of the continuous memory range.
      */
-    public static int getContinuousMemorySize(final MemoryMap memory, final long address) {
+    public static long getContinuousMemorySize(final MemoryMap memory, final long address) {
         final MappedMemoryRange range = memory.getMemoryRange(address);
         if (range == null || !(range.device instanceof PhysicalMemory)) {
             return 0;
         }
 
-        return range.size() + getContinuousMemorySize(memory, range.end + 1);
+        return range.length() + getContinuousMemorySize(memory, range.end + 1);
+    }
+
+    /**
+     * Copies data between two regions of a {@link MemoryMap}.
+     * <p>
+     * The regions must not overlap.
+     *
+     * @param memory the memory map to copy in.
+     * @param src    the address to copy from.
+     * @param dst    the address to copy to.
+     * @param length the number of bytes to copy.
+     * @throws MemoryAccessException when an exception is thrown while accessing a device.
+     */
+    public static void copy(final MemoryMap memory, long src, long dst, long length) throws MemoryAccessException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, COPY_BUFFER_SIZE));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (length > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(length, buffer.capacity()));
+            load(memory, src, buffer);
+            buffer.flip();
+            store(memory, dst, buffer);
+            src += buffer.limit();
+            dst += buffer.limit();
+            length -= buffer.limit();
+        }
+    }
+
+    /**
+     * Discards the contents of the memory in the specified region of a {@link MemoryMap}.
+     * <p>
+     * See {@link PhysicalMemory#discard(long, long)}. Devices in the region that are not
+     * {@link PhysicalMemory} are left untouched. Discarded pages are marked dirty.
+     *
+     * @param memory  the memory map to discard memory in.
+     * @param address the address of the region to discard.
+     * @param length  the length of the region to discard.
+     * @throws MemoryAccessException when the region is not fully mapped.
+     */
+    public static void discard(final MemoryMap memory, long address, long length) throws MemoryAccessException {
+        while (length > 0) {
+            final MappedMemoryRange range = memory.getMemoryRange(address);
+            if (range == null) {
+                throw new MemoryAccessException();
+            }
+
+            final long offset = address - range.start;
+            final long count = Math.min(range.end - address + 1, length);
+            if (range.device instanceof PhysicalMemory) {
+                ((PhysicalMemory) range.device).discard(offset, count);
+                setDirty(memory, range, offset, count);
+            }
+            address += count;
+            length -= count;
+        }
     }
 
     /**
@@ -63,8 +120,8 @@ public final class MemoryMaps {
                 throw new MemoryAccessException();
             }
 
-            final int offset = (int) (address - range.start);
-            final int length = Math.min((int) (range.end - address + 1), dst.remaining());
+            final long offset = address - range.start;
+            final int length = (int) Math.min(range.end - address + 1, dst.remaining());
             if (length <= 0) {
                 throw new AssertionError();
             }
@@ -108,13 +165,14 @@ public final class MemoryMaps {
                 throw new MemoryAccessException();
             }
 
-            final int offset = (int) (address - range.start);
-            final int length = Math.min((int) (range.end - address + 1), src.remaining());
+            final long offset = address - range.start;
+            final int length = (int) Math.min(range.end - address + 1, src.remaining());
             if (length <= 0) {
                 throw new AssertionError();
             }
 
             store(range.device, offset, length, src);
+            setDirty(memory, range, offset, length);
             address += length;
         }
     }
@@ -140,8 +198,8 @@ public final class MemoryMaps {
                 throw new MemoryAccessException();
             }
 
-            final int offset = (int) (address - range.start);
-            final int maxReadCount = Math.min((int) (range.end - address + 1), array.length);
+            final long offset = address - range.start;
+            final int maxReadCount = (int) Math.min(range.end - address + 1, array.length);
 
             final int readCount = stream.read(array, 0, maxReadCount);
             if (readCount < 0) {
@@ -150,29 +208,38 @@ public final class MemoryMaps {
 
             buffer.clear();
             store(range.device, offset, readCount, buffer);
+            setDirty(memory, range, offset, readCount);
             address += readCount;
         }
     }
 
-    private static void load(final MemoryMappedDevice device, final int offset, final int length, final ByteBuffer dst) throws MemoryAccessException {
+    private static void setDirty(final MemoryMap memory, final MappedMemoryRange range, final long offset, final long length) {
+        final int pageSize = 1 << MemoryMap.DIRTY_PAGE_SIZE_LOG2;
+        final long end = offset + length;
+        for (long page = offset & ~(pageSize - 1); page < end; page += pageSize) {
+            memory.setDirty(range, page);
+        }
+    }
+
+    private static void load(final MemoryMappedDevice device, final long offset, final int length, final ByteBuffer dst) throws MemoryAccessException {
         if (device instanceof PhysicalMemory) {
             final int limit = dst.limit();
             dst.limit(dst.position() + length);
             ((PhysicalMemory) device).load(offset, dst);
             dst.limit(limit);
         } else {
-            loadSlow(device, offset, length, dst);
+            loadSlow(device, (int) offset, length, dst);
         }
     }
 
-    private static void store(final MemoryMappedDevice device, final int offset, final int length, final ByteBuffer src) throws MemoryAccessException {
+    private static void store(final MemoryMappedDevice device, final long offset, final int length, final ByteBuffer src) throws MemoryAccessException {
         if (device instanceof PhysicalMemory) {
             final int limit = src.limit();
             src.limit(src.position() + length);
             ((PhysicalMemory) device).store(offset, src);
             src.limit(limit);
         } else {
-            storeSlow(device, offset, length, src);
+            storeSlow(device, (int) offset, length, src);
         }
     }
 
@@ -1,88 +1,130 @@
 package li.cil.sedna.memory;
 
 import li.cil.sedna.api.device.MemoryMappedDevice;
+import li.cil.sedna.api.device.PhysicalMemory;
 import li.cil.sedna.api.memory.MappedMemoryRange;
 import li.cil.sedna.api.memory.MemoryAccessException;
 import li.cil.sedna.api.memory.MemoryMap;
 import li.cil.sedna.api.memory.MemoryRange;
 
 import javax.annotation.Nullable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Memory map keeping mapped ranges in an immutable array sorted by address.
+ * <p>
+ * Lookups by address are a binary search over the array. Adding or removing devices builds a new
+ * array and publishes it atomically, so lookups never lock and are safe to do from any thread.
+ * <p>
+ * Dirty pages are tracked in a bitmap per device, which is only allocated once dirty pages of the
+ * device are first requested.
+ */
 public final class SimpleMemoryMap implements MemoryMap {
-    private final Map<MemoryMappedDevice, MappedMemoryRange> devices = new HashMap<>();
-
-    // For device IO we often get sequential access to the same range/device, so we remember the last one as a cache.
-    private MappedMemoryRange cache;
+    private volatile Index index = Index.EMPTY;
+    private final Map<MemoryMappedDevice, DirtyPages> dirtyPages = new ConcurrentHashMap<>();
+    private volatile long dirtyTrackingEpoch;
 
     @Override
-    public boolean addDevice(final long address, final MemoryMappedDevice device) {
-        if (devices.containsKey(device)) {
+    public synchronized boolean addDevice(final long address, final MemoryMappedDevice device) {
+        final Index current = index;
+        if (current.rangesByDevice.containsKey(device)) {
             return false;
         }
 
         final MappedMemoryRange deviceRange = new MappedMemoryRange(device, address);
-        if (devices.values().stream().anyMatch(range -> range.intersects(deviceRange))) {
+        if (current.findIntersecting(deviceRange) != null) {
             return false;
         }
 
-        devices.put(device, deviceRange);
+        final MappedMemoryRange[] ranges = Arrays.copyOf(current.ranges, current.ranges.length + 1);
+        ranges[ranges.length - 1] = deviceRange;
+        index = new Index(ranges);
         return true;
     }
 
     @Override
-    public void removeDevice(final MemoryMappedDevice device) {
-        devices.remove(device);
-        if (cache != null && cache.device == device) {
-            cache = null;
+    public synchronized void removeDevice(final MemoryMappedDevice device) {
+        final Index current = index;
+        final MappedMemoryRange deviceRange = current.rangesByDevice.get(device);
+        if (deviceRange == null) {
+            return;
         }
+
+        index = new Index(Arrays.stream(current.ranges)
+            .filter(range -> range != deviceRange)
+            .toArray(MappedMemoryRange[]::new));
+        dirtyPages.remove(device);
     }
 
     @Override
     public Optional<MappedMemoryRange> getMemoryRange(final MemoryMappedDevice device) {
-        return Optional.ofNullable(devices.get(device));
+        return Optional.ofNullable(index.rangesByDevice.get(device));
     }
 
     @Override
     public Optional<MappedMemoryRange> getMemoryRange(final MemoryRange range) {
-        for (final MappedMemoryRange existingRange : devices.values()) {
-            if (existingRange.intersects(range)) {
-                return Optional.of(existingRange);
-            }
-        }
-
-        return Optional.empty();
+        return Optional.ofNullable(index.findIntersecting(range));
     }
 
     @Nullable
     @Override
     public MappedMemoryRange getMemoryRange(final long address) {
-        final MappedMemoryRange cachedValue = cache; // Copy to local to avoid threading issues.
-        if (cachedValue != null && cachedValue.contains(address)) {
-            return cachedValue;
+        return index.find(address);
+    }
+
+    @Override
+    public void setDirty(final MemoryRange range, final long offset) {
+        if (dirtyPages.isEmpty()) {
+            return;
         }
 
-        for (final MappedMemoryRange range : devices.values()) {
-            if (range.contains(address)) {
-                cache = range;
-                return range;
-            }
+        final MappedMemoryRange mappedRange = range instanceof MappedMemoryRange ?
+            (MappedMemoryRange) range : index.find(range.start);
+        if (mappedRange == null) {
+            return;
         }
 
-        return null;
+        final DirtyPages pages = dirtyPages.get(mappedRange.device);
+        if (pages != null) {
+            pages.set((int) (offset >>> DIRTY_PAGE_SIZE_LOG2));
+        }
     }
 
     @Override
-    public void setDirty(final MemoryRange range, final int offset) {
-        // todo implement tracking dirty bits; really need this if we want to add a frame buffer.
+    public synchronized BitSet getAndClearDirtyPages(final MemoryMappedDevice device) {
+        if (!index.rangesByDevice.containsKey(device)) {
+            throw new IllegalArgumentException(String.format("Device not in memory map [%s].", device));
+        }
+
+        final BitSet result;
+        final DirtyPages pages = dirtyPages.get(device);
+        if (pages != null) {
+            result = pages.getAndClear();
+        } else {
+            final int pageCount = getPageCount(index.rangesByDevice.get(device));
+            dirtyPages.put(device, new DirtyPages(pageCount));
+            result = new BitSet(pageCount);
+            result.set(0, pageCount);
+        }
+
+        dirtyTrackingEpoch++;
+        return result;
+    }
+
+    @Override
+    public long getDirtyTrackingEpoch() {
+        return dirtyTrackingEpoch;
     }
 
     @Override
     public long load(final long address, final int sizeLog2) throws MemoryAccessException {
         final MappedMemoryRange range = getMemoryRange(address);
         if (range != null && (range.device.getSupportedSizes() & (1 << sizeLog2)) != 0) {
+            if (range.device instanceof PhysicalMemory) {
+                return ((PhysicalMemory) range.device).load(address - range.start, sizeLog2);
+            }
             return range.device.load((int) (address - range.start), sizeLog2);
         }
         return 0;
@@ -92,7 +134,104 @@ public final class SimpleMemoryMap implements MemoryMap {
     public void store(final long address, final long value, final int sizeLog2) throws MemoryAccessException {
         final MappedMemoryRange range = getMemoryRange(address);
         if (range != null && (range.device.getSupportedSizes() & (1 << sizeLog2)) != 0) {
-            range.device.store((int) (address - range.start), value, sizeLog2);
+            if (range.device instanceof PhysicalMemory) {
+                ((PhysicalMemory) range.device).store(address - range.start, value, sizeLog2);
+            } else {
+                range.device.store((int) (address - range.start), value, sizeLog2);
+            }
+            setDirty(range, address - range.start);
+        }
+    }
+
+    private static int getPageCount(final MemoryRange range) {
+        final int pageSize = 1 << DIRTY_PAGE_SIZE_LOG2;
+        return (int) ((range.length() + pageSize - 1) >>> DIRTY_PAGE_SIZE_LOG2);
+    }
+
+    private static final class DirtyPages {
+        private final AtomicLongArray words;
+
+        public DirtyPages(final int pageCount) {
+            words = new AtomicLongArray((pageCount + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        public void set(final int page) {
+            final int word = page / Long.SIZE;
+            final long bit = 1L << page;
+            // Stores tend to hit the same pages repeatedly, check first to avoid contended writes.
+            if ((words.get(word) & bit) == 0) {
+                words.getAndAccumulate(word, bit, (value, mask) -> value | mask);
+            }
+        }
+
+        public BitSet getAndClear() {
+            final long[] result = new long[words.length()];
+            for (int i = 0; i < result.length; i++) {
+                if (words.get(i) != 0) {
+                    result[i] = words.getAndSet(i, 0);
+                }
+            }
+            return BitSet.valueOf(result);
+        }
+    }
+
+    private static final class Index {
+        public static final Index EMPTY = new Index(new MappedMemoryRange[0]);
+
+        // Ranges sorted by start address, and their start addresses with the sign bit flipped, so that
+        // the signed comparisons of the binary search order them as unsigned values.
+        public final MappedMemoryRange[] ranges;
+        public final long[] keys;
+        public final Map<MemoryMappedDevice, MappedMemoryRange> rangesByDevice = new HashMap<>();
+
+        // For device IO we often get sequential access to the same range/device, so we remember the last one as a cache.
+        // Kept per index, so that it can never return a range that has since been removed.
+        private MappedMemoryRange cache;
+
+        public Index(final MappedMemoryRange[] ranges) {
+            Arrays.sort(ranges, (a, b) -> Long.compareUnsigned(a.start, b.start));
+            this.ranges = ranges;
+            this.keys = new long[ranges.length];
+            for (int i = 0; i < ranges.length; i++) {
+                keys[i] = toKey(ranges[i].start);
+                rangesByDevice.put(ranges[i].device, ranges[i]);
+            }
+        }
+
+        @Nullable
+        public MappedMemoryRange find(final long address) {
+            final MappedMemoryRange cachedValue = cache; // Copy to local to avoid threading issues.
+            if (cachedValue != null && cachedValue.contains(address)) {
+                return cachedValue;
+            }
+
+            // Last range starting at or before the address, the only one that may contain it.
+            int i = Arrays.binarySearch(keys, toKey(address));
+            if (i < 0) {
+                i = -i - 2;
+            }
+
+            if (i >= 0 && ranges[i].contains(address)) {
+                cache = ranges[i];
+                return ranges[i];
+            }
+
+            return null;
+        }
+
+        @Nullable
+        public MappedMemoryRange findIntersecting(final MemoryRange range) {
+            for (final MappedMemoryRange existingRange : ranges) {
+                if (existingRange.intersects(range)) {
+                    return existingRange;
+                }
+            }
+
+            return null;
+        }
+
+        private static long toKey(final long address) {
+            return address ^ Long.MIN_VALUE;
         }
     }
 }
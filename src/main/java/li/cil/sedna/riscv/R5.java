@@ -147,6 +147,13 @@ public final class R5 {
     public static final int PTE_A_MASK = 0b1 << 6; // Accessed flag (read, written or fetched).
     public static final int PTE_D_MASK = 0b1 << 7; // Dirty flag (written).
     public static final int PTE_RSW_MASK = 0b11 << 8; // Reserved for supervisor software.
+    public static final long PTE_N_MASK = 1L << 63; // Svnapot: part of a naturally aligned power-of-two range.
+
+    // Svnapot ranges, encoded in the lowest PPN bits of leaf PTEs. Only 64KiB ranges are defined.
+    public static final int NAPOT_PPN_MASK = 0b1111; // PPN bits encoding the range size.
+    public static final int NAPOT_64K_PPN = 0b1000; // Encoding of a 64KiB range.
+    public static final int NAPOT_64K_SHIFT = 16; // 1<<16 == 65536
+    public static final long NAPOT_64K_MASK = (1L << NAPOT_64K_SHIFT) - 1;
 
     // Config for SV39/48/57 configuration.
     public static final int SV32_LEVELS = 2;
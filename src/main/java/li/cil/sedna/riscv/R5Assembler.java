@@ -0,0 +1,842 @@
+package li.cil.sedna.riscv;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.instruction.InstructionDeclaration;
+import li.cil.sedna.instruction.InstructionFieldMapping;
+import li.cil.sedna.instruction.InstructionType;
+import li.cil.sedna.instruction.argument.ConstantInstructionArgument;
+import li.cil.sedna.instruction.argument.FieldInstructionArgument;
+import li.cil.sedna.instruction.argument.InstructionArgument;
+import li.cil.sedna.memory.MemoryMaps;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Assembler for RV64GC code, based on the same instruction declarations the {@link R5CPU} decodes.
+ * <p>
+ * Source is accepted in the usual assembler syntax, one instruction per line, e.g.:
+ * <pre>
+ *         li      a0, 100
+ * loop:   addi    a0, a0, -1
+ *         bnez    a0, loop
+ * </pre>
+ * Instructions are referenced by their name in the instruction declarations, compressed instructions by
+ * their {@code c.} prefixed name. Operands are given in the order {@code rd, csr, rs1, rs2, rs3, shamt,
+ * imm, rm}, where loads, stores, atomics and {@code jalr} also accept the {@code imm(rs1)} form. The rounding
+ * mode is optional and defaults to {@code dyn}. For compressed instructions, operands implied by the encoding
+ * are omitted, and registers shared between source and destination are only given once.
+ * <p>
+ * Immediates may be numbers, labels, symbols added via {@link #define(String, long)}, or {@code .} for the
+ * address of the current instruction, optionally with an added or subtracted number. Labels used by branches
+ * and jumps are pc-relative, everywhere else they evaluate to the address of the label. Labels may be used
+ * before they are declared, they are resolved when the assembled code is written.
+ * <p>
+ * Supported pseudo-instructions are {@code nop, li, la, mv, not, neg, negw, sext.w, seqz, snez, sltz, sgtz,
+ * beqz, bnez, blez, bgez, bltz, bgtz, bgt, ble, bgtu, bleu, j, jal, jr, jalr, ret, call, tail, csrr, csrw,
+ * csrs, csrc, csrwi, csrsi, csrci, sfence.vma, fmv.s, fabs.s, fneg.s, fmv.d, fabs.d, fneg.d}, suffixes {@code .aq},
+ * {@code .rl} and {@code .aqrl} on atomics and the directives {@code .align, .byte, .half, .word, .dword,
+ * .zero} and {@code .equ}.
+ */
+public final class R5Assembler {
+    private static final Map<String, InstructionDeclaration> DECLARATIONS = new HashMap<>();
+    private static final Object2IntMap<String> REGISTERS = new Object2IntOpenHashMap<>();
+    private static final Object2IntMap<String> CSRS = new Object2IntOpenHashMap<>();
+    private static final Object2IntMap<String> ROUNDING_MODES = new Object2IntOpenHashMap<>();
+
+    private static final String[] FLOAT_REGISTER_NAME = {
+        "ft0", "ft1", "ft2", "ft3", "ft4", "ft5", "ft6", "ft7",
+        "fs0", "fs1",
+        "fa0", "fa1", "fa2", "fa3", "fa4", "fa5", "fa6", "fa7",
+        "fs2", "fs3", "fs4", "fs5", "fs6", "fs7", "fs8", "fs9", "fs10", "fs11",
+        "ft8", "ft9", "ft10", "ft11",
+    };
+
+    private static final List<String> OPERAND_ORDER = List.of("rd", "csr", "rs1", "rs2", "rs3", "shamt", "imm", "rm");
+    private static final Set<String> REGISTER_OPERANDS = Set.of("rd", "rs1", "rs2", "rs3");
+    private static final Set<String> PC_RELATIVE_INSTRUCTIONS = Set.of("JAL", "BEQ", "BNE", "BLT", "BGE", "BLTU", "BGEU");
+    private static final Set<String> UPPER_IMMEDIATE_INSTRUCTIONS = Set.of("LUI", "AUIPC");
+
+    private static final int OPCODE_MASK = 0b1111111;
+    private static final int OPCODE_AMO = 0b0101111;
+    private static final int AMO_AQ_MASK = 1 << 26;
+    private static final int AMO_RL_MASK = 1 << 25;
+    private static final int FENCE_PRED_SHIFT = 24;
+    private static final int FENCE_SUCC_SHIFT = 20;
+    private static final int NOP = 0x00000013; // addi zero, zero, 0
+    private static final String DATA_OPERAND = "value";
+
+    static {
+        for (final InstructionDeclaration declaration : R5Instructions.RV64.getDeclarations()) {
+            if (declaration.type == InstructionType.REGULAR) {
+                DECLARATIONS.putIfAbsent(declaration.displayName.toLowerCase(Locale.ROOT), declaration);
+            }
+        }
+
+        for (int i = 0; i < 32; i++) {
+            REGISTERS.put("x" + i, i);
+            REGISTERS.put("f" + i, i);
+            REGISTERS.put(R5Disassembler.REGISTER_NAME[i], i);
+            REGISTERS.put(FLOAT_REGISTER_NAME[i], i);
+        }
+        REGISTERS.put("fp", 8);
+
+        for (final Int2ObjectMap.Entry<String> entry : R5Disassembler.CSR_NAME.int2ObjectEntrySet()) {
+            CSRS.put(entry.getValue(), entry.getIntKey());
+        }
+
+        ROUNDING_MODES.put("rne", R5.FCSR_FRM_RNE);
+        ROUNDING_MODES.put("rtz", R5.FCSR_FRM_RTZ);
+        ROUNDING_MODES.put("rdn", R5.FCSR_FRM_RDN);
+        ROUNDING_MODES.put("rup", R5.FCSR_FRM_RUP);
+        ROUNDING_MODES.put("rmm", R5.FCSR_FRM_RMM);
+        ROUNDING_MODES.put("dyn", R5.FCSR_FRM_DYN);
+    }
+
+    private final long address;
+    private final ByteArrayList data = new ByteArrayList();
+    private final Object2LongMap<String> symbols = new Object2LongOpenHashMap<>();
+    private final List<Fixup> fixups = new ArrayList<>();
+
+    /**
+     * Creates a new assembler for code that will be placed at the specified address.
+     *
+     * @param address the address the first assembled instruction will be placed at.
+     */
+    public R5Assembler(final long address) {
+        this.address = address;
+    }
+
+    /**
+     * The address the assembled code will be placed at.
+     *
+     * @return the address of the first instruction.
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * The address the next instruction will be placed at.
+     *
+     * @return the current address.
+     */
+    public long position() {
+        return address + data.size();
+    }
+
+    /**
+     * The size of the assembled code so far.
+     *
+     * @return the size in bytes.
+     */
+    public int getSize() {
+        return data.size();
+    }
+
+    /**
+     * Defines a symbol with a fixed value, e.g. the address of a data area used by the code.
+     *
+     * @param name  the name of the symbol.
+     * @param value the value of the symbol.
+     * @return this assembler.
+     * @throws IllegalArgumentException if a symbol or label with the same name already exists.
+     */
+    public R5Assembler define(final String name, final long value) {
+        if (symbols.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate symbol [%s].", name));
+        }
+        symbols.put(name, value);
+        return this;
+    }
+
+    /**
+     * Defines a label at the current address.
+     *
+     * @param name the name of the label.
+     * @return this assembler.
+     * @throws IllegalArgumentException if a symbol or label with the same name already exists.
+     */
+    public R5Assembler label(final String name) {
+        return define(name, position());
+    }
+
+    /**
+     * Returns the value of a symbol or the address of a label.
+     *
+     * @param name the name of the symbol or label.
+     * @return the value of the symbol.
+     * @throws IllegalArgumentException if there is no symbol with this name.
+     */
+    public long getSymbol(final String name) {
+        if (!symbols.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Unknown symbol [%s].", name));
+        }
+        return symbols.getLong(name);
+    }
+
+    /**
+     * Assembles the specified source code.
+     *
+     * @param source the code to assemble, may contain multiple lines.
+     * @return this assembler.
+     * @throws IllegalArgumentException if the code is invalid.
+     */
+    public R5Assembler assemble(final String source) {
+        final String[] lines = source.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            try {
+                assembleLine(lines[i]);
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Failed assembling line [%d]: %s", i + 1, lines[i].trim()), e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the assembled code to the specified buffer, at its current position.
+     *
+     * @param buffer the buffer to write to.
+     * @throws IllegalStateException if the code references undefined labels.
+     */
+    public void writeTo(final ByteBuffer buffer) {
+        final ByteBuffer code = link();
+        buffer.put(code);
+    }
+
+    /**
+     * Writes the assembled code to the specified memory map, at the address the code was assembled for.
+     *
+     * @param memoryMap the memory map to write to.
+     * @throws MemoryAccessException if the memory map could not be written to.
+     * @throws IllegalStateException if the code references undefined labels.
+     */
+    public void writeTo(final MemoryMap memoryMap) throws MemoryAccessException {
+        MemoryMaps.store(memoryMap, address, link());
+    }
+
+    /**
+     * Returns the assembled code.
+     *
+     * @return the assembled code.
+     * @throws IllegalStateException if the code references undefined labels.
+     */
+    public byte[] toByteArray() {
+        final ByteBuffer code = link();
+        final byte[] result = new byte[code.remaining()];
+        code.get(result);
+        return result;
+    }
+
+    // --------------------------------------------------------------------- //
+
+    private enum Relocation {
+        ABSOLUTE,
+        PC_RELATIVE,
+        PC_RELATIVE_HI,
+        PC_RELATIVE_LO,
+    }
+
+    /**
+     * An operand value, either a constant, or the value of a symbol plus a constant. Symbols are only
+     * resolved when linking, so forward references are possible.
+     */
+    private record Expression(@Nullable String symbol, long addend, Relocation relocation, long anchor) {
+        static Expression constant(final long value) {
+            return new Expression(null, value, Relocation.ABSOLUTE, 0);
+        }
+
+        Expression withRelocation(final Relocation relocation, final long anchor) {
+            return new Expression(symbol, addend, relocation, anchor);
+        }
+    }
+
+    /**
+     * A value to write once all symbols are known, either an instruction or, if there is no declaration, data.
+     */
+    private record Fixup(int offset, long pc, @Nullable InstructionDeclaration declaration,
+                         Map<String, Expression> operands, int extraBits, int size) { }
+
+    private void assembleLine(String line) {
+        final int commentStart = line.indexOf('#');
+        if (commentStart >= 0) {
+            line = line.substring(0, commentStart);
+        }
+        line = line.trim();
+
+        // Labels, possibly followed by an instruction.
+        int colon;
+        while ((colon = line.indexOf(':')) > 0 && isSymbolName(line.substring(0, colon).trim())) {
+            label(line.substring(0, colon).trim());
+            line = line.substring(colon + 1).trim();
+        }
+
+        if (line.isEmpty()) {
+            return;
+        }
+
+        final String[] mnemonicAndOperands = line.split("\\s+", 2);
+        final String mnemonic = mnemonicAndOperands[0].toLowerCase(Locale.ROOT);
+        final List<String> operands = new ArrayList<>();
+        if (mnemonicAndOperands.length > 1) {
+            for (final String operand : mnemonicAndOperands[1].split(",")) {
+                operands.add(operand.trim());
+            }
+        }
+
+        if (mnemonic.startsWith(".")) {
+            directive(mnemonic, operands);
+        } else if (!pseudoInstruction(mnemonic, operands)) {
+            instruction(mnemonic, operands);
+        }
+    }
+
+    private void directive(final String name, final List<String> operands) {
+        switch (name) {
+            case ".align" -> {
+                requireOperands(operands, 1);
+                final long alignment = 1L << constant(operands.get(0));
+                while ((position() & (alignment - 1)) != 0) {
+                    if ((position() & 3) == 0 && alignment >= 4) {
+                        appendData(NOP, 4);
+                    } else {
+                        appendData(0, 1);
+                    }
+                }
+            }
+            case ".byte" -> data(operands, 1);
+            case ".half" -> data(operands, 2);
+            case ".word" -> data(operands, 4);
+            case ".dword" -> data(operands, 8);
+            case ".zero" -> {
+                requireOperands(operands, 1);
+                for (long i = constant(operands.get(0)); i > 0; i--) {
+                    appendData(0, 1);
+                }
+            }
+            case ".equ", ".set" -> {
+                requireOperands(operands, 2);
+                define(operands.get(0), constant(operands.get(1)));
+            }
+            default -> throw new IllegalArgumentException(String.format("Unknown directive [%s].", name));
+        }
+    }
+
+    private void data(final List<String> values, final int size) {
+        for (final String value : values) {
+            fixups.add(new Fixup(data.size(), position(), null, Map.of(DATA_OPERAND, expression(value)), 0, size));
+            appendData(0, size);
+        }
+    }
+
+    private boolean pseudoInstruction(final String mnemonic, final List<String> operands) {
+        final int count = operands.size();
+        switch (mnemonic) {
+            case "nop" -> emit("addi", Expression.constant(0), Expression.constant(0), Expression.constant(0));
+            case "li" -> {
+                requireOperands(operands, 2);
+                loadImmediate(register(operands.get(0)), constant(operands.get(1)));
+            }
+            case "la" -> {
+                requireOperands(operands, 2);
+                final Expression rd = Expression.constant(register(operands.get(0)));
+                final Expression target = expression(operands.get(1));
+                final long pc = position();
+                emit("auipc", rd, target.withRelocation(Relocation.PC_RELATIVE_HI, pc));
+                emit("addi", rd, rd, target.withRelocation(Relocation.PC_RELATIVE_LO, pc));
+            }
+            case "mv" -> emitRegisterImmediate("addi", operands, 0);
+            case "not" -> emitRegisterImmediate("xori", operands, -1);
+            case "sext.w" -> emitRegisterImmediate("addiw", operands, 0);
+            case "seqz" -> emitRegisterImmediate("sltiu", operands, 1);
+            case "neg" -> emitRegisterRegister("sub", operands, true);
+            case "negw" -> emitRegisterRegister("subw", operands, true);
+            case "snez" -> emitRegisterRegister("sltu", operands, true);
+            case "sltz" -> emitRegisterRegister("slt", operands, false);
+            case "sgtz" -> emitRegisterRegister("slt", operands, true);
+            case "beqz" -> emitBranchZero("beq", operands, false);
+            case "bnez" -> emitBranchZero("bne", operands, false);
+            case "blez" -> emitBranchZero("bge", operands, true);
+            case "bgez" -> emitBranchZero("bge", operands, false);
+            case "bltz" -> emitBranchZero("blt", operands, false);
+            case "bgtz" -> emitBranchZero("blt", operands, true);
+            case "bgt" -> emitBranchSwapped("blt", operands);
+            case "ble" -> emitBranchSwapped("bge", operands);
+            case "bgtu" -> emitBranchSwapped("bltu", operands);
+            case "bleu" -> emitBranchSwapped("bgeu", operands);
+            case "j" -> {
+                requireOperands(operands, 1);
+                emit("jal", Expression.constant(0), expression(operands.get(0)));
+            }
+            case "jal" -> {
+                if (count != 1) return false;
+                emit("jal", Expression.constant(1), expression(operands.get(0)));
+            }
+            case "jr" -> {
+                requireOperands(operands, 1);
+                emit("jalr", Expression.constant(0), Expression.constant(register(operands.get(0))), Expression.constant(0));
+            }
+            case "jalr" -> {
+                if (count != 1 || operands.get(0).contains("(")) return false;
+                emit("jalr", Expression.constant(1), Expression.constant(register(operands.get(0))), Expression.constant(0));
+            }
+            case "sfence.vma" -> {
+                if (count != 0) return false;
+                emit("sfence.vma", Expression.constant(0), Expression.constant(0));
+            }
+            case "ret" -> emit("jalr", Expression.constant(0), Expression.constant(1), Expression.constant(0));
+            case "call", "tail" -> {
+                requireOperands(operands, 1);
+                final Expression target = expression(operands.get(0));
+                final Expression link = Expression.constant("call".equals(mnemonic) ? 1 : 0);
+                final Expression scratch = Expression.constant("call".equals(mnemonic) ? 1 : 6);
+                final long pc = position();
+                emit("auipc", scratch, target.withRelocation(Relocation.PC_RELATIVE_HI, pc));
+                emit("jalr", link, scratch, target.withRelocation(Relocation.PC_RELATIVE_LO, pc));
+            }
+            case "csrr" -> {
+                requireOperands(operands, 2);
+                emit("csrrs", Expression.constant(register(operands.get(0))), Expression.constant(csr(operands.get(1))), Expression.constant(0));
+            }
+            case "csrw", "csrs", "csrc" -> {
+                requireOperands(operands, 2);
+                emit("csrr" + mnemonic.charAt(3), Expression.constant(0), Expression.constant(csr(operands.get(0))), Expression.constant(register(operands.get(1))));
+            }
+            case "csrwi", "csrsi", "csrci" -> {
+                requireOperands(operands, 2);
+                emit("csrr" + mnemonic.charAt(3) + "i", Expression.constant(0), Expression.constant(csr(operands.get(0))), Expression.constant(constant(operands.get(1))));
+            }
+            case "fmv.s", "fmv.d" -> emitFloatSignInjection("fsgnj" + mnemonic.substring(3), operands);
+            case "fneg.s", "fneg.d" -> emitFloatSignInjection("fsgnjn" + mnemonic.substring(4), operands);
+            case "fabs.s", "fabs.d" -> emitFloatSignInjection("fsgnjx" + mnemonic.substring(4), operands);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void instruction(final String mnemonic, final List<String> operands) {
+        int extraBits = 0;
+        String name = mnemonic;
+        if (!DECLARATIONS.containsKey(name)) {
+            // Acquire and release suffixes on atomics.
+            for (final String suffix : List.of(".aqrl", ".aq", ".rl")) {
+                if (name.endsWith(suffix)) {
+                    name = name.substring(0, name.length() - suffix.length());
+                    extraBits = (suffix.contains("aq") ? AMO_AQ_MASK : 0) | (suffix.contains("rl") ? AMO_RL_MASK : 0);
+                    break;
+                }
+            }
+        }
+
+        final InstructionDeclaration declaration = getDeclaration(name);
+        if (extraBits != 0 && (declaration.pattern & OPCODE_MASK) != OPCODE_AMO) {
+            throw new IllegalArgumentException(String.format("Unknown instruction [%s].", mnemonic));
+        }
+
+        if ("FENCE".equals(declaration.name)) {
+            extraBits = fenceBits(operands);
+            operands.clear();
+        }
+
+        final List<String> names = getOperandNames(declaration);
+        final Map<String, Expression> values = new HashMap<>();
+
+        // Memory operands in the form of imm(rs1), or (rs1) for atomics.
+        final List<String> remaining = new ArrayList<>(operands);
+        for (int i = 0; i < remaining.size(); i++) {
+            final String operand = remaining.get(i);
+            final int open = operand.indexOf('(');
+            if (open >= 0 && operand.endsWith(")") && names.contains("rs1")) {
+                values.put("rs1", Expression.constant(register(operand.substring(open + 1, operand.length() - 1).trim())));
+                final String offset = operand.substring(0, open).trim();
+                if (names.contains("imm")) {
+                    values.put("imm", offset.isEmpty() ? Expression.constant(0) : expression(offset));
+                } else if (!offset.isEmpty() && constant(offset) != 0) {
+                    throw new IllegalArgumentException(String.format("Instruction [%s] does not take an offset.", mnemonic));
+                }
+                remaining.remove(i);
+                break;
+            }
+        }
+
+        final List<String> unassigned = new ArrayList<>(names);
+        unassigned.removeAll(values.keySet());
+        if (remaining.size() == unassigned.size() - 1 && "rm".equals(unassigned.get(unassigned.size() - 1))) {
+            remaining.add("dyn");
+        }
+        if (remaining.size() != unassigned.size()) {
+            throw new IllegalArgumentException(String.format("Instruction [%s] expects operands %s.", mnemonic, names));
+        }
+        for (int i = 0; i < unassigned.size(); i++) {
+            values.put(unassigned.get(i), operand(unassigned.get(i), remaining.get(i)));
+        }
+
+        emit(declaration, values, extraBits);
+    }
+
+    private void emit(final String mnemonic, final Expression... operands) {
+        final InstructionDeclaration declaration = getDeclaration(mnemonic);
+        final List<String> names = getOperandNames(declaration);
+        if (operands.length != names.size() && !(operands.length == names.size() - 1 && "rm".equals(names.get(names.size() - 1)))) {
+            throw new IllegalArgumentException(String.format("Instruction [%s] expects operands %s.", mnemonic, names));
+        }
+
+        final Map<String, Expression> values = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            values.put(names.get(i), i < operands.length ? operands[i] : Expression.constant(R5.FCSR_FRM_DYN));
+        }
+        emit(declaration, values, 0);
+    }
+
+    private void emit(final InstructionDeclaration declaration, final Map<String, Expression> values, final int extraBits) {
+        if ((extraBits & ~declaration.unusedBits) != 0) {
+            throw new IllegalArgumentException();
+        }
+
+        // Aliased arguments, e.g. rd=rs1 in compressed instructions, get the same value.
+        final Map<String, Expression> operands = new HashMap<>();
+        for (final Map.Entry<String, InstructionArgument> entry : declaration.arguments.entrySet()) {
+            for (final Map.Entry<String, Expression> value : values.entrySet()) {
+                if (declaration.arguments.get(value.getKey()) == entry.getValue()) {
+                    operands.put(entry.getKey(), value.getValue());
+                }
+            }
+        }
+
+        final Fixup fixup = new Fixup(data.size(), position(), declaration, operands, extraBits, declaration.size);
+        appendData(0, declaration.size);
+        fixups.add(fixup);
+
+        // Check what we can right away, so errors point to the offending line.
+        if (operands.values().stream().allMatch(expression -> expression.symbol() == null || symbols.containsKey(expression.symbol()))) {
+            encode(fixup);
+        }
+    }
+
+    private void emitRegisterImmediate(final String mnemonic, final List<String> operands, final long immediate) {
+        requireOperands(operands, 2);
+        emit(mnemonic, Expression.constant(register(operands.get(0))), Expression.constant(register(operands.get(1))), Expression.constant(immediate));
+    }
+
+    private void emitRegisterRegister(final String mnemonic, final List<String> operands, final boolean zeroFirst) {
+        requireOperands(operands, 2);
+        final Expression rd = Expression.constant(register(operands.get(0)));
+        final Expression rs = Expression.constant(register(operands.get(1)));
+        final Expression zero = Expression.constant(0);
+        emit(mnemonic, rd, zeroFirst ? zero : rs, zeroFirst ? rs : zero);
+    }
+
+    private void emitBranchZero(final String mnemonic, final List<String> operands, final boolean zeroFirst) {
+        requireOperands(operands, 2);
+        final Expression rs = Expression.constant(register(operands.get(0)));
+        final Expression zero = Expression.constant(0);
+        emit(mnemonic, zeroFirst ? zero : rs, zeroFirst ? rs : zero, expression(operands.get(1)));
+    }
+
+    private void emitBranchSwapped(final String mnemonic, final List<String> operands) {
+        requireOperands(operands, 3);
+        emit(mnemonic, Expression.constant(register(operands.get(1))), Expression.constant(register(operands.get(0))), expression(operands.get(2)));
+    }
+
+    private void emitFloatSignInjection(final String mnemonic, final List<String> operands) {
+        requireOperands(operands, 2);
+        final Expression rs = Expression.constant(register(operands.get(1)));
+        emit(mnemonic, Expression.constant(register(operands.get(0))), rs, rs);
+    }
+
+    private void loadImmediate(final int rd, final long value) {
+        final Expression rdExpression = Expression.constant(rd);
+        final long lo12 = (value << 52) >> 52;
+        if (value == (int) value) {
+            final int hi20 = (int) ((value - lo12) >>> 12) & 0xFFFFF;
+            if (hi20 != 0) {
+                emit("lui", rdExpression, Expression.constant(hi20));
+                if (lo12 != 0) {
+                    emit("addiw", rdExpression, rdExpression, Expression.constant(lo12));
+                }
+            } else {
+                emit("addi", rdExpression, Expression.constant(0), Expression.constant(lo12));
+            }
+            return;
+        }
+
+        // Load upper bits recursively, shifting out trailing zeros, then shift them into place.
+        long hi52 = (value + 0x800) >> 12;
+        final int shift = 12 + Long.numberOfTrailingZeros(hi52);
+        hi52 = (hi52 >> (shift - 12) << shift) >> shift;
+        loadImmediate(rd, hi52);
+        emit("slli", rdExpression, rdExpression, Expression.constant(shift));
+        if (lo12 != 0) {
+            emit("addi", rdExpression, rdExpression, Expression.constant(lo12));
+        }
+    }
+
+    private int fenceBits(final List<String> operands) {
+        if (operands.isEmpty()) {
+            return (0b1111 << FENCE_PRED_SHIFT) | (0b1111 << FENCE_SUCC_SHIFT);
+        }
+        requireOperands(operands, 2);
+        return (fenceSet(operands.get(0)) << FENCE_PRED_SHIFT) | (fenceSet(operands.get(1)) << FENCE_SUCC_SHIFT);
+    }
+
+    private static int fenceSet(final String operand) {
+        int result = 0;
+        for (final char c : operand.toLowerCase(Locale.ROOT).toCharArray()) {
+            result |= switch (c) {
+                case 'i' -> 0b1000;
+                case 'o' -> 0b0100;
+                case 'r' -> 0b0010;
+                case 'w' -> 0b0001;
+                default -> throw new IllegalArgumentException(String.format("Invalid fence operand [%s].", operand));
+            };
+        }
+        return result;
+    }
+
+    // --------------------------------------------------------------------- //
+
+    private ByteBuffer link() {
+        for (final Fixup fixup : fixups) {
+            encode(fixup);
+        }
+        return ByteBuffer.wrap(data.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void encode(final Fixup fixup) {
+        final long value;
+        if (fixup.declaration() == null) {
+            value = resolve(fixup.operands().get(DATA_OPERAND), fixup.pc());
+        } else {
+            final InstructionDeclaration declaration = fixup.declaration();
+            final Object2IntMap<String> values = new Object2IntOpenHashMap<>();
+            int instruction = declaration.pattern | fixup.extraBits();
+            for (final Map.Entry<String, InstructionArgument> entry : declaration.arguments.entrySet()) {
+                final InstructionArgument argument = entry.getValue();
+                if (argument instanceof final ConstantInstructionArgument constant) {
+                    values.put(entry.getKey(), constant.value);
+                } else if (argument instanceof final FieldInstructionArgument field) {
+                    final int fieldValue = argumentValue(declaration, entry.getKey(), fixup.operands().get(entry.getKey()), fixup.pc());
+                    values.put(entry.getKey(), fieldValue);
+                    instruction |= encodeField(field, fieldValue);
+                }
+            }
+
+            for (final Map.Entry<String, InstructionArgument> entry : declaration.arguments.entrySet()) {
+                if (entry.getValue().get(instruction) != values.getInt(entry.getKey())) {
+                    throw new IllegalArgumentException(String.format("Invalid value [%d] for operand [%s] of instruction [%s].",
+                        values.getInt(entry.getKey()), entry.getKey(), declaration.displayName.toLowerCase(Locale.ROOT)));
+                }
+            }
+
+            value = instruction;
+        }
+
+        for (int i = 0; i < fixup.size(); i++) {
+            data.set(fixup.offset() + i, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    private int argumentValue(final InstructionDeclaration declaration, final String name, @Nullable final Expression expression, final long pc) {
+        if (expression == null) {
+            throw new IllegalArgumentException(String.format("Missing operand [%s] for instruction [%s].", name, declaration.displayName));
+        }
+
+        final Expression effective;
+        if (PC_RELATIVE_INSTRUCTIONS.contains(declaration.name) && "imm".equals(name) && expression.relocation() == Relocation.ABSOLUTE && expression.symbol() != null) {
+            effective = expression.withRelocation(Relocation.PC_RELATIVE, pc);
+        } else {
+            effective = expression;
+        }
+
+        long value = resolve(effective, pc);
+        if (UPPER_IMMEDIATE_INSTRUCTIONS.contains(declaration.name) && "imm".equals(name)) {
+            value <<= 12;
+        }
+        if (value < Integer.MIN_VALUE || value > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException(String.format("Value [%d] for operand [%s] of instruction [%s] out of range.", value, name, declaration.displayName));
+        }
+        return (int) value;
+    }
+
+    private long resolve(final Expression expression, final long pc) {
+        long value = expression.addend();
+        if (expression.symbol() != null) {
+            if (!symbols.containsKey(expression.symbol())) {
+                throw new IllegalStateException(String.format("Undefined symbol [%s].", expression.symbol()));
+            }
+            value += symbols.getLong(expression.symbol());
+        }
+
+        return switch (expression.relocation()) {
+            case ABSOLUTE -> value;
+            case PC_RELATIVE -> value - pc;
+            case PC_RELATIVE_HI -> {
+                final long offset = value - expression.anchor();
+                if (offset != (int) offset) {
+                    throw new IllegalArgumentException(String.format("Symbol [%s] out of range.", expression.symbol()));
+                }
+                yield ((offset + 0x800) >> 12) & 0xFFFFF;
+            }
+            case PC_RELATIVE_LO -> ((value - expression.anchor()) << 52) >> 52;
+        };
+    }
+
+    private static int encodeField(final FieldInstructionArgument argument, final int value) {
+        final int unprocessed = argument.postprocessor.unapply(value);
+        int result = 0;
+        for (final InstructionFieldMapping mapping : argument.mappings) {
+            final int width = mapping.srcMSB - mapping.srcLSB + 1;
+            result |= ((unprocessed >>> mapping.dstLSB) & ((1 << width) - 1)) << mapping.srcLSB;
+        }
+        return result;
+    }
+
+    // --------------------------------------------------------------------- //
+
+    private static InstructionDeclaration getDeclaration(final String mnemonic) {
+        final InstructionDeclaration declaration = DECLARATIONS.get(mnemonic);
+        if (declaration == null) {
+            throw new IllegalArgumentException(String.format("Unknown instruction [%s].", mnemonic));
+        }
+        return declaration;
+    }
+
+    private static List<String> getOperandNames(final InstructionDeclaration declaration) {
+        final List<String> result = new ArrayList<>();
+        final List<InstructionArgument> seen = new ArrayList<>();
+        for (final String name : OPERAND_ORDER) {
+            final InstructionArgument argument = declaration.arguments.get(name);
+            if (argument instanceof FieldInstructionArgument && !seen.contains(argument)) {
+                seen.add(argument);
+                result.add(name);
+            }
+        }
+        if (seen.size() != declaration.arguments.values().stream().filter(argument -> argument instanceof FieldInstructionArgument).distinct().count()) {
+            throw new IllegalStateException(String.format("Instruction [%s] has unsupported arguments.", declaration.displayName));
+        }
+        return result;
+    }
+
+    private void appendData(final long value, final int size) {
+        for (int i = 0; i < size; i++) {
+            data.add((byte) (value >>> (i * 8)));
+        }
+    }
+
+    private Expression operand(final String name, final String text) {
+        if (REGISTER_OPERANDS.contains(name) && REGISTERS.containsKey(text)) {
+            return Expression.constant(REGISTERS.getInt(text));
+        } else if ("csr".equals(name) && CSRS.containsKey(text)) {
+            return Expression.constant(CSRS.getInt(text));
+        } else if ("rm".equals(name) && ROUNDING_MODES.containsKey(text)) {
+            return Expression.constant(ROUNDING_MODES.getInt(text));
+        } else {
+            return expression(text);
+        }
+    }
+
+    private static int register(final String text) {
+        if (!REGISTERS.containsKey(text)) {
+            throw new IllegalArgumentException(String.format("Unknown register [%s].", text));
+        }
+        return REGISTERS.getInt(text);
+    }
+
+    private static int csr(final String text) {
+        if (CSRS.containsKey(text)) {
+            return CSRS.getInt(text);
+        }
+        return (int) parseNumber(text);
+    }
+
+    private long constant(final String text) {
+        final Expression expression = expression(text);
+        if (expression.symbol() != null && !symbols.containsKey(expression.symbol())) {
+            throw new IllegalArgumentException(String.format("Symbol [%s] must be defined before this use.", expression.symbol()));
+        }
+        return resolve(expression, position());
+    }
+
+    private Expression expression(final String text) {
+        String symbol = null;
+        long addend = 0;
+        int i = 0;
+        while (i < text.length()) {
+            boolean negative = false;
+            while (i < text.length() && (text.charAt(i) == '+' || text.charAt(i) == '-' || Character.isWhitespace(text.charAt(i)))) {
+                negative ^= text.charAt(i) == '-';
+                i++;
+            }
+
+            final int start = i;
+            while (i < text.length() && text.charAt(i) != '+' && text.charAt(i) != '-' && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            final String term = text.substring(start, i);
+
+            if (term.isEmpty()) {
+                throw new IllegalArgumentException(String.format("Invalid expression [%s].", text));
+            } else if (Character.isDigit(term.charAt(0))) {
+                addend += negative ? -parseNumber(term) : parseNumber(term);
+            } else if (".".equals(term)) {
+                addend += negative ? -position() : position();
+            } else if (symbol == null && !negative && isSymbolName(term)) {
+                symbol = term;
+            } else {
+                throw new IllegalArgumentException(String.format("Invalid expression [%s].", text));
+            }
+        }
+
+        if (symbol == null && i == 0) {
+            throw new IllegalArgumentException("Missing operand.");
+        }
+
+        return new Expression(symbol, addend, Relocation.ABSOLUTE, 0);
+    }
+
+    private static long parseNumber(final String text) {
+        try {
+            final String lower = text.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("0x")) {
+                return Long.parseUnsignedLong(lower.substring(2), 16);
+            } else if (lower.startsWith("0b")) {
+                return Long.parseUnsignedLong(lower.substring(2), 2);
+            } else {
+                return Long.parseUnsignedLong(lower);
+            }
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid number [%s].", text), e);
+        }
+    }
+
+    private static boolean isSymbolName(final String text) {
+        if (text.isEmpty() || !(Character.isLetter(text.charAt(0)) || text.charAt(0) == '_' || text.charAt(0) == '.')) {
+            return false;
+        }
+        for (int i = 1; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '$') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void requireOperands(final List<String> operands, final int count) {
+        if (operands.size() != count) {
+            throw new IllegalArgumentException(String.format("Expected [%d] operands, got [%d].", count, operands.size()));
+        }
+    }
+}
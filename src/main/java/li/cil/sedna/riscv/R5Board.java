@@ -1,10 +1,12 @@
 package li.cil.sedna.riscv;
 
+import jdk.jfr.EventType;
 import li.cil.ceres.api.Serialized;
 import li.cil.sedna.api.Board;
 import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.*;
 import li.cil.sedna.api.device.rtc.RealTimeCounter;
+import li.cil.sedna.api.device.rtc.TimerDevice;
 import li.cil.sedna.api.devicetree.DeviceNames;
 import li.cil.sedna.api.devicetree.DevicePropertyNames;
 import li.cil.sedna.api.devicetree.DeviceTree;
@@ -16,6 +18,7 @@ import li.cil.sedna.device.flash.FlashMemoryDevice;
 import li.cil.sedna.devicetree.DeviceTreeRegistry;
 import li.cil.sedna.devicetree.FlattenedDeviceTree;
 import li.cil.sedna.gdbstub.GDBStub;
+import li.cil.sedna.jfr.BoardStepEvent;
 import li.cil.sedna.memory.SimpleMemoryMap;
 import li.cil.sedna.riscv.device.R5CoreLocalInterrupter;
 import li.cil.sedna.riscv.device.R5PlatformLevelInterruptController;
@@ -39,6 +42,10 @@ public final class R5Board implements Board {
     private static final long FLASH_ADDRESS = 0x1000L; // R5CPU starts executing at 0x1000.
     private static final int FLASH_SIZE = 0x100; // Just needs to fit "jump to firmware".
 
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final EventType BOARD_STEP_EVENT_TYPE = EventType.getEventType(BoardStepEvent.class);
+
     private final MemoryRangeAllocationStrategy allocationStrategy = new R5MemoryRangeAllocationStrategy();
 
     private final MemoryMap memoryMap;
@@ -46,6 +53,7 @@ public final class R5Board implements Board {
     private final FlashMemoryDevice flash;
     private final List<MemoryMappedDevice> devices = new ArrayList<>();
     private final List<Steppable> steppableDevices = new ArrayList<>();
+    private final List<TimerDevice> timerDevices = new ArrayList<>();
     private MemoryMappedDevice standardOutputDevice;
     private GDBStub gdbStub;
     private boolean waitForGdb = false;
@@ -58,8 +66,17 @@ public final class R5Board implements Board {
     @Serialized private boolean isRestarting;
 
     public R5Board() {
+        this(false);
+    }
+
+    /**
+     * Creates a new board.
+     *
+     * @param traceable whether the board supports recording execution traces, see {@link #setTraceBuffer(R5TraceBuffer)}.
+     */
+    public R5Board(final boolean traceable) {
         memoryMap = new SimpleMemoryMap();
-        rtc = cpu = R5CPU.create(memoryMap);
+        rtc = cpu = R5CPU.create(memoryMap, null, false, traceable);
 
         flash = new FlashMemoryDevice(FLASH_SIZE);
         clint = new R5CoreLocalInterrupter(rtc);
@@ -94,6 +111,16 @@ public final class R5Board implements Board {
         return cpu;
     }
 
+    /**
+     * Enables or disables recording an execution trace of this board's CPU.
+     *
+     * @param traceBuffer the buffer to record into, or {@code null} to disable tracing.
+     * @throws IllegalStateException if a buffer is set and the board was not created with tracing support.
+     */
+    public void setTraceBuffer(@Nullable final R5TraceBuffer traceBuffer) {
+        cpu.setTraceBuffer(traceBuffer);
+    }
+
     @Override
     public MemoryMap getMemoryMap() {
         return memoryMap;
@@ -111,7 +138,7 @@ public final class R5Board implements Board {
 
     @Override
     public boolean addDevice(final long address, final MemoryMappedDevice device) {
-        if (device.getLength() == 0) {
+        if (device.getLongLength() == 0) {
             return false;
         }
 
@@ -139,6 +166,10 @@ public final class R5Board implements Board {
             steppableDevices.add((Steppable) device);
         }
 
+        if (device instanceof TimerDevice) {
+            timerDevices.add((TimerDevice) device);
+        }
+
         cpu.invalidateCaches();
 
         return true;
@@ -163,6 +194,10 @@ public final class R5Board implements Board {
             steppableDevices.remove(device);
         }
 
+        if (device instanceof TimerDevice) {
+            timerDevices.remove(device);
+        }
+
         if (standardOutputDevice == device) {
             standardOutputDevice = null;
         }
@@ -219,6 +254,17 @@ public final class R5Board implements Board {
             waitForGdb = false;
         }
 
+        @Nullable final BoardStepEvent event;
+        final long pageWalks;
+        if (BOARD_STEP_EVENT_TYPE.isEnabled()) {
+            event = new BoardStepEvent();
+            pageWalks = cpu.getPageWalkCount();
+            event.begin();
+        } else {
+            event = null;
+            pageWalks = 0;
+        }
+
         try {
             for (final Steppable device : steppableDevices) {
                 device.step(cycles);
@@ -230,6 +276,108 @@ public final class R5Board implements Board {
             reset();
             isRunning = false;
         }
+
+        if (event != null && event.shouldCommit()) {
+            event.cycles = cycles;
+            event.pageWalks = cpu.getPageWalkCount() - pageWalks;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the earliest deadline of all timer devices on this board, such as the
+     * timer comparators in the CLINT.
+     * <p>
+     * The time base of this board is the cycle counter of the hart, so deadlines are in cycles.
+     *
+     * @return the earliest deadline, or nothing if no device has a pending deadline.
+     */
+    public OptionalLong getNextDeadline() {
+        OptionalLong result = OptionalLong.empty();
+        for (final TimerDevice device : timerDevices) {
+            final OptionalLong deadline = device.getNextDeadline();
+            if (deadline.isPresent() && (result.isEmpty() || Long.compareUnsigned(deadline.getAsLong(), result.getAsLong()) < 0)) {
+                result = deadline;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of cycles this board can be advanced by without doing any work.
+     * <p>
+     * This is only non-zero while the hart is waiting for an interrupt, and is limited by
+     * the {@link #getNextDeadline() next deadline}. Hosts may use this to sleep instead of
+     * stepping an idle board, using {@link R5CPU#getFrequency()} to convert cycles to real
+     * time, or to skip ahead in one go using {@link #fastForward(long)}.
+     *
+     * @return the number of cycles until the board has work to do again.
+     */
+    public long getIdleCycles() {
+        if (!isRunning() || !cpu.isWaitingForInterrupt()) {
+            return 0;
+        }
+
+        final OptionalLong deadline = getNextDeadline();
+        if (deadline.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+
+        final long now = rtc.getTime();
+        if (Long.compareUnsigned(deadline.getAsLong(), now) <= 0) {
+            return 0;
+        }
+
+        return deadline.getAsLong() - now;
+    }
+
+    /**
+     * Advances an idle board by up to the specified number of cycles.
+     * <p>
+     * This skips at most {@link #getIdleCycles()} cycles, so the board ends up at the next
+     * deadline at the latest, where devices get stepped and may raise their interrupts. For a
+     * board that is not idle, this does nothing.
+     * <p>
+     * A single call skips at most {@link Integer#MAX_VALUE} cycles, done in a single step. Without
+     * a deadline, or with one far in the future, hosts wanting to skip further call this again.
+     *
+     * @param cycles the maximum number of cycles to skip.
+     * @return the number of cycles actually skipped.
+     */
+    public long fastForward(final long cycles) {
+        final int idleCycles = (int) Math.min(Math.min(cycles, getIdleCycles()), Integer.MAX_VALUE);
+        if (idleCycles <= 0) {
+            return 0;
+        }
+
+        step(idleCycles);
+        return idleCycles;
+    }
+
+    /**
+     * Blocks the calling thread while this board is idle.
+     * <p>
+     * Returns as soon as an interrupt is raised, e.g. by a device receiving input on another thread,
+     * when the {@link #getNextDeadline() next deadline} is due in real time, or when the timeout
+     * elapses, whichever comes first. Hosts can call this instead of polling an idle board, and then
+     * step the board by the time that has passed. It must be called by the thread stepping the board.
+     *
+     * @param timeoutNanos the maximum time to block, in nanoseconds.
+     */
+    public void awaitWork(final long timeoutNanos) {
+        final long idleCycles = getIdleCycles();
+        if (idleCycles == 0) {
+            return;
+        }
+
+        final long idleNanos;
+        if (idleCycles > Long.MAX_VALUE / NANOS_PER_SECOND) {
+            idleNanos = Long.MAX_VALUE;
+        } else {
+            idleNanos = idleCycles * NANOS_PER_SECOND / rtc.getFrequency();
+        }
+
+        cpu.awaitInterrupt(Math.min(timeoutNanos, idleNanos));
     }
 
     @Override
@@ -256,10 +404,10 @@ public final class R5Board implements Board {
         OptionalLong fdtAddress = OptionalLong.empty();
         for (final MemoryMappedDevice device : devices) {
             if (device instanceof PhysicalMemory) {
-                if (device.getLength() >= dtb.length) {
+                if (device.getLongLength() >= dtb.length) {
                     final MappedMemoryRange memoryRange = memoryMap.getMemoryRange(device).orElseThrow(AssertionError::new);
 
-                    final long address = (memoryRange.start + memoryRange.size() - dtb.length) & ~0b111L; // align(8)
+                    final long address = (memoryRange.end + 1 - dtb.length) & ~0b111L; // align(8)
                     if (Long.compareUnsigned(address, memoryRange.start) < 0) {
                         continue;
                     }
@@ -373,6 +521,7 @@ public final class R5Board implements Board {
                 isa.append(Character.toLowerCase(i));
             }
         }
+        isa.append("_svnapot");
         return isa.toString();
     }
 }
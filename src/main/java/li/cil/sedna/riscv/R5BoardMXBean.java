@@ -0,0 +1,58 @@
+package li.cil.sedna.riscv;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the metrics of an {@link R5Board}, see {@link R5BoardMonitor}.
+ */
+public interface R5BoardMXBean {
+    boolean isRunning();
+
+    boolean isWaitingForInterrupt();
+
+    long getCycles();
+
+    long getInstructionsRetired();
+
+    /**
+     * Millions of instructions retired per second of real time, averaged over the sliding window
+     * of the monitor. Zero until the window contains at least two samples.
+     */
+    double getGuestMIPS();
+
+    long getIdleCycles();
+
+    /**
+     * Time the hart spent in {@code WFI}, in seconds of guest time.
+     */
+    double getIdleSeconds();
+
+    /**
+     * Number of exceptions taken, by exception name.
+     */
+    Map<String, Long> getExceptions();
+
+    /**
+     * Number of interrupts taken, by interrupt name.
+     */
+    Map<String, Long> getInterrupts();
+
+    long getPageWalks();
+
+    long getFetchTLBMisses();
+
+    long getLoadTLBMisses();
+
+    long getStoreTLBMisses();
+
+    /**
+     * Combined misses of all TLBs per thousand retired instructions.
+     */
+    double getTLBMissesPerKiloInstruction();
+
+    /**
+     * Number of loads and stores to memory mapped devices other than memory, by device. Only
+     * available while the CPU records into {@link li.cil.sedna.memory.MMIOStatistics}, empty otherwise.
+     */
+    Map<String, Long> getMMIOAccesses();
+}
@@ -0,0 +1,261 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.device.MemoryMappedDevice;
+import li.cil.sedna.api.memory.MappedMemoryRange;
+import li.cil.sedna.memory.MMIOStatistics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the metrics of an {@link R5Board} via JMX.
+ * <p>
+ * Metrics are derived from {@link R5CPU#getStatistics()} when they are read, so a registered monitor
+ * costs nothing while nobody is looking. The guest MIPS are computed from samples taken on each read,
+ * over a sliding window, so they are most accurate when polled regularly, as JMX consoles do.
+ * <p>
+ * Use {@link #register(R5Board, String)} to register a monitor with the platform MBean server, and
+ * {@link #close()} it to unregister it when disposing the board.
+ */
+public final class R5BoardMonitor implements R5BoardMXBean, AutoCloseable {
+    public static final String DOMAIN = "li.cil.sedna";
+
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_SAMPLES = 64;
+
+    private static final String[] EXCEPTION_NAMES = {
+        "misaligned_fetch",
+        "fault_fetch",
+        "illegal_instruction",
+        "breakpoint",
+        "misaligned_load",
+        "fault_load",
+        "misaligned_store",
+        "fault_store",
+        "user_ecall",
+        "supervisor_ecall",
+        "hypervisor_ecall",
+        "machine_ecall",
+        "fetch_page_fault",
+        "load_page_fault",
+        null,
+        "store_page_fault",
+    };
+
+    private static final String[] INTERRUPT_NAMES = {
+        "user_software",
+        "supervisor_software",
+        "hypervisor_software",
+        "machine_software",
+        "user_timer",
+        "supervisor_timer",
+        "hypervisor_timer",
+        "machine_timer",
+        "user_external",
+        "supervisor_external",
+        "hypervisor_external",
+        "machine_external",
+    };
+
+    private final R5Board board;
+    private final long windowNanos;
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+    private ObjectName objectName;
+
+    private record Sample(long time, long instructions) { }
+
+    public R5BoardMonitor(final R5Board board) {
+        this(board, DEFAULT_WINDOW_NANOS);
+    }
+
+    /**
+     * Creates a new monitor for the specified board.
+     *
+     * @param board       the board to monitor.
+     * @param windowNanos the length of the sliding window guest MIPS are averaged over, in nanoseconds.
+     */
+    public R5BoardMonitor(final R5Board board, final long windowNanos) {
+        if (windowNanos <= 0) {
+            throw new IllegalArgumentException(String.format("Window must be positive [%d].", windowNanos));
+        }
+
+        this.board = board;
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Creates a monitor for the specified board and registers it with the platform MBean server.
+     * <p>
+     * The monitor is registered as {@code li.cil.sedna:type=R5Board,name=<name>}.
+     *
+     * @param board the board to monitor.
+     * @param name  the name to register the monitor under, must be unique among all boards.
+     * @return the registered monitor.
+     * @throws JMException if registering the monitor failed, e.g. because the name is already in use.
+     */
+    public static R5BoardMonitor register(final R5Board board, final String name) throws JMException {
+        final R5BoardMonitor monitor = new R5BoardMonitor(board);
+        monitor.objectName = new ObjectName(String.format("%s:type=R5Board,name=%s", DOMAIN, ObjectName.quote(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, monitor.objectName);
+        return monitor;
+    }
+
+    /**
+     * Unregisters this monitor from the platform MBean server, if it was registered.
+     *
+     * @throws JMException if unregistering the monitor failed.
+     */
+    @Override
+    public void close() throws JMException {
+        if (objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return board.isRunning();
+    }
+
+    @Override
+    public boolean isWaitingForInterrupt() {
+        return board.getCpu().isWaitingForInterrupt();
+    }
+
+    @Override
+    public long getCycles() {
+        return getStatistics().cycles();
+    }
+
+    @Override
+    public long getInstructionsRetired() {
+        return getStatistics().instructions();
+    }
+
+    @Override
+    public synchronized double getGuestMIPS() {
+        final long now = System.nanoTime();
+
+        // Limit the number of samples when polled at a high rate by replacing the most recent one.
+        if (samples.size() > 1 && now - samples.getLast().time() < windowNanos / MAX_SAMPLES) {
+            samples.removeLast();
+        }
+        samples.addLast(new Sample(now, getStatistics().instructions()));
+
+        // Keep one sample older than the window, so the window is always fully covered.
+        while (samples.size() > 2) {
+            final Sample first = samples.removeFirst();
+            if (now - samples.getFirst().time() < windowNanos) {
+                samples.addFirst(first);
+                break;
+            }
+        }
+
+        final Sample oldest = samples.getFirst();
+        final Sample newest = samples.getLast();
+        if (newest.time() == oldest.time()) {
+            return 0;
+        }
+
+        return (newest.instructions() - oldest.instructions()) * 1000.0 / (newest.time() - oldest.time());
+    }
+
+    @Override
+    public long getIdleCycles() {
+        return getStatistics().idleCycles();
+    }
+
+    @Override
+    public double getIdleSeconds() {
+        return getStatistics().idleCycles() / (double) board.getCpu().getFrequency();
+    }
+
+    @Override
+    public Map<String, Long> getExceptions() {
+        return countsByName(getStatistics().exceptions(), EXCEPTION_NAMES);
+    }
+
+    @Override
+    public Map<String, Long> getInterrupts() {
+        return countsByName(getStatistics().interrupts(), INTERRUPT_NAMES);
+    }
+
+    @Override
+    public long getPageWalks() {
+        return getStatistics().pageWalks();
+    }
+
+    @Override
+    public long getFetchTLBMisses() {
+        return getStatistics().fetchTLBMisses();
+    }
+
+    @Override
+    public long getLoadTLBMisses() {
+        return getStatistics().loadTLBMisses();
+    }
+
+    @Override
+    public long getStoreTLBMisses() {
+        return getStatistics().storeTLBMisses();
+    }
+
+    @Override
+    public double getTLBMissesPerKiloInstruction() {
+        final R5CPUStatistics statistics = getStatistics();
+        final long instructions = statistics.instructions();
+        if (instructions <= 0) {
+            return 0;
+        }
+
+        final long misses = statistics.fetchTLBMisses() + statistics.loadTLBMisses() + statistics.storeTLBMisses();
+        return misses * 1000.0 / instructions;
+    }
+
+    @Override
+    public Map<String, Long> getMMIOAccesses() {
+        final Map<String, Long> result = new TreeMap<>();
+        final MMIOStatistics statistics = board.getCpu().getMMIOStatistics();
+        if (statistics != null) {
+            for (final MMIOStatistics.Entry entry : statistics.getDeviceReport()) {
+                result.put(getDeviceName(entry.device()), entry.accesses());
+            }
+        }
+        return result;
+    }
+
+    private R5CPUStatistics getStatistics() {
+        return board.getCpu().getStatistics();
+    }
+
+    private String getDeviceName(final MemoryMappedDevice device) {
+        final Optional<MappedMemoryRange> range = board.getMemoryMap().getMemoryRange(device);
+        if (range.isPresent()) {
+            return String.format("%s@%x", device.getClass().getSimpleName(), range.get().address());
+        } else {
+            return String.format("%s@%x", device.getClass().getSimpleName(), System.identityHashCode(device));
+        }
+    }
+
+    private static Map<String, Long> countsByName(final long[] counts, final String[] names) {
+        final Map<String, Long> result = new TreeMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                final String name = i < names.length && names[i] != null ? names[i] : String.valueOf(i);
+                result.put(name, counts[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -1,11 +1,13 @@
 package li.cil.sedna.riscv;
 
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import li.cil.sedna.api.device.InterruptController;
 import li.cil.sedna.api.device.Resettable;
 import li.cil.sedna.api.device.Steppable;
 import li.cil.sedna.api.device.rtc.RealTimeCounter;
 import li.cil.sedna.api.memory.MemoryMap;
 import li.cil.sedna.gdbstub.CPUDebugInterface;
+import li.cil.sedna.memory.MMIOStatistics;
 
 import javax.annotation.Nullable;
 
@@ -14,6 +16,14 @@ public interface R5CPU extends Steppable, Resettable, RealTimeCounter, Interrupt
         return R5CPUGenerator.create(physicalMemory, rtc);
     }
 
+    static R5CPU create(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc, final boolean countInstructions) {
+        return R5CPUGenerator.create(physicalMemory, rtc, countInstructions);
+    }
+
+    static R5CPU create(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc, final boolean countInstructions, final boolean traceable) {
+        return R5CPUGenerator.create(physicalMemory, rtc, countInstructions, traceable);
+    }
+
     static R5CPU create(final MemoryMap physicalMemory) {
         return create(physicalMemory, null);
     }
@@ -26,7 +36,95 @@ public interface R5CPU extends Steppable, Resettable, RealTimeCounter, Interrupt
 
     void invalidateCaches();
 
+    /**
+     * Whether the hart is currently stalled in a {@code WFI} instruction.
+     * <p>
+     * While waiting, stepping the hart only advances its cycle counter.
+     *
+     * @return {@code true} if the hart is waiting for an interrupt; {@code false} otherwise.
+     */
+    boolean isWaitingForInterrupt();
+
+    /**
+     * Blocks the calling thread while the hart is {@link #isWaitingForInterrupt() waiting for an interrupt}.
+     * <p>
+     * Returns as soon as an interrupt enabled in {@code mie} is raised, from any thread, or when the
+     * timeout elapses. This must only be called by the thread that steps the hart.
+     *
+     * @param timeoutNanos the maximum time to wait, in nanoseconds.
+     * @return {@code true} if the hart has work to do; {@code false} if it is still waiting.
+     */
+    boolean awaitInterrupt(long timeoutNanos);
+
     void setFrequency(int value);
 
     CPUDebugInterface getDebugInterface();
+
+    /**
+     * Sets the profiler to record samples of this CPU's state with.
+     *
+     * @param profiler the profiler to use, or {@code null} to disable profiling.
+     */
+    void setProfiler(@Nullable R5Profiler profiler);
+
+    /**
+     * Sets the buffer to record an execution trace into.
+     * <p>
+     * Tracing is only supported by CPUs created with tracing support, see
+     * {@link R5CPUGenerator#create(MemoryMap, RealTimeCounter, boolean, boolean)}.
+     *
+     * @param traceBuffer the buffer to record into, or {@code null} to disable tracing.
+     * @throws IllegalStateException if a buffer is set and the CPU does not support tracing.
+     */
+    void setTraceBuffer(@Nullable R5TraceBuffer traceBuffer);
+
+    /**
+     * Sets the statistics to record loads and stores to memory mapped devices other than memory in.
+     * <p>
+     * This records the device and register accessed and the time each access took, which adds some
+     * overhead to every such access, so it is disabled by default.
+     *
+     * @param statistics the statistics to record into, or {@code null} to disable recording.
+     */
+    void setMMIOStatistics(@Nullable MMIOStatistics statistics);
+
+    /**
+     * Returns the statistics loads and stores to memory mapped devices are recorded in, if any.
+     *
+     * @return the current statistics, or {@code null} if recording is disabled.
+     */
+    @Nullable
+    MMIOStatistics getMMIOStatistics();
+
+    /**
+     * Returns the number of page table walks this hart has performed, i.e. the number of address
+     * translations that missed in the TLBs while paging was enabled.
+     *
+     * @return the number of page table walks since this CPU was created.
+     */
+    long getPageWalkCount();
+
+    /**
+     * Returns a snapshot of this CPU's diagnostic counters.
+     * <p>
+     * The counters are cheap enough to be maintained at all times. This may be called from any thread.
+     *
+     * @return the current counter values.
+     */
+    R5CPUStatistics getStatistics();
+
+    /**
+     * Returns how often each instruction has been executed, keyed by instruction name.
+     * <p>
+     * Instructions are only counted by CPUs created with instruction counting enabled, for all
+     * other CPUs this is always empty.
+     *
+     * @return the number of executions per instruction, for all instructions executed at least once.
+     */
+    Object2LongMap<String> getInstructionCounts();
+
+    /**
+     * Resets the number of executions of all instructions to zero.
+     */
+    void resetInstructionCounts();
 }
@@ -2,12 +2,19 @@ package li.cil.sedna.riscv;
 
 import li.cil.sedna.api.device.rtc.RealTimeCounter;
 import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.instruction.InstructionDeclaration;
+import li.cil.sedna.instruction.decoder.CountingDecoderGenerator;
 import li.cil.sedna.instruction.decoder.DecoderGenerator;
+import li.cil.sedna.instruction.decoder.TracingDecoderGenerator;
 import li.cil.sedna.riscv.exception.R5IllegalInstructionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.util.Throwables;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
@@ -17,24 +24,144 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the {@link R5CPU} implementation generated from {@link R5CPUTemplate}.
+ * <p>
+ * The build pre-generates the class using {@link #main(String[])} and packages it with the library, in which
+ * case it is loaded like any other class, and can be archived using AppCDS. If it is not present, e.g. when
+ * running from an IDE without the Gradle build, the class is generated on first use instead. The pre-generated
+ * class carries a hash of the template and the instruction specs it was generated from. If these have changed
+ * since, e.g. due to a stale build output, the class is ignored and generated on first use as well.
+ * <p>
+ * The variants with instruction counting or tracing support are always generated on first use, so the
+ * regular variant does not carry their decoders.
+ */
 public final class R5CPUGenerator {
+    private static final Logger LOGGER = LogManager.getLogger();
+
     public static final Class<R5CPUTemplate> TEMPLATE_CLASS = R5CPUTemplate.class;
     public static final String GENERATED_SUFFIX = "$Generated";
 
-    @SuppressWarnings("unchecked")
-    private static final Class<R5CPU> GENERATED_CLASS = (Class<R5CPU>) generateClass();
-    private static final Constructor<R5CPU> GENERATED_CLASS_CTOR;
+    private static final String INSTRUCTION_COUNTS_FIELD = "instructionCounts";
+    private static final String TRACEABLE_FIELD = "isTraceable";
+    private static final String TRACE_METHOD = "traceInstruction";
+    private static final String SOURCE_HASH_FIELD = "SOURCE_HASH";
+    private static final List<String> INSTRUCTION_SPEC_FILES = List.of(R5Instructions.RV32_INSTRUCTIONS_FILE, R5Instructions.RV64_INSTRUCTIONS_FILE);
+
+    // Regular variant, only loaded when first used, so that pre-generating it does not also generate it.
+    private static final class GeneratedClassHolder {
+        private static final Class<R5CPU> GENERATED_CLASS = loadOrGenerateClass(TEMPLATE_CLASS.getClassLoader());
+        private static final Constructor<R5CPU> GENERATED_CLASS_CTOR = getConstructor(GENERATED_CLASS);
+    }
+
+    // Variants with instruction counting and/or tracing, only generated when first used.
+    private static final Map<Variant, GeneratedVariant> GENERATED_VARIANTS = new ConcurrentHashMap<>();
+
+    private record Variant(boolean countInstructions, boolean traceable) {
+    }
+
+    private record GeneratedVariant(Class<R5CPU> generatedClass, Constructor<R5CPU> ctor) {
+        public static GeneratedVariant generate(final Variant variant) {
+            final Class<R5CPU> generatedClass = generateClass(variant.countInstructions(), variant.traceable());
+            return new GeneratedVariant(generatedClass, getConstructor(generatedClass));
+        }
+    }
+
+    /**
+     * Writes the class files of the generated CPU class and its nested classes to a directory, laid
+     * out by package. Used by the build to pre-generate the class.
+     *
+     * @param args the output directory.
+     * @throws IOException if writing a class file fails.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: R5CPUGenerator <output directory>");
+        }
+
+        final Path outputDirectory = Paths.get(args[0]);
+        for (final Map.Entry<String, byte[]> entry : generateClassFiles(false, false).entrySet()) {
+            final Path path = outputDirectory.resolve(entry.getKey() + ".class");
+            Files.createDirectories(path.getParent());
+            Files.write(path, entry.getValue());
+        }
+    }
 
     public static Class<R5CPU> getGeneratedClass() {
-        return GENERATED_CLASS;
+        return GeneratedClassHolder.GENERATED_CLASS;
+    }
+
+    public static Class<R5CPU> getGeneratedClass(final boolean countInstructions) {
+        return getGeneratedClass(countInstructions, false);
+    }
+
+    public static Class<R5CPU> getGeneratedClass(final boolean countInstructions, final boolean traceable) {
+        if (!countInstructions && !traceable) {
+            return GeneratedClassHolder.GENERATED_CLASS;
+        }
+        return getGeneratedVariant(countInstructions, traceable).generatedClass();
     }
 
     public static R5CPU create(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc) {
+        return create(physicalMemory, rtc, false);
+    }
+
+    public static R5CPU create(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc, final boolean countInstructions) {
+        return create(physicalMemory, rtc, countInstructions, false);
+    }
+
+    /**
+     * Creates a new CPU instance.
+     * <p>
+     * When instruction counting is enabled, the CPU uses a variant of the generated class which counts
+     * how often each instruction is executed, see {@link R5CPU#getInstructionCounts()}. This comes at a
+     * performance cost, so it should only be enabled for analysis.
+     * <p>
+     * When tracing support is enabled, the CPU uses a variant of the generated class which additionally
+     * contains a decoder recording each instruction, used while a trace buffer is set, see
+     * {@link R5CPU#setTraceBuffer(R5TraceBuffer)}. While no buffer is set it runs as fast as the regular
+     * variant, but its second set of decoders makes the class about a third larger, so it is only
+     * generated when requested.
+     *
+     * @param physicalMemory    the memory map the CPU operates on.
+     * @param rtc               the real time counter to use, or {@code null} to use the CPU's cycle counter.
+     * @param countInstructions whether to count executed instructions.
+     * @param traceable         whether the CPU supports recording execution traces.
+     * @return the new CPU instance.
+     */
+    public static R5CPU create(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc, final boolean countInstructions, final boolean traceable) {
+        if (!countInstructions && !traceable) {
+            return newInstance(GeneratedClassHolder.GENERATED_CLASS_CTOR, physicalMemory, rtc);
+        }
+
+        final GeneratedVariant variant = getGeneratedVariant(countInstructions, traceable);
+        final R5CPU cpu = newInstance(variant.ctor(), physicalMemory, rtc);
+        if (countInstructions) {
+            setField(cpu, INSTRUCTION_COUNTS_FIELD, new long[R5Instructions.getInstructionNames().size()]);
+        }
+        if (traceable) {
+            setField(cpu, TRACEABLE_FIELD, true);
+        }
+        return cpu;
+    }
+
+    private static GeneratedVariant getGeneratedVariant(final boolean countInstructions, final boolean traceable) {
+        return GENERATED_VARIANTS.computeIfAbsent(new Variant(countInstructions, traceable), GeneratedVariant::generate);
+    }
+
+    private static R5CPU newInstance(final Constructor<R5CPU> ctor, final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc) {
         try {
-            return GENERATED_CLASS_CTOR.newInstance(physicalMemory, rtc);
+            return ctor.newInstance(physicalMemory, rtc);
         } catch (final InvocationTargetException e) {
             Throwables.rethrow(e.getCause());
             throw new AssertionError();
@@ -43,15 +170,112 @@ public final class R5CPUGenerator {
         }
     }
 
-    static {
+    // Loads the pre-generated class from the specified class loader, if present and up-to-date. Otherwise,
+    // generates the class. The source hash is read from the class file, so stale classes never get loaded.
+    @SuppressWarnings("unchecked")
+    static Class<R5CPU> loadOrGenerateClass(final ClassLoader classLoader) {
+        final String generatedClassName = TEMPLATE_CLASS.getName() + GENERATED_SUFFIX;
+        try (final InputStream stream = classLoader.getResourceAsStream(generatedClassName.replace('.', '/') + ".class")) {
+            if (stream != null) {
+                if (Objects.equals(readSourceHash(stream.readAllBytes()), computeSourceHash())) {
+                    final Class<?> generatedClass = Class.forName(generatedClassName, false, classLoader);
+                    if (R5CPU.class.isAssignableFrom(generatedClass)) {
+                        return (Class<R5CPU>) generatedClass;
+                    }
+                } else {
+                    LOGGER.warn("Pre-generated class [{}] is out of date, generating it instead.", generatedClassName);
+                }
+            }
+        } catch (final IOException | ClassNotFoundException e) {
+            LOGGER.warn("Failed loading pre-generated class [{}], generating it instead.", generatedClassName, e);
+        }
+
+        return generateClass(false, false);
+    }
+
+    /**
+     * Computes a hash of the inputs the generated class is created from, i.e. the class files of the template
+     * and its nested classes, and the instruction specs.
+     *
+     * @return the hash as a hexadecimal string.
+     * @throws IOException if reading one of the inputs fails.
+     */
+    static String computeSourceHash() throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        final ClassLoader classLoader = TEMPLATE_CLASS.getClassLoader();
+        final byte[] templateClassFile = readClassFile(classLoader, Type.getInternalName(TEMPLATE_CLASS));
+        digest.update(templateClassFile);
+
+        final RemappedTypeCollector typeCollector = new RemappedTypeCollector(TEMPLATE_CLASS);
+        new ClassReader(templateClassFile).accept(typeCollector.getVisitor(), ClassReader.SKIP_FRAMES);
+        for (final String remappedTypeName : new TreeSet<>(typeCollector.getRemappedTypeNames())) {
+            if (!Objects.equals(remappedTypeName, typeCollector.getHostClassName())) {
+                digest.update(readClassFile(classLoader, remappedTypeName));
+            }
+        }
+
+        for (final String specFile : INSTRUCTION_SPEC_FILES) {
+            try (final InputStream stream = R5Instructions.class.getResourceAsStream(specFile)) {
+                if (stream == null) {
+                    throw new IOException(String.format("Could not load instruction spec [%s].", specFile));
+                }
+                digest.update(stream.readAllBytes());
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Nullable
+    private static String readSourceHash(final byte[] classFile) {
+        final String[] sourceHash = {null};
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public FieldVisitor visitField(final int access, final String name, final String descriptor, final String signature, final Object value) {
+                if (Objects.equals(name, SOURCE_HASH_FIELD) && value instanceof String) {
+                    sourceHash[0] = (String) value;
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return sourceHash[0];
+    }
+
+    private static byte[] readClassFile(final ClassLoader classLoader, final String internalName) throws IOException {
+        try (final InputStream stream = classLoader.getResourceAsStream(internalName + ".class")) {
+            if (stream == null) {
+                throw new IOException(String.format("Could not load class file for class [%s].", internalName));
+            }
+            return stream.readAllBytes();
+        }
+    }
+
+    private static Constructor<R5CPU> getConstructor(final Class<R5CPU> generatedClass) {
         try {
-            GENERATED_CLASS_CTOR = GENERATED_CLASS.getDeclaredConstructor(MemoryMap.class, RealTimeCounter.class);
-            GENERATED_CLASS_CTOR.setAccessible(true);
+            final Constructor<R5CPU> ctor = generatedClass.getDeclaredConstructor(MemoryMap.class, RealTimeCounter.class);
+            ctor.setAccessible(true);
+            return ctor;
         } catch (final NoSuchMethodException e) {
             throw new AssertionError(e);
         }
     }
 
+    private static void setField(final R5CPU cpu, final String name, final Object value) {
+        try {
+            final Field field = cpu.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(cpu, value);
+        } catch (final NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     private static class RemappedTypeCollector extends Remapper {
         private final Set<String> remappedTypeNames = new HashSet<>();
         private final String hostClassName;
@@ -134,10 +358,22 @@ public final class R5CPUGenerator {
         }
     }
 
-    private static Class<?> generateClass() {
+    @SuppressWarnings("unchecked")
+    private static Class<R5CPU> generateClass(final boolean countInstructions, final boolean traceable) {
+        final CPUClassLoader definerClassLoader = new CPUClassLoader();
+        Class<?> generatedClass = null;
+        for (final byte[] bytes : generateClassFiles(countInstructions, traceable).values()) {
+            generatedClass = definerClassLoader.defineClass(bytes);
+        }
+        return (Class<R5CPU>) generatedClass;
+    }
+
+    // Returns the class files of the generated class and its nested classes by their internal name.
+    // Nested classes come first, the generated CPU class last.
+    private static Map<String, byte[]> generateClassFiles(final boolean countInstructions, final boolean traceable) {
         try {
             final ClassLoader classLoader = TEMPLATE_CLASS.getClassLoader();
-            final CPUClassLoader definerClassLoader = new CPUClassLoader();
+            final Map<String, byte[]> classFiles = new LinkedHashMap<>();
 
             try (final InputStream stream = classLoader.getResourceAsStream(TEMPLATE_CLASS.getName().replace('.', '/') + ".class")) {
                 if (stream == null) {
@@ -165,39 +401,90 @@ public final class R5CPUGenerator {
                         final RemappedTypeClassWriter nestedTypeWriter = new RemappedTypeClassWriter(remappedTypeNames);
                         nestedTypeReader.accept(new ClassRemapper(nestedTypeWriter, remapper), ClassReader.EXPAND_FRAMES);
 
-                        definerClassLoader.defineClass(nestedTypeWriter.toByteArray());
+                        classFiles.put(remapper.map(remappedTypeName), nestedTypeWriter.toByteArray());
                     } catch (final Throwable e) {
                         throw new AssertionError(e);
                     }
                 }
 
                 final RemappedTypeClassWriter writer = new RemappedTypeClassWriter(remappedTypeNames);
-                final DecoderGenerator generator64 = new DecoderGenerator(
-                    new ClassRemapper(writer, remapper),
-                    R5Instructions.RV64.getDecoderTree(),
-                    R5Instructions.RV64::getDefinition,
-                    R5IllegalInstructionException.class,
-                    "interpretTrace64",
-                    "decode");
-                final DecoderGenerator generator32 = new DecoderGenerator(
-                    generator64,
-                    R5Instructions.RV32.getDecoderTree(),
-                    R5Instructions.RV32::getDefinition,
-                    R5IllegalInstructionException.class,
-                    "interpretTrace32",
-                    "decode");
-
-                reader.accept(generator32, ClassReader.EXPAND_FRAMES);
-
-                final byte[] bytes = writer.toByteArray();
-
-                return definerClassLoader.defineClass(bytes);
+                final String sourceHash = computeSourceHash();
+                ClassVisitor generator = new ClassRemapper(writer, remapper);
+                generator = new ClassVisitor(Opcodes.ASM7, generator) {
+                    @Override
+                    public void visitEnd() {
+                        final FieldVisitor fv = super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                            SOURCE_HASH_FIELD, Type.getDescriptor(String.class), null, sourceHash);
+                        fv.visitEnd();
+                        super.visitEnd();
+                    }
+                };
+                generator = createDecoderGenerator(generator, R5Instructions.RV64, "interpretTrace64", countInstructions, false);
+                generator = createDecoderGenerator(generator, R5Instructions.RV32, "interpretTrace32", countInstructions, false);
+                if (traceable) {
+                    generator = createDecoderGenerator(generator, R5Instructions.RV64, "interpretTrace64Traced", countInstructions, true);
+                    generator = createDecoderGenerator(generator, R5Instructions.RV32, "interpretTrace32Traced", countInstructions, true);
+                }
+
+                reader.accept(generator, ClassReader.EXPAND_FRAMES);
+
+                classFiles.put(remapper.map(typeCollector.getHostClassName()), writer.toByteArray());
+
+                return classFiles;
             }
         } catch (final Throwable e) {
             throw new AssertionError(e);
         }
     }
 
+    private static DecoderGenerator createDecoderGenerator(final ClassVisitor cv, final R5Instructions.Spec spec, final String decoderMethod,
+                                                           final boolean countInstructions, final boolean trace) {
+        if (countInstructions && trace) {
+            return new CountingDecoderGenerator(
+                cv,
+                spec.getDecoderTree(),
+                spec::getDefinition,
+                R5IllegalInstructionException.class,
+                decoderMethod,
+                "decode",
+                INSTRUCTION_COUNTS_FIELD,
+                R5Instructions::getInstructionIndex) {
+                @Override
+                protected void emitInstructionPrologue(final GeneratorContext context, final InstructionDeclaration declaration) {
+                    super.emitInstructionPrologue(context, declaration);
+                    TracingDecoderGenerator.emitTraceCall(context, getHostClassInternalName(), TRACE_METHOD);
+                }
+            };
+        } else if (trace) {
+            return new TracingDecoderGenerator(
+                cv,
+                spec.getDecoderTree(),
+                spec::getDefinition,
+                R5IllegalInstructionException.class,
+                decoderMethod,
+                "decode",
+                TRACE_METHOD);
+        } else if (countInstructions) {
+            return new CountingDecoderGenerator(
+                cv,
+                spec.getDecoderTree(),
+                spec::getDefinition,
+                R5IllegalInstructionException.class,
+                decoderMethod,
+                "decode",
+                INSTRUCTION_COUNTS_FIELD,
+                R5Instructions::getInstructionIndex);
+        } else {
+            return new DecoderGenerator(
+                cv,
+                spec.getDecoderTree(),
+                spec::getDefinition,
+                R5IllegalInstructionException.class,
+                decoderMethod,
+                "decode");
+        }
+    }
+
     private static class CPUClassLoader extends ClassLoader {
         public CPUClassLoader() {
             super(CPUClassLoader.class.getClassLoader());
@@ -0,0 +1,31 @@
+package li.cil.sedna.riscv;
+
+/**
+ * Snapshot of the diagnostic counters of an {@link R5CPU}, see {@link R5CPU#getStatistics()}.
+ * <p>
+ * The counters are updated by the thread stepping the CPU without synchronization, so a snapshot taken
+ * on another thread may be slightly out of date, and its values are not necessarily consistent with
+ * each other. Except for the cycle count, which is the hart's {@code mcycle} register, all counters
+ * start at zero when the CPU is created and are not affected by resets.
+ *
+ * @param cycles         the number of cycles the hart has run for since its last reset.
+ * @param instructions   the number of instructions the hart has retired. Instructions raising an
+ *                       exception, including {@code ECALL} and {@code EBREAK}, do not retire.
+ * @param idleCycles     the number of cycles the hart has spent waiting for an interrupt.
+ * @param pageWalks      the number of page table walks.
+ * @param fetchTLBMisses the number of misses in the instruction fetch TLB.
+ * @param loadTLBMisses  the number of misses in the load TLB.
+ * @param storeTLBMisses the number of misses in the store TLB.
+ * @param exceptions     the number of exceptions taken, indexed by exception code.
+ * @param interrupts     the number of interrupts taken, indexed by interrupt code.
+ */
+public record R5CPUStatistics(long cycles,
+                              long instructions,
+                              long idleCycles,
+                              long pageWalks,
+                              long fetchTLBMisses,
+                              long loadTLBMisses,
+                              long storeTLBMisses,
+                              long[] exceptions,
+                              long[] interrupts) {
+}
@@ -4,9 +4,13 @@ import it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import jdk.jfr.EventType;
 import li.cil.ceres.api.Serialized;
 import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.MemoryMappedDevice;
+import li.cil.sedna.api.device.PhysicalMemory;
 import li.cil.sedna.api.device.rtc.RealTimeCounter;
 import li.cil.sedna.api.memory.MappedMemoryRange;
 import li.cil.sedna.api.memory.MemoryAccessException;
@@ -16,6 +20,9 @@ import li.cil.sedna.instruction.InstructionDefinition.Field;
 import li.cil.sedna.instruction.InstructionDefinition.Instruction;
 import li.cil.sedna.instruction.InstructionDefinition.InstructionSize;
 import li.cil.sedna.instruction.InstructionDefinition.ProgramCounter;
+import li.cil.sedna.jfr.TLBFlushEvent;
+import li.cil.sedna.jfr.TrapEvent;
+import li.cil.sedna.memory.MMIOStatistics;
 import li.cil.sedna.riscv.exception.R5IllegalInstructionException;
 import li.cil.sedna.riscv.exception.R5MemoryAccessException;
 import li.cil.sedna.utils.BitUtils;
@@ -27,7 +34,9 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.LongConsumer;
 
 /**
@@ -63,6 +72,14 @@ final class R5CPUTemplate implements R5CPU {
 
     // Translation look-aside buffer config.
     private static final int TLB_SIZE = 256; // Must be a power of two for fast modulo via `& (TLB_SIZE - 1)`.
+    private static final int NAPOT_64K_PAGES = 1 << (R5.NAPOT_64K_SHIFT - R5.PAGE_ADDRESS_SHIFT);
+
+    // Number of trap causes counted per kind. Must be a power of two, causes are masked into range.
+    private static final int TRAP_CAUSE_COUNT = 64;
+
+    // Checked before creating events, so hot paths do not allocate them while not recording.
+    private static final EventType TRAP_EVENT_TYPE = EventType.getEventType(TrapEvent.class);
+    private static final EventType TLB_FLUSH_EVENT_TYPE = EventType.getEventType(TLBFlushEvent.class);
 
     ///////////////////////////////////////////////////////////////////
     // RV32I / RV64I
@@ -113,7 +130,8 @@ final class R5CPUTemplate implements R5CPU {
     ///////////////////////////////////////////////////////////////////
     // Misc. state
     private int priv; // Current privilege level.
-    private boolean waitingForInterrupt;
+    private boolean waitingForInterrupt; // Only accessed by the thread stepping the hart.
+    @Nullable private transient volatile Thread interruptWaiter; // Thread blocked in awaitInterrupt.
 
     ///////////////////////////////////////////////////////////////////
     // Memory access
@@ -123,9 +141,18 @@ final class R5CPUTemplate implements R5CPU {
     private final transient TLBEntry[] loadTLB = new TLBEntry[TLB_SIZE];
     private final transient TLBEntry[] storeTLB = new TLBEntry[TLB_SIZE];
 
+    // Set by the page walker if the last translated page is part of a Svnapot range.
+    private transient boolean isNapotTranslation;
+    // Set when a TLB entry is filled from a Svnapot range, cleared when all TLBs are flushed.
+    private transient boolean hasNapotEntries;
+
     // Access to physical memory for load/store operations.
     private final transient MemoryMap physicalMemory;
 
+    // Dirty tracking epoch of the physical memory the store TLB was filled in. Only checked at the
+    // start of a step, so dirty pages must be harvested between steps to not miss any stores.
+    private transient long dirtyTrackingEpoch;
+
     ///////////////////////////////////////////////////////////////////
     // Stepping
     private int cycleDebt; // Traces may lead to us running more cycles than given, remember to pay it back.
@@ -138,6 +165,35 @@ final class R5CPUTemplate implements R5CPU {
     private transient int cycleFrequency = 50_000_000;
     private final transient DebugInterface debugInterface = new DebugInterface();
 
+    ///////////////////////////////////////////////////////////////////
+    // Profiling
+    // Set from other threads, so the profiler and its call stack buffer are published together.
+    @Nullable private transient volatile ProfilerState profiler;
+    @Nullable private transient ProfilerState scheduledProfiler; // Only accessed by the thread stepping the hart.
+    private transient long nextProfilerSample;
+
+    // Diagnostic counters, see getStatistics.
+    private transient long pageWalks;
+    private transient long idleCycles;
+    private transient long instructionsRetired;
+    private transient long stallCycles; // Cycles spent on neither instructions nor waiting, see retireInstructions.
+    private transient long fetchTLBMisses, loadTLBMisses, storeTLBMisses;
+    private final transient long[] exceptionCounts = new long[TRAP_CAUSE_COUNT];
+    private final transient long[] interruptCounts = new long[TRAP_CAUSE_COUNT];
+
+    // Per instruction execution counts, indexed by R5Instructions.getInstructionIndex. Only
+    // allocated and updated by the instruction counting variant of the generated class, see
+    // R5CPUGenerator, so that regular instances do not have to load the instruction specs.
+    @Nullable private transient long[] instructionCounts;
+
+    ///////////////////////////////////////////////////////////////////
+    // Tracing
+    // Only set for the tracing variants of the generated class, see R5CPUGenerator. The traced
+    // interpreter loops only contain a decoder in those.
+    private transient boolean isTraceable;
+    @Nullable private transient R5TraceBuffer traceBuffer;
+    @Nullable private transient MMIOStatistics mmioStatistics;
+
     public R5CPUTemplate(final MemoryMap physicalMemory, @Nullable final RealTimeCounter rtc) {
         // This cast is necessary so that stack frame computation in ASM does not throw
         // an exception from trying to load the realization class we're generating while
@@ -235,6 +291,35 @@ final class R5CPUTemplate implements R5CPU {
         flushTLB();
     }
 
+    @Override
+    public boolean isWaitingForInterrupt() {
+        return waitingForInterrupt && (mip.get() & mie) == 0;
+    }
+
+    @Override
+    public boolean awaitInterrupt(final long timeoutNanos) {
+        if (!isWaitingForInterrupt() || timeoutNanos <= 0) {
+            return !isWaitingForInterrupt();
+        }
+
+        // Publish the waiter before checking mip again. raiseInterrupts updates mip before reading
+        // the waiter, so either it sees us and unparks, or we see the new pending interrupt.
+        interruptWaiter = Thread.currentThread();
+        try {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            while (isWaitingForInterrupt()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            interruptWaiter = null;
+        }
+    }
+
     @Override
     public long getTime() {
         return mcycle;
@@ -255,17 +340,86 @@ final class R5CPUTemplate implements R5CPU {
         return debugInterface;
     }
 
+    @Override
+    public void setProfiler(@Nullable final R5Profiler profiler) {
+        this.profiler = profiler != null ? new ProfilerState(profiler, new long[profiler.getMaxDepth()]) : null;
+    }
+
+    @Override
+    public void setTraceBuffer(@Nullable final R5TraceBuffer traceBuffer) {
+        if (traceBuffer != null && !isTraceable) {
+            throw new IllegalStateException("CPU was not created with tracing support.");
+        }
+        this.traceBuffer = traceBuffer;
+    }
+
+    @Override
+    public void setMMIOStatistics(@Nullable final MMIOStatistics statistics) {
+        this.mmioStatistics = statistics;
+    }
+
+    @Nullable
+    @Override
+    public MMIOStatistics getMMIOStatistics() {
+        return mmioStatistics;
+    }
+
+    @Override
+    public long getPageWalkCount() {
+        return pageWalks;
+    }
+
+    @Override
+    public R5CPUStatistics getStatistics() {
+        return new R5CPUStatistics(
+            mcycle,
+            instructionsRetired,
+            idleCycles,
+            pageWalks,
+            fetchTLBMisses,
+            loadTLBMisses,
+            storeTLBMisses,
+            exceptionCounts.clone(),
+            interruptCounts.clone());
+    }
+
+    @Override
+    public Object2LongMap<String> getInstructionCounts() {
+        final Object2LongMap<String> result = new Object2LongLinkedOpenHashMap<>();
+        if (instructionCounts == null) {
+            return result;
+        }
+
+        final List<String> names = R5Instructions.getInstructionNames();
+        for (int i = 0; i < instructionCounts.length; i++) {
+            if (instructionCounts[i] != 0) {
+                result.put(names.get(i), instructionCounts[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void resetInstructionCounts() {
+        if (instructionCounts != null) {
+            Arrays.fill(instructionCounts, 0);
+        }
+    }
+
     @Override
     public void raiseInterrupts(final int mask) {
-        mip.updateAndGet(operand -> operand | mask);
-        if (waitingForInterrupt && (mip.get() & mie) != 0) {
-            waitingForInterrupt = false;
+        // May be called from any thread, so only touch mip here. The hart leaves WFI in step.
+        mip.getAndAccumulate(mask, (operand, bits) -> operand | bits);
+
+        final Thread waiter = interruptWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
         }
     }
 
     @Override
     public void lowerInterrupts(final int mask) {
-        mip.updateAndGet(operand -> operand & ~mask);
+        mip.getAndAccumulate(mask, (operand, bits) -> operand & ~bits);
     }
 
     @Override
@@ -274,15 +428,36 @@ final class R5CPUTemplate implements R5CPU {
     }
 
     public void step(int cycles) {
+        // Dirty pages were harvested, stores have to go through the slow path again to mark them.
+        final long epoch = physicalMemory.getDirtyTrackingEpoch();
+        if (epoch != dirtyTrackingEpoch) {
+            dirtyTrackingEpoch = epoch;
+            flushStoreTLB();
+        }
+
         final int paidDebt = Math.min(cycles, cycleDebt);
         cycles -= paidDebt;
         cycleDebt -= paidDebt;
 
         if (waitingForInterrupt) {
-            mcycle += cycles;
-            return;
+            if ((mip.get() & mie) == 0) {
+                mcycle += cycles;
+                idleCycles += cycles;
+                return;
+            }
+
+            waitingForInterrupt = false;
+        }
+
+        final ProfilerState profiler = this.profiler;
+        if (profiler != scheduledProfiler) {
+            scheduledProfiler = profiler;
+            if (profiler != null) {
+                nextProfilerSample = mcycle + profiler.profiler().getInterval();
+            }
         }
 
+        final long retireStart = getRetireCycles();
         final long cycleLimit = mcycle + cycles;
         while (!waitingForInterrupt && mcycle < cycleLimit) {
             final long pending = mip.get() & mie;
@@ -290,16 +465,152 @@ final class R5CPUTemplate implements R5CPU {
                 raiseInterrupt(pending);
             }
 
+            if (profiler != null && mcycle >= nextProfilerSample) {
+                sampleProfiler(profiler);
+            }
+
             interpret(false, false);
         }
 
         if (waitingForInterrupt && mcycle < cycleLimit) {
+            idleCycles += cycleLimit - mcycle;
             mcycle = cycleLimit;
         }
 
+        retireInstructions(retireStart);
         cycleDebt += (int) (cycleLimit - mcycle);
     }
 
+    // Retired instructions are derived from the cycles spent once per batch, instead of being counted
+    // in the interpreter loops: each cycle either executes an instruction, is spent waiting for an
+    // interrupt, or is a stall cycle, i.e. taking a trap or executing an instruction that raises one.
+    private long getRetireCycles() {
+        return mcycle - idleCycles - stallCycles;
+    }
+
+    private void retireInstructions(final long retireStart) {
+        instructionsRetired += getRetireCycles() - retireStart;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    // Profiling
+
+    private void sampleProfiler(final ProfilerState profiler) {
+        nextProfilerSample = mcycle + profiler.profiler().getInterval();
+
+        // Walk the frame pointer chain. With frame pointers, s0 points at the stack pointer
+        // the current function was entered with, and the return address and the frame pointer
+        // of the caller are stored right below that.
+        final long[] callStack = profiler.callStack();
+        final int wordSize = xlen / 8;
+        final int wordSizeLog2 = xlen == R5.XLEN_32 ? Sizes.SIZE_32_LOG2 : Sizes.SIZE_64_LOG2;
+
+        int depth = 0;
+        callStack[depth++] = pc;
+        long fp = x[8];
+        while (depth < callStack.length && fp != 0 && (fp & (wordSize - 1)) == 0) {
+            final long ra, callerFp;
+            try {
+                ra = loadProfilerStackWord(fp - wordSize, wordSizeLog2);
+                callerFp = loadProfilerStackWord(fp - 2L * wordSize, wordSizeLog2);
+            } catch (final R5MemoryAccessException | MemoryAccessException e) {
+                break;
+            }
+
+            if (ra == 0) {
+                break;
+            }
+
+            callStack[depth++] = ra;
+
+            // Stacks grow downwards, so anything else means we're looking at garbage.
+            if (Long.compareUnsigned(callerFp, fp) <= 0) {
+                break;
+            }
+            fp = callerFp;
+        }
+
+        profiler.profiler().record(priv, callStack, depth);
+    }
+
+    private long loadProfilerStackWord(final long address, final int sizeLog2) throws R5MemoryAccessException, MemoryAccessException {
+        // Use the debug path to not pollute the TLB, and only ever read from memory, never from other devices.
+        final TLBEntry entry = debugInterface.getPageDebug(address, MemoryAccessType.LOAD);
+        if (!entry.device.supportsFetch()) {
+            throw new MemoryAccessException();
+        }
+        return entry.device.load((int) (address + entry.toOffset), sizeLog2);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    // Tracing
+
+    // Called by the generated decoder in the traced variants of the trace loop, before each instruction.
+    private void traceInstruction(final int inst, final long pc) {
+        final R5TraceBuffer traceBuffer = this.traceBuffer;
+        if (traceBuffer == null) {
+            return;
+        }
+
+        final int rs1;
+        final long offset;
+        if ((inst & 0b11) == 0b11) {
+            switch (inst & 0b1111111) {
+                case 0b0000011, 0b0000111 -> { // LOAD, LOAD-FP
+                    rs1 = (inst >>> 15) & 0b11111;
+                    offset = inst >> 20;
+                }
+                case 0b0100011, 0b0100111 -> { // STORE, STORE-FP
+                    rs1 = (inst >>> 15) & 0b11111;
+                    offset = ((inst >> 25) << 5) | ((inst >>> 7) & 0b11111);
+                }
+                case 0b0101111 -> { // AMO
+                    rs1 = (inst >>> 15) & 0b11111;
+                    offset = 0;
+                }
+                default -> {
+                    traceBuffer.record(pc, inst);
+                    return;
+                }
+            }
+        } else {
+            // Compressed loads and stores, either relative to rs1' or sp. Funct3 0b011 and 0b111 are
+            // doubleword accesses for RV64 and word sized floating point accesses for RV32.
+            final int funct3 = (inst >>> 13) & 0b111;
+            final boolean isDoubleword = funct3 == 0b001 || funct3 == 0b101 ||
+                (xlen != R5.XLEN_32 && (funct3 == 0b011 || funct3 == 0b111));
+            if ((inst & 0b11) == 0b00 && funct3 != 0b000 && funct3 != 0b100) {
+                rs1 = 8 + ((inst >>> 7) & 0b111);
+                if (isDoubleword) { // uimm[5:3|7:6]
+                    offset = ((inst >>> 7) & 0b111000) | ((inst << 1) & 0b11000000);
+                } else { // uimm[5:3|2|6]
+                    offset = ((inst >>> 7) & 0b111000) | ((inst >>> 4) & 0b100) | ((inst << 1) & 0b1000000);
+                }
+            } else if ((inst & 0b11) == 0b10 && funct3 != 0b000 && funct3 != 0b100) {
+                rs1 = 2;
+                if (funct3 < 0b100) { // Loads, uimm[5|4:3|8:6] or uimm[5|4:2|7:6].
+                    if (isDoubleword) {
+                        offset = ((inst >>> 7) & 0b100000) | ((inst >>> 2) & 0b11000) | ((inst << 4) & 0b111000000);
+                    } else {
+                        offset = ((inst >>> 7) & 0b100000) | ((inst >>> 2) & 0b11100) | ((inst << 4) & 0b11000000);
+                    }
+                } else { // Stores, uimm[5:3|8:6] or uimm[5:2|7:6].
+                    if (isDoubleword) {
+                        offset = ((inst >>> 7) & 0b111000) | ((inst >>> 1) & 0b111000000);
+                    } else {
+                        offset = ((inst >>> 7) & 0b111100) | ((inst >>> 1) & 0b11000000);
+                    }
+                }
+            } else {
+                traceBuffer.record(pc, inst);
+                return;
+            }
+        }
+
+        final long address = x[rs1] + offset;
+        traceBuffer.record(pc, inst, xlen == R5.XLEN_32 ? address & 0xFFFFFFFFL : address);
+    }
+
     ///////////////////////////////////////////////////////////////////
     // Interpretation
 
@@ -349,10 +660,20 @@ final class R5CPUTemplate implements R5CPU {
                 return;
             }
 
-            if (xlen == R5.XLEN_32) {
-                interpretTrace32(device, inst, pc, instOffset, singleStep ? 0 : instEnd, ignoreBreakpoints ? null : cache.breakpoints);
+            final int end = singleStep ? 0 : instEnd;
+            final LongSet breakpoints = ignoreBreakpoints ? null : cache.breakpoints;
+            if (traceBuffer != null) {
+                if (xlen == R5.XLEN_32) {
+                    interpretTrace32Traced(device, inst, pc, instOffset, end, breakpoints);
+                } else {
+                    interpretTrace64Traced(device, inst, pc, instOffset, end, breakpoints);
+                }
             } else {
-                interpretTrace64(device, inst, pc, instOffset, singleStep ? 0 : instEnd, ignoreBreakpoints ? null : cache.breakpoints);
+                if (xlen == R5.XLEN_32) {
+                    interpretTrace32(device, inst, pc, instOffset, end, breakpoints);
+                } else {
+                    interpretTrace64(device, inst, pc, instOffset, end, breakpoints);
+                }
             }
         } catch (final R5MemoryAccessException e) {
             raiseException(e.getType(), e.getAddress());
@@ -391,10 +712,10 @@ final class R5CPUTemplate implements R5CPU {
             raiseException(R5.EXCEPTION_FAULT_FETCH, pc);
         } catch (final R5IllegalInstructionException e) {
             this.pc = pc;
-            raiseException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
+            raiseInstructionException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
         } catch (final R5MemoryAccessException e) {
             this.pc = pc;
-            raiseException(e.getType(), e.getAddress());
+            raiseInstructionException(e.getType(), e.getAddress());
         }
     }
 
@@ -427,10 +748,86 @@ final class R5CPUTemplate implements R5CPU {
             raiseException(R5.EXCEPTION_FAULT_FETCH, pc);
         } catch (final R5IllegalInstructionException e) {
             this.pc = pc;
-            raiseException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
+            raiseInstructionException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
         } catch (final R5MemoryAccessException e) {
             this.pc = pc;
-            raiseException(e.getType(), e.getAddress());
+            raiseInstructionException(e.getType(), e.getAddress());
+        }
+    }
+
+    // Variants of the above used while an execution trace is recorded. The generated decoder calls
+    // traceInstruction before each instruction in these, so the regular variants stay unaffected.
+    // The decoder is only generated into these for the tracing variants of the generated class.
+
+    @SuppressWarnings("LocalCanBeFinal") // `pc` and `instOffset` get updated by the generated code replacing decode().
+    private void interpretTrace32Traced(final MemoryMappedDevice device, int inst, long pc, int instOffset, final int instEnd, final LongSet breakpoints) {
+        try { // Catch any exceptions to patch PC field.
+            for (; ; ) { // End of page check at the bottom since we enter with a valid inst.
+                if (breakpoints != null && breakpoints.contains(pc)) {
+                    this.pc = pc;
+                    debugInterface.handleBreakpoint(pc);
+                    return;
+                }
+                mcycle++;
+
+                ///////////////////////////////////////////////////////////////////
+                // This is the hook we replace when generating the decoder code. //
+                decode();                                                        //
+                // See R5CPUGenerator.                                           //
+                ///////////////////////////////////////////////////////////////////
+
+                if (Integer.compareUnsigned(instOffset, instEnd) < 0) { // Likely case: we're still fully in the page.
+                    inst = (int) device.load(instOffset, Sizes.SIZE_32_LOG2);
+                } else { // Unlikely case: we reached the end of the page. Leave to do interrupts and cycle check.
+                    this.pc = pc;
+                    return;
+                }
+            }
+        } catch (final MemoryAccessException e) {
+            this.pc = pc;
+            raiseException(R5.EXCEPTION_FAULT_FETCH, pc);
+        } catch (final R5IllegalInstructionException e) {
+            this.pc = pc;
+            raiseInstructionException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
+        } catch (final R5MemoryAccessException e) {
+            this.pc = pc;
+            raiseInstructionException(e.getType(), e.getAddress());
+        }
+    }
+
+    @SuppressWarnings("LocalCanBeFinal") // `pc` and `instOffset` get updated by the generated code replacing decode().
+    private void interpretTrace64Traced(final MemoryMappedDevice device, int inst, long pc, int instOffset, final int instEnd, final LongSet breakpoints) {
+        try { // Catch any exceptions to patch PC field.
+            for (; ; ) { // End of page check at the bottom since we enter with a valid inst.
+                if (breakpoints != null && breakpoints.contains(pc)) {
+                    this.pc = pc;
+                    debugInterface.handleBreakpoint(pc);
+                    return;
+                }
+                mcycle++;
+
+                ///////////////////////////////////////////////////////////////////
+                // This is the hook we replace when generating the decoder code. //
+                decode();                                                        //
+                // See R5CPUGenerator.                                           //
+                ///////////////////////////////////////////////////////////////////
+
+                if (Integer.compareUnsigned(instOffset, instEnd) < 0) { // Likely case: we're still fully in the page.
+                    inst = (int) device.load(instOffset, Sizes.SIZE_32_LOG2);
+                } else { // Unlikely case: we reached the end of the page. Leave to do interrupts and cycle check.
+                    this.pc = pc;
+                    return;
+                }
+            }
+        } catch (final MemoryAccessException e) {
+            this.pc = pc;
+            raiseException(R5.EXCEPTION_FAULT_FETCH, pc);
+        } catch (final R5IllegalInstructionException e) {
+            this.pc = pc;
+            raiseInstructionException(R5.EXCEPTION_ILLEGAL_INSTRUCTION, inst);
+        } catch (final R5MemoryAccessException e) {
+            this.pc = pc;
+            raiseInstructionException(e.getType(), e.getAddress());
         }
     }
 
@@ -1011,6 +1408,7 @@ final class R5CPUTemplate implements R5CPU {
     private void raiseException(final long exception, final long value) {
         // Exceptions take cycle.
         mcycle++;
+        stallCycles++;
 
         // Check whether to run supervisor level trap instead of machine level one.
         // We don't implement the N extension (user level interrupts) so if we're
@@ -1022,6 +1420,22 @@ final class R5CPUTemplate implements R5CPU {
         final long cause = exception & ~interruptMask;
         final long deleg = async ? mideleg : medeleg;
 
+        if (async) {
+            interruptCounts[(int) cause & (TRAP_CAUSE_COUNT - 1)]++;
+        } else {
+            exceptionCounts[(int) cause & (TRAP_CAUSE_COUNT - 1)]++;
+        }
+
+        if (TRAP_EVENT_TYPE.isEnabled()) {
+            final TrapEvent event = new TrapEvent();
+            event.interrupt = async;
+            event.cause = cause;
+            event.pc = pc;
+            event.value = value;
+            event.privilege = priv;
+            event.commit();
+        }
+
         // Was interrupt for current priv level enabled? There are cases we can
         // get here even for interrupts! Specifically when an M level interrupt
         // is raised while in S mode. This will get here even if M level interrupt
@@ -1071,6 +1485,13 @@ final class R5CPUTemplate implements R5CPU {
         }
     }
 
+    // Raises an exception caused by the instruction being executed. Such instructions do not retire,
+    // so the cycle taken when the instruction started executing is a stall cycle.
+    private void raiseInstructionException(final long exception, final long value) {
+        stallCycles++;
+        raiseException(exception, value);
+    }
+
     private void raiseException(final long cause) {
         raiseException(cause, 0);
     }
@@ -1207,20 +1628,36 @@ final class R5CPUTemplate implements R5CPU {
     }
 
     private TLBEntry fetchPageSlow(final long address) throws R5MemoryAccessException {
+        fetchTLBMisses++;
         final long physicalAddress = getPhysicalAddress(address, MemoryAccessType.FETCH, false);
         final MappedMemoryRange range = physicalMemory.getMemoryRange(physicalAddress);
         if (range == null || !range.device.supportsFetch()) {
             throw new R5MemoryAccessException(address, R5.EXCEPTION_FAULT_FETCH);
         }
         final TLBEntry tlb = updateTLB(fetchTLB, address, physicalAddress, range);
-        final var subset = debugInterface.breakpoints.subSet(address, address + (1 << R5.PAGE_ADDRESS_SHIFT));
+        if (isNapotTranslation) {
+            final long napotStart = address & ~R5.NAPOT_64K_MASK;
+            for (int i = 0; i < NAPOT_64K_PAGES; i++) {
+                final long page = napotStart + ((long) i << R5.PAGE_ADDRESS_SHIFT);
+                final TLBEntry entry = fetchTLB[(int) ((page >>> R5.PAGE_ADDRESS_SHIFT) & (TLB_SIZE - 1))];
+                if (entry.hash == page) {
+                    updateBreakpoints(entry);
+                }
+            }
+        } else {
+            updateBreakpoints(tlb);
+        }
+        return tlb;
+    }
+
+    private void updateBreakpoints(final TLBEntry tlb) {
+        final var subset = debugInterface.breakpoints.subSet(tlb.hash, tlb.hash + (1 << R5.PAGE_ADDRESS_SHIFT));
         if (subset.isEmpty()) {
             tlb.breakpoints = null;
         } else {
             tlb.breakpoints = new LongOpenHashSet(subset.size());
             tlb.breakpoints.addAll(subset);
         }
-        return tlb;
     }
 
     private long loadSlow(final long address, final int sizeLog2) throws R5MemoryAccessException {
@@ -1232,10 +1669,20 @@ final class R5CPUTemplate implements R5CPU {
 
         try {
             if (range.device.supportsFetch()) {
+                loadTLBMisses++;
                 final TLBEntry entry = updateTLB(loadTLB, address, physicalAddress, range);
                 return entry.device.load((int) (address + entry.toOffset), sizeLog2);
             } else {
-                return range.device.load((int) (physicalAddress - range.address()), sizeLog2);
+                final int offset = (int) (physicalAddress - range.address());
+                final MMIOStatistics statistics = mmioStatistics;
+                if (statistics == null) {
+                    return range.device.load(offset, sizeLog2);
+                }
+
+                final long start = System.nanoTime();
+                final long value = range.device.load(offset, sizeLog2);
+                statistics.recordLoad(range.device, offset, System.nanoTime() - start);
+                return value;
             }
         } catch (final MemoryAccessException e) {
             throw new R5MemoryAccessException(address, R5.EXCEPTION_FAULT_LOAD);
@@ -1251,12 +1698,20 @@ final class R5CPUTemplate implements R5CPU {
 
         try {
             if (range.device.supportsFetch()) {
+                storeTLBMisses++;
                 final TLBEntry entry = updateTLB(storeTLB, address, physicalAddress, range);
-                final int offset = (int) (address + entry.toOffset);
-                entry.device.store(offset, value, sizeLog2);
-                physicalMemory.setDirty(range, offset);
+                entry.device.store((int) (address + entry.toOffset), value, sizeLog2);
+                physicalMemory.setDirty(range, physicalAddress - range.start);
             } else {
-                range.device.store((int) (physicalAddress - range.start), value, sizeLog2);
+                final int offset = (int) (physicalAddress - range.start);
+                final MMIOStatistics statistics = mmioStatistics;
+                if (statistics == null) {
+                    range.device.store(offset, value, sizeLog2);
+                } else {
+                    final long start = System.nanoTime();
+                    range.device.store(offset, value, sizeLog2);
+                    statistics.recordStore(range.device, offset, System.nanoTime() - start);
+                }
             }
         } catch (final MemoryAccessException e) {
             throw new R5MemoryAccessException(address, R5.EXCEPTION_FAULT_STORE);
@@ -1279,6 +1734,8 @@ final class R5CPUTemplate implements R5CPU {
     }
 
     private long getPhysicalAddress(final long virtualAddress, final MemoryAccessType accessType, final boolean bypassPermissions) throws R5MemoryAccessException {
+        isNapotTranslation = false;
+
         final int privilege;
         if ((mstatus & R5.STATUS_MPRV_MASK) != 0 && accessType != MemoryAccessType.FETCH) {
             privilege = (int) ((mstatus & R5.STATUS_MPP_MASK) >>> R5.STATUS_MPP_SHIFT);
@@ -1332,6 +1789,8 @@ final class R5CPUTemplate implements R5CPU {
         final int xpnSize = R5.PAGE_ADDRESS_SHIFT - pteSizeLog2;
         final int xpnMask = (1 << xpnSize) - 1;
 
+        pageWalks++;
+
         // Virtual address translation, V2p75f.
         long pteAddress = (satp & ppnMask) << R5.PAGE_ADDRESS_SHIFT; // 1.
         for (int i = levels - 1; i >= 0; i--) {
@@ -1350,9 +1809,19 @@ final class R5CPUTemplate implements R5CPU {
                 throw getPageFaultException(accessType, virtualAddress);
             }
 
+            // Svnapot, only defined for 64 bit PTEs. Strip the flag so it does not end up in the PPN.
+            final boolean isNapot = pteSizeLog2 == Sizes.SIZE_64_LOG2 && (pte & R5.PTE_N_MASK) != 0;
+            if (isNapot) {
+                pte &= ~R5.PTE_N_MASK;
+            }
+
             // 4.
             int xwr = (int) (pte & (R5.PTE_X_MASK | R5.PTE_W_MASK | R5.PTE_R_MASK));
             if (xwr == 0) { // r=0 && x=0: pointer to next level of the page table. w=0 is implicit due to r=0 (see 3).
+                if (isNapot) { // N is reserved for non-leaf PTEs.
+                    throw getPageFaultException(accessType, virtualAddress);
+                }
+
                 final long ppn = pte >>> R5.PTE_DATA_BITS;
                 pteAddress = ppn << R5.PAGE_ADDRESS_SHIFT;
                 continue;
@@ -1380,6 +1849,11 @@ final class R5CPUTemplate implements R5CPU {
                     throw getPageFaultException(accessType, virtualAddress);
                 }
             }
+            // Only 64KiB ranges made of regular pages are defined.
+            if (isNapot && (i > 0 || ((pte >>> R5.PTE_DATA_BITS) & R5.NAPOT_PPN_MASK) != R5.NAPOT_64K_PPN)) {
+                throw getPageFaultException(accessType, virtualAddress);
+            }
+
             // 6. Check misaligned superpage.
             if (i > 0) {
                 final int ppnLSB = (int) ((pte >>> R5.PTE_DATA_BITS) & xpnMask);
@@ -1389,6 +1863,9 @@ final class R5CPUTemplate implements R5CPU {
             }
 
             // 7. Update accessed and dirty flags.
+            if (isNapot) {
+                pte |= R5.PTE_N_MASK;
+            }
             final long updated_pte = pte | R5.PTE_A_MASK | (accessType == MemoryAccessType.STORE ? R5.PTE_D_MASK : 0);
             if (pte != updated_pte) {
                 try {
@@ -1399,8 +1876,10 @@ final class R5CPUTemplate implements R5CPU {
             }
 
             // 8. physical address = pte.ppn[LEVELS-1:i], va.vpn[i-1:0], va.pgoff
-            final long vpnAndPageOffsetMask = (1L << vpnShift) - 1;
-            final long ppn = (pte >>> R5.PTE_DATA_BITS) << R5.PAGE_ADDRESS_SHIFT;
+            // For Svnapot ranges, the low PPN bits encoding the range size are replaced with those of va.vpn[0].
+            isNapotTranslation = isNapot;
+            final long vpnAndPageOffsetMask = isNapot ? R5.NAPOT_64K_MASK : (1L << vpnShift) - 1;
+            final long ppn = ((pte & ~R5.PTE_N_MASK) >>> R5.PTE_DATA_BITS) << R5.PAGE_ADDRESS_SHIFT;
             return (ppn & ~vpnAndPageOffsetMask) | (virtualAddress & vpnAndPageOffsetMask);
         }
 
@@ -1418,9 +1897,28 @@ final class R5CPUTemplate implements R5CPU {
     ///////////////////////////////////////////////////////////////////
     // TLB
 
-    private static TLBEntry updateTLB(final TLBEntry[] tlb, final long address, final long physicalAddress, final MappedMemoryRange range) {
+    private TLBEntry updateTLB(final TLBEntry[] tlb, final long address, final long physicalAddress, final MappedMemoryRange range) {
         final int index = (int) ((address >>> R5.PAGE_ADDRESS_SHIFT) & (TLB_SIZE - 1));
-        return updateTLBEntry(tlb[index], address, physicalAddress, range);
+        final TLBEntry entry = updateTLBEntry(tlb[index], address, physicalAddress, range);
+        hasNapotEntries |= isNapotTranslation;
+
+        // Svnapot ranges are mapped linearly, so if the device covers the whole range, we can
+        // fill in the entries for all of its pages right away instead of walking for each. Except
+        // for stores, where each page has to be marked dirty when its entry is created.
+        if (isNapotTranslation && tlb != storeTLB) {
+            final long napotStart = physicalAddress & ~R5.NAPOT_64K_MASK;
+            if (range.contains(napotStart) && range.contains(napotStart | R5.NAPOT_64K_MASK)) {
+                final long virtualStart = address & ~R5.NAPOT_64K_MASK;
+                final long toPhysical = physicalAddress - address;
+                for (int i = 0; i < NAPOT_64K_PAGES; i++) {
+                    final long page = virtualStart + ((long) i << R5.PAGE_ADDRESS_SHIFT);
+                    final int pageIndex = (int) ((page >>> R5.PAGE_ADDRESS_SHIFT) & (TLB_SIZE - 1));
+                    updateTLBEntry(tlb[pageIndex], page, page + toPhysical, range);
+                }
+            }
+        }
+
+        return entry;
     }
 
     private static TLBEntry updateTLBEntry(final TLBEntry tlb, final long address, final long physicalAddress, final MappedMemoryRange range) {
@@ -1428,10 +1926,23 @@ final class R5CPUTemplate implements R5CPU {
         tlb.toOffset = physicalAddress - address - range.start;
         tlb.device = range.device;
 
+        // Offsets into memories larger than 2GiB do not fit the device interface, so we use the
+        // segment holding the page instead, which is never larger.
+        if (range.length() > Integer.MAX_VALUE && range.device instanceof PhysicalMemory) {
+            final PhysicalMemory memory = (PhysicalMemory) range.device;
+            final long offset = physicalAddress - range.start;
+            tlb.toOffset -= memory.getSegmentOffset(offset);
+            tlb.device = memory.getSegment(offset);
+        }
+
         return tlb;
     }
 
     private void flushTLB() {
+        if (TLB_FLUSH_EVENT_TYPE.isEnabled()) {
+            new TLBFlushEvent().commit();
+        }
+
         // Only reset the most necessary field, the hash (which we use to check if an entry is applicable).
         // Reset per-array for *much* faster clears due to it being a faster memory access pattern/the
         // hotspot optimizer being able to more efficiently handle it (probably the latter, I suspect this
@@ -1442,12 +1953,33 @@ final class R5CPUTemplate implements R5CPU {
         for (int i = 0; i < TLB_SIZE; i++) {
             loadTLB[i].hash = -1;
         }
+        flushStoreTLB();
+        hasNapotEntries = false;
+    }
+
+    private void flushStoreTLB() {
         for (int i = 0; i < TLB_SIZE; i++) {
             storeTLB[i].hash = -1;
         }
     }
 
     private void flushTLB(final long address) {
+        if (!hasNapotEntries) {
+            flushTLBPage(address);
+            return;
+        }
+
+        // Entries may have been filled for a whole Svnapot range at once, and flushing any address in
+        // such a range has to flush all of them. We don't track which entries came from such a range,
+        // so conservatively flush the naturally aligned range the address is in.
+        final long napotStart = address & ~R5.NAPOT_64K_MASK;
+        for (int i = 0; i < NAPOT_64K_PAGES; i++) {
+            final long page = napotStart + ((long) i << R5.PAGE_ADDRESS_SHIFT);
+            flushTLBPage(page);
+        }
+    }
+
+    private void flushTLBPage(final long address) {
         final int index = (int) ((address >>> R5.PAGE_ADDRESS_SHIFT) & (TLB_SIZE - 1));
         final long hash = address & ~R5.PAGE_ADDRESS_MASK;
 
@@ -1837,13 +2369,13 @@ final class R5CPUTemplate implements R5CPU {
     @Instruction("ECALL")
     private void ecall(@ProgramCounter final long pc) {
         this.pc = pc; // raiseException reads the field to store it in mepc/sepc.
-        raiseException(R5.EXCEPTION_USER_ECALL + priv);
+        raiseInstructionException(R5.EXCEPTION_USER_ECALL + priv, 0);
     }
 
     @Instruction("EBREAK")
     private void ebreak(@ProgramCounter final long pc) {
         this.pc = pc; // raiseException reads the field to store it in mepc/sepc.
-        raiseException(R5.EXCEPTION_BREAKPOINT);
+        raiseInstructionException(R5.EXCEPTION_BREAKPOINT, 0);
     }
 
     ///////////////////////////////////////////////////////////////////
@@ -3296,6 +3828,8 @@ final class R5CPUTemplate implements R5CPU {
         }
     }
 
+    private record ProfilerState(R5Profiler profiler, long[] callStack) { }
+
     private static final class TLBEntry {
         public long hash = -1;
         public long toOffset;
@@ -3320,7 +3854,9 @@ final class R5CPUTemplate implements R5CPU {
 
         @Override
         public void step() {
+            final long retireStart = getRetireCycles();
             interpret(true, true);
+            retireInstructions(retireStart);
         }
 
         @Override
@@ -19,7 +19,7 @@ public final class R5Disassembler {
     private static final String HINT = "HINT";
     private static final int INST_WIDTH = 12;
 
-    private static final String[] REGISTER_NAME = {
+    static final String[] REGISTER_NAME = {
         "zero", "ra", "sp", "gp", "tp",
         "t0", "t1", "t2",
         "s0", "s1",
@@ -30,7 +30,7 @@ public final class R5Disassembler {
 
     private static final int REG_RA = ArrayUtils.indexOf(REGISTER_NAME, "ra");
 
-    private static final Int2ObjectArrayMap<String> CSR_NAME = new Int2ObjectArrayMap<>(Stream.of(new Object[][]{
+    static final Int2ObjectArrayMap<String> CSR_NAME = new Int2ObjectArrayMap<>(Stream.of(new Object[][]{
         {0x000, "ustatus"},
         {0x004, "uie"},
         {0x005, "utvec"},
@@ -1,9 +1,12 @@
 package li.cil.sedna.riscv;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import li.cil.sedna.instruction.InstructionDeclaration;
 import li.cil.sedna.instruction.InstructionDeclarationLoader;
 import li.cil.sedna.instruction.InstructionDefinition;
 import li.cil.sedna.instruction.InstructionDefinitionLoader;
+import li.cil.sedna.instruction.InstructionType;
 import li.cil.sedna.instruction.decoder.DecoderTree;
 import li.cil.sedna.instruction.decoder.PrintStreamDecoderTreeVisitor;
 import li.cil.sedna.instruction.decoder.tree.AbstractDecoderTreeNode;
@@ -15,12 +18,32 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
 
 public final class R5Instructions {
     private static final Logger LOGGER = LogManager.getLogger();
 
-    public static final Spec RV32 = new Spec("/riscv/instructions32.txt");
-    public static final Spec RV64 = new Spec("/riscv/instructions64.txt");
+    public static final String RV32_INSTRUCTIONS_FILE = "/riscv/instructions32.txt";
+    public static final String RV64_INSTRUCTIONS_FILE = "/riscv/instructions64.txt";
+
+    public static final Spec RV32 = new Spec(RV32_INSTRUCTIONS_FILE);
+    public static final Spec RV64 = new Spec(RV64_INSTRUCTIONS_FILE);
+
+    // Names of all instructions across all specs, used to assign them stable indices, e.g. for counting.
+    private static final List<String> INSTRUCTION_NAMES = Stream.concat(RV32.getDeclarations().stream(), RV64.getDeclarations().stream())
+        .filter(declaration -> declaration.type != InstructionType.ILLEGAL)
+        .map(declaration -> declaration.name)
+        .distinct()
+        .sorted()
+        .toList();
+    private static final Object2IntMap<String> INSTRUCTION_INDICES = new Object2IntOpenHashMap<>();
+
+    static {
+        for (int i = 0; i < INSTRUCTION_NAMES.size(); i++) {
+            INSTRUCTION_INDICES.put(INSTRUCTION_NAMES.get(i), i);
+        }
+    }
 
     @Nullable
     public static InstructionDefinition getDefinition(final InstructionDeclaration declaration) {
@@ -31,6 +54,25 @@ public final class R5Instructions {
         return RV64.getDecoderTree();
     }
 
+    /**
+     * Returns the names of all known instructions, in order of their {@link #getInstructionIndex(InstructionDeclaration) index}.
+     *
+     * @return the names of all instructions.
+     */
+    public static List<String> getInstructionNames() {
+        return INSTRUCTION_NAMES;
+    }
+
+    /**
+     * Returns the index of an instruction, which is the same for instructions of the same name in all specs.
+     *
+     * @param declaration the instruction to get the index for.
+     * @return the index of the instruction.
+     */
+    public static int getInstructionIndex(final InstructionDeclaration declaration) {
+        return INSTRUCTION_INDICES.getInt(declaration.name);
+    }
+
     public static final class Spec {
         private final ArrayList<InstructionDeclaration> DECLARATIONS = new ArrayList<>();
         private final HashMap<InstructionDeclaration, InstructionDefinition> DEFINITIONS = new HashMap<>();
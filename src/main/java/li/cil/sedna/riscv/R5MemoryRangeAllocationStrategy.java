@@ -12,7 +12,7 @@ import java.util.function.Function;
 
 public final class R5MemoryRangeAllocationStrategy implements MemoryRangeAllocationStrategy {
     public static final long PHYSICAL_MEMORY_FIRST = 0x80000000L;
-    public static final long PHYSICAL_MEMORY_LAST = 0xFFFFFFFFL;
+    public static final long PHYSICAL_MEMORY_LAST = 0xFFFFFFFFFFL; // Allows for up to 1TiB of memory.
     public static final long DEVICE_MEMORY_FIRST = 0x10000000L;
     public static final long DEVICE_MEMORY_LAST = 0x7FFFFFFFL;
 
@@ -23,23 +23,24 @@ public final class R5MemoryRangeAllocationStrategy implements MemoryRangeAllocat
 
     @Override
     public OptionalLong findMemoryRange(final MemoryMappedDevice device, final Function<MemoryRange, Optional<? extends MemoryRange>> intersectProvider, final long start) {
-        if (device.getLength() == 0) {
+        final long length = device.getLongLength();
+        if (length == 0) {
             return OptionalLong.empty();
         }
 
         final long clampedStart, end;
         if (device instanceof PhysicalMemory) {
             clampedStart = Math.max(PHYSICAL_MEMORY_FIRST, Math.min(PHYSICAL_MEMORY_LAST, start));
-            end = PHYSICAL_MEMORY_LAST - device.getLength() + 1;
+            end = PHYSICAL_MEMORY_LAST - length + 1;
         } else {
             clampedStart = Math.max(DEVICE_MEMORY_FIRST, Math.min(DEVICE_MEMORY_LAST, start));
-            end = DEVICE_MEMORY_LAST - device.getLength() + 1;
+            end = DEVICE_MEMORY_LAST - length + 1;
         }
 
-        return findFreeRange(clampedStart, end, device.getLength(), intersectProvider);
+        return findFreeRange(clampedStart, end, length, intersectProvider);
     }
 
-    private OptionalLong findFreeRange(long start, final long end, final int size, final Function<MemoryRange, Optional<? extends MemoryRange>> intersectProvider) {
+    private OptionalLong findFreeRange(long start, final long end, final long size, final Function<MemoryRange, Optional<? extends MemoryRange>> intersectProvider) {
         if (size == 0) {
             return OptionalLong.empty();
         }
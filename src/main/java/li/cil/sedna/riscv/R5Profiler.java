@@ -0,0 +1,178 @@
+package li.cil.sedna.riscv;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import li.cil.sedna.elf.Symbolizer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Sampling profiler for {@link R5CPU}s.
+ * <p>
+ * While set on a CPU via {@link R5CPU#setProfiler(R5Profiler)}, the CPU records its program counter,
+ * privilege level and call stack every {@link #getInterval()} cycles. Call stacks are reconstructed
+ * by walking frame pointers, so they are only complete for code built with frame pointers, e.g. a
+ * Linux kernel built with {@code CONFIG_FRAME_POINTER}. Samples are stored in a preallocated ring
+ * buffer, once it is full the oldest samples get overwritten.
+ * <p>
+ * Samples may be exported at any time, also while the CPU is running, in the collapsed stack format
+ * used by flame graph tools. Addresses are resolved to function names using the symbols added to
+ * {@link #getSystemSymbols()} for machine and supervisor mode samples, and {@link #getUserSymbols()}
+ * for user mode samples.
+ */
+public final class R5Profiler {
+    private final int interval;
+    private final int maxDepth;
+
+    private final Symbolizer systemSymbols = new Symbolizer();
+    private final Symbolizer userSymbols = new Symbolizer();
+
+    // Ring buffer of samples. Call stacks are stored with the innermost frame first.
+    private final long[] callStacks;
+    private final int[] depths;
+    private final byte[] privileges;
+    private int nextSample;
+    private int sampleCount;
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param interval the number of cycles between two samples.
+     * @param capacity the maximum number of samples to keep.
+     * @param maxDepth the maximum number of frames to record per sample.
+     */
+    public R5Profiler(final int interval, final int capacity, final int maxDepth) {
+        if (interval <= 0 || capacity <= 0 || maxDepth <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.interval = interval;
+        this.maxDepth = maxDepth;
+
+        callStacks = new long[capacity * maxDepth];
+        depths = new int[capacity];
+        privileges = new byte[capacity];
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Symbols used to resolve addresses in machine and supervisor mode samples, typically those of
+     * the firmware and the kernel.
+     *
+     * @return the symbols for machine and supervisor mode.
+     */
+    public Symbolizer getSystemSymbols() {
+        return systemSymbols;
+    }
+
+    /**
+     * Symbols used to resolve addresses in user mode samples.
+     *
+     * @return the symbols for user mode.
+     */
+    public Symbolizer getUserSymbols() {
+        return userSymbols;
+    }
+
+    /**
+     * The number of samples currently held by this profiler.
+     *
+     * @return the number of samples.
+     */
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Removes all samples recorded so far.
+     */
+    public synchronized void clear() {
+        nextSample = 0;
+        sampleCount = 0;
+    }
+
+    /**
+     * Records a sample. Called by the CPU being profiled.
+     *
+     * @param privilege the privilege level the CPU was running at.
+     * @param callStack the call stack, innermost frame first.
+     * @param depth     the number of valid frames in the call stack.
+     */
+    public synchronized void record(final int privilege, final long[] callStack, final int depth) {
+        final int count = Math.min(depth, maxDepth);
+        System.arraycopy(callStack, 0, callStacks, nextSample * maxDepth, count);
+        depths[nextSample] = count;
+        privileges[nextSample] = (byte) privilege;
+
+        nextSample = (nextSample + 1) % depths.length;
+        sampleCount = Math.min(sampleCount + 1, depths.length);
+    }
+
+    /**
+     * Writes all samples held by this profiler in collapsed stack format, i.e. one line per
+     * unique call stack, with frames separated by semicolons, outermost first, followed by the
+     * number of samples with that call stack.
+     *
+     * @param writer the writer to write the collapsed stacks to.
+     * @throws IOException if writing to the writer fails.
+     */
+    public void writeCollapsedStacks(final Writer writer) throws IOException {
+        final long[] callStacks;
+        final int[] depths;
+        final byte[] privileges;
+        final int sampleCount;
+        synchronized (this) {
+            sampleCount = this.sampleCount;
+            callStacks = this.callStacks.clone();
+            depths = this.depths.clone();
+            privileges = this.privileges.clone();
+        }
+
+        final Object2IntMap<String> counts = new Object2IntOpenHashMap<>();
+        final StringBuilder sb = new StringBuilder();
+        for (int sample = 0; sample < sampleCount; sample++) {
+            final int privilege = privileges[sample];
+            final Symbolizer symbols = privilege == R5.PRIVILEGE_U ? userSymbols : systemSymbols;
+
+            sb.setLength(0);
+            sb.append(getPrivilegeName(privilege));
+            for (int frame = depths[sample] - 1; frame >= 0; frame--) {
+                final long address = callStacks[sample * maxDepth + frame];
+                final String name = symbols.resolve(address);
+                sb.append(';');
+                if (name != null) {
+                    sb.append(name);
+                } else {
+                    sb.append("0x").append(Long.toHexString(address));
+                }
+            }
+
+            counts.mergeInt(sb.toString(), 1, Integer::sum);
+        }
+
+        for (final Object2IntMap.Entry<String> entry : counts.object2IntEntrySet()) {
+            writer.write(entry.getKey());
+            writer.write(' ');
+            writer.write(Integer.toString(entry.getIntValue()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private static String getPrivilegeName(final int privilege) {
+        return switch (privilege) {
+            case R5.PRIVILEGE_U -> "[user]";
+            case R5.PRIVILEGE_S -> "[supervisor]";
+            case R5.PRIVILEGE_M -> "[machine]";
+            default -> "[unknown]";
+        };
+    }
+}
@@ -0,0 +1,171 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.utils.DirectByteBufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/**
+ * Execution trace of an {@link R5CPU}.
+ * <p>
+ * While set on a CPU via {@link R5CPU#setTraceBuffer(R5TraceBuffer)}, the CPU records the program counter,
+ * the raw instruction and, for memory accesses, the virtual address accessed, for every instruction
+ * it executes. Records are stored in a preallocated off-heap ring buffer, once it is full the oldest
+ * records get overwritten. While tracing, the CPU runs a variant of its decoder which records each
+ * instruction before executing it; execution without a trace buffer is not affected.
+ * <p>
+ * Records can be written to a file using {@link #flush(FileChannel)} and read back using
+ * {@link #decode(ByteBuffer, Consumer)}.
+ * <p>
+ * This class is not thread-safe. Flush the buffer from the thread stepping the CPU, between steps.
+ */
+public final class R5TraceBuffer implements AutoCloseable {
+    private static final int RECORD_SIZE = 24; // pc (8) + address (8) + instruction (4) + flags (4)
+    private static final int RECORD_PC_OFFSET = 0;
+    private static final int RECORD_ADDRESS_OFFSET = 8;
+    private static final int RECORD_INSTRUCTION_OFFSET = 16;
+    private static final int RECORD_FLAGS_OFFSET = 20;
+
+    private static final int FLAG_HAS_ADDRESS = 1;
+
+    /**
+     * A single decoded trace record.
+     *
+     * @param pc          the program counter of the instruction.
+     * @param instruction the raw instruction. For compressed instructions only the lower 16 bits are set.
+     * @param hasAddress  whether the instruction accesses memory.
+     * @param address     the virtual address accessed by the instruction, if {@code hasAddress} is set.
+     */
+    public record Record(long pc, int instruction, boolean hasAddress, long address) {
+        @Override
+        public String toString() {
+            final String result = String.format("%016x: %s", pc, R5Disassembler.disassemble(instruction));
+            return hasAddress ? String.format("%s    [%016x]", result, address) : result;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int nextRecord;
+    private int recordCount;
+
+    /**
+     * Creates a new trace buffer.
+     *
+     * @param capacity the maximum number of records to keep.
+     */
+    public R5TraceBuffer(final int capacity) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() {
+        DirectByteBufferUtils.release(buffer);
+    }
+
+    /**
+     * The number of records currently held by this buffer.
+     *
+     * @return the number of records.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Removes all records from this buffer.
+     */
+    public void clear() {
+        nextRecord = 0;
+        recordCount = 0;
+    }
+
+    /**
+     * Adds a record for an instruction. Called by the CPU being traced.
+     *
+     * @param pc          the program counter of the instruction.
+     * @param instruction the raw instruction.
+     */
+    public void record(final long pc, final int instruction) {
+        final int offset = beginRecord(pc, instruction);
+        buffer.putInt(offset + RECORD_FLAGS_OFFSET, 0);
+    }
+
+    /**
+     * Adds a record for an instruction accessing memory. Called by the CPU being traced.
+     *
+     * @param pc          the program counter of the instruction.
+     * @param instruction the raw instruction.
+     * @param address     the virtual address accessed by the instruction.
+     */
+    public void record(final long pc, final int instruction, final long address) {
+        final int offset = beginRecord(pc, instruction);
+        buffer.putLong(offset + RECORD_ADDRESS_OFFSET, address);
+        buffer.putInt(offset + RECORD_FLAGS_OFFSET, FLAG_HAS_ADDRESS);
+    }
+
+    /**
+     * Writes all records in this buffer to the specified channel, oldest first, then clears this buffer.
+     *
+     * @param channel the channel to write the records to.
+     * @throws IOException if writing to the channel fails.
+     */
+    public void flush(final FileChannel channel) throws IOException {
+        final int first = recordCount < capacity ? 0 : nextRecord;
+        final ByteBuffer view = buffer.duplicate();
+
+        // Oldest records from the first record to the end of the buffer, then the wrapped around ones.
+        view.limit((first + recordCount > capacity ? capacity : first + recordCount) * RECORD_SIZE);
+        view.position(first * RECORD_SIZE);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+
+        if (first + recordCount > capacity) {
+            view.limit((first + recordCount - capacity) * RECORD_SIZE);
+            view.position(0);
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Decodes records previously written using {@link #flush(FileChannel)}.
+     *
+     * @param data     the data to decode.
+     * @param consumer the consumer to pass decoded records to.
+     */
+    public static void decode(final ByteBuffer data, final Consumer<Record> consumer) {
+        final ByteBuffer view = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset + RECORD_SIZE <= view.limit(); offset += RECORD_SIZE) {
+            final long pc = view.getLong(offset + RECORD_PC_OFFSET);
+            final long address = view.getLong(offset + RECORD_ADDRESS_OFFSET);
+            final int instruction = view.getInt(offset + RECORD_INSTRUCTION_OFFSET);
+            final int flags = view.getInt(offset + RECORD_FLAGS_OFFSET);
+            consumer.accept(new Record(pc, instruction, (flags & FLAG_HAS_ADDRESS) != 0, address));
+        }
+    }
+
+    private int beginRecord(final long pc, final int instruction) {
+        final int offset = nextRecord * RECORD_SIZE;
+        buffer.putLong(offset + RECORD_PC_OFFSET, pc);
+        buffer.putInt(offset + RECORD_INSTRUCTION_OFFSET, (instruction & 0b11) == 0b11 ? instruction : instruction & 0xFFFF);
+
+        nextRecord = (nextRecord + 1) % capacity;
+        recordCount = Math.min(recordCount + 1, capacity);
+
+        return offset;
+    }
+}
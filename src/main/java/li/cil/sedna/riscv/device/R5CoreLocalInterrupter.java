@@ -1,6 +1,7 @@
 package li.cil.sedna.riscv.device;
 
 import it.unimi.dsi.fastutil.ints.Int2LongArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import li.cil.ceres.api.Serialized;
@@ -11,8 +12,10 @@ import li.cil.sedna.api.device.InterruptSource;
 import li.cil.sedna.api.device.MemoryMappedDevice;
 import li.cil.sedna.api.device.Steppable;
 import li.cil.sedna.api.device.rtc.RealTimeCounter;
+import li.cil.sedna.api.device.rtc.TimerDevice;
 import li.cil.sedna.riscv.R5;
 
+import java.util.OptionalLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,7 +24,7 @@ import java.util.stream.Stream;
  * <p>
  * See: https://github.com/riscv/riscv-isa-sim/blob/master/riscv/clint.cc
  */
-public final class R5CoreLocalInterrupter implements Steppable, InterruptSource, MemoryMappedDevice {
+public final class R5CoreLocalInterrupter implements Steppable, TimerDevice, InterruptSource, MemoryMappedDevice {
     private static final int CLINT_SIP_BASE = 0x0000;
     private static final int CLINT_TIMECMP_BASE = 0x4000;
     private static final int CLINT_TIME_BASE = 0xBFF8;
@@ -55,6 +58,23 @@ public final class R5CoreLocalInterrupter implements Steppable, InterruptSource,
         checkTimeComparators(); // TODO Polling sucks.
     }
 
+    @Override
+    public OptionalLong getNextDeadline() {
+        long deadline = -1;
+        for (final Int2LongMap.Entry entry : mtimecmps.int2LongEntrySet()) {
+            // Already fired timers stay pending until the hart rewrites its mtimecmp.
+            if (mtips.get(entry.getIntKey()).isRaised()) {
+                continue;
+            }
+            if (Long.compareUnsigned(entry.getLongValue(), deadline) < 0) {
+                deadline = entry.getLongValue();
+            }
+        }
+
+        // A mtimecmp of all ones is never reached, we use it to represent "disabled".
+        return deadline != -1 ? OptionalLong.of(deadline) : OptionalLong.empty();
+    }
+
     @Override
     public Iterable<Interrupt> getInterrupts() {
         return Stream.concat(msips.values().stream(), mtips.values().stream()).collect(Collectors.toList());
@@ -148,8 +168,9 @@ public final class R5CoreLocalInterrupter implements Steppable, InterruptSource,
     }
 
     private void checkTimeComparators() {
+        final long time = rtc.getTime();
         mtimecmps.forEach((hartId, mtimecmp) -> {
-            if (Long.compareUnsigned(mtimecmp, rtc.getTime()) <= 0) {
+            if (Long.compareUnsigned(mtimecmp, time) <= 0) {
                 mtips.get((int) hartId).raiseInterrupt();
             }
         });
@@ -168,6 +168,7 @@ public class R5PlatformLevelInterruptController implements MemoryMappedDevice, I
             final int word = contextOffset >>> 2;
             if (word < sourceWords) {
                 enabled[context * sourceWords + word] = intValue;
+                updateInterrupts();
             }
         } else if (offset >= PLIC_CONTEXT_BASE && offset < PLIC_CONTEXT_BASE + PLIC_CONTEXT_COUNT * PLIC_CONTEXT_STRIDE) {
             // base + 0x200000: Priority threshold for context 0
@@ -246,9 +247,9 @@ public class R5PlatformLevelInterruptController implements MemoryMappedDevice, I
         final int word = source >>> 5;
         final int mask = 1 << (source & PLIC_SOURCE_MASK);
         if (value) {
-            pending[word].updateAndGet(operand -> operand |= mask);
+            pending[word].getAndAccumulate(mask, (operand, bits) -> operand | bits);
         } else {
-            pending[word].updateAndGet(operand -> operand &= ~mask);
+            pending[word].getAndAccumulate(mask, (operand, bits) -> operand & ~bits);
         }
     }
 
@@ -285,9 +286,9 @@ public class R5PlatformLevelInterruptController implements MemoryMappedDevice, I
         final int word = source >>> 5;
         final int mask = 1 << (source & PLIC_SOURCE_MASK);
         if (value) {
-            claimed[word].updateAndGet(operand -> operand |= mask);
+            claimed[word].getAndAccumulate(mask, (operand, bits) -> operand | bits);
         } else {
-            claimed[word].updateAndGet(operand -> operand &= ~mask);
+            claimed[word].getAndAccumulate(mask, (operand, bits) -> operand & ~bits);
         }
     }
 
@@ -297,6 +298,12 @@ public class R5PlatformLevelInterruptController implements MemoryMappedDevice, I
                 interruptByContext[context].raiseInterrupt();
             } else {
                 interruptByContext[context].lowerInterrupt();
+
+                // Devices may raise interrupts from other threads. If one got raised after we checked,
+                // its raise may have been overwritten by our lower, so check again after lowering.
+                if (hasPending(context)) {
+                    interruptByContext[context].raiseInterrupt();
+                }
             }
         }
     }
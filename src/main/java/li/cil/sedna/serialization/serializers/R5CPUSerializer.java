@@ -14,15 +14,18 @@ public final class R5CPUSerializer implements Serializer<R5CPU> {
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public void serialize(final SerializationVisitor visitor, final Class<R5CPU> type, final Object value) throws SerializationException {
-        assert value.getClass() == R5CPUGenerator.getGeneratedClass();
-        final Serializer<?> serializer = Ceres.getSerializer(R5CPUGenerator.getGeneratedClass());
-        serializer.serialize(visitor, (Class) R5CPUGenerator.getGeneratedClass(), value);
+        // Value may be any variant of the generated class, which all share their layout.
+        final Class<?> generatedClass = value.getClass();
+        assert value instanceof R5CPU;
+        final Serializer<?> serializer = Ceres.getSerializer(generatedClass);
+        serializer.serialize(visitor, (Class) generatedClass, value);
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public R5CPU deserialize(final DeserializationVisitor visitor, final Class<R5CPU> type, @Nullable final Object value) throws SerializationException {
-        final Serializer<?> serializer = Ceres.getSerializer(R5CPUGenerator.getGeneratedClass());
-        return (R5CPU) serializer.deserialize(visitor, (Class) R5CPUGenerator.getGeneratedClass(), value);
+        final Class<?> generatedClass = value != null ? value.getClass() : R5CPUGenerator.getGeneratedClass();
+        final Serializer<?> serializer = Ceres.getSerializer(generatedClass);
+        return (R5CPU) serializer.deserialize(visitor, (Class) generatedClass, value);
     }
 }
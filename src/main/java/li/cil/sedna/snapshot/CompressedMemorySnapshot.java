@@ -0,0 +1,571 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.utils.DirectByteBufferUtils;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes and restores compressed images of physical memory.
+ * <p>
+ * Memory is split into chunks of {@link #CHUNK_PAGE_COUNT} pages. Pages that are all zero are
+ * elided, the remaining pages of each chunk are compressed together using {@link Deflater}.
+ * Compression and decompression run in parallel on a {@link ForkJoinPool}, while the memory and
+ * the channel are only accessed from the calling thread, sequentially and in large batches. So
+ * this works with memories that do not support concurrent access, and file I/O stays sequential.
+ * <p>
+ * Images may cover all pages of a memory, or only a subset of them, e.g. the pages reported by
+ * {@link li.cil.sedna.api.memory.MemoryMap#getAndClearDirtyPages}. Restoring an image only
+ * touches the pages it covers. Elided zero pages are only written when they do not already
+ * read as zero, so restoring into fresh memory does not allocate backing storage for them.
+ * To resume without restoring everything up front, use {@link LazySnapshotMemory}.
+ * <p>
+ * To write an image of memory that keeps changing on another thread, first take a {@link PageCopy}
+ * of the pages to write using {@link #copy(PhysicalMemory, BitSet)} on the thread owning the memory,
+ * then write that using {@link #write(PageCopy, WritableByteChannel)} on any thread.
+ */
+public final class CompressedMemorySnapshot {
+    public static final int CHUNK_PAGE_COUNT = Long.SIZE;
+
+    private static final int MAGIC = 0x53444E43; // SDNC
+    private static final int VERSION = 1;
+
+    static final int PAGE_SIZE = SnapshotFormat.PAGE_SIZE;
+    static final int CHUNK_SIZE = CHUNK_PAGE_COUNT * PAGE_SIZE;
+    static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+    static final int CHUNK_HEADER_SIZE = Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    static final int END_OF_CHUNKS = -1;
+
+    // Size of the buffers used for reading from and writing to channels.
+    private static final int IO_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ForkJoinPool pool;
+    private final int level;
+    private final int maxPendingChunks;
+
+    public CompressedMemorySnapshot() {
+        this(ForkJoinPool.commonPool(), Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a new snapshot writer and reader.
+     *
+     * @param pool  the pool to run compression and decompression on.
+     * @param level the compression level, see {@link Deflater#setLevel(int)}.
+     */
+    public CompressedMemorySnapshot(final ForkJoinPool pool, final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(String.format("Invalid compression level [%d].", level));
+        }
+        this.pool = pool;
+        this.level = level;
+        this.maxPendingChunks = Math.max(2, pool.getParallelism() * 2);
+    }
+
+    /**
+     * Writes an image of all pages of a memory.
+     *
+     * @param memory  the memory to write.
+     * @param channel the channel to write the image to. Will not be closed.
+     * @throws IOException if reading the memory or writing to the channel fails.
+     */
+    public void write(final PhysicalMemory memory, final WritableByteChannel channel) throws IOException {
+        write(memory, null, channel);
+    }
+
+    /**
+     * Writes an image of the specified pages of a memory.
+     *
+     * @param memory  the memory to write.
+     * @param pages   the pages to write, or {@code null} to write all pages. Pages have the
+     *                same size as dirty pages of memory maps.
+     * @param channel the channel to write the image to. Will not be closed.
+     * @throws IOException if reading the memory or writing to the channel fails.
+     */
+    public void write(final PhysicalMemory memory, @Nullable final BitSet pages, final WritableByteChannel channel) throws IOException {
+        final long length = memory.getLongLength();
+        final int chunkCount = getChunkCount(length);
+
+        final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        final ByteBuffer output = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        try {
+            writeHeader(output, length);
+
+            for (int index = nextChunk(pages, 0, chunkCount); index < chunkCount; index = nextChunk(pages, index + 1, chunkCount)) {
+                final long present = getPresentMask(pages, index, length);
+                if (present == 0) {
+                    continue;
+                }
+
+                byte[] buffer = buffers.poll();
+                if (buffer == null) {
+                    buffer = new byte[CHUNK_SIZE];
+                }
+                final int chunkLength = getChunkLength(index, length);
+                memory.load((long) index * CHUNK_SIZE, ByteBuffer.wrap(buffer, 0, chunkLength));
+
+                final int chunkIndex = index;
+                final byte[] data = buffer;
+                pending.add(pool.submit(() -> compress(chunkIndex, present, data, chunkLength, deflaters, buffers)));
+                if (pending.size() >= maxPendingChunks) {
+                    writeChunk(join(pending.remove()), output, channel);
+                }
+            }
+
+            writeEnd(pending, output, channel);
+        } finally {
+            // Tasks may still be running if we failed, and they must not use the deflaters after they were ended.
+            pending.forEach(ForkJoinTask::quietlyJoin);
+            deflaters.forEach(Deflater::end);
+            DirectByteBufferUtils.release(output);
+        }
+    }
+
+    /**
+     * Copies the specified pages of a memory onto the heap, so that an image of them can be written
+     * later using {@link #write(PageCopy, WritableByteChannel)}, e.g. on another thread while the
+     * memory keeps changing. Pages that are all zero are not copied.
+     *
+     * @param memory the memory to copy pages of.
+     * @param pages  the pages to copy, or {@code null} to copy all pages.
+     * @return the copied pages.
+     * @throws IOException if reading the memory fails.
+     */
+    public PageCopy copy(final PhysicalMemory memory, @Nullable final BitSet pages) throws IOException {
+        final long length = memory.getLongLength();
+        final int chunkCount = getChunkCount(length);
+        final List<Chunk> chunks = new ArrayList<>();
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        for (int index = nextChunk(pages, 0, chunkCount); index < chunkCount; index = nextChunk(pages, index + 1, chunkCount)) {
+            final long present = getPresentMask(pages, index, length);
+            if (present == 0) {
+                continue;
+            }
+
+            // Only load the pages to copy, packed at the start of the buffer, dropping zero pages.
+            final int chunkLength = getChunkLength(index, length);
+            long dataMask = 0;
+            int dataLength = 0;
+            for (long remaining = present; remaining != 0; remaining &= remaining - 1) {
+                final int page = Long.numberOfTrailingZeros(remaining);
+                final int pageLength = Math.min(PAGE_SIZE, chunkLength - page * PAGE_SIZE);
+                memory.load((long) index * CHUNK_SIZE + (long) page * PAGE_SIZE, ByteBuffer.wrap(buffer, dataLength, pageLength));
+                if (!isZero(buffer, dataLength, pageLength)) {
+                    dataMask |= 1L << page;
+                    dataLength += pageLength;
+                }
+            }
+
+            chunks.add(new Chunk(index, present, dataMask, Arrays.copyOf(buffer, dataLength)));
+        }
+        return new PageCopy(length, chunks);
+    }
+
+    /**
+     * Writes an image of previously copied pages.
+     *
+     * @param copy    the pages to write.
+     * @param channel the channel to write the image to. Will not be closed.
+     * @throws IOException if writing to the channel fails.
+     */
+    public void write(final PageCopy copy, final WritableByteChannel channel) throws IOException {
+        final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        final ByteBuffer output = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        try {
+            writeHeader(output, copy.length);
+
+            for (final Chunk chunk : copy.chunks) {
+                pending.add(pool.submit(() -> new Chunk(chunk.index(), chunk.present(), chunk.dataMask(),
+                    deflate(chunk.data(), chunk.data().length, deflaters))));
+                if (pending.size() >= maxPendingChunks) {
+                    writeChunk(join(pending.remove()), output, channel);
+                }
+            }
+
+            writeEnd(pending, output, channel);
+        } finally {
+            pending.forEach(ForkJoinTask::quietlyJoin);
+            deflaters.forEach(Deflater::end);
+            DirectByteBufferUtils.release(output);
+        }
+    }
+
+    /**
+     * Restores an image into a memory.
+     * <p>
+     * The image is validated as it is read. If it turns out to be corrupt, the pages restored
+     * up to that point remain restored.
+     *
+     * @param memory  the memory to restore the image into. Must have the same size as the memory
+     *                the image was written from.
+     * @param channel the channel to read the image from. Will not be closed.
+     * @throws IOException if reading from the channel fails or the image is invalid.
+     */
+    public void restore(final PhysicalMemory memory, final ReadableByteChannel channel) throws IOException {
+        final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        final ByteBuffer input = ByteBuffer.allocateDirect(IO_BUFFER_SIZE).flip();
+        try {
+            fill(input, channel, HEADER_SIZE);
+            final long length = memory.getLongLength();
+            readHeader(input, length);
+
+            final byte[] scratch = new byte[PAGE_SIZE];
+            for (; ; ) {
+                fill(input, channel, Integer.BYTES);
+                final int index = input.getInt();
+                if (index == END_OF_CHUNKS) {
+                    break;
+                }
+
+                fill(input, channel, CHUNK_HEADER_SIZE - Integer.BYTES);
+                final long present = input.getLong();
+                final long dataMask = input.getLong();
+                final int compressedLength = input.getInt();
+                validateChunk(index, present, dataMask, compressedLength, length);
+
+                final byte[] compressed = new byte[compressedLength];
+                read(input, channel, compressed);
+                final int chunkLength = getChunkLength(index, length);
+                pending.add(pool.submit(() -> decompress(index, present, dataMask, compressed, chunkLength, inflaters, buffers)));
+                if (pending.size() >= maxPendingChunks) {
+                    applyChunk(memory, join(pending.remove()), length, scratch, buffers);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                applyChunk(memory, join(pending.remove()), length, scratch, buffers);
+            }
+        } finally {
+            pending.forEach(ForkJoinTask::quietlyJoin);
+            inflaters.forEach(Inflater::end);
+            DirectByteBufferUtils.release(input);
+        }
+    }
+
+    /**
+     * Pages copied from a memory, see {@link #copy(PhysicalMemory, BitSet)}. Immutable, so it may be
+     * used from any thread.
+     */
+    public static final class PageCopy {
+        private final long length;
+        private final List<Chunk> chunks;
+
+        private PageCopy(final long length, final List<Chunk> chunks) {
+            this.length = length;
+            this.chunks = chunks;
+        }
+
+        /**
+         * The number of pages copied, including pages that were all zero.
+         *
+         * @return the number of pages.
+         */
+        public int getPageCount() {
+            int count = 0;
+            for (final Chunk chunk : chunks) {
+                count += Long.bitCount(chunk.present());
+            }
+            return count;
+        }
+    }
+
+    // Holds the non-zero pages of a chunk, packed, either compressed or, in page copies, uncompressed.
+    private record Chunk(int index, long present, long dataMask, byte[] data) {
+    }
+
+    private Chunk compress(final int index, final long present, final byte[] data, final int chunkLength,
+                           final ConcurrentLinkedQueue<Deflater> deflaters, final ConcurrentLinkedQueue<byte[]> buffers) {
+        // Move non-zero pages to the start of the buffer, so they can be compressed in one go.
+        long dataMask = 0;
+        int dataLength = 0;
+        for (long remaining = present; remaining != 0; remaining &= remaining - 1) {
+            final int page = Long.numberOfTrailingZeros(remaining);
+            final int pageOffset = page * PAGE_SIZE;
+            final int pageLength = Math.min(PAGE_SIZE, chunkLength - pageOffset);
+            if (!isZero(data, pageOffset, pageLength)) {
+                dataMask |= 1L << page;
+                System.arraycopy(data, pageOffset, data, dataLength, pageLength);
+                dataLength += pageLength;
+            }
+        }
+
+        final byte[] compressed = deflate(data, dataLength, deflaters);
+        buffers.add(data);
+        return new Chunk(index, present, dataMask, compressed);
+    }
+
+    private byte[] deflate(final byte[] data, final int dataLength, final ConcurrentLinkedQueue<Deflater> deflaters) {
+        if (dataLength == 0) {
+            return EMPTY;
+        }
+
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+
+        deflater.setInput(data, 0, dataLength);
+        deflater.finish();
+        byte[] compressed = new byte[dataLength + dataLength / 1000 + 64];
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        deflater.reset();
+        deflaters.add(deflater);
+        return Arrays.copyOf(compressed, compressedLength);
+    }
+
+    private static Chunk decompress(final int index, final long present, final long dataMask, final byte[] compressed, final int chunkLength,
+                                    final ConcurrentLinkedQueue<Inflater> inflaters, final ConcurrentLinkedQueue<byte[]> buffers) {
+        byte[] data = buffers.poll();
+        if (data == null) {
+            data = new byte[CHUNK_SIZE];
+        }
+        if (dataMask == 0) {
+            return new Chunk(index, present, dataMask, data);
+        }
+
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflate(inflater, index, dataMask, compressed, chunkLength, data);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflaters.add(inflater);
+        }
+
+        return new Chunk(index, present, dataMask, data);
+    }
+
+    private static void applyChunk(final PhysicalMemory memory, final Chunk chunk, final long length,
+                                   final byte[] scratch, final ConcurrentLinkedQueue<byte[]> buffers) throws IOException {
+        applyChunk(memory, chunk.index(), chunk.present(), chunk.dataMask(), chunk.data(), length, scratch);
+        buffers.add(chunk.data());
+    }
+
+    /**
+     * Reads and validates the header of an image.
+     *
+     * @param input  the buffer holding at least {@link #HEADER_SIZE} bytes of the image.
+     * @param length the length of the memory the image is to be restored into.
+     * @throws IOException if the header is invalid or does not match the memory.
+     */
+    static void readHeader(final ByteBuffer input, final long length) throws IOException {
+        if (input.getInt() != MAGIC) {
+            throw new IOException("Not a compressed memory snapshot.");
+        }
+        final int version = input.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot version [%d].", version));
+        }
+        final long imageLength = input.getLong();
+        if (imageLength != length) {
+            throw new IOException(String.format("Memory size mismatch [%d].", imageLength));
+        }
+        if (input.getInt() != PAGE_SIZE || input.getInt() != CHUNK_PAGE_COUNT) {
+            throw new IOException("Unsupported snapshot layout.");
+        }
+    }
+
+    static void validateChunk(final int index, final long present, final long dataMask, final int compressedLength, final long length) throws IOException {
+        if (index < 0 || index >= getChunkCount(length) ||
+            (present & ~getPresentMask(null, index, length)) != 0 ||
+            (dataMask & ~present) != 0 ||
+            compressedLength < 0 || compressedLength > 2 * CHUNK_SIZE ||
+            (dataMask == 0) != (compressedLength == 0)) {
+            throw new IOException(String.format("Invalid chunk [%d].", index));
+        }
+    }
+
+    /**
+     * Decompresses the non-zero pages of a chunk into the start of the specified buffer.
+     * The inflater is reset afterwards.
+     */
+    static void inflate(final Inflater inflater, final int index, final long dataMask, final byte[] compressed,
+                        final int chunkLength, final byte[] data) throws IOException {
+        int dataLength = 0;
+        for (long remaining = dataMask; remaining != 0; remaining &= remaining - 1) {
+            final int pageOffset = Long.numberOfTrailingZeros(remaining) * PAGE_SIZE;
+            dataLength += Math.min(PAGE_SIZE, chunkLength - pageOffset);
+        }
+
+        try {
+            inflater.setInput(compressed);
+            int inflatedLength = 0;
+            while (inflatedLength < dataLength && !inflater.finished() && !inflater.needsInput()) {
+                inflatedLength += inflater.inflate(data, inflatedLength, dataLength - inflatedLength);
+            }
+            if (inflatedLength != dataLength || !inflater.finished()) {
+                throw new IOException(String.format("Corrupt chunk [%d].", index));
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException(String.format("Corrupt chunk [%d].", index), e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Writes the pages of a decompressed chunk to memory. Zero pages are only written where
+     * memory does not already read as zero.
+     */
+    static void applyChunk(final PhysicalMemory memory, final int index, final long present, final long dataMask,
+                           final byte[] data, final long length, final byte[] scratch) throws IOException {
+        final int chunkLength = getChunkLength(index, length);
+        final long chunkOffset = (long) index * CHUNK_SIZE;
+        int dataOffset = 0;
+        for (long remaining = present; remaining != 0; remaining &= remaining - 1) {
+            final int page = Long.numberOfTrailingZeros(remaining);
+            final long pageOffset = chunkOffset + (long) page * PAGE_SIZE;
+            final int pageLength = Math.min(PAGE_SIZE, chunkLength - page * PAGE_SIZE);
+            if ((dataMask & (1L << page)) != 0) {
+                memory.store(pageOffset, ByteBuffer.wrap(data, dataOffset, pageLength));
+                dataOffset += pageLength;
+            } else {
+                memory.load(pageOffset, ByteBuffer.wrap(scratch, 0, pageLength));
+                if (!isZero(scratch, 0, pageLength)) {
+                    memory.store(pageOffset, ByteBuffer.wrap(ZERO_PAGE, 0, pageLength));
+                }
+            }
+        }
+    }
+
+    private static void writeHeader(final ByteBuffer output, final long length) {
+        output.putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(length)
+            .putInt(PAGE_SIZE)
+            .putInt(CHUNK_PAGE_COUNT);
+    }
+
+    private static void writeEnd(final ArrayDeque<ForkJoinTask<Chunk>> pending, final ByteBuffer output, final WritableByteChannel channel) throws IOException {
+        while (!pending.isEmpty()) {
+            writeChunk(join(pending.remove()), output, channel);
+        }
+
+        if (output.remaining() < Integer.BYTES) {
+            flush(output, channel);
+        }
+        output.putInt(END_OF_CHUNKS);
+        flush(output, channel);
+    }
+
+    private static void writeChunk(final Chunk chunk, final ByteBuffer output, final WritableByteChannel channel) throws IOException {
+        if (output.remaining() < CHUNK_HEADER_SIZE + chunk.data().length) {
+            flush(output, channel);
+        }
+        output.putInt(chunk.index())
+            .putLong(chunk.present())
+            .putLong(chunk.dataMask())
+            .putInt(chunk.data().length)
+            .put(chunk.data());
+    }
+
+    private static void flush(final ByteBuffer output, final WritableByteChannel channel) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    // Makes sure the buffer has at least the specified number of bytes remaining, reading as much as fits.
+    private static void fill(final ByteBuffer input, final ReadableByteChannel channel, final int count) throws IOException {
+        if (input.remaining() >= count) {
+            return;
+        }
+        input.compact();
+        while (input.position() < count) {
+            if (channel.read(input) < 0) {
+                throw new EOFException();
+            }
+        }
+        input.flip();
+    }
+
+    private static void read(final ByteBuffer input, final ReadableByteChannel channel, final byte[] dst) throws IOException {
+        int offset = 0;
+        while (offset < dst.length) {
+            fill(input, channel, 1);
+            final int count = Math.min(input.remaining(), dst.length - offset);
+            input.get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    private static <T> T join(final ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isZero(final byte[] data, final int offset, final int length) {
+        return Arrays.equals(data, offset, offset + length, ZERO_PAGE, 0, length);
+    }
+
+    private static int getPageCount(final long length) {
+        return (int) ((length + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    static int getChunkCount(final long length) {
+        return (getPageCount(length) + CHUNK_PAGE_COUNT - 1) / CHUNK_PAGE_COUNT;
+    }
+
+    static int getChunkLength(final int index, final long length) {
+        return (int) Math.min(CHUNK_SIZE, length - (long) index * CHUNK_SIZE);
+    }
+
+    private static int nextChunk(@Nullable final BitSet pages, final int index, final int chunkCount) {
+        if (pages == null || index >= chunkCount) {
+            return index;
+        }
+        final int page = pages.nextSetBit(index * CHUNK_PAGE_COUNT);
+        return page < 0 ? chunkCount : page / CHUNK_PAGE_COUNT;
+    }
+
+    private static long getPresentMask(@Nullable final BitSet pages, final int index, final long length) {
+        final int firstPage = index * CHUNK_PAGE_COUNT;
+        final int pageCount = Math.min(CHUNK_PAGE_COUNT, getPageCount(length) - firstPage);
+        final long valid = pageCount == CHUNK_PAGE_COUNT ? -1L : (1L << pageCount) - 1;
+        if (pages == null) {
+            return valid;
+        }
+        final long[] words = pages.get(firstPage, firstPage + pageCount).toLongArray();
+        return words.length > 0 ? words[0] & valid : 0;
+    }
+}
@@ -0,0 +1,304 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+/**
+ * Physical memory restored lazily from an image written by {@link CompressedMemorySnapshot}.
+ * <p>
+ * Creating this only reads the chunk headers of the image. The chunks themselves are loaded
+ * into the backing memory when they are first accessed, so a board can resume right away and
+ * pulls in its working set as it runs. Map this memory instead of the backing memory. Once all
+ * chunks are loaded, the remaining overhead per access is a single check.
+ * <p>
+ * Chunks are loaded on the thread accessing the memory, so like other memories, this must only
+ * be accessed from the thread stepping the board. Use {@link #prefetch(int)} from that thread to
+ * load remaining chunks ahead of time, e.g. while the guest is idle. Failing to read the image
+ * while handling an access is not the guest's fault, so it is reported as an
+ * {@link UncheckedIOException} instead of a {@link MemoryAccessException}.
+ */
+public final class LazySnapshotMemory extends PhysicalMemory {
+    private final Loader loader;
+    private final PhysicalMemory backing;
+    private final long baseOffset; // Offset of this segment in the whole memory.
+    @Nullable private final Map<PhysicalMemory, LazySnapshotMemory> segments; // Only set for the whole memory.
+
+    /**
+     * Opens an image for lazy restoring into the specified memory.
+     * <p>
+     * The returned memory owns both the channel and the backing memory, and closes them when closed.
+     *
+     * @param backing the memory to restore into. Must have the same size as the memory the
+     *                image was written from.
+     * @param channel the channel to read the image from. Must stay open while chunks are loaded.
+     * @return the memory loading the image on demand.
+     * @throws IOException if reading the image fails or the image is invalid.
+     */
+    public static LazySnapshotMemory create(final PhysicalMemory backing, final FileChannel channel) throws IOException {
+        return new LazySnapshotMemory(new Loader(backing, channel), backing, 0);
+    }
+
+    private LazySnapshotMemory(final Loader loader, final PhysicalMemory backing, final long baseOffset) {
+        this.loader = loader;
+        this.backing = backing;
+        this.baseOffset = baseOffset;
+        this.segments = baseOffset == 0 && backing == loader.memory ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * Returns whether all chunks of the image have been loaded.
+     *
+     * @return {@code true} if the image has been fully loaded; {@code false} otherwise.
+     */
+    public boolean isFullyLoaded() {
+        return loader.remaining == 0;
+    }
+
+    /**
+     * Returns the number of chunks of the image that have not been loaded yet.
+     *
+     * @return the number of chunks not loaded yet.
+     */
+    public int getRemainingChunkCount() {
+        return loader.remaining;
+    }
+
+    /**
+     * Loads up to the specified number of chunks not yet loaded, in order.
+     *
+     * @param count the maximum number of chunks to load.
+     * @return {@code true} if the image has been fully loaded; {@code false} otherwise.
+     */
+    public boolean prefetch(final int count) {
+        int loaded = 0;
+        for (int index = loader.nextUnloaded; loaded < count && loader.remaining > 0; index++) {
+            if (!loader.isLoaded[index]) {
+                loader.load(index);
+                loaded++;
+            }
+            loader.nextUnloaded = index + 1;
+        }
+        return isFullyLoaded();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (segments == null) {
+            return; // The whole memory owns the channel and backing memory.
+        }
+        try {
+            loader.channel.close();
+        } finally {
+            backing.close();
+        }
+    }
+
+    @Override
+    public int getLength() {
+        return backing.getLength();
+    }
+
+    @Override
+    public long getLongLength() {
+        return backing.getLongLength();
+    }
+
+    @Override
+    public PhysicalMemory getSegment(final long offset) {
+        final PhysicalMemory segment = backing.getSegment(offset);
+        if (segment == backing || segments == null) {
+            return this;
+        }
+        return segments.computeIfAbsent(segment, s -> new LazySnapshotMemory(loader, s, baseOffset + backing.getSegmentOffset(offset)));
+    }
+
+    @Override
+    public long getSegmentOffset(final long offset) {
+        return backing.getSegmentOffset(offset);
+    }
+
+    @Override
+    public long load(final int offset, final int sizeLog2) throws MemoryAccessException {
+        ensureLoaded(offset, 1 << sizeLog2);
+        return backing.load(offset, sizeLog2);
+    }
+
+    @Override
+    public void store(final int offset, final long value, final int sizeLog2) throws MemoryAccessException {
+        ensureLoaded(offset, 1 << sizeLog2);
+        backing.store(offset, value, sizeLog2);
+    }
+
+    @Override
+    public void load(final int offset, final ByteBuffer dst) throws MemoryAccessException {
+        ensureLoaded(offset, dst.remaining());
+        backing.load(offset, dst);
+    }
+
+    @Override
+    public void store(final int offset, final ByteBuffer src) throws MemoryAccessException {
+        ensureLoaded(offset, src.remaining());
+        backing.store(offset, src);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getView(final int offset, final int length) throws MemoryAccessException {
+        ensureLoaded(offset, length);
+        return backing.getView(offset, length);
+    }
+
+    @Override
+    public void discard(final long offset, final long length) throws MemoryAccessException {
+        if (offset >= 0 && length > 0 && offset <= getLongLength() - length) {
+            loader.discard(baseOffset + offset, length);
+        }
+        backing.discard(offset, length);
+    }
+
+    private void ensureLoaded(final long offset, final long length) {
+        if (loader.remaining == 0 || offset < 0 || length <= 0 || offset > getLongLength() - length) {
+            return; // Out of bounds accesses are left to the backing memory to reject.
+        }
+
+        final long start = baseOffset + offset;
+        final int first = (int) (start / CompressedMemorySnapshot.CHUNK_SIZE);
+        final int last = (int) ((start + length - 1) / CompressedMemorySnapshot.CHUNK_SIZE);
+        for (int index = first; index <= last; index++) {
+            if (!loader.isLoaded[index]) {
+                loader.load(index);
+            }
+        }
+    }
+
+    private static final class Loader {
+        public final PhysicalMemory memory;
+        public final FileChannel channel;
+        public final long length;
+
+        public final boolean[] isLoaded;
+        public final long[] positions;
+        public final long[] present;
+        public final long[] dataMasks;
+        public final int[] compressedLengths;
+        public int remaining, nextUnloaded;
+
+        private final Inflater inflater = new Inflater();
+        private final byte[] data = new byte[CompressedMemorySnapshot.CHUNK_SIZE];
+        private final byte[] scratch = new byte[CompressedMemorySnapshot.PAGE_SIZE];
+
+        public Loader(final PhysicalMemory memory, final FileChannel channel) throws IOException {
+            this.memory = memory;
+            this.channel = channel;
+            this.length = memory.getLongLength();
+
+            final int chunkCount = CompressedMemorySnapshot.getChunkCount(length);
+            isLoaded = new boolean[chunkCount];
+            positions = new long[chunkCount];
+            present = new long[chunkCount];
+            dataMasks = new long[chunkCount];
+            compressedLengths = new int[chunkCount];
+
+            // Chunks not in the image have nothing to load.
+            Arrays.fill(isLoaded, true);
+
+            final ByteBuffer buffer = ByteBuffer.allocate(Math.max(CompressedMemorySnapshot.HEADER_SIZE, CompressedMemorySnapshot.CHUNK_HEADER_SIZE));
+            long position = read(buffer, 0, CompressedMemorySnapshot.HEADER_SIZE);
+            CompressedMemorySnapshot.readHeader(buffer, length);
+
+            for (; ; ) {
+                position = read(buffer, position, Integer.BYTES);
+                final int index = buffer.getInt();
+                if (index == CompressedMemorySnapshot.END_OF_CHUNKS) {
+                    break;
+                }
+
+                position = read(buffer, position, CompressedMemorySnapshot.CHUNK_HEADER_SIZE - Integer.BYTES);
+                final long chunkPresent = buffer.getLong();
+                final long dataMask = buffer.getLong();
+                final int compressedLength = buffer.getInt();
+                CompressedMemorySnapshot.validateChunk(index, chunkPresent, dataMask, compressedLength, length);
+                if (!isLoaded[index]) {
+                    throw new IOException(String.format("Duplicate chunk [%d].", index));
+                }
+
+                isLoaded[index] = false;
+                positions[index] = position;
+                present[index] = chunkPresent;
+                dataMasks[index] = dataMask;
+                compressedLengths[index] = compressedLength;
+                remaining++;
+
+                position += compressedLength;
+            }
+
+            if (remaining == 0) {
+                inflater.end();
+            }
+        }
+
+        public void load(final int index) {
+            try {
+                if (dataMasks[index] != 0) {
+                    final byte[] compressed = new byte[compressedLengths[index]];
+                    read(ByteBuffer.wrap(compressed), positions[index]);
+                    CompressedMemorySnapshot.inflate(inflater, index, dataMasks[index], compressed,
+                        CompressedMemorySnapshot.getChunkLength(index, length), data);
+                }
+                CompressedMemorySnapshot.applyChunk(memory, index, present[index], dataMasks[index], data, length, scratch);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            markLoaded(index);
+        }
+
+        public void discard(final long offset, final long length) {
+            // Contents of discarded memory are undefined, so chunks fully covered need not be loaded.
+            final int first = (int) ((offset + CompressedMemorySnapshot.CHUNK_SIZE - 1) / CompressedMemorySnapshot.CHUNK_SIZE);
+            final long end = offset + length;
+            final int last = end == this.length ? isLoaded.length : (int) (end / CompressedMemorySnapshot.CHUNK_SIZE);
+            for (int index = first; index < last; index++) {
+                if (!isLoaded[index]) {
+                    markLoaded(index);
+                }
+            }
+        }
+
+        private void markLoaded(final int index) {
+            isLoaded[index] = true;
+            remaining--;
+            if (remaining == 0) {
+                inflater.end();
+            }
+        }
+
+        private long read(final ByteBuffer buffer, final long position, final int count) throws IOException {
+            buffer.clear().limit(count);
+            read(buffer, position);
+            buffer.flip();
+            return position + count;
+        }
+
+        private void read(final ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package li.cil.sedna.snapshot;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of migration streams, shared by {@link MigrationSender} and {@link MigrationReceiver}.
+ * <p>
+ * A stream starts with a header, followed by messages, each starting with its type. Page
+ * messages name a memory and carry a {@link CompressedMemorySnapshot} image of the pages sent
+ * in a round. The state message carries the serialized board state, the end message terminates
+ * the stream. Payloads are framed, so that they can be streamed without knowing their size up
+ * front, and without readers consuming data past their end.
+ */
+final class MigrationProtocol {
+    public static final int MAGIC = 0x53444E4D; // SDNM
+    public static final int VERSION = 1;
+
+    public static final byte MESSAGE_PAGES = 1;
+    public static final byte MESSAGE_STATE = 2;
+    public static final byte MESSAGE_END = 3;
+
+    public static void writeFully(final WritableByteChannel channel, final ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    public static void readFully(final ReadableByteChannel channel, final ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    public static void writeName(final ByteBuffer dst, final String name) {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        dst.putShort((short) bytes.length).put(bytes);
+    }
+
+    public static String readName(final ReadableByteChannel channel) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(Short.BYTES);
+        readFully(channel, length);
+        final ByteBuffer bytes = ByteBuffer.allocate(length.flip().getShort() & 0xFFFF);
+        readFully(channel, bytes);
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes everything written to it as length-prefixed frames. Closing it writes the empty
+     * frame marking the end of the payload, the underlying channel is left open.
+     */
+    public static final class FramedOutput implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        private boolean isOpen = true;
+
+        public FramedOutput(final WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            if (length > 0) {
+                header.clear().putInt(length).flip();
+                writeFully(channel, header);
+                writeFully(channel, src);
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isOpen) {
+                isOpen = false;
+                header.clear().putInt(0).flip();
+                writeFully(channel, header);
+            }
+        }
+    }
+
+    /**
+     * Reads the frames written by a {@link FramedOutput}, reporting the end of the stream at
+     * the empty frame terminating them. The underlying channel is left open.
+     */
+    public static final class FramedInput implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        private int frameRemaining;
+        private boolean isEnd;
+
+        public FramedInput(final ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (isEnd) {
+                return -1;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            if (frameRemaining == 0) {
+                header.clear();
+                readFully(channel, header);
+                frameRemaining = header.flip().getInt();
+                if (frameRemaining < 0) {
+                    throw new IOException(String.format("Invalid frame length [%d].", frameRemaining));
+                }
+                if (frameRemaining == 0) {
+                    isEnd = true;
+                    return -1;
+                }
+            }
+
+            final int limit = dst.limit();
+            dst.limit(dst.position() + Math.min(dst.remaining(), frameRemaining));
+            final int read;
+            try {
+                read = channel.read(dst);
+            } finally {
+                dst.limit(limit);
+            }
+            if (read < 0) {
+                throw new EOFException();
+            }
+            frameRemaining -= read;
+            return read;
+        }
+
+        /**
+         * Consumes everything up to and including the frame terminating the payload.
+         *
+         * @throws IOException if reading fails.
+         */
+        public void skipToEnd() throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(4 * 1024);
+            while (read(buffer.clear()) >= 0) {
+                // Discard.
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !isEnd;
+        }
+
+        @Override
+        public void close() throws IOException {
+            skipToEnd();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receives a board sent by a {@link MigrationSender}.
+ * <p>
+ * Set up a board the same way as on the sending side, add its memories using the names they
+ * were sent with, then call {@link #receive()}. Rounds of pages are written to memory as they
+ * arrive. Once the sender has finished, the returned state is deserialized into the board,
+ * which can then resume.
+ */
+public final class MigrationReceiver {
+    private final ReadableByteChannel channel;
+    private final CompressedMemorySnapshot snapshot;
+    private final Map<String, PhysicalMemory> memories = new HashMap<>();
+
+    public MigrationReceiver(final ReadableByteChannel channel) {
+        this(channel, new CompressedMemorySnapshot());
+    }
+
+    /**
+     * Creates a new receiver.
+     *
+     * @param channel  the channel to receive the board from, e.g. a blocking {@link java.nio.channels.SocketChannel}.
+     * @param snapshot the snapshot reader used to decompress pages.
+     */
+    public MigrationReceiver(final ReadableByteChannel channel, final CompressedMemorySnapshot snapshot) {
+        this.channel = channel;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Adds a memory to receive pages into.
+     *
+     * @param name   the name of the memory.
+     * @param memory the memory.
+     * @throws IllegalArgumentException if the name is already in use.
+     */
+    public void addMemory(final String name, final PhysicalMemory memory) {
+        if (memories.putIfAbsent(name, memory) != null) {
+            throw new IllegalArgumentException(String.format("Duplicate memory name [%s].", name));
+        }
+    }
+
+    /**
+     * Receives the board, blocking until the sender has finished.
+     *
+     * @return the serialized state of the board and its devices, as passed to {@link MigrationSender#finish(ByteBuffer)}.
+     * @throws IOException if reading fails, the stream is invalid, or pages are sent for an unknown memory.
+     */
+    public ByteBuffer receive() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        MigrationProtocol.readFully(channel, header);
+        if (header.flip().getInt() != MigrationProtocol.MAGIC) {
+            throw new IOException("Not a migration stream.");
+        }
+        final int version = header.getInt();
+        if (version != MigrationProtocol.VERSION) {
+            throw new IOException(String.format("Unsupported migration version [%d].", version));
+        }
+
+        final ByteBuffer type = ByteBuffer.allocate(1);
+        ByteBuffer state = null;
+        for (; ; ) {
+            MigrationProtocol.readFully(channel, type.clear());
+            switch (type.flip().get()) {
+                case MigrationProtocol.MESSAGE_PAGES -> {
+                    final String name = MigrationProtocol.readName(channel);
+                    final PhysicalMemory memory = memories.get(name);
+                    if (memory == null) {
+                        throw new IOException(String.format("Unknown memory [%s].", name));
+                    }
+                    final MigrationProtocol.FramedInput input = new MigrationProtocol.FramedInput(channel);
+                    snapshot.restore(memory, input);
+                    input.skipToEnd();
+                }
+                case MigrationProtocol.MESSAGE_STATE -> {
+                    final MigrationProtocol.FramedInput input = new MigrationProtocol.FramedInput(channel);
+                    state = ByteBuffer.wrap(Channels.newInputStream(input).readAllBytes());
+                }
+                case MigrationProtocol.MESSAGE_END -> {
+                    if (state == null) {
+                        throw new IOException("Migration ended without state.");
+                    }
+                    return state;
+                }
+                default -> throw new IOException(String.format("Unknown message type [%d].", type.get(0)));
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryMap;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sends a running board to a {@link MigrationReceiver} using iterative pre-copy.
+ * <p>
+ * Memory is sent in rounds while the board keeps running. The first round sends all pages, each
+ * following round the pages written to since the previous one. Rounds get shorter as long as
+ * the guest dirties memory more slowly than it can be sent. Once a round is small enough, the
+ * board is stopped and {@link #finish(ByteBuffer)} sends the pages dirtied in the meantime along
+ * with the board's state. So the time the board is stopped depends on the rate the guest writes
+ * memory at, not the size of its memory.
+ * <p>
+ * A typical host loop, on the thread stepping the board, looks like this:
+ * <pre>
+ * CompletableFuture&lt;Integer&gt; round = sender.startRound();
+ * for (;;) {
+ *     board.step(cycles);
+ *     sender.update();
+ *     if (round.isDone()) {
+ *         if (round.join() &lt;= threshold) break;
+ *         round = sender.startRound();
+ *     }
+ * }
+ * board.setRunning(false);
+ * sender.finish(BinarySerialization.serialize(board));
+ * </pre>
+ * The state is opaque to the sender. It is typically the board and its devices, including
+ * virtqueue state, serialized using Ceres, and is deserialized on the receiving side into a
+ * board set up the same way.
+ * <p>
+ * Rounds are copied to the heap in batches of at most {@link #BATCH_PAGE_COUNT} pages, one per
+ * call to {@link #update()} between steps, and compressed and sent in the background. Copying on
+ * the thread stepping the board means memory is never accessed concurrently with the board, so any
+ * {@link PhysicalMemory} may be sent. Batching bounds both the time a single step is delayed by and
+ * the heap needed, to two batches at most, independent of the size of the memory being sent.
+ * <p>
+ * Dirty tracking of the memory map is consumed by the sender, so it must not be used by other
+ * systems, such as a {@link SnapshotWriter}, at the same time.
+ */
+public final class MigrationSender {
+    /**
+     * The maximum number of pages copied by a single call to {@link #update()}.
+     */
+    public static final int BATCH_PAGE_COUNT = 4 * CompressedMemorySnapshot.CHUNK_PAGE_COUNT;
+
+    private final MemoryMap memoryMap;
+    private final WritableByteChannel channel;
+    private final CompressedMemorySnapshot snapshot;
+    private final Executor executor;
+    private final Map<String, PhysicalMemory> memories = new LinkedHashMap<>();
+    private final Map<String, BitSet> pendingPages = new LinkedHashMap<>();
+    @Nullable private CompletableFuture<Integer> round;
+    private CompletableFuture<Integer> sentPages = CompletableFuture.completedFuture(0);
+    private boolean isStarted, isHeaderSent, isFinished;
+    public MigrationSender(final MemoryMap memoryMap, final WritableByteChannel channel) {
+        this(memoryMap, channel, new CompressedMemorySnapshot(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new sender.
+     *
+     * @param memoryMap the memory map of the board to send.
+     * @param channel   the channel to send the board over, e.g. a blocking {@link java.nio.channels.SocketChannel}.
+     * @param snapshot  the snapshot writer used to copy and compress pages.
+     * @param executor  the executor rounds are sent on.
+     */
+    public MigrationSender(final MemoryMap memoryMap, final WritableByteChannel channel,
+                           final CompressedMemorySnapshot snapshot, final Executor executor) {
+        this.memoryMap = memoryMap;
+        this.channel = channel;
+        this.snapshot = snapshot;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a memory to send. The receiver must add a memory of the same size using the same name.
+     *
+     * @param name   the name of the memory.
+     * @param memory the memory.
+     * @throws IllegalArgumentException if the name is already in use or the memory is not mapped.
+     * @throws IllegalStateException    if the migration has already started.
+     */
+    public void addMemory(final String name, final PhysicalMemory memory) {
+        if (isStarted) {
+            throw new IllegalStateException("Migration already started.");
+        }
+        if (memories.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate memory name [%s].", name));
+        }
+        if (memoryMap.getMemoryRange(memory).isEmpty()) {
+            throw new IllegalArgumentException(String.format("Memory is not mapped [%s].", name));
+        }
+        memories.put(name, memory);
+    }
+
+    /**
+     * Starts the next round of pages, and copies its first batch.
+     * <p>
+     * This must be called from the thread stepping the board. The board may keep running while
+     * the round is sent, with {@link #update()} being called between steps to copy the remaining
+     * batches. Pages it writes to in the meantime are sent again in the next round.
+     *
+     * @return a future completing with the number of pages sent in the round.
+     * @throws IOException           if copying the pages fails.
+     * @throws IllegalStateException if a round is still in progress or the migration has finished.
+     */
+    public CompletableFuture<Integer> startRound() throws IOException {
+        if (isFinished) {
+            throw new IllegalStateException("Migration already finished.");
+        }
+        if (round != null && !round.isDone()) {
+            throw new IllegalStateException("Round still in progress.");
+        }
+
+        collectPages();
+        round = new CompletableFuture<>();
+        sentPages = CompletableFuture.completedFuture(0);
+        if (pendingPages.isEmpty()) {
+            completeRound();
+        } else {
+            update();
+        }
+        return round;
+    }
+
+    /**
+     * Copies the next batch of the current round, once the previous one has been sent.
+     * <p>
+     * This must be called from the thread stepping the board, between steps. Does nothing if
+     * no round is in progress.
+     *
+     * @throws IOException if copying the pages fails.
+     */
+    public void update() throws IOException {
+        if (pendingPages.isEmpty() || !sentPages.isDone() || isFinished) {
+            return;
+        }
+
+        if (sentPages.isCompletedExceptionally()) {
+            pendingPages.clear();
+        } else {
+            final Map<String, CompressedMemorySnapshot.PageCopy> batch = copyBatch();
+            sentPages = sentPages.thenApplyAsync(count -> {
+                try {
+                    return count + sendPages(batch);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+
+        if (pendingPages.isEmpty()) {
+            completeRound();
+        }
+    }
+
+    /**
+     * Completes the migration by sending the pages not sent yet and the board's state.
+     * <p>
+     * The board must be stopped before calling this, and must not be resumed on this side
+     * afterwards. Waits for the batch of the current round being sent, if any. The rest of an
+     * unfinished round is sent along with the pages dirtied since, and the round is cancelled.
+     *
+     * @param state the serialized state of the board and its devices.
+     * @throws IOException if sending fails, now or in the current round.
+     */
+    public void finish(final ByteBuffer state) throws IOException {
+        if (isFinished) {
+            throw new IllegalStateException("Migration already finished.");
+        }
+        try {
+            sentPages.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        if (round != null) {
+            round.cancel(false);
+        }
+        isFinished = true;
+
+        collectPages();
+        do {
+            sendPages(copyBatch());
+        } while (!pendingPages.isEmpty());
+
+        MigrationProtocol.writeFully(channel, ByteBuffer.allocate(1).put(MigrationProtocol.MESSAGE_STATE).flip());
+        try (final MigrationProtocol.FramedOutput output = new MigrationProtocol.FramedOutput(channel)) {
+            MigrationProtocol.writeFully(output, state);
+        }
+        MigrationProtocol.writeFully(channel, ByteBuffer.allocate(1).put(MigrationProtocol.MESSAGE_END).flip());
+    }
+
+    private void completeRound() {
+        final CompletableFuture<Integer> round = this.round;
+        assert round != null;
+        sentPages.whenComplete((count, e) -> {
+            if (e != null) {
+                round.completeExceptionally(e);
+            } else {
+                round.complete(count);
+            }
+        });
+    }
+
+    // Adds all pages in the first round, the dirty ones after that, to the pages still to send.
+    private void collectPages() {
+        for (final Map.Entry<String, PhysicalMemory> entry : memories.entrySet()) {
+            final BitSet pages = memoryMap.getAndClearDirtyPages(entry.getValue());
+            if (!isStarted) {
+                pages.set(0, (int) ((entry.getValue().getLongLength() + SnapshotFormat.PAGE_SIZE - 1) / SnapshotFormat.PAGE_SIZE));
+            }
+            if (!pages.isEmpty()) {
+                pendingPages.merge(entry.getKey(), pages, (pending, added) -> {
+                    pending.or(added);
+                    return pending;
+                });
+            }
+        }
+        isStarted = true;
+    }
+
+    // Takes up to BATCH_PAGE_COUNT of the pages still to send, in order, and copies them.
+    private Map<String, CompressedMemorySnapshot.PageCopy> copyBatch() throws IOException {
+        final Map<String, CompressedMemorySnapshot.PageCopy> batch = new LinkedHashMap<>();
+        int remaining = BATCH_PAGE_COUNT;
+        final Iterator<Map.Entry<String, BitSet>> it = pendingPages.entrySet().iterator();
+        while (remaining > 0 && it.hasNext()) {
+            final Map.Entry<String, BitSet> entry = it.next();
+            final BitSet pending = entry.getValue();
+
+            int end = pending.nextSetBit(0);
+            for (int i = 0; i < remaining && end >= 0; i++) {
+                end = pending.nextSetBit(end + 1);
+            }
+            if (end < 0) {
+                end = pending.length();
+            }
+
+            final BitSet pages = pending.get(0, end);
+            pending.clear(0, end);
+            if (pending.isEmpty()) {
+                it.remove();
+            }
+
+            batch.put(entry.getKey(), snapshot.copy(memories.get(entry.getKey()), pages));
+            remaining -= pages.cardinality();
+        }
+        return batch;
+    }
+
+    // Batches are sent one after the other, finish() waits for the last one, so this is never run concurrently.
+    private int sendPages(final Map<String, CompressedMemorySnapshot.PageCopy> pages) throws IOException {
+        if (!isHeaderSent) {
+            isHeaderSent = true;
+            MigrationProtocol.writeFully(channel, ByteBuffer.allocate(2 * Integer.BYTES)
+                .putInt(MigrationProtocol.MAGIC)
+                .putInt(MigrationProtocol.VERSION)
+                .flip());
+        }
+
+        int count = 0;
+        for (final Map.Entry<String, CompressedMemorySnapshot.PageCopy> entry : pages.entrySet()) {
+            final ByteBuffer header = ByteBuffer.allocate(1 + Short.BYTES + entry.getKey().getBytes(StandardCharsets.UTF_8).length);
+            header.put(MigrationProtocol.MESSAGE_PAGES);
+            MigrationProtocol.writeName(header, entry.getKey());
+            MigrationProtocol.writeFully(channel, header.flip());
+            try (final MigrationProtocol.FramedOutput output = new MigrationProtocol.FramedOutput(channel)) {
+                snapshot.write(entry.getValue(), output);
+            }
+
+            count += entry.getValue().getPageCount();
+        }
+        return count;
+    }
+}
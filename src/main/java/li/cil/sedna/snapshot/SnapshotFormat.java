@@ -0,0 +1,132 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.memory.MemoryMap;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of snapshot streams, shared by {@link SnapshotWriter} and {@link SnapshotReader}.
+ * <p>
+ * A snapshot starts with a header holding its own id and the id of its parent, which is zero
+ * for base snapshots. It is followed by any number of sections and a {@link #SECTION_END}
+ * marker. Each section names a memory or block device, the size of its units (pages or blocks)
+ * and its total length, followed by entries. Each entry is a unit index and either a marker for
+ * an all-zero unit or the unit's data. A section is terminated by {@link #END_OF_ENTRIES}.
+ * Units are only ever partial for the last page of memories not ending on a page boundary;
+ * blocks are always stored whole, like they are kept in {@link li.cil.sedna.device.block.SparseBlockDevice}.
+ */
+final class SnapshotFormat {
+    public static final int MAGIC = 0x53444E53; // SDNS
+    public static final int VERSION = 1;
+
+    public static final int PAGE_SIZE = 1 << MemoryMap.DIRTY_PAGE_SIZE_LOG2;
+
+    public static final byte SECTION_END = 0;
+    public static final byte SECTION_MEMORY = 1;
+    public static final byte SECTION_BLOCKS = 2;
+
+    public static final int END_OF_ENTRIES = -1;
+
+    public static final byte ENTRY_ZERO = 0;
+    public static final byte ENTRY_DATA = 1;
+
+    public record Header(long id, long parentId) {
+        public boolean isBase() {
+            return parentId == 0;
+        }
+    }
+
+    public record Section(byte type, String name, int unitSize, long length) {
+        public int getUnitLength(final int index) throws IOException {
+            final long offset = (long) index * unitSize;
+            if (index < 0 || offset >= length) {
+                throw new IOException(String.format("Entry out of bounds in section [%s].", name));
+            }
+            if (type == SECTION_BLOCKS) {
+                return unitSize;
+            }
+            return (int) Math.min(unitSize, length - offset);
+        }
+
+        public boolean isCompatible(final Section other) {
+            return type == other.type && unitSize == other.unitSize && length == other.length;
+        }
+    }
+
+    public static void writeHeader(final DataOutputStream output, final Header header) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(header.id());
+        output.writeLong(header.parentId());
+    }
+
+    public static Header readHeader(final DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot.");
+        }
+        final int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot version [%d].", version));
+        }
+        return new Header(input.readLong(), input.readLong());
+    }
+
+    /**
+     * Reads the headers of a chain of snapshots and makes sure they form a valid chain, i.e. that
+     * the first one is a base snapshot and each following one is a delta to its predecessor.
+     *
+     * @param inputs the snapshots in the chain, oldest first.
+     * @return the headers of the snapshots, in the same order.
+     * @throws IOException if reading fails or the snapshots do not form a chain.
+     */
+    public static List<Header> readChain(final List<DataInputStream> inputs) throws IOException {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("Chain is empty.");
+        }
+
+        final List<Header> headers = new ArrayList<>(inputs.size());
+        for (final DataInputStream input : inputs) {
+            final Header header = readHeader(input);
+            if (headers.isEmpty()) {
+                if (!header.isBase()) {
+                    throw new IOException("Chain does not start with a base snapshot.");
+                }
+            } else if (header.parentId() != headers.get(headers.size() - 1).id()) {
+                throw new IOException(String.format("Snapshot is not a delta to its predecessor [%d].", headers.size()));
+            }
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    public static void writeSection(final DataOutputStream output, final Section section) throws IOException {
+        output.writeByte(section.type());
+        output.writeUTF(section.name());
+        output.writeInt(section.unitSize());
+        output.writeLong(section.length());
+    }
+
+    /**
+     * Reads the next section header.
+     *
+     * @param input the stream to read from.
+     * @return the section, or {@code null} if the end of the snapshot was reached.
+     * @throws IOException if reading fails.
+     */
+    @Nullable
+    public static Section readSection(final DataInputStream input) throws IOException {
+        final byte type = input.readByte();
+        if (type == SECTION_END) {
+            return null;
+        }
+        if (type != SECTION_MEMORY && type != SECTION_BLOCKS) {
+            throw new IOException(String.format("Unknown section type [%d].", type));
+        }
+        return new Section(type, input.readUTF(), input.readInt(), input.readLong());
+    }
+}
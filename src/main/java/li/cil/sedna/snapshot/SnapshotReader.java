@@ -0,0 +1,210 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.device.block.SparseBlockDevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Restores and merges chains of snapshots written by a {@link SnapshotWriter}.
+ * <p>
+ * A chain is a base snapshot followed by any number of deltas, each to its predecessor.
+ * Restoring replays the base and then each delta in order. Merging folds a chain into a single
+ * base snapshot with the id of the last snapshot in the chain, so that writers continuing the
+ * chain keep producing valid deltas, and older snapshots may be deleted.
+ */
+public final class SnapshotReader {
+    private final Map<String, PhysicalMemory> memories = new HashMap<>();
+    private final Map<String, SparseBlockDevice> blockDevices = new HashMap<>();
+
+    /**
+     * Adds a memory to restore data into, using the name it was written with.
+     *
+     * @param name   the name of the memory.
+     * @param memory the memory.
+     * @throws IllegalArgumentException if the name is already in use.
+     */
+    public void addMemory(final String name, final PhysicalMemory memory) {
+        if (memories.putIfAbsent(name, memory) != null) {
+            throw new IllegalArgumentException(String.format("Duplicate memory name [%s].", name));
+        }
+    }
+
+    /**
+     * Adds a block device to restore data into, using the name it was written with.
+     *
+     * @param name   the name of the block device.
+     * @param device the block device.
+     * @throws IllegalArgumentException if the name is already in use.
+     */
+    public void addBlockDevice(final String name, final SparseBlockDevice device) {
+        if (blockDevices.putIfAbsent(name, device) != null) {
+            throw new IllegalArgumentException(String.format("Duplicate block device name [%s].", name));
+        }
+    }
+
+    /**
+     * Restores a chain of snapshots into the added memories and block devices.
+     * <p>
+     * Data is written directly to the memories and devices, it is not marked dirty. To continue
+     * writing deltas after restoring, pass the returned id to {@link SnapshotWriter#continueFrom(long)}.
+     * <p>
+     * The headers of all snapshots are validated before any data is restored. If reading fails
+     * after that, the memories and devices are left partially restored.
+     *
+     * @param chain the snapshots in the chain, oldest first. Will not be closed.
+     * @return the id of the last snapshot in the chain.
+     * @throws IOException if reading fails, the snapshots do not form a chain, or a snapshot
+     *                     contains data for unknown or incompatible memories or devices.
+     */
+    public long restore(final List<? extends InputStream> chain) throws IOException {
+        final List<DataInputStream> inputs = wrap(chain);
+        final List<SnapshotFormat.Header> headers = SnapshotFormat.readChain(inputs);
+
+        for (final DataInputStream input : inputs) {
+            SnapshotFormat.Section section;
+            while ((section = SnapshotFormat.readSection(input)) != null) {
+                if (section.type() == SnapshotFormat.SECTION_MEMORY) {
+                    restoreMemory(input, section);
+                } else {
+                    restoreBlocks(input, section);
+                }
+            }
+        }
+
+        return headers.get(headers.size() - 1).id();
+    }
+
+    /**
+     * Merges a chain of snapshots into a single base snapshot.
+     * <p>
+     * Snapshots are read newest first, and only the most recent version of each page and block
+     * is copied, so each input is read exactly once and nothing but bookkeeping is held in memory.
+     *
+     * @param chain  the snapshots in the chain, oldest first. Will not be closed.
+     * @param stream the stream to write the merged snapshot to. Will not be closed.
+     * @return the id of the merged snapshot, which is the id of the last snapshot in the chain.
+     * @throws IOException if reading or writing fails or the snapshots do not form a chain.
+     */
+    public static long merge(final List<? extends InputStream> chain, final OutputStream stream) throws IOException {
+        final List<DataInputStream> inputs = wrap(chain);
+        final List<SnapshotFormat.Header> headers = SnapshotFormat.readChain(inputs);
+        final long id = headers.get(headers.size() - 1).id();
+
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        SnapshotFormat.writeHeader(output, new SnapshotFormat.Header(id, 0));
+
+        final Map<String, SnapshotFormat.Section> sections = new HashMap<>();
+        final Map<String, BitSet> written = new HashMap<>();
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            final DataInputStream input = inputs.get(i);
+            SnapshotFormat.Section section;
+            while ((section = SnapshotFormat.readSection(input)) != null) {
+                final String key = section.type() + ":" + section.name();
+                final SnapshotFormat.Section known = sections.putIfAbsent(key, section);
+                if (known != null && !known.isCompatible(section)) {
+                    throw new IOException(String.format("Section changed layout within chain [%s].", section.name()));
+                }
+
+                final BitSet units = written.computeIfAbsent(key, k -> new BitSet());
+                final byte[] buffer = new byte[section.unitSize()];
+                SnapshotFormat.writeSection(output, section);
+                int index;
+                while ((index = input.readInt()) != SnapshotFormat.END_OF_ENTRIES) {
+                    final int length = section.getUnitLength(index);
+                    final boolean isZero = readEntry(input, buffer, length);
+                    if (units.get(index)) {
+                        continue;
+                    }
+                    units.set(index);
+
+                    output.writeInt(index);
+                    if (isZero) {
+                        output.writeByte(SnapshotFormat.ENTRY_ZERO);
+                    } else {
+                        output.writeByte(SnapshotFormat.ENTRY_DATA);
+                        output.write(buffer, 0, length);
+                    }
+                }
+                output.writeInt(SnapshotFormat.END_OF_ENTRIES);
+            }
+        }
+
+        output.writeByte(SnapshotFormat.SECTION_END);
+        output.flush();
+
+        return id;
+    }
+
+    private void restoreMemory(final DataInputStream input, final SnapshotFormat.Section section) throws IOException {
+        final PhysicalMemory memory = memories.get(section.name());
+        if (memory == null) {
+            throw new IOException(String.format("Unknown memory [%s].", section.name()));
+        }
+        if (section.unitSize() != SnapshotFormat.PAGE_SIZE || section.length() != memory.getLongLength()) {
+            throw new IOException(String.format("Memory size mismatch [%s].", section.name()));
+        }
+
+        final byte[] buffer = new byte[section.unitSize()];
+        int index;
+        while ((index = input.readInt()) != SnapshotFormat.END_OF_ENTRIES) {
+            final int length = section.getUnitLength(index);
+            readEntry(input, buffer, length);
+            memory.store((long) index * section.unitSize(), ByteBuffer.wrap(buffer, 0, length));
+        }
+    }
+
+    private void restoreBlocks(final DataInputStream input, final SnapshotFormat.Section section) throws IOException {
+        final SparseBlockDevice device = blockDevices.get(section.name());
+        if (device == null) {
+            throw new IOException(String.format("Unknown block device [%s].", section.name()));
+        }
+        if (section.unitSize() != device.getBlockSize() || section.length() != device.getCapacity()) {
+            throw new IOException(String.format("Block device size mismatch [%s].", section.name()));
+        }
+
+        final byte[] buffer = new byte[section.unitSize()];
+        int index;
+        while ((index = input.readInt()) != SnapshotFormat.END_OF_ENTRIES) {
+            readEntry(input, buffer, section.getUnitLength(index));
+            device.putBlock(index, buffer);
+        }
+    }
+
+    // Reads the data of an entry into the buffer, zero-filling it for all-zero entries.
+    private static boolean readEntry(final DataInputStream input, final byte[] buffer, final int length) throws IOException {
+        final byte kind = input.readByte();
+        switch (kind) {
+            case SnapshotFormat.ENTRY_ZERO -> {
+                Arrays.fill(buffer, 0, length, (byte) 0);
+                return true;
+            }
+            case SnapshotFormat.ENTRY_DATA -> {
+                input.readFully(buffer, 0, length);
+                return false;
+            }
+            default -> throw new IOException(String.format("Unknown entry type [%d].", kind));
+        }
+    }
+
+    private static List<DataInputStream> wrap(final List<? extends InputStream> streams) {
+        final List<DataInputStream> result = new ArrayList<>(streams.size());
+        for (final InputStream stream : streams) {
+            result.add(new DataInputStream(new BufferedInputStream(stream)));
+        }
+        return result;
+    }
+}
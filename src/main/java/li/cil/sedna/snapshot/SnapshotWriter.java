@@ -0,0 +1,202 @@
+package li.cil.sedna.snapshot;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.block.SparseBlockDevice;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes chains of incremental snapshots of memories and sparse block devices.
+ * <p>
+ * The first snapshot written is a base snapshot containing all pages and shadow blocks. Each
+ * following snapshot is a delta to the previous one, containing only the pages and blocks
+ * written to since, based on {@link MemoryMap#getAndClearDirtyPages} and
+ * {@link SparseBlockDevice#getAndClearDirtyBlocks()}. This makes the time and space needed
+ * for a snapshot scale with the amount of data written by the guest, not the size of its
+ * memory. Chains are restored or merged into a single base snapshot using {@link SnapshotReader}.
+ * <p>
+ * This only covers bulk data. Devices and CPUs are still serialized as usual, and that state
+ * has to be saved alongside each snapshot.
+ * <p>
+ * Since harvesting dirty pages clears them, there must only be one writer per memory map, and
+ * snapshots must be taken from the thread stepping the CPUs or while they are paused.
+ */
+public final class SnapshotWriter {
+    private final MemoryMap memoryMap;
+    private final Map<String, PhysicalMemory> memories = new LinkedHashMap<>();
+    private final Map<String, SparseBlockDevice> blockDevices = new LinkedHashMap<>();
+    private long parentId;
+
+    public SnapshotWriter(final MemoryMap memoryMap) {
+        this.memoryMap = memoryMap;
+    }
+
+    /**
+     * Adds a memory to include in snapshots. The name is used to find the memory to restore
+     * the data into when reading the snapshot, so it must be stable across sessions.
+     *
+     * @param name   the name of the memory.
+     * @param memory the memory.
+     * @throws IllegalArgumentException if the name is already in use or the memory is not mapped.
+     */
+    public void addMemory(final String name, final PhysicalMemory memory) {
+        if (memories.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate memory name [%s].", name));
+        }
+        if (memoryMap.getMemoryRange(memory).isEmpty()) {
+            throw new IllegalArgumentException(String.format("Memory is not mapped [%s].", name));
+        }
+        memories.put(name, memory);
+    }
+
+    /**
+     * Adds a block device to include in snapshots. The name is used to find the device to
+     * restore the data into when reading the snapshot, so it must be stable across sessions.
+     *
+     * @param name   the name of the block device.
+     * @param device the block device.
+     * @throws IllegalArgumentException if the name is already in use.
+     */
+    public void addBlockDevice(final String name, final SparseBlockDevice device) {
+        if (blockDevices.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate block device name [%s].", name));
+        }
+        blockDevices.put(name, device);
+    }
+
+    /**
+     * Returns the id of the last snapshot written, which the next snapshot will be a delta to.
+     *
+     * @return the id of the last snapshot, or zero if the next snapshot will be a base snapshot.
+     */
+    public long getParentId() {
+        return parentId;
+    }
+
+    /**
+     * Declares the current contents of all added memories and block devices to be equal to
+     * the specified snapshot, typically after restoring it, so that the next snapshot written
+     * is a delta to it. Changes made so far are discarded from the dirty tracking.
+     *
+     * @param snapshotId the id of the snapshot, or zero to write a base snapshot next.
+     */
+    public void continueFrom(final long snapshotId) {
+        for (final PhysicalMemory memory : memories.values()) {
+            memoryMap.getAndClearDirtyPages(memory);
+        }
+        for (final SparseBlockDevice device : blockDevices.values()) {
+            device.getAndClearDirtyBlocks();
+        }
+        parentId = snapshotId;
+    }
+
+    /**
+     * Writes a new snapshot to the specified stream.
+     * <p>
+     * If writing fails, the changes harvested for this snapshot are lost, so the next snapshot
+     * will be a base snapshot.
+     *
+     * @param stream the stream to write to. Will not be closed.
+     * @return the id of the snapshot written.
+     * @throws IOException if writing to the stream fails.
+     */
+    public long write(final OutputStream stream) throws IOException {
+        final SnapshotFormat.Header header = new SnapshotFormat.Header(createId(), parentId);
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            SnapshotFormat.writeHeader(output, header);
+
+            for (final Map.Entry<String, PhysicalMemory> entry : memories.entrySet()) {
+                final PhysicalMemory memory = entry.getValue();
+                BitSet pages = memoryMap.getAndClearDirtyPages(memory);
+                if (header.isBase()) {
+                    pages = new BitSet();
+                    pages.set(0, (int) ((memory.getLongLength() + SnapshotFormat.PAGE_SIZE - 1) / SnapshotFormat.PAGE_SIZE));
+                }
+                writeMemory(output, entry.getKey(), memory, pages);
+            }
+
+            for (final Map.Entry<String, SparseBlockDevice> entry : blockDevices.entrySet()) {
+                final SparseBlockDevice device = entry.getValue();
+                BitSet blocks = device.getAndClearDirtyBlocks();
+                if (header.isBase()) {
+                    blocks = device.getShadowBlocks();
+                }
+                writeBlocks(output, entry.getKey(), device, blocks);
+            }
+
+            output.writeByte(SnapshotFormat.SECTION_END);
+            output.flush();
+        } catch (final IOException | RuntimeException e) {
+            parentId = 0;
+            throw e;
+        }
+
+        parentId = header.id();
+        return header.id();
+    }
+
+    private static void writeMemory(final DataOutputStream output, final String name, final PhysicalMemory memory, final BitSet pages) throws IOException {
+        final SnapshotFormat.Section section = new SnapshotFormat.Section(SnapshotFormat.SECTION_MEMORY, name, SnapshotFormat.PAGE_SIZE, memory.getLongLength());
+        SnapshotFormat.writeSection(output, section);
+
+        final byte[] buffer = new byte[SnapshotFormat.PAGE_SIZE];
+        for (int page = pages.nextSetBit(0); page >= 0; page = pages.nextSetBit(page + 1)) {
+            final int length = section.getUnitLength(page);
+            memory.load((long) page * SnapshotFormat.PAGE_SIZE, ByteBuffer.wrap(buffer, 0, length));
+            writeEntry(output, page, buffer, length);
+        }
+
+        output.writeInt(SnapshotFormat.END_OF_ENTRIES);
+    }
+
+    private static void writeBlocks(final DataOutputStream output, final String name, final SparseBlockDevice device, final BitSet blocks) throws IOException {
+        final SnapshotFormat.Section section = new SnapshotFormat.Section(SnapshotFormat.SECTION_BLOCKS, name, device.getBlockSize(), device.getCapacity());
+        SnapshotFormat.writeSection(output, section);
+
+        final byte[] buffer = new byte[device.getBlockSize()];
+        for (int block = blocks.nextSetBit(0); block >= 0; block = blocks.nextSetBit(block + 1)) {
+            if (device.getBlock(block, buffer)) {
+                writeEntry(output, block, buffer, buffer.length);
+            }
+        }
+
+        output.writeInt(SnapshotFormat.END_OF_ENTRIES);
+    }
+
+    private static void writeEntry(final DataOutputStream output, final int index, final byte[] data, final int length) throws IOException {
+        output.writeInt(index);
+        if (isZero(data, length)) {
+            output.writeByte(SnapshotFormat.ENTRY_ZERO);
+        } else {
+            output.writeByte(SnapshotFormat.ENTRY_DATA);
+            output.write(data, 0, length);
+        }
+    }
+
+    private static boolean isZero(final byte[] data, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long createId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
@@ -0,0 +1,170 @@
+package li.cil.sedna;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.device.memory.SparseMemory;
+import li.cil.sedna.snapshot.CompressedMemorySnapshot;
+import li.cil.sedna.snapshot.LazySnapshotMemory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class CompressedMemorySnapshotTests {
+    private static final int PAGE_SIZE = 4 * 1024;
+    // Not a multiple of the page size, to cover partial last pages and chunks.
+    private static final int MEMORY_SIZE = 3 * 1024 * 1024 + 1028;
+
+    @TempDir
+    public Path tempDir;
+
+    private Path file;
+    private PhysicalMemory memory;
+    private CompressedMemorySnapshot snapshot;
+
+    @BeforeEach
+    public void setupEach() throws MemoryAccessException {
+        file = tempDir.resolve("memory.snapshot");
+        memory = Memory.create(MEMORY_SIZE);
+        snapshot = new CompressedMemorySnapshot(new ForkJoinPool(4), Deflater.BEST_SPEED);
+
+        final Random random = new Random(0xdeadbeef);
+        final byte[] data = new byte[PAGE_SIZE];
+        for (final int page : new int[]{0, 1, 5, 63, 64, 200, 500}) {
+            random.nextBytes(data);
+            memory.store((long) page * PAGE_SIZE, ByteBuffer.wrap(data));
+        }
+        memory.store(MEMORY_SIZE - 4, 0x12345678, Sizes.SIZE_32_LOG2);
+    }
+
+    @Test
+    public void restoresAllPagesAndElidesZeroPages() throws IOException {
+        write(null);
+        // Seven random pages plus the last one, compression won't do much for the random ones.
+        assertTrue(Files.size(file) < 9 * PAGE_SIZE);
+
+        final PhysicalMemory restored = Memory.create(MEMORY_SIZE);
+        restored.store(10 * PAGE_SIZE, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+        restore(restored);
+
+        assertMemoryEquals(memory, restored);
+    }
+
+    @Test
+    public void restoringZeroPagesDoesNotAllocateSparseMemory() throws IOException {
+        final PhysicalMemory zeros = Memory.create(MEMORY_SIZE);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            snapshot.write(zeros, channel);
+        }
+
+        final SparseMemory restored = new SparseMemory(MEMORY_SIZE, PAGE_SIZE);
+        restore(restored);
+        assertEquals(0, restored.getResidentSize());
+    }
+
+    @Test
+    public void subsetsOnlyTouchCoveredPages() throws IOException {
+        final BitSet pages = new BitSet();
+        pages.set(1);
+        pages.set(2);
+        pages.set(200);
+        write(pages);
+
+        final PhysicalMemory restored = Memory.create(MEMORY_SIZE);
+        restored.store(2 * PAGE_SIZE, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+        restored.store(3 * PAGE_SIZE, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+        restore(restored);
+
+        assertEquals(memory.load(PAGE_SIZE, Sizes.SIZE_64_LOG2), restored.load(PAGE_SIZE, Sizes.SIZE_64_LOG2));
+        assertEquals(memory.load(200 * PAGE_SIZE, Sizes.SIZE_64_LOG2), restored.load(200 * PAGE_SIZE, Sizes.SIZE_64_LOG2));
+        assertEquals(0, restored.load(2 * PAGE_SIZE, Sizes.SIZE_32_LOG2));
+        assertEquals(0xCAFEBABE, restored.load(3 * PAGE_SIZE, Sizes.SIZE_32_LOG2));
+        assertEquals(0, restored.load(0, Sizes.SIZE_64_LOG2));
+    }
+
+    @Test
+    public void invalidSnapshotsAreRejected() throws IOException {
+        write(null);
+        assertThrows(IOException.class, () -> restore(Memory.create(MEMORY_SIZE + 4)));
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        assertThrows(IOException.class, () -> restore(Memory.create(MEMORY_SIZE)));
+    }
+
+    @Test
+    public void lazyRestoreLoadsChunksOnFirstAccess() throws Exception {
+        write(null);
+
+        final SparseMemory backing = new SparseMemory(MEMORY_SIZE, PAGE_SIZE);
+        try (final LazySnapshotMemory restored = LazySnapshotMemory.create(backing, FileChannel.open(file, StandardOpenOption.READ))) {
+            final int chunkCount = restored.getRemainingChunkCount();
+            assertTrue(chunkCount > 1);
+            assertEquals(0, backing.getResidentSize());
+
+            // Page 200 is in the fourth chunk, only that one gets loaded.
+            assertEquals(memory.load(200 * PAGE_SIZE, Sizes.SIZE_64_LOG2), restored.load(200 * PAGE_SIZE, Sizes.SIZE_64_LOG2));
+            assertEquals(chunkCount - 1, restored.getRemainingChunkCount());
+            assertEquals(PAGE_SIZE, backing.getResidentSize());
+
+            // Stores load the chunk first, so the rest of it is intact.
+            restored.store(64 * PAGE_SIZE, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+            assertEquals(memory.load(64 * PAGE_SIZE + 8, Sizes.SIZE_64_LOG2), restored.load(64 * PAGE_SIZE + 8, Sizes.SIZE_64_LOG2));
+            assertEquals(chunkCount - 2, restored.getRemainingChunkCount());
+
+            memory.store(64 * PAGE_SIZE, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+            while (!restored.prefetch(2)) {
+                assertTrue(restored.getRemainingChunkCount() > 0);
+            }
+            assertMemoryEquals(memory, restored);
+        }
+    }
+
+    @Test
+    public void lazyRestoreSkipsDiscardedChunks() throws Exception {
+        write(null);
+
+        final PhysicalMemory backing = Memory.create(MEMORY_SIZE);
+        try (final LazySnapshotMemory restored = LazySnapshotMemory.create(backing, FileChannel.open(file, StandardOpenOption.READ))) {
+            final int chunkCount = restored.getRemainingChunkCount();
+            restored.discard(0, 2 * CompressedMemorySnapshot.CHUNK_PAGE_COUNT * PAGE_SIZE + PAGE_SIZE);
+            assertEquals(chunkCount - 2, restored.getRemainingChunkCount());
+            assertEquals(0, backing.load(PAGE_SIZE, Sizes.SIZE_64_LOG2));
+        }
+    }
+
+    private void write(final BitSet pages) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            snapshot.write(memory, pages, channel);
+        }
+    }
+
+    private void restore(final PhysicalMemory target) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            snapshot.restore(target, channel);
+        }
+    }
+
+    private static void assertMemoryEquals(final PhysicalMemory expected, final PhysicalMemory actual) throws MemoryAccessException {
+        final ByteBuffer expectedData = ByteBuffer.allocate(expected.getLength());
+        final ByteBuffer actualData = ByteBuffer.allocate(actual.getLength());
+        expected.load(0, expectedData);
+        actual.load(0, actualData);
+        assertArrayEquals(expectedData.array(), actualData.array());
+    }
+}
@@ -1,14 +1,22 @@
 package li.cil.sedna;
 
+import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
 import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.ByteBufferMemory;
+import li.cil.sedna.device.memory.Memory;
 import li.cil.sedna.memory.MemoryMaps;
 import li.cil.sedna.memory.SimpleMemoryMap;
+import li.cil.sedna.riscv.R5Assembler;
+import li.cil.sedna.riscv.R5CPU;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -22,11 +30,9 @@ public final class MemoryMapTests {
 
     @Test
     public void continuousMemorySizeIsComputedCorrectly() {
-        final PhysicalMemory memory1 = mock(PhysicalMemory.class);
-        when(memory1.getLength()).thenReturn(0x1000);
+        final PhysicalMemory memory1 = mockMemory(0x1000);
 
-        final PhysicalMemory memory2 = mock(PhysicalMemory.class);
-        when(memory2.getLength()).thenReturn(0x1000);
+        final PhysicalMemory memory2 = mockMemory(0x1000);
 
         assertTrue(memoryMap.addDevice(0x80000000L, memory1));
         assertTrue(memoryMap.addDevice(0x80001000L, memory2));
@@ -36,11 +42,9 @@ public final class MemoryMapTests {
 
     @Test
     public void interruptedMemorySizeIsComputedCorrectly() {
-        final PhysicalMemory memory1 = mock(PhysicalMemory.class);
-        when(memory1.getLength()).thenReturn(0x1000);
+        final PhysicalMemory memory1 = mockMemory(0x1000);
 
-        final PhysicalMemory memory2 = mock(PhysicalMemory.class);
-        when(memory2.getLength()).thenReturn(0x1000);
+        final PhysicalMemory memory2 = mockMemory(0x1000);
 
         assertTrue(memoryMap.addDevice(0x80000000L, memory1));
         assertTrue(memoryMap.addDevice(0x80001000L + 1, memory2));
@@ -51,10 +55,137 @@ public final class MemoryMapTests {
 
     @Test
     public void emptyMemorySizeIsComputedCorrectly() {
-        final PhysicalMemory memory1 = mock(PhysicalMemory.class);
-        when(memory1.getLength()).thenReturn(0x1000);
+        final PhysicalMemory memory1 = mockMemory(0x1000);
 
         assertEquals(0, MemoryMaps.getContinuousMemorySize(memoryMap, 0));
         assertEquals(0, MemoryMaps.getContinuousMemorySize(memoryMap, 0x80008000L));
     }
+
+    @Test
+    public void rangesAreFoundByAddress() {
+        final PhysicalMemory low = mockMemory(0x1000);
+
+        final PhysicalMemory middle = mockMemory(0x100);
+
+        final PhysicalMemory high = mockMemory(0x1000);
+
+        // Added out of order, and with an address that is negative when interpreted as signed.
+        assertTrue(memoryMap.addDevice(0xFFFFFFFF00000000L, high));
+        assertTrue(memoryMap.addDevice(0x1000L, low));
+        assertTrue(memoryMap.addDevice(0x80000000L, middle));
+
+        final PhysicalMemory overlapping = mockMemory(0x1000);
+        assertFalse(memoryMap.addDevice(0x80000080L, overlapping));
+
+        assertNull(memoryMap.getMemoryRange(0xFFFL));
+        assertSame(low, memoryMap.getMemoryRange(0x1000L).device);
+        assertSame(low, memoryMap.getMemoryRange(0x1FFFL).device);
+        assertNull(memoryMap.getMemoryRange(0x2000L));
+        assertSame(middle, memoryMap.getMemoryRange(0x800000FFL).device);
+        assertNull(memoryMap.getMemoryRange(0x80000100L));
+        assertSame(high, memoryMap.getMemoryRange(0xFFFFFFFF00000FFFL).device);
+        assertNull(memoryMap.getMemoryRange(0xFFFFFFFF00001000L));
+
+        memoryMap.removeDevice(middle);
+        assertNull(memoryMap.getMemoryRange(0x80000000L));
+        assertTrue(memoryMap.getMemoryRange(middle).isEmpty());
+        assertSame(low, memoryMap.getMemoryRange(0x1000L).device);
+        assertSame(high, memoryMap.getMemoryRange(0xFFFFFFFF00000000L).device);
+    }
+
+    @Test
+    public void dirtyPagesAreTracked() throws Exception {
+        final PhysicalMemory memory = Memory.create(0x4000);
+        assertTrue(memoryMap.addDevice(0x80000000L, memory));
+
+        // First harvest starts tracking and reports everything.
+        assertEquals(4, memoryMap.getAndClearDirtyPages(memory).cardinality());
+        assertTrue(memoryMap.getAndClearDirtyPages(memory).isEmpty());
+
+        memoryMap.store(0x80001004L, 0x12345678, Sizes.SIZE_32_LOG2);
+        MemoryMaps.store(memoryMap, 0x80002FFEL, new byte[4], 0, 4);
+
+        final BitSet expected = new BitSet();
+        expected.set(1, 4);
+        assertEquals(expected, memoryMap.getAndClearDirtyPages(memory));
+        assertTrue(memoryMap.getAndClearDirtyPages(memory).isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> memoryMap.getAndClearDirtyPages(mock(PhysicalMemory.class)));
+    }
+
+    @Test
+    public void cpuStoresMarkPagesDirtyAfterHarvest() throws Exception {
+        final PhysicalMemory memory = Memory.create(0x2000);
+        assertTrue(memoryMap.addDevice(0x80000000L, memory));
+        new R5Assembler(0x80000000L)
+            .define("DATA", 0x80001000L)
+            .assemble("""
+                        li   t0, DATA
+                loop:   sd   t1, 0(t0)
+                        addi t1, t1, 1
+                        j    loop
+                """)
+            .writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, 0x80000000L);
+        memoryMap.getAndClearDirtyPages(memory);
+
+        // The store TLB entry for the data page survives across steps, but must not let stores
+        // skip marking the page dirty again after a harvest.
+        for (int i = 0; i < 3; i++) {
+            cpu.step(100);
+            final BitSet dirty = memoryMap.getAndClearDirtyPages(memory);
+            assertEquals(1, dirty.cardinality());
+            assertTrue(dirty.get(1));
+        }
+    }
+
+    @Test
+    public void copyMovesDataAcrossDevicesAndMarksPagesDirty() throws Exception {
+        final PhysicalMemory source = Memory.create(0x2000);
+        final PhysicalMemory target = Memory.createSparse(0x20000);
+        assertTrue(memoryMap.addDevice(0x80000000L, source));
+        assertTrue(memoryMap.addDevice(0x80002000L, target));
+
+        final byte[] data = new byte[0x1800];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        MemoryMaps.store(memoryMap, 0x80000100L, data, 0, data.length);
+        memoryMap.getAndClearDirtyPages(target);
+
+        // Crosses from one device into the other, and a chunk boundary of the target.
+        MemoryMaps.copy(memoryMap, 0x80000100L, 0x8000FF00L, data.length);
+
+        final byte[] copy = new byte[data.length];
+        MemoryMaps.load(memoryMap, 0x8000FF00L, copy, 0, copy.length);
+        assertArrayEquals(data, copy);
+
+        final BitSet expected = new BitSet();
+        expected.set(0xD, 0x10);
+        assertEquals(expected, memoryMap.getAndClearDirtyPages(target));
+    }
+
+    @Test
+    public void viewsWriteThroughToMemory() throws Exception {
+        final PhysicalMemory memory = new ByteBufferMemory(0x2000);
+        final ByteBuffer view = memory.getView(0x1000, 0x100);
+        assertNotNull(view);
+        assertEquals(0x100, view.capacity());
+
+        view.putInt(4, 0x12345678);
+        assertEquals(0x12345678, memory.load(0x1004, Sizes.SIZE_32_LOG2));
+        memory.store(0x10FC, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+        assertEquals(0xCAFEBABE, view.getInt(0xFC));
+
+        assertThrows(MemoryAccessException.class, () -> memory.getView(0x1F00, 0x200));
+    }
+
+        private static PhysicalMemory mockMemory(final int length) {
+        final PhysicalMemory memory = mock(PhysicalMemory.class);
+        when(memory.getLength()).thenReturn(length);
+        when(memory.getLongLength()).thenReturn((long) length);
+        return memory;
+    }
 }
@@ -0,0 +1,192 @@
+package li.cil.sedna;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.block.ByteBufferBlockDevice;
+import li.cil.sedna.device.block.SparseBlockDevice;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import li.cil.sedna.snapshot.SnapshotReader;
+import li.cil.sedna.snapshot.SnapshotWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class SnapshotTests {
+    private static final long MEMORY_ADDRESS = 0x80000000L;
+    private static final int MEMORY_SIZE = 1024 * 1024;
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    private MemoryMap memoryMap;
+    private PhysicalMemory memory;
+    private SparseBlockDevice disk;
+    private SnapshotWriter writer;
+
+    @BeforeEach
+    public void setupEach() throws IOException {
+        memoryMap = new SimpleMemoryMap();
+        memory = Memory.create(MEMORY_SIZE);
+        assertTrue(memoryMap.addDevice(MEMORY_ADDRESS, memory));
+        disk = createDisk();
+
+        final byte[] data = new byte[0x3000];
+        new Random(0xdeadbeef).nextBytes(data);
+        for (int i = 0; i < data.length; i++) {
+            memoryMap.store(MEMORY_ADDRESS + 0x10000 + i, data[i], Sizes.SIZE_8_LOG2);
+        }
+        disk.getOutputStream(BLOCK_SIZE).write(data);
+
+        writer = new SnapshotWriter(memoryMap);
+        writer.addMemory("ram", memory);
+        writer.addBlockDevice("disk", disk);
+    }
+
+    @Test
+    public void deltasOnlyContainChangedData() throws IOException {
+        final byte[] base = write();
+        assertTrue(base.length > 0x3000 * 2);
+
+        memoryMap.store(MEMORY_ADDRESS + 0x20000, 0x12345678, Sizes.SIZE_32_LOG2);
+        disk.getOutputStream(BLOCK_SIZE * 10).write(42);
+        final byte[] delta = write();
+        assertTrue(delta.length > 2 * BLOCK_SIZE);
+        assertTrue(delta.length < 3 * BLOCK_SIZE);
+
+        final byte[] empty = write();
+        assertTrue(empty.length < 100);
+    }
+
+    @Test
+    public void restoreReplaysBaseAndDeltas() throws IOException {
+        final byte[] base = write();
+        memoryMap.store(MEMORY_ADDRESS + 0x20000, 0x12345678, Sizes.SIZE_32_LOG2);
+        memoryMap.store(MEMORY_ADDRESS + 0x10000, 0, Sizes.SIZE_64_LOG2);
+        disk.getOutputStream(BLOCK_SIZE * 10).write(42);
+        final byte[] delta1 = write();
+        memoryMap.store(MEMORY_ADDRESS + 0x20000, 0x0BADF00D, Sizes.SIZE_32_LOG2);
+        disk.getOutputStream(BLOCK_SIZE).write(23);
+        final byte[] delta2 = write();
+
+        final PhysicalMemory restoredMemory = Memory.create(MEMORY_SIZE);
+        final SparseBlockDevice restoredDisk = createDisk();
+        final SnapshotReader reader = new SnapshotReader();
+        reader.addMemory("ram", restoredMemory);
+        reader.addBlockDevice("disk", restoredDisk);
+        final long id = reader.restore(streams(base, delta1, delta2));
+
+        assertEquals(writer.getParentId(), id);
+        assertMemoryEquals(memory, restoredMemory);
+        assertDiskEquals(disk, restoredDisk);
+    }
+
+    @Test
+    public void mergedChainRestoresSameState() throws IOException {
+        final byte[] base = write();
+        memoryMap.store(MEMORY_ADDRESS + 0x20000, 0x12345678, Sizes.SIZE_32_LOG2);
+        disk.getOutputStream(BLOCK_SIZE * 10).write(42);
+        final byte[] delta1 = write();
+        memoryMap.store(MEMORY_ADDRESS + 0x20000, 0x0BADF00D, Sizes.SIZE_32_LOG2);
+        final byte[] delta2 = write();
+
+        final ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        assertEquals(writer.getParentId(), SnapshotReader.merge(streams(base, delta1, delta2), merged));
+        assertTrue(merged.size() < base.length + delta1.length + delta2.length);
+
+        // Deltas written after merging still apply to the merged snapshot.
+        memoryMap.store(MEMORY_ADDRESS + 0x30000, 0xCAFEBABE, Sizes.SIZE_32_LOG2);
+        final byte[] delta3 = write();
+
+        final PhysicalMemory restoredMemory = Memory.create(MEMORY_SIZE);
+        final SparseBlockDevice restoredDisk = createDisk();
+        final SnapshotReader reader = new SnapshotReader();
+        reader.addMemory("ram", restoredMemory);
+        reader.addBlockDevice("disk", restoredDisk);
+        reader.restore(streams(merged.toByteArray(), delta3));
+
+        assertMemoryEquals(memory, restoredMemory);
+        assertDiskEquals(disk, restoredDisk);
+    }
+
+    @Test
+    public void brokenChainsAreRejected() throws IOException {
+        final byte[] base = write();
+        write();
+        final byte[] delta2 = write();
+
+        final SnapshotReader reader = new SnapshotReader();
+        reader.addMemory("ram", Memory.create(MEMORY_SIZE));
+        reader.addBlockDevice("disk", createDisk());
+        assertThrows(IOException.class, () -> reader.restore(streams(base, delta2)));
+        assertThrows(IOException.class, () -> reader.restore(streams(delta2)));
+    }
+
+    @Test
+    public void writerContinuesChainAfterRestore() throws IOException {
+        final byte[] base = write();
+
+        final MemoryMap restoredMap = new SimpleMemoryMap();
+        final PhysicalMemory restoredMemory = Memory.create(MEMORY_SIZE);
+        assertTrue(restoredMap.addDevice(MEMORY_ADDRESS, restoredMemory));
+        final SnapshotReader reader = new SnapshotReader();
+        reader.addMemory("ram", restoredMemory);
+        final SparseBlockDevice restoredDisk = createDisk();
+        reader.addBlockDevice("disk", restoredDisk);
+        final long id = reader.restore(streams(base));
+
+        final SnapshotWriter restoredWriter = new SnapshotWriter(restoredMap);
+        restoredWriter.addMemory("ram", restoredMemory);
+        restoredWriter.addBlockDevice("disk", restoredDisk);
+        restoredWriter.continueFrom(id);
+
+        restoredMap.store(MEMORY_ADDRESS + 0x20000, 0x12345678, Sizes.SIZE_32_LOG2);
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        restoredWriter.write(delta);
+        assertTrue(delta.size() < 2 * BLOCK_SIZE);
+
+        final PhysicalMemory finalMemory = Memory.create(MEMORY_SIZE);
+        final SnapshotReader finalReader = new SnapshotReader();
+        finalReader.addMemory("ram", finalMemory);
+        finalReader.addBlockDevice("disk", createDisk());
+        finalReader.restore(streams(base, delta.toByteArray()));
+        assertMemoryEquals(restoredMemory, finalMemory);
+    }
+
+    private byte[] write() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writer.write(stream);
+        return stream.toByteArray();
+    }
+
+    private static SparseBlockDevice createDisk() {
+        return new SparseBlockDevice(ByteBufferBlockDevice.create(64 * BLOCK_SIZE, true), false, BLOCK_SIZE);
+    }
+
+    private static List<InputStream> streams(final byte[]... snapshots) {
+        return Arrays.stream(snapshots).<InputStream>map(ByteArrayInputStream::new).toList();
+    }
+
+    private static void assertMemoryEquals(final PhysicalMemory expected, final PhysicalMemory actual) throws MemoryAccessException {
+        final ByteBuffer expectedData = ByteBuffer.allocate(expected.getLength());
+        final ByteBuffer actualData = ByteBuffer.allocate(actual.getLength());
+        expected.load(0, expectedData);
+        actual.load(0, actualData);
+        assertArrayEquals(expectedData.array(), actualData.array());
+    }
+
+    private static void assertDiskEquals(final SparseBlockDevice expected, final SparseBlockDevice actual) throws IOException {
+        assertEquals(expected.getShadowBlocks(), actual.getShadowBlocks());
+        assertArrayEquals(expected.getInputStream().readAllBytes(), actual.getInputStream().readAllBytes());
+    }
+}
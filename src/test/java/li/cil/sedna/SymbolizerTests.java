@@ -0,0 +1,133 @@
+package li.cil.sedna;
+
+import li.cil.sedna.elf.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class SymbolizerTests {
+    private static final int SYMBOL_SIZE = 0x18;
+    private static final int SECTION_HEADER_SIZE = 0x40;
+
+    private static final int STRTAB_OFFSET = 0x40;
+    private static final int SHSTRTAB_OFFSET = 0x80;
+    private static final int SYMTAB_OFFSET = 0xC0;
+    private static final int SECTION_HEADERS_OFFSET = 0x140;
+
+    @Test
+    public void testSymbolTableIsParsed() {
+        final ELF elf = ELFParser.parse(createELF(SYMBOL_SIZE, 4 * SYMBOL_SIZE));
+        final List<Symbol> symbols = ELFParser.parseSymbolTable(elf);
+
+        assertEquals(4, symbols.size());
+        assertEquals("main", symbols.get(1).name);
+        assertTrue(symbols.get(1).is(SymbolType.STT_FUNC));
+        assertEquals(0x1000, symbols.get(1).value);
+        assertEquals(0x20, symbols.get(1).size);
+        assertEquals("data", symbols.get(3).name);
+        assertTrue(symbols.get(3).is(SymbolType.STT_OBJECT));
+    }
+
+    @Test
+    public void testResolvesFunctions() {
+        final Symbolizer symbolizer = new Symbolizer();
+        symbolizer.add(ELFParser.parse(createELF(SYMBOL_SIZE, 4 * SYMBOL_SIZE)));
+
+        assertNull(symbolizer.resolve(0xFFF));
+        assertEquals("main", symbolizer.resolve(0x1000));
+        assertEquals("main", symbolizer.resolve(0x101F));
+        assertEquals("helper", symbolizer.resolve(0x1020));
+
+        // Functions without a size extend up to the next function, objects are not functions.
+        assertEquals("helper", symbolizer.resolve(0x2000));
+    }
+
+    @Test
+    public void testResolvesRelocatedFunctions() {
+        final Symbolizer symbolizer = new Symbolizer();
+        symbolizer.add(ELFParser.parse(createELF(SYMBOL_SIZE, 4 * SYMBOL_SIZE)), 0x10000);
+
+        assertNull(symbolizer.resolve(0x1000));
+        assertEquals("main", symbolizer.resolve(0x11000));
+    }
+
+    @Test
+    public void testMalformedSymbolTableMeansNoSymbols() {
+        final ELF badEntrySize = ELFParser.parse(createELF(8, 4 * SYMBOL_SIZE));
+        assertThrows(IllegalArgumentException.class, () -> ELFParser.parseSymbolTable(badEntrySize));
+
+        final ELF badSize = ELFParser.parse(createELF(SYMBOL_SIZE, 0x10000));
+        assertThrows(IllegalArgumentException.class, () -> ELFParser.parseSymbolTable(badSize));
+
+        final Symbolizer symbolizer = new Symbolizer();
+        symbolizer.add(badEntrySize);
+        symbolizer.add(badSize);
+        assertNull(symbolizer.resolve(0x1000));
+    }
+
+    // Creates a 64 bit ELF file without program headers, with a symbol table holding the
+    // functions main and helper and the object data.
+    private static byte[] createELF(final int symbolEntrySize, final int symbolTableSize) {
+        final ByteBuffer data = ByteBuffer.allocate(SECTION_HEADERS_OFFSET + 4 * SECTION_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        data.put(new byte[]{0x7F, 'E', 'L', 'F', 2, 1, 1, 0});
+        data.position(0x10);
+        data.putShort((short) 2); // e_type: ET_EXEC
+        data.putShort((short) 0xF3); // e_machine: RISC-V
+        data.putInt(1); // e_version
+        data.putLong(0x1000); // e_entry
+        data.putLong(0x40); // e_phoff
+        data.putLong(SECTION_HEADERS_OFFSET); // e_shoff
+        data.putInt(0); // e_flags
+        data.putShort((short) 0x40); // e_ehsize
+        data.putShort((short) 0x38); // e_phentsize
+        data.putShort((short) 0); // e_phnum
+        data.putShort((short) SECTION_HEADER_SIZE); // e_shentsize
+        data.putShort((short) 4); // e_shnum
+        data.putShort((short) 1); // e_shstrndx
+
+        final byte[] strtab = "\0main\0helper\0data\0".getBytes(StandardCharsets.US_ASCII);
+        data.put(STRTAB_OFFSET, strtab);
+        final byte[] shstrtab = "\0.shstrtab\0.strtab\0.symtab\0".getBytes(StandardCharsets.US_ASCII);
+        data.put(SHSTRTAB_OFFSET, shstrtab);
+
+        data.position(SYMTAB_OFFSET + SYMBOL_SIZE); // First symbol is the null symbol.
+        putSymbol(data, 1, SymbolType.STT_FUNC.value, 0x1000, 0x20);
+        putSymbol(data, 6, SymbolType.STT_FUNC.value, 0x1020, 0);
+        putSymbol(data, 13, SymbolType.STT_OBJECT.value, 0x2000, 8);
+
+        data.position(SECTION_HEADERS_OFFSET + SECTION_HEADER_SIZE); // First section is the null section.
+        putSection(data, 1, SectionHeaderType.SHT_STRTAB.value, SHSTRTAB_OFFSET, shstrtab.length, 0, 0);
+        putSection(data, 11, SectionHeaderType.SHT_STRTAB.value, STRTAB_OFFSET, strtab.length, 0, 0);
+        putSection(data, 19, SectionHeaderType.SHT_SYMTAB.value, SYMTAB_OFFSET, symbolTableSize, 2, symbolEntrySize);
+
+        return data.array();
+    }
+
+    private static void putSymbol(final ByteBuffer data, final int name, final int type, final long value, final long size) {
+        data.putInt(name);
+        data.put((byte) type);
+        data.put((byte) 0);
+        data.putShort((short) 0);
+        data.putLong(value);
+        data.putLong(size);
+    }
+
+    private static void putSection(final ByteBuffer data, final int name, final int type, final long offset, final long size, final int link, final long entrySize) {
+        data.putInt(name);
+        data.putInt(type);
+        data.putLong(0); // sh_flags
+        data.putLong(0); // sh_addr
+        data.putLong(offset);
+        data.putLong(size);
+        data.putInt(link);
+        data.putInt(0); // sh_info
+        data.putLong(1); // sh_addralign
+        data.putLong(entrySize);
+    }
+}
@@ -0,0 +1,205 @@
+package li.cil.sedna;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.SparseMemory;
+import li.cil.sedna.device.virtio.VirtIOBalloonDevice;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class VirtIOBalloonDeviceTests {
+    private static final long MEMORY_ADDRESS = 0x80000000L;
+    private static final int PAGE_SIZE = 4 * 1024;
+    private static final int QUEUE_SIZE = 8;
+
+    private static final int VIRTIO_MMIO_DRIVER_FEATURES = 0x020;
+    private static final int VIRTIO_MMIO_DRIVER_FEATURES_SEL = 0x024;
+    private static final int VIRTIO_MMIO_QUEUE_SEL = 0x030;
+    private static final int VIRTIO_MMIO_QUEUE_NUM = 0x038;
+    private static final int VIRTIO_MMIO_QUEUE_READY = 0x044;
+    private static final int VIRTIO_MMIO_QUEUE_NOTIFY = 0x050;
+    private static final int VIRTIO_MMIO_STATUS = 0x070;
+    private static final int VIRTIO_MMIO_QUEUE_DESC_LOW = 0x080;
+    private static final int VIRTIO_MMIO_QUEUE_DRIVER_LOW = 0x090;
+    private static final int VIRTIO_MMIO_QUEUE_DEVICE_LOW = 0x0A0;
+    private static final int VIRTIO_MMIO_CONFIG = 0x100;
+
+    private static final long VIRTIO_BALLOON_F_STATS_VQ = 1L << 1;
+    private static final long VIRTIO_BALLOON_F_REPORTING = 1L << 5;
+
+    private static final int STATS_QUEUE = 2;
+    private static final int REPORTING_QUEUE = 3;
+
+    private static final short VIRTQ_DESC_F_NEXT = 1;
+    private static final short VIRTQ_DESC_F_WRITE = 2;
+
+    private MemoryMap memoryMap;
+    private SparseMemory memory;
+    private VirtIOBalloonDevice device;
+    private final short[] availIdx = new short[4];
+
+    @BeforeEach
+    public void setupEach() throws MemoryAccessException {
+        memoryMap = new SimpleMemoryMap();
+        memory = new SparseMemory(1024 * 1024, PAGE_SIZE);
+        assertTrue(memoryMap.addDevice(MEMORY_ADDRESS, memory));
+
+        device = new VirtIOBalloonDevice(memoryMap);
+        device.reset();
+        initializeDriver(VIRTIO_BALLOON_F_STATS_VQ | VIRTIO_BALLOON_F_REPORTING);
+    }
+
+    @Test
+    public void targetAndActualSizeAreExchangedViaConfig() {
+        device.setTargetSize(1024 * 1024);
+        assertEquals(256, device.load(VIRTIO_MMIO_CONFIG, Sizes.SIZE_32_LOG2));
+
+        device.store(VIRTIO_MMIO_CONFIG + 4, 16, Sizes.SIZE_32_LOG2);
+        assertEquals(16 * PAGE_SIZE, device.getBalloonSize());
+
+        // The target is read-only for the driver.
+        device.store(VIRTIO_MMIO_CONFIG, 0, Sizes.SIZE_32_LOG2);
+        assertEquals(1024 * 1024, device.getTargetSize());
+        assertEquals(256, device.load(VIRTIO_MMIO_CONFIG, Sizes.SIZE_32_LOG2));
+    }
+
+    @Test
+    public void inflatedPagesAreDiscarded() throws MemoryAccessException {
+        final long pages = MEMORY_ADDRESS + 0x20000;
+        for (int i = 0; i < 4; i++) {
+            memoryMap.store(pages + (long) i * PAGE_SIZE, 0x12345678, Sizes.SIZE_32_LOG2);
+        }
+
+        final long pfns = MEMORY_ADDRESS + 0x10000;
+        for (int i = 0; i < 4; i++) {
+            memoryMap.store(pfns + i * 4L, (pages >>> 12) + i, Sizes.SIZE_32_LOG2);
+        }
+        submit(0, pfns, 16, (short) 0);
+
+        assertEquals(1, getUsedIdx(0));
+        assertEquals(4 * PAGE_SIZE, device.getDiscardedSize());
+        // Only the pages holding the queue and the page frame numbers remain.
+        assertEquals(2 * PAGE_SIZE, memory.getResidentSize());
+        assertEquals(0, memoryMap.load(pages, Sizes.SIZE_32_LOG2));
+    }
+
+    @Test
+    public void reportedPagesAreDiscarded() throws MemoryAccessException {
+        final long pages = MEMORY_ADDRESS + 0x40000;
+        memoryMap.store(pages, 0x12345678, Sizes.SIZE_32_LOG2);
+        memoryMap.store(pages + 0x3000, 0x12345678, Sizes.SIZE_32_LOG2);
+
+        submit(REPORTING_QUEUE, pages, 4 * PAGE_SIZE, VIRTQ_DESC_F_WRITE);
+
+        assertEquals(1, getUsedIdx(REPORTING_QUEUE));
+        assertEquals(4 * PAGE_SIZE, device.getDiscardedSize());
+        assertEquals(0, memoryMap.load(pages, Sizes.SIZE_32_LOG2));
+        assertEquals(0, memoryMap.load(pages + 0x3000, Sizes.SIZE_32_LOG2));
+    }
+
+    @Test
+    public void reportedChainsAreDiscardedPerDescriptor() throws MemoryAccessException {
+        final long first = MEMORY_ADDRESS + 0x40000;
+        final long second = MEMORY_ADDRESS + 0x60000;
+        memoryMap.store(first, 0x12345678, Sizes.SIZE_32_LOG2);
+        memoryMap.store(second + 0x1000, 0x12345678, Sizes.SIZE_32_LOG2);
+
+        submit(REPORTING_QUEUE, new long[]{first, second}, new int[]{PAGE_SIZE, 2 * PAGE_SIZE}, VIRTQ_DESC_F_WRITE);
+
+        assertEquals(1, getUsedIdx(REPORTING_QUEUE));
+        assertEquals(3 * PAGE_SIZE, device.getDiscardedSize());
+        assertEquals(0, memoryMap.load(first, Sizes.SIZE_32_LOG2));
+        assertEquals(0, memoryMap.load(second + 0x1000, Sizes.SIZE_32_LOG2));
+    }
+
+    @Test
+    public void statisticsArePolled() throws MemoryAccessException {
+        assertFalse(device.updateStatistics());
+        assertEquals(-1, device.getStatistic(VirtIOBalloonDevice.VIRTIO_BALLOON_S_MEMFREE));
+
+        final long stats = MEMORY_ADDRESS + 0x10000;
+        writeStatistic(stats, VirtIOBalloonDevice.VIRTIO_BALLOON_S_MEMFREE, 1234);
+        writeStatistic(stats + 10, 99, 42);
+        writeStatistic(stats + 20, VirtIOBalloonDevice.VIRTIO_BALLOON_S_MEMTOT, 5678);
+        submit(STATS_QUEUE, stats, 30, (short) 0);
+
+        // Stats buffers are held until the host asks for an update.
+        assertEquals(0, getUsedIdx(STATS_QUEUE));
+
+        assertTrue(device.updateStatistics());
+        assertEquals(1, getUsedIdx(STATS_QUEUE));
+        assertEquals(1234, device.getStatistic(VirtIOBalloonDevice.VIRTIO_BALLOON_S_MEMFREE));
+        assertEquals(5678, device.getStatistic(VirtIOBalloonDevice.VIRTIO_BALLOON_S_MEMTOT));
+        assertEquals(-1, device.getStatistic(VirtIOBalloonDevice.VIRTIO_BALLOON_S_SWAP_IN));
+
+        assertFalse(device.updateStatistics());
+    }
+
+    private void initializeDriver(final long features) throws MemoryAccessException {
+        device.store(VIRTIO_MMIO_STATUS, 1 | 2, Sizes.SIZE_32_LOG2); // ACKNOWLEDGE | DRIVER
+        device.store(VIRTIO_MMIO_DRIVER_FEATURES_SEL, 0, Sizes.SIZE_32_LOG2);
+        device.store(VIRTIO_MMIO_DRIVER_FEATURES, features, Sizes.SIZE_32_LOG2);
+        device.store(VIRTIO_MMIO_DRIVER_FEATURES_SEL, 1, Sizes.SIZE_32_LOG2);
+        device.store(VIRTIO_MMIO_DRIVER_FEATURES, 1, Sizes.SIZE_32_LOG2); // VIRTIO_F_VERSION_1
+        device.store(VIRTIO_MMIO_STATUS, 1 | 2 | 8, Sizes.SIZE_32_LOG2); // FEATURES_OK
+        assertEquals(1 | 2 | 8, device.load(VIRTIO_MMIO_STATUS, Sizes.SIZE_32_LOG2));
+
+        for (int queue = 0; queue < availIdx.length; queue++) {
+            final long base = getQueueAddress(queue);
+            device.store(VIRTIO_MMIO_QUEUE_SEL, queue, Sizes.SIZE_32_LOG2);
+            device.store(VIRTIO_MMIO_QUEUE_NUM, QUEUE_SIZE, Sizes.SIZE_32_LOG2);
+            device.store(VIRTIO_MMIO_QUEUE_DESC_LOW, base, Sizes.SIZE_32_LOG2);
+            device.store(VIRTIO_MMIO_QUEUE_DRIVER_LOW, base + 0x100, Sizes.SIZE_32_LOG2);
+            device.store(VIRTIO_MMIO_QUEUE_DEVICE_LOW, base + 0x200, Sizes.SIZE_32_LOG2);
+            device.store(VIRTIO_MMIO_QUEUE_READY, 1, Sizes.SIZE_32_LOG2);
+        }
+
+        device.store(VIRTIO_MMIO_STATUS, 1 | 2 | 4 | 8, Sizes.SIZE_32_LOG2); // DRIVER_OK
+    }
+
+    // Makes a single descriptor available in the specified queue and notifies the device.
+    private void submit(final int queue, final long address, final int length, final short flags) throws MemoryAccessException {
+        submit(queue, new long[]{address}, new int[]{length}, flags);
+    }
+
+    // Makes a chain of descriptors available in the specified queue and notifies the device. Descriptors
+    // are allocated in order, so this assumes all previously submitted chains were single descriptors.
+    private void submit(final int queue, final long[] addresses, final int[] lengths, final short flags) throws MemoryAccessException {
+        final long base = getQueueAddress(queue);
+        final int index = availIdx[queue] & (QUEUE_SIZE - 1);
+
+        for (int i = 0; i < addresses.length; i++) {
+            final long desc = base + ((index + i) & (QUEUE_SIZE - 1)) * 16L;
+            final boolean hasNext = i < addresses.length - 1;
+            memoryMap.store(desc, addresses[i], Sizes.SIZE_64_LOG2);
+            memoryMap.store(desc + 8, lengths[i], Sizes.SIZE_32_LOG2);
+            memoryMap.store(desc + 12, hasNext ? flags | VIRTQ_DESC_F_NEXT : flags, Sizes.SIZE_16_LOG2);
+            memoryMap.store(desc + 14, hasNext ? (index + i + 1) & (QUEUE_SIZE - 1) : 0, Sizes.SIZE_16_LOG2);
+        }
+
+        memoryMap.store(base + 0x100 + 4 + index * 2L, index, Sizes.SIZE_16_LOG2);
+        availIdx[queue]++;
+        memoryMap.store(base + 0x100 + 2, availIdx[queue], Sizes.SIZE_16_LOG2);
+
+        device.store(VIRTIO_MMIO_QUEUE_NOTIFY, queue, Sizes.SIZE_32_LOG2);
+    }
+
+    private int getUsedIdx(final int queue) throws MemoryAccessException {
+        return (int) memoryMap.load(getQueueAddress(queue) + 0x200 + 2, Sizes.SIZE_16_LOG2);
+    }
+
+    private void writeStatistic(final long address, final int tag, final long value) throws MemoryAccessException {
+        memoryMap.store(address, tag, Sizes.SIZE_16_LOG2);
+        for (int i = 0; i < 8; i++) {
+            memoryMap.store(address + 2 + i, value >>> (i * 8), Sizes.SIZE_8_LOG2);
+        }
+    }
+
+    private static long getQueueAddress(final int queue) {
+        return MEMORY_ADDRESS + (long) queue * PAGE_SIZE;
+    }
+}
@@ -0,0 +1,51 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.device.memory.FileMappedMemory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileMappedMemoryTests {
+    private static final int SIZE = 8 * 1024;
+
+    @TempDir
+    public File directory;
+
+    @Test
+    public void testLengthMatchesMappedSize() throws Exception {
+        try (final FileMappedMemory memory = new FileMappedMemory(SIZE, new File(directory, "memory.bin"))) {
+            assertEquals(SIZE, memory.getLength());
+            memory.store(SIZE - 4, 0x11223344, Sizes.SIZE_32_LOG2);
+        }
+
+        final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(new File(directory, "memory.bin").toPath()));
+        assertEquals(0x11223344, data.order(ByteOrder.LITTLE_ENDIAN).getInt(SIZE - 4));
+    }
+
+    @Test
+    public void testCopyOnWriteKeepsChangesPrivate() throws Exception {
+        final File file = new File(directory, "image.bin");
+        final byte[] image = new byte[SIZE];
+        image[0] = 42;
+        Files.write(file.toPath(), image);
+
+        try (final FileMappedMemory memory1 = new FileMappedMemory(SIZE, file, true);
+             final FileMappedMemory memory2 = new FileMappedMemory(SIZE, file, true)) {
+            assertEquals(42, memory1.load(0, Sizes.SIZE_8_LOG2));
+            memory1.store(0, 23, Sizes.SIZE_8_LOG2);
+            assertEquals(23, memory1.load(0, Sizes.SIZE_8_LOG2));
+            assertEquals(42, memory2.load(0, Sizes.SIZE_8_LOG2));
+        }
+
+        assertArrayEquals(image, Files.readAllBytes(file.toPath()));
+        assertThrows(IOException.class, () -> new FileMappedMemory(2 * SIZE, file, true));
+    }
+}
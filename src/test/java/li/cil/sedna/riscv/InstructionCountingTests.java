@@ -0,0 +1,64 @@
+package li.cil.sedna.riscv;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class InstructionCountingTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 4 * 1024;
+
+    // Compressed instructions are counted as the instruction they expand to.
+    private static final String LOOP = """
+                li     a0, 10
+                li     a1, 0
+        loop:   c.addi a1, 1
+                addi   a0, a0, -1
+                bnez   a0, loop
+        halt:   j      halt
+        """;
+
+    @Test
+    public void testCountsExecutedInstructions() throws Exception {
+        final R5CPU cpu = run(true);
+
+        final Object2LongMap<String> counts = cpu.getInstructionCounts();
+        assertEquals(Set.of("ADDI", "BNE", "JAL"), counts.keySet());
+        assertEquals(2 + 10 + 10, counts.getLong("ADDI"));
+        assertEquals(10, counts.getLong("BNE"));
+        assertTrue(counts.getLong("JAL") > 0);
+        assertEquals(10, cpu.getDebugInterface().getGeneralRegisters()[11]);
+
+        cpu.resetInstructionCounts();
+        cpu.step(100);
+        assertEquals(Set.of("JAL"), cpu.getInstructionCounts().keySet());
+    }
+
+    @Test
+    public void testDefaultCPUDoesNotCount() throws Exception {
+        final R5CPU counting = run(true);
+        final R5CPU cpu = run(false);
+
+        assertNotSame(counting.getClass(), cpu.getClass());
+        assertTrue(cpu.getInstructionCounts().isEmpty());
+        assertArrayEquals(counting.getDebugInterface().getGeneralRegisters(), cpu.getDebugInterface().getGeneralRegisters());
+        assertEquals(counting.getTime(), cpu.getTime());
+    }
+
+    private static R5CPU run(final boolean countInstructions) throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        new R5Assembler(MEMORY_START).assemble(LOOP).writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap, null, countInstructions);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(100);
+        return cpu;
+    }
+}
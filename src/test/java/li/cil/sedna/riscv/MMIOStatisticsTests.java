@@ -0,0 +1,68 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.device.serial.UART16550A;
+import li.cil.sedna.memory.MMIOStatistics;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class MMIOStatisticsTests {
+    private static final long MEMORY_ADDRESS = 0x80000000L;
+    private static final long UART_ADDRESS = 0x10000000L;
+
+    @Test
+    public void testCPUAccessesAreRecordedPerRegister() throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        final UART16550A uart = new UART16550A();
+        assertTrue(memoryMap.addDevice(MEMORY_ADDRESS, Memory.create(0x1000)));
+        assertTrue(memoryMap.addDevice(UART_ADDRESS, uart));
+
+        // Polls the line status register before each write to the transmit register.
+        new R5Assembler(MEMORY_ADDRESS)
+            .define("UART", UART_ADDRESS)
+            .assemble("""
+                        li   t0, UART
+                        li   t1, 0x41
+                loop:   lbu  t2, 5(t0)
+                        lbu  t2, 5(t0)
+                        sb   t1, 0(t0)
+                        j    loop
+                """)
+            .writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_ADDRESS);
+        cpu.step(10);
+
+        final MMIOStatistics statistics = new MMIOStatistics();
+        cpu.setMMIOStatistics(statistics);
+        cpu.step(400);
+        cpu.setMMIOStatistics(null);
+        cpu.step(400);
+
+        final List<MMIOStatistics.Entry> registers = statistics.getRegisterReport();
+        assertEquals(2, registers.size());
+        final MMIOStatistics.Entry status = registers.stream().filter(e -> e.offset() == 4).findFirst().orElseThrow();
+        final MMIOStatistics.Entry transmit = registers.stream().filter(e -> e.offset() == 0).findFirst().orElseThrow();
+        assertSame(uart, status.device());
+        assertEquals(4, status.length());
+        assertEquals(0, status.stores());
+        assertEquals(0, transmit.loads());
+        assertTrue(transmit.stores() > 0);
+        assertEquals(2 * transmit.stores(), status.loads(), 2);
+
+        final List<MMIOStatistics.Entry> devices = statistics.getDeviceReport();
+        assertEquals(1, devices.size());
+        assertEquals(status.loads(), devices.get(0).loads());
+        assertEquals(transmit.stores(), devices.get(0).stores());
+        assertEquals(status.nanos() + transmit.nanos(), devices.get(0).nanos());
+
+        statistics.reset();
+        assertTrue(statistics.getRegisterReport().isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.device.memory.SparseMemory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import li.cil.sedna.snapshot.MigrationReceiver;
+import li.cil.sedna.snapshot.MigrationSender;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class MigrationTests {
+    private static final long MEMORY_ADDRESS = 0x80000000L;
+    private static final int MEMORY_SIZE = 4 * 1024 * 1024;
+    private static final int PAGE_SIZE = 4 * 1024;
+
+    @Test
+    @Timeout(30)
+    public void runningBoardIsMigratedWithPreCopy() throws Exception {
+        migrateRunningBoard(Memory.create(MEMORY_SIZE));
+    }
+
+    @Test
+    @Timeout(30)
+    public void runningBoardWithSparseMemoryIsMigratedWithPreCopy() throws Exception {
+        // Chunks are allocated by the running guest while rounds are sent, which must not race.
+        try (final SparseMemory memory = new SparseMemory(MEMORY_SIZE)) {
+            migrateRunningBoard(memory);
+        }
+    }
+
+    private static void migrateRunningBoard(final PhysicalMemory memory) throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        assertTrue(memoryMap.addDevice(MEMORY_ADDRESS, memory));
+
+        final byte[] data = new byte[64 * PAGE_SIZE];
+        new Random(0xdeadbeef).nextBytes(data);
+        memory.store(0x200000, ByteBuffer.wrap(data));
+
+        // Keeps writing a counter across sixteen pages.
+        new R5Assembler(MEMORY_ADDRESS)
+            .define("DATA", MEMORY_ADDRESS + 0x100000)
+            .assemble("""
+                        li   t0, DATA
+                        li   t1, 0
+                loop:   addi t1, t1, 1
+                        andi t2, t1, 0x3FF
+                        slli t2, t2, 6
+                        add  t3, t0, t2
+                        sw   t1, 0(t3)
+                        j    loop
+                """)
+            .writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_ADDRESS);
+        cpu.step(1000);
+
+        final PhysicalMemory target = Memory.create(MEMORY_SIZE);
+        final Pipe pipe = Pipe.open();
+        final MigrationReceiver receiver = new MigrationReceiver(pipe.source());
+        receiver.addMemory("ram", target);
+        final CompletableFuture<ByteBuffer> received = CompletableFuture.supplyAsync(() -> {
+            try {
+                return receiver.receive();
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        final MigrationSender sender = new MigrationSender(memoryMap, pipe.sink());
+        sender.addMemory("ram", memory);
+
+        int rounds = 1;
+        int firstRoundUpdates = 0;
+        int lastRoundPages = Integer.MAX_VALUE;
+        CompletableFuture<Integer> round = sender.startRound();
+        while (rounds < 20) {
+            cpu.step(100);
+            sender.update();
+            if (rounds == 1) {
+                firstRoundUpdates++;
+            }
+            if (round.isDone()) {
+                lastRoundPages = round.join();
+                if (rounds == 1) {
+                    // All pages are sent in the first round, one batch per update.
+                    assertEquals(MEMORY_SIZE / PAGE_SIZE, lastRoundPages);
+                    assertTrue(firstRoundUpdates >= MEMORY_SIZE / PAGE_SIZE / MigrationSender.BATCH_PAGE_COUNT - 1);
+                }
+                if (rounds > 1 && lastRoundPages <= 16) {
+                    break;
+                }
+                round = sender.startRound();
+                rounds++;
+            }
+        }
+
+        assertTrue(rounds > 1);
+        assertTrue(lastRoundPages <= 16);
+
+        // Stand-in for the board's serialized state.
+        final byte[] state = "cpu and devices".getBytes(StandardCharsets.UTF_8);
+        sender.finish(ByteBuffer.wrap(state));
+
+        final ByteBuffer receivedState = received.get();
+        assertArrayEquals(state, receivedState.array());
+        assertMemoryEquals(memory, target);
+    }
+
+    private static void assertMemoryEquals(final PhysicalMemory expected, final PhysicalMemory actual) throws MemoryAccessException {
+        final ByteBuffer expectedData = ByteBuffer.allocate(expected.getLength());
+        final ByteBuffer actualData = ByteBuffer.allocate(actual.getLength());
+        expected.load(0, expectedData);
+        actual.load(0, actualData);
+        assertArrayEquals(expectedData.array(), actualData.array());
+    }
+}
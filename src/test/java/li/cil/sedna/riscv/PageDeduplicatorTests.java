@@ -0,0 +1,100 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.device.memory.PageDeduplicator;
+import li.cil.sedna.device.memory.SparseMemory;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageDeduplicatorTests {
+    private static final int CHUNK_SIZE = 4 * 1024;
+    private static final int CHUNK_COUNT = 4;
+
+    @Test
+    public void testIdenticalChunksAreShared() throws Exception {
+        final SparseMemory memory1 = new SparseMemory(CHUNK_COUNT * CHUNK_SIZE, CHUNK_SIZE);
+        final SparseMemory memory2 = new SparseMemory(CHUNK_COUNT * CHUNK_SIZE, CHUNK_SIZE);
+        for (final SparseMemory memory : new SparseMemory[]{memory1, memory2}) {
+            memory.store(8, 0x1122334455667788L, Sizes.SIZE_64_LOG2); // Same in both.
+            memory.store(2 * CHUNK_SIZE, 0, Sizes.SIZE_64_LOG2); // Only zeroes.
+        }
+        memory1.store(CHUNK_SIZE, 1, Sizes.SIZE_32_LOG2);
+        memory2.store(CHUNK_SIZE, 2, Sizes.SIZE_32_LOG2);
+
+        final PageDeduplicator deduplicator = new PageDeduplicator(CHUNK_SIZE);
+        deduplicator.register(memory1);
+        deduplicator.register(memory2);
+
+        // First pass only records hashes, chunks must be unchanged for a whole pass to be merged.
+        assertEquals(0, deduplicator.scan(memory1, CHUNK_COUNT));
+        assertEquals(0, deduplicator.scan(memory2, CHUNK_COUNT));
+        assertEquals(1, deduplicator.scan(memory1, CHUNK_COUNT)); // Zero chunk dropped.
+        assertEquals(2, deduplicator.scan(memory2, CHUNK_COUNT)); // Zero chunk dropped, first chunk merged.
+
+        assertEquals(3, deduplicator.getSharedChunkCount());
+        assertEquals(0, memory2.getResidentSize());
+        assertEquals(2 * CHUNK_SIZE, memory2.getSharedSize());
+        assertEquals(0, memory2.load(2 * CHUNK_SIZE, Sizes.SIZE_64_LOG2));
+        assertEquals(2, memory2.load(CHUNK_SIZE, Sizes.SIZE_32_LOG2));
+
+        // Writing breaks sharing without affecting the other memory.
+        memory1.store(8, 42, Sizes.SIZE_64_LOG2);
+        assertEquals(42, memory1.load(8, Sizes.SIZE_64_LOG2));
+        assertEquals(0x1122334455667788L, memory2.load(8, Sizes.SIZE_64_LOG2));
+        assertEquals(CHUNK_SIZE, memory1.getSharedSize());
+        assertEquals(CHUNK_SIZE, memory1.getResidentSize());
+        assertEquals(2 * CHUNK_SIZE, memory2.getSharedSize());
+    }
+
+    @Test
+    public void testChangingChunksAreNotMerged() throws Exception {
+        final SparseMemory memory = new SparseMemory(CHUNK_COUNT * CHUNK_SIZE, CHUNK_SIZE);
+        final PageDeduplicator deduplicator = new PageDeduplicator(CHUNK_SIZE);
+        deduplicator.register(memory);
+
+        for (int i = 0; i < 4; i++) {
+            memory.store(0, i + 1, Sizes.SIZE_32_LOG2);
+            assertEquals(0, deduplicator.scan(memory, CHUNK_COUNT));
+        }
+        assertEquals(0, memory.getSharedSize());
+
+        assertThrows(IllegalArgumentException.class, () -> deduplicator.register(new SparseMemory(CHUNK_SIZE * 16, CHUNK_SIZE * 16)));
+    }
+
+    @Test
+    public void testChunksWithViewsAreNotShared() throws Exception {
+        final SparseMemory memory1 = new SparseMemory(CHUNK_COUNT * CHUNK_SIZE, CHUNK_SIZE);
+        final SparseMemory memory2 = new SparseMemory(CHUNK_COUNT * CHUNK_SIZE, CHUNK_SIZE);
+        memory1.store(8, 0x1122334455667788L, Sizes.SIZE_64_LOG2);
+        memory2.store(8, 0x1122334455667788L, Sizes.SIZE_64_LOG2);
+        final ByteBuffer view = memory1.getView(0, 16);
+        assertNotNull(view);
+
+        final PageDeduplicator deduplicator = new PageDeduplicator(CHUNK_SIZE);
+        deduplicator.register(memory1);
+        deduplicator.register(memory2);
+        for (int i = 0; i < 2; i++) {
+            deduplicator.scan(memory1, CHUNK_COUNT);
+            deduplicator.scan(memory2, CHUNK_COUNT);
+        }
+
+        // The chunk with the view stays private, so writes through the view only affect its memory.
+        assertEquals(0, memory1.getSharedSize());
+        view.putLong(8, 42);
+        assertEquals(42, memory1.load(8, Sizes.SIZE_64_LOG2));
+        assertEquals(0x1122334455667788L, memory2.load(8, Sizes.SIZE_64_LOG2));
+
+        // A chunk with a view is also never merged into another memory's.
+        final ByteBuffer emptyView = memory1.getView(2 * CHUNK_SIZE, 16);
+        assertNotNull(emptyView);
+        for (int i = 0; i < 2; i++) {
+            deduplicator.scan(memory1, CHUNK_COUNT);
+        }
+        assertEquals(2 * CHUNK_SIZE, memory1.getResidentSize());
+        emptyView.putLong(0, 1);
+        assertEquals(1, memory1.load(2 * CHUNK_SIZE, Sizes.SIZE_64_LOG2));
+    }
+}
@@ -0,0 +1,114 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5AssemblerTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 128 * 1024;
+
+    @Test
+    public void testEncoding() {
+        assertEquals(0x00150513, assemble("addi a0, a0, 1"));
+        assertEquals(0x0082B303, assemble("ld t1, 8(t0)"));
+        assertEquals(0x00613823, assemble("sd t1, 16(sp)"));
+        assertEquals(0x18031073, assemble("csrw satp, t1"));
+        assertEquals(0x30200073, assemble("mret"));
+        assertEquals(0x00B532AF, assemble("amoadd.d t0, a1, (a0)"));
+        assertEquals(0x06B532AF, assemble("amoadd.d.aqrl t0, a1, (a0)"));
+        assertEquals(0x121071C3, assemble("fmadd.d f3, f0, f1, f2"));
+        assertEquals(0x121011C3, assemble("fmadd.d ft3, ft0, ft1, ft2, rtz"));
+        assertEquals(0x0FF0000F, assemble("fence"));
+        assertEquals(0x00000013, assemble("nop"));
+    }
+
+    @Test
+    public void testCompressed() {
+        final byte[] code = new R5Assembler(MEMORY_START).assemble("c.addi a0, 1").toByteArray();
+        assertEquals(2, code.length);
+        assertEquals(0x0505, ByteBuffer.wrap(code).order(ByteOrder.LITTLE_ENDIAN).getShort());
+    }
+
+    @Test
+    public void testLabels() {
+        final R5Assembler assembler = new R5Assembler(MEMORY_START).assemble("""
+            loop:   addi a0, a0, -1
+                    bnez a0, loop
+                    j end
+                    nop
+            end:
+            """);
+        final ByteBuffer code = ByteBuffer.wrap(assembler.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0xFFF50513, code.getInt(0));
+        assertEquals(0xFE051EE3, code.getInt(4));
+        assertEquals(0x0080006F, code.getInt(8));
+        assertEquals(MEMORY_START + 16, assembler.getSymbol("end"));
+    }
+
+    @Test
+    public void testErrors() {
+        assertThrows(IllegalArgumentException.class, () -> assemble("addi a0, a0, 4096"));
+        assertThrows(IllegalArgumentException.class, () -> assemble("addi a0, a0"));
+        assertThrows(IllegalArgumentException.class, () -> assemble("frobnicate a0"));
+        assertThrows(IllegalStateException.class, () -> new R5Assembler(MEMORY_START).assemble("j nowhere").toByteArray());
+    }
+
+    @Test
+    public void testLoadImmediate() throws Exception {
+        final long[] values = {
+            0, 1, -1, 2047, -2048, 2048, -2049,
+            0x7FFFF800L, 0x7FFFFFFFL, 0x80000000L, -0x80000000L, 0xFFFFFFFFL, 0x100000000L,
+            0xDEADBEEFL << 20, 0x123456789ABCDEF0L, Long.MIN_VALUE, Long.MAX_VALUE,
+        };
+
+        for (final long value : values) {
+            assertEquals(value, run(String.format("li a0, %d", value)), String.format("li a0, 0x%x", value));
+        }
+    }
+
+    @Test
+    public void testLoadAddress() throws Exception {
+        final R5Assembler assembler = new R5Assembler(MEMORY_START);
+        assembler.define("far", MEMORY_START + 0x10000);
+        assertEquals(MEMORY_START + 0x10000, run(assembler, "la a0, far"));
+    }
+
+    private static int assemble(final String source) {
+        final byte[] code = new R5Assembler(MEMORY_START).assemble(source).toByteArray();
+        assertEquals(4, code.length);
+        return ByteBuffer.wrap(code).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private static long run(final String source) throws Exception {
+        return run(new R5Assembler(MEMORY_START), source);
+    }
+
+    // Runs the specified code and returns the value of a0 afterwards.
+    private static long run(final R5Assembler assembler, final String source) throws Exception {
+        assembler.assemble(source).assemble("""
+                    la t0, result
+                    sd a0, 0(t0)
+            halt:   j halt
+                    .align 3
+            result: .dword 0
+            """);
+
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        assembler.writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(100);
+
+        return memoryMap.load(assembler.getSymbol("result"), Sizes.SIZE_64_LOG2);
+    }
+}
@@ -0,0 +1,128 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.MMIOStatistics;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5BoardMonitorTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 4 * 1024;
+
+    @Test
+    public void testRegisteredMonitorReportsCounters() throws Exception {
+        final R5Board board = new R5Board();
+        board.setRunning(true);
+
+        // No firmware, so the hart keeps trapping on the empty flash.
+        for (int i = 0; i < 10; i++) {
+            board.step(1000);
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (final R5BoardMonitor monitor = R5BoardMonitor.register(board, "test")) {
+            final ObjectName name = new ObjectName("li.cil.sedna:type=R5Board,name=\"test\"");
+            assertTrue(server.isRegistered(name));
+            assertEquals(10_000L, server.getAttribute(name, "Cycles"));
+            assertEquals(monitor.getInstructionsRetired(), server.getAttribute(name, "InstructionsRetired"));
+            assertFalse(monitor.getExceptions().isEmpty());
+            assertThrows(Exception.class, () -> R5BoardMonitor.register(board, "test"));
+        }
+
+        assertFalse(server.isRegistered(new ObjectName("li.cil.sedna:type=R5Board,name=\"test\"")));
+    }
+
+    @Test
+    public void testInstructionsRetiredExcludesTraps() {
+        final R5Board board = new R5Board();
+        board.setRunning(true);
+        board.step(1000);
+
+        final R5CPUStatistics statistics = board.getCpu().getStatistics();
+        assertEquals(1000, statistics.cycles());
+        assertTrue(statistics.instructions() < statistics.cycles());
+    }
+
+    @Test
+    public void testInstructionsRetiredAreNotAffectedByReset() throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        new R5Assembler(MEMORY_START).assemble("""
+                    la   t0, trap
+                    csrw mtvec, t0
+                    li   a0, 5
+            loop:   addi a0, a0, -1
+                    bnez a0, loop
+                    ecall
+            trap:   j    trap
+            """).writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(1000);
+
+        // The ECALL does not retire, and takes an additional cycle to raise its exception.
+        final R5CPUStatistics statistics = cpu.getStatistics();
+        assertEquals(1, statistics.exceptions()[R5.EXCEPTION_MACHINE_ECALL]);
+        assertEquals(statistics.cycles() - 2, statistics.instructions());
+
+        cpu.reset(true, MEMORY_START);
+        final R5CPUStatistics afterReset = cpu.getStatistics();
+        assertEquals(0, afterReset.cycles());
+        assertEquals(statistics.instructions(), afterReset.instructions());
+
+        cpu.step(1000);
+        final R5CPUStatistics afterRerun = cpu.getStatistics();
+        assertEquals(statistics.instructions() + afterRerun.cycles() - 2, afterRerun.instructions());
+    }
+
+    @Test
+    public void testInstructionsRetiredExcludeIdleCycles() throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        new R5Assembler(MEMORY_START).assemble("""
+                    li   a0, 3
+            loop:   addi a0, a0, -1
+                    bnez a0, loop
+                    wfi
+            """).writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(1000);
+        cpu.step(1000);
+
+        final R5CPUStatistics statistics = cpu.getStatistics();
+        assertEquals(2000, statistics.cycles());
+        assertEquals(2000 - 8, statistics.idleCycles());
+        assertEquals(8, statistics.instructions());
+    }
+
+    @Test
+    public void testMMIOAccessesAreReportedWhileRecorded() throws Exception {
+        final R5Board board = new R5Board();
+        assertTrue(board.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH)));
+        board.initialize();
+        new R5Assembler(MEMORY_START).define("MTIMECMP", 0x02004000L).assemble("""
+                    li   t0, MTIMECMP
+            loop:   ld   t1, 0(t0)
+                    j    loop
+            """).writeTo(board.getMemoryMap());
+        board.setRunning(true);
+
+        final R5BoardMonitor monitor = new R5BoardMonitor(board);
+        board.step(1000);
+        assertTrue(monitor.getMMIOAccesses().isEmpty());
+
+        board.getCpu().setMMIOStatistics(new MMIOStatistics());
+        board.step(1000);
+        assertTrue(monitor.getMMIOAccesses().get("R5CoreLocalInterrupter@2000000") > 0);
+    }
+}
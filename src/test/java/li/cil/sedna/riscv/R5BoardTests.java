@@ -0,0 +1,115 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.device.memory.Memory;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5BoardTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 64 * 1024;
+    private static final long MTIMECMP = 0x02004000L;
+    private static final long DEADLINE = 100_000;
+
+    @Test
+    public void testIdleBoardSkipsToTimerDeadline() throws Exception {
+        final R5Assembler assembler = createBoardProgram("""
+            wait:   wfi
+                    j    wait
+            """);
+        final R5Board board = createBoard(assembler);
+
+        board.step(1000);
+        assertTrue(board.getCpu().isWaitingForInterrupt());
+        assertEquals(DEADLINE, board.getNextDeadline().orElseThrow());
+
+        final long now = board.getCpu().getTime();
+        assertEquals(DEADLINE - now, board.getIdleCycles());
+
+        assertEquals(DEADLINE - now, board.fastForward(Long.MAX_VALUE));
+        assertEquals(DEADLINE, board.getCpu().getTime());
+        assertEquals(0, board.getIdleCycles());
+
+        board.step(100);
+        assertEquals(1, board.getMemoryMap().load(assembler.getSymbol("fired"), Sizes.SIZE_64_LOG2));
+        assertTrue(board.getNextDeadline().isEmpty());
+    }
+
+    @Test
+    public void testIdleBoardWithoutDeadlineSkipsBoundedSlice() throws Exception {
+        final R5Board board = createBoard(createBoardProgram("""
+            wait:   wfi
+                    j    wait
+            """));
+
+        board.step(1000);
+        board.fastForward(Long.MAX_VALUE);
+        board.step(100);
+        assertTrue(board.getCpu().isWaitingForInterrupt());
+        assertTrue(board.getNextDeadline().isEmpty());
+        assertEquals(Long.MAX_VALUE, board.getIdleCycles());
+
+        final long now = board.getCpu().getTime();
+        assertEquals(Integer.MAX_VALUE, board.fastForward(Long.MAX_VALUE));
+        assertEquals(now + Integer.MAX_VALUE, board.getCpu().getTime());
+    }
+
+    @Test
+    public void testRunningBoardIsNotIdle() throws Exception {
+        final R5Board board = createBoard(createBoardProgram("""
+            loop:   j    loop
+            """));
+
+        board.step(1000);
+        assertFalse(board.getCpu().isWaitingForInterrupt());
+        assertEquals(DEADLINE, board.getNextDeadline().orElseThrow());
+        assertEquals(0, board.getIdleCycles());
+
+        final long now = board.getCpu().getTime();
+        assertEquals(0, board.fastForward(Long.MAX_VALUE));
+        assertEquals(now, board.getCpu().getTime());
+    }
+
+    // Arms the timer, enables the timer interrupt, then runs the specified code. The interrupt
+    // handler records that it ran and disarms the timer.
+    private static R5Assembler createBoardProgram(final String body) {
+        return new R5Assembler(MEMORY_START)
+            .define("MTIMECMP", MTIMECMP)
+            .define("DEADLINE", DEADLINE)
+            .define("MTIE", R5.MTIP_MASK)
+            .define("MIE", R5.STATUS_MIE_MASK)
+            .assemble("""
+                        la   t0, trap
+                        csrw mtvec, t0
+                        li   t0, MTIMECMP
+                        li   t1, DEADLINE
+                        sd   t1, 0(t0)
+                        li   t0, MTIE
+                        csrw mie, t0
+                        li   t0, MIE
+                        csrs mstatus, t0
+                """)
+            .assemble(body)
+            .assemble("""
+                trap:   la   t0, fired
+                        li   t1, 1
+                        sd   t1, 0(t0)
+                        li   t0, MTIMECMP
+                        li   t1, -1
+                        sd   t1, 0(t0)
+                        mret
+                        .align 3
+                fired:  .dword 0
+                """);
+    }
+
+    private static R5Board createBoard(final R5Assembler assembler) throws Exception {
+        final R5Board board = new R5Board();
+        assertTrue(board.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH)));
+        board.initialize();
+        assembler.writeTo(board.getMemoryMap());
+        board.setRunning(true);
+        return board;
+    }
+}
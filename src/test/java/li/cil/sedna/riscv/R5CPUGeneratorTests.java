@@ -0,0 +1,131 @@
+package li.cil.sedna.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5CPUGeneratorTests {
+    private static final String GENERATED_CLASS_NAME = R5CPUGenerator.TEMPLATE_CLASS.getName() + R5CPUGenerator.GENERATED_SUFFIX;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testLoadsPreGeneratedClass() throws Exception {
+        R5CPUGenerator.main(new String[]{tempDir.toString()});
+
+        final GeneratedClassLoader classLoader = new GeneratedClassLoader(tempDir);
+        final Class<R5CPU> generatedClass = R5CPUGenerator.loadOrGenerateClass(classLoader);
+
+        assertSame(classLoader, generatedClass.getClassLoader());
+        assertEquals(GENERATED_CLASS_NAME, generatedClass.getName());
+    }
+
+    @Test
+    public void testGeneratesClassIfPreGeneratedClassIsStale() throws Exception {
+        R5CPUGenerator.main(new String[]{tempDir.toString()});
+
+        // Simulate a change to the template by replacing the embedded hash.
+        final Path classFile = tempDir.resolve(GENERATED_CLASS_NAME.replace('.', '/') + ".class");
+        final byte[] bytes = Files.readAllBytes(classFile);
+        final byte[] hash = R5CPUGenerator.computeSourceHash().getBytes(StandardCharsets.US_ASCII);
+        final int offset = indexOf(bytes, hash);
+        assertTrue(offset >= 0);
+        Arrays.fill(bytes, offset, offset + hash.length, (byte) '0');
+        Files.write(classFile, bytes);
+
+        final GeneratedClassLoader classLoader = new GeneratedClassLoader(tempDir);
+        final Class<R5CPU> generatedClass = R5CPUGenerator.loadOrGenerateClass(classLoader);
+
+        assertNotSame(classLoader, generatedClass.getClassLoader());
+        assertEquals(GENERATED_CLASS_NAME, generatedClass.getName());
+        assertTrue(classLoader.loadedClassNames.isEmpty());
+    }
+
+    @Test
+    public void testGeneratesClassIfNotPreGenerated() {
+        final GeneratedClassLoader classLoader = new GeneratedClassLoader(tempDir);
+        final Class<R5CPU> generatedClass = R5CPUGenerator.loadOrGenerateClass(classLoader);
+
+        assertNotSame(classLoader, generatedClass.getClassLoader());
+        assertEquals(GENERATED_CLASS_NAME, generatedClass.getName());
+        assertTrue(R5CPU.class.isAssignableFrom(generatedClass));
+    }
+
+    private static int indexOf(final byte[] bytes, final byte[] value) {
+        for (int i = 0; i <= bytes.length - value.length; i++) {
+            if (Arrays.equals(bytes, i, i + value.length, value, 0, value.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Loads generated classes from a directory, everything else from the regular class path. Generated
+    // classes are never delegated, so this also works when the build has pre-generated the class.
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final Path directory;
+        private final Set<String> loadedClassNames = new HashSet<>();
+
+        public GeneratedClassLoader(final Path directory) {
+            super(R5CPUGeneratorTests.class.getClassLoader());
+            this.directory = directory;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.endsWith(R5CPUGenerator.GENERATED_SUFFIX)) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                final Class<?> loadedClass = findLoadedClass(name);
+                if (loadedClass != null) {
+                    return loadedClass;
+                }
+
+                try {
+                    final byte[] bytes = Files.readAllBytes(getPath(name.replace('.', '/') + ".class"));
+                    loadedClassNames.add(name);
+                    return defineClass(name, bytes, 0, bytes.length);
+                } catch (final IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+
+        @Override
+        public URL getResource(final String name) {
+            if (!name.endsWith(R5CPUGenerator.GENERATED_SUFFIX + ".class")) {
+                return super.getResource(name);
+            }
+
+            final Path path = getPath(name);
+            if (!Files.exists(path)) {
+                return null;
+            }
+
+            try {
+                return path.toUri().toURL();
+            } catch (final MalformedURLException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Path getPath(final String name) {
+            return directory.resolve(name);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5CPUInterruptTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 4 * 1024;
+
+    private MemoryMap memoryMap;
+    private R5CPU cpu;
+    private long result;
+
+    @BeforeEach
+    public void setupEach() {
+        final R5Assembler assembler = new R5Assembler(MEMORY_START)
+            .define("SEIP", R5.SEIP_MASK)
+            .assemble("""
+                        li   t0, SEIP
+                        csrw mie, t0
+                        wfi
+                        li   a0, 1
+                        la   t0, result
+                        sd   a0, 0(t0)
+                halt:   j    halt
+                        .align 3
+                result: .dword 0
+                """);
+
+        memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        assertDoesNotThrow(() -> assembler.writeTo(memoryMap));
+        result = assembler.getSymbol("result");
+
+        cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(100);
+        assertTrue(cpu.isWaitingForInterrupt());
+    }
+
+    @Test
+    public void testAwaitInterruptTimesOut() {
+        assertFalse(cpu.awaitInterrupt(TimeUnit.MILLISECONDS.toNanos(10)));
+        assertTrue(cpu.isWaitingForInterrupt());
+    }
+
+    @Test
+    public void testAwaitInterruptWakesOnRaiseFromOtherThread() throws Exception {
+        final Thread device = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException ignored) {
+            }
+            cpu.raiseInterrupts(R5.SEIP_MASK);
+        });
+        device.start();
+
+        assertTrue(cpu.awaitInterrupt(TimeUnit.SECONDS.toNanos(10)));
+        device.join();
+
+        cpu.step(100);
+        assertEquals(1, memoryMap.load(result, Sizes.SIZE_64_LOG2));
+    }
+}
@@ -0,0 +1,235 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5MMUTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 256 * 1024;
+
+    // Sv39 page tables: the root maps the memory as a gigapage, and VIRTUAL_START using a
+    // level 1 and a level 0 table, the latter holding the 16 PTEs of a 64KiB NAPOT range.
+    private static final long ROOT_TABLE = MEMORY_START + 0x2000;
+    private static final long LEVEL1_TABLE = MEMORY_START + 0x3000;
+    private static final long LEVEL0_TABLE = MEMORY_START + 0x4000;
+    private static final long VIRTUAL_START = 0x40000000L;
+    private static final long RANGE_A = MEMORY_START + 0x10000;
+    private static final long RANGE_B = MEMORY_START + 0x20000;
+
+    private static final int PAGE_SIZE = 1 << R5.PAGE_ADDRESS_SHIFT;
+    private static final int NAPOT_PAGES = 16;
+    private static final int LEAF_FLAGS = R5.PTE_V_MASK | R5.PTE_R_MASK | R5.PTE_W_MASK | R5.PTE_A_MASK | R5.PTE_D_MASK;
+
+    private MemoryMap memoryMap;
+    private R5CPU cpu;
+
+    @BeforeEach
+    public void setupEach() throws MemoryAccessException {
+        memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+
+        storePTE(ROOT_TABLE, 1, pointerPTE(LEVEL1_TABLE));
+        storePTE(ROOT_TABLE, 2, (MEMORY_START >>> R5.PAGE_ADDRESS_SHIFT) << R5.PTE_DATA_BITS | LEAF_FLAGS | R5.PTE_X_MASK);
+        storePTE(LEVEL1_TABLE, 0, pointerPTE(LEVEL0_TABLE));
+
+        // Tag each page of both ranges with its index, so reads show where they were translated to.
+        for (int i = 0; i < NAPOT_PAGES; i++) {
+            memoryMap.store(RANGE_A + (long) i * PAGE_SIZE, 0xA00 + i, Sizes.SIZE_64_LOG2);
+            memoryMap.store(RANGE_B + (long) i * PAGE_SIZE, 0xB00 + i, Sizes.SIZE_64_LOG2);
+        }
+    }
+
+    @Test
+    public void testNapotRangeTranslatesAllPages() throws Exception {
+        mapNapotRange(RANGE_A, R5.NAPOT_64K_PPN);
+
+        final R5Assembler assembler = run("""
+                    la   s0, results
+                    call read_pages
+                    ecall
+            """);
+
+        assertEquals(R5.EXCEPTION_SUPERVISOR_ECALL, load(assembler, "cause"));
+        for (int i = 0; i < NAPOT_PAGES; i++) {
+            assertEquals(0xA00 + i, load(assembler, "results", i));
+        }
+    }
+
+    @Test
+    public void testMalformedNapotRangeFaults() throws Exception {
+        mapNapotRange(RANGE_A, 0b0100);
+
+        final R5Assembler assembler = run("""
+                    la   s0, results
+                    call read_pages
+                    ecall
+            """);
+
+        assertEquals(R5.EXCEPTION_LOAD_PAGE_FAULT, load(assembler, "cause"));
+        assertEquals(VIRTUAL_START, load(assembler, "tval"));
+    }
+
+    @Test
+    public void testAddressFenceFlushesWholeNapotRange() throws Exception {
+        mapNapotRange(RANGE_A, R5.NAPOT_64K_PPN);
+
+        // Remaps the range to RANGE_B, then fences a single page in the middle of the range.
+        final R5Assembler assembler = run("""
+                    la   s0, results
+                    call read_pages
+                    li   t0, LEVEL0_TABLE
+                    li   t1, RANGE_B_PTE
+                    li   t2, 16
+            remap:  sd   t1, 0(t0)
+                    addi t0, t0, 8
+                    addi t2, t2, -1
+                    bnez t2, remap
+                    li   t0, FENCE_ADDRESS
+                    sfence.vma t0, zero
+                    la   s0, remapped
+                    call read_pages
+                    ecall
+            """);
+
+        assertEquals(R5.EXCEPTION_SUPERVISOR_ECALL, load(assembler, "cause"));
+        for (int i = 0; i < NAPOT_PAGES; i++) {
+            assertEquals(0xA00 + i, load(assembler, "results", i));
+            assertEquals(0xB00 + i, load(assembler, "remapped", i));
+        }
+    }
+
+    @Test
+    public void testPageWalksOnlyOnTLBMiss() throws Exception {
+        mapNapotRange(RANGE_A, R5.NAPOT_64K_PPN);
+
+        run("""
+                    la   s0, results
+                    ecall
+            """);
+        final long baseline = cpu.getPageWalkCount();
+        assertTrue(baseline > 0);
+
+        // One walk for the loads, which fills in the entries for the whole range, and one for the stores.
+        run("""
+                    la   s0, results
+                    call read_pages
+                    ecall
+            """);
+        assertEquals(baseline + 2, cpu.getPageWalkCount());
+
+        // Reading the range again hits the TLB.
+        run("""
+                    la   s0, results
+                    call read_pages
+                    la   s0, results
+                    call read_pages
+                    ecall
+            """);
+        assertEquals(baseline + 2, cpu.getPageWalkCount());
+
+        // Unless it has been flushed, which also requires a walk to fetch the next instruction.
+        run("""
+                    la   s0, results
+                    call read_pages
+                    sfence.vma zero, zero
+                    la   s0, results
+                    call read_pages
+                    ecall
+            """);
+        assertEquals(baseline + 2 + 3, cpu.getPageWalkCount());
+    }
+
+    private void mapNapotRange(final long address, final int encoding) throws MemoryAccessException {
+        for (int i = 0; i < NAPOT_PAGES; i++) {
+            storePTE(LEVEL0_TABLE, i, napotPTE(address, encoding));
+        }
+    }
+
+    // Runs the specified code in supervisor mode, with the page tables set up, until it traps.
+    private R5Assembler run(final String source) throws MemoryAccessException {
+        final R5Assembler assembler = new R5Assembler(MEMORY_START)
+            .define("SATP", R5.SATP_MODE_SV39 | (ROOT_TABLE >>> R5.PAGE_ADDRESS_SHIFT))
+            .define("MPP_S", (long) R5.PRIVILEGE_S << R5.STATUS_MPP_SHIFT)
+            .define("VIRTUAL_START", VIRTUAL_START)
+            .define("LEVEL0_TABLE", LEVEL0_TABLE)
+            .define("RANGE_B_PTE", napotPTE(RANGE_B, R5.NAPOT_64K_PPN))
+            .define("FENCE_ADDRESS", VIRTUAL_START + 5 * PAGE_SIZE)
+            .assemble("""
+                        la   t0, trap
+                        csrw mtvec, t0
+                        li   t0, SATP
+                        csrw satp, t0
+                        li   t0, MPP_S
+                        csrs mstatus, t0
+                        la   t0, supervisor
+                        csrw mepc, t0
+                        mret
+
+                # Reads the first dword of each page of the range into the array at s0.
+                read_pages:
+                        li   t0, VIRTUAL_START
+                        li   t1, 16
+                        li   t2, 4096
+                read:   ld   t3, 0(t0)
+                        sd   t3, 0(s0)
+                        add  t0, t0, t2
+                        addi s0, s0, 8
+                        addi t1, t1, -1
+                        bnez t1, read
+                        ret
+
+                trap:   csrr t0, mcause
+                        la   t1, cause
+                        sd   t0, 0(t1)
+                        csrr t0, mtval
+                        la   t1, tval
+                        sd   t0, 0(t1)
+                halt:   j    halt
+
+                supervisor:
+                """)
+            .assemble(source)
+            .assemble("""
+                        .align 3
+                cause:  .dword 0
+                tval:   .dword 0
+                results: .zero 128
+                remapped: .zero 128
+                """);
+        assembler.writeTo(memoryMap);
+
+        cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(2000);
+
+        return assembler;
+    }
+
+    private long load(final R5Assembler assembler, final String symbol) throws MemoryAccessException {
+        return load(assembler, symbol, 0);
+    }
+
+    private long load(final R5Assembler assembler, final String symbol, final int index) throws MemoryAccessException {
+        return memoryMap.load(assembler.getSymbol(symbol) + index * 8L, Sizes.SIZE_64_LOG2);
+    }
+
+    private void storePTE(final long table, final int index, final long pte) throws MemoryAccessException {
+        memoryMap.store(table + index * 8L, pte, Sizes.SIZE_64_LOG2);
+    }
+
+    private static long pointerPTE(final long table) {
+        return (table >>> R5.PAGE_ADDRESS_SHIFT) << R5.PTE_DATA_BITS | R5.PTE_V_MASK;
+    }
+
+    private static long napotPTE(final long address, final int encoding) {
+        final long ppn = (address >>> R5.PAGE_ADDRESS_SHIFT) & ~R5.NAPOT_PPN_MASK | encoding;
+        return R5.PTE_N_MASK | ppn << R5.PTE_DATA_BITS | LEAF_FLAGS;
+    }
+}
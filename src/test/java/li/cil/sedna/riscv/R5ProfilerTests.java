@@ -0,0 +1,84 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5ProfilerTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 64 * 1024;
+
+    private R5Assembler assembler;
+    private R5CPU cpu;
+
+    @BeforeEach
+    public void setupEach() throws Exception {
+        // Calls into two functions using frame pointers, the inner one spinning forever.
+        assembler = new R5Assembler(MEMORY_START)
+            .define("STACK_TOP", MEMORY_START + MEMORY_LENGTH)
+            .assemble("""
+                        li   sp, STACK_TOP
+                        call outer
+                start_ret:
+                        j    start_ret
+
+                outer:  addi sp, sp, -16
+                        sd   ra, 8(sp)
+                        sd   s0, 0(sp)
+                        addi s0, sp, 16
+                        call inner
+                outer_ret:
+                        j    outer_ret
+
+                inner:  addi sp, sp, -16
+                        sd   ra, 8(sp)
+                        sd   s0, 0(sp)
+                        addi s0, sp, 16
+                spin:   j    spin
+                """);
+
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        assembler.writeTo(memoryMap);
+
+        cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+    }
+
+    @Test
+    public void testRecordsCallStacks() throws Exception {
+        final R5Profiler profiler = new R5Profiler(100, 8, 16);
+        cpu.step(1000); // Get into the spin loop.
+        cpu.setProfiler(profiler);
+        cpu.step(10_000);
+
+        // Older samples have been overwritten.
+        assertEquals(8, profiler.getSampleCount());
+
+        final StringWriter writer = new StringWriter();
+        profiler.writeCollapsedStacks(writer);
+        assertEquals(String.format("[machine];0x%x;0x%x;0x%x 8\n",
+            assembler.getSymbol("start_ret"),
+            assembler.getSymbol("outer_ret"),
+            assembler.getSymbol("spin")), writer.toString());
+    }
+
+    @Test
+    public void testRemovedProfilerStopsSampling() {
+        final R5Profiler profiler = new R5Profiler(100, 1000, 16);
+        cpu.setProfiler(profiler);
+        cpu.step(10_000);
+        assertTrue(profiler.getSampleCount() > 0);
+
+        cpu.setProfiler(null);
+        profiler.clear();
+        cpu.step(10_000);
+        assertEquals(0, profiler.getSampleCount());
+    }
+}
@@ -0,0 +1,116 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class R5TraceBufferTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final int MEMORY_LENGTH = 4 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRingWrapsAroundKeepingNewestRecords() throws Exception {
+        try (final R5TraceBuffer traceBuffer = new R5TraceBuffer(3)) {
+            for (int i = 1; i <= 5; i++) {
+                traceBuffer.record(i * 4, 0x00000013);
+            }
+            assertEquals(3, traceBuffer.getRecordCount());
+
+            final List<R5TraceBuffer.Record> records = flush(traceBuffer);
+            assertEquals(0, traceBuffer.getRecordCount());
+            assertEquals(List.of(12L, 16L, 20L), records.stream().map(R5TraceBuffer.Record::pc).toList());
+        }
+    }
+
+    @Test
+    public void testCompressedInstructionsOnlyKeepLowerHalf() throws Exception {
+        try (final R5TraceBuffer traceBuffer = new R5TraceBuffer(4)) {
+            traceBuffer.record(0, 0x12340505); // c.addi a0, 1, followed by the next instruction.
+            traceBuffer.record(2, 0x00613823, 0x1000); // sd t1, 16(sp)
+
+            final List<R5TraceBuffer.Record> records = flush(traceBuffer);
+            assertEquals(new R5TraceBuffer.Record(0, 0x0505, false, 0), records.get(0));
+            assertEquals(new R5TraceBuffer.Record(2, 0x00613823, true, 0x1000), records.get(1));
+        }
+    }
+
+    @Test
+    public void testCPURecordsEveryInstruction() throws Exception {
+        final R5Assembler assembler = new R5Assembler(MEMORY_START).assemble("""
+                    la     t0, data
+                    li     a0, 2
+            loop:   c.addi a0, -1
+                    sd     a0, 8(t0)
+                    bnez   a0, loop
+            halt:   j      halt
+                    .align 3
+            data:   .dword 0, 0
+            """);
+
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        memoryMap.addDevice(MEMORY_START, Memory.create(MEMORY_LENGTH));
+        assembler.writeTo(memoryMap);
+
+        final R5CPU cpu = R5CPU.create(memoryMap, null, false, true);
+        cpu.reset(true, MEMORY_START);
+
+        try (final R5TraceBuffer traceBuffer = new R5TraceBuffer(1024)) {
+            cpu.setTraceBuffer(traceBuffer);
+            cpu.step(100);
+            cpu.setTraceBuffer(null);
+
+            final List<R5TraceBuffer.Record> records = flush(traceBuffer);
+            assertTrue(records.size() >= 100);
+
+            final long loop = assembler.getSymbol("loop");
+            final long data = assembler.getSymbol("data");
+            final List<R5TraceBuffer.Record> expected = List.of(
+                new R5TraceBuffer.Record(MEMORY_START, records.get(0).instruction(), false, 0), // auipc
+                new R5TraceBuffer.Record(MEMORY_START + 4, records.get(1).instruction(), false, 0), // addi
+                new R5TraceBuffer.Record(MEMORY_START + 8, records.get(2).instruction(), false, 0), // li
+                new R5TraceBuffer.Record(loop, 0x157D, false, 0), // c.addi a0, -1
+                new R5TraceBuffer.Record(loop + 2, records.get(4).instruction(), true, data + 8), // sd
+                new R5TraceBuffer.Record(loop + 6, records.get(5).instruction(), false, 0), // bnez
+                new R5TraceBuffer.Record(loop, 0x157D, false, 0),
+                new R5TraceBuffer.Record(loop + 2, records.get(4).instruction(), true, data + 8),
+                new R5TraceBuffer.Record(loop + 6, records.get(5).instruction(), false, 0),
+                new R5TraceBuffer.Record(assembler.getSymbol("halt"), 0x0000006F, false, 0)); // j halt
+            assertEquals(expected, records.subList(0, expected.size()));
+        }
+    }
+
+    @Test
+    public void testRegularCPURejectsTraceBuffer() throws Exception {
+        final R5CPU cpu = R5CPU.create(new SimpleMemoryMap());
+        try (final R5TraceBuffer traceBuffer = new R5TraceBuffer(16)) {
+            assertThrows(IllegalStateException.class, () -> cpu.setTraceBuffer(traceBuffer));
+        }
+        cpu.setTraceBuffer(null);
+    }
+
+    private List<R5TraceBuffer.Record> flush(final R5TraceBuffer traceBuffer) throws Exception {
+        final Path path = tempDir.resolve("trace.bin");
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            traceBuffer.flush(channel);
+        }
+
+        final List<R5TraceBuffer.Record> records = new ArrayList<>();
+        R5TraceBuffer.decode(ByteBuffer.wrap(Files.readAllBytes(path)), records::add);
+        return records;
+    }
+}
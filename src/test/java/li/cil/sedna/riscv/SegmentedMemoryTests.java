@@ -0,0 +1,68 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryMap;
+import li.cil.sedna.device.memory.SegmentedMemory;
+import li.cil.sedna.device.memory.SparseMemory;
+import li.cil.sedna.memory.MemoryMaps;
+import li.cil.sedna.memory.SimpleMemoryMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedMemoryTests {
+    private static final long MEMORY_START = 0x80000000L;
+    private static final long MEMORY_SIZE = 6L * 1024 * 1024 * 1024;
+
+    private SegmentedMemory memory;
+
+    @BeforeEach
+    public void initialize() {
+        // Sparse segments, so that we don't actually need gigabytes of memory to run this.
+        memory = new SegmentedMemory(MEMORY_SIZE, SparseMemory::new);
+    }
+
+    @Test
+    public void testLongOffsets() throws Exception {
+        assertEquals(MEMORY_SIZE, memory.getLongLength());
+        assertEquals(Integer.MAX_VALUE, memory.getLength());
+
+        memory.store(5L * SegmentedMemory.SEGMENT_SIZE + 8, 0x1122334455667788L, Sizes.SIZE_64_LOG2);
+        assertEquals(0x1122334455667788L, memory.load(5L * SegmentedMemory.SEGMENT_SIZE + 8, Sizes.SIZE_64_LOG2));
+
+        // Straddles the boundary between the first and second segment.
+        memory.store(SegmentedMemory.SEGMENT_SIZE - 2, 0x11223344, Sizes.SIZE_32_LOG2);
+        assertEquals(0x11223344, memory.load(SegmentedMemory.SEGMENT_SIZE - 2, Sizes.SIZE_32_LOG2));
+        assertEquals(0x1122, memory.getSegment(SegmentedMemory.SEGMENT_SIZE).load(0, Sizes.SIZE_16_LOG2));
+
+        assertThrows(Exception.class, () -> memory.load(MEMORY_SIZE - 4, Sizes.SIZE_64_LOG2));
+    }
+
+    @Test
+    public void testCPUAccessAbove4GiB() throws Exception {
+        final MemoryMap memoryMap = new SimpleMemoryMap();
+        assertTrue(memoryMap.addDevice(MEMORY_START, memory));
+        assertEquals(MEMORY_SIZE, MemoryMaps.getContinuousMemorySize(memoryMap, MEMORY_START));
+
+        final long data = MEMORY_START + MEMORY_SIZE - 0x1000;
+        final R5Assembler assembler = new R5Assembler(MEMORY_START)
+            .define("DATA", data)
+            .assemble("""
+                        li   t0, DATA
+                        ld   t1, 0(t0)
+                        addi t1, t1, 1
+                        sd   t1, 8(t0)
+                halt:   j    halt
+                """);
+        assembler.writeTo(memoryMap);
+        memoryMap.store(data, 41, Sizes.SIZE_64_LOG2);
+
+        final R5CPU cpu = R5CPU.create(memoryMap);
+        cpu.reset(true, MEMORY_START);
+        cpu.step(100);
+
+        assertEquals(42, memoryMap.load(data + 8, Sizes.SIZE_64_LOG2));
+        assertEquals(42, memory.load(MEMORY_SIZE - 0x1000 + 8, Sizes.SIZE_64_LOG2));
+    }
+}
@@ -0,0 +1,106 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.memory.SparseMemory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparseMemoryTests {
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private SparseMemory memory;
+
+    @BeforeEach
+    public void initialize() {
+        memory = new SparseMemory(16 * CHUNK_SIZE, CHUNK_SIZE);
+    }
+
+    @Test
+    public void testUntouchedMemoryReadsZero() throws Exception {
+        assertEquals(0, memory.load(0x100, Sizes.SIZE_64_LOG2));
+        final ByteBuffer buffer = ByteBuffer.allocate(2 * CHUNK_SIZE);
+        memory.load(CHUNK_SIZE / 2, buffer);
+        assertArrayEquals(new byte[2 * CHUNK_SIZE], buffer.array());
+        assertEquals(0, memory.getResidentSize());
+    }
+
+    @Test
+    public void testChunksAreAllocatedOnWrite() throws Exception {
+        memory.store(3 * CHUNK_SIZE + 8, 0x1122334455667788L, Sizes.SIZE_64_LOG2);
+        assertEquals(CHUNK_SIZE, memory.getResidentSize());
+        assertEquals(0x1122334455667788L, memory.load(3 * CHUNK_SIZE + 8, Sizes.SIZE_64_LOG2));
+        assertEquals((short) 0x5566, memory.load(3 * CHUNK_SIZE + 10, Sizes.SIZE_16_LOG2));
+    }
+
+    @Test
+    public void testAccessAcrossChunks() throws Exception {
+        memory.store(CHUNK_SIZE - 2, 0x11223344, Sizes.SIZE_32_LOG2);
+        assertEquals(2 * CHUNK_SIZE, memory.getResidentSize());
+        assertEquals(0x11223344, memory.load(CHUNK_SIZE - 2, Sizes.SIZE_32_LOG2));
+        assertEquals((short) 0x1122, memory.load(CHUNK_SIZE, Sizes.SIZE_16_LOG2));
+
+        final byte[] data = new byte[CHUNK_SIZE + 16];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        memory.store(5 * CHUNK_SIZE - 8, ByteBuffer.wrap(data));
+        final ByteBuffer result = ByteBuffer.allocate(data.length);
+        memory.load(5 * CHUNK_SIZE - 8, result);
+        assertArrayEquals(data, result.array());
+    }
+
+    @Test
+    public void testClearReleasesChunks() throws Exception {
+        memory.store(0, 0x12345678, Sizes.SIZE_32_LOG2);
+        memory.clear();
+        assertEquals(0, memory.getResidentSize());
+        assertEquals(0, memory.load(0, Sizes.SIZE_32_LOG2));
+    }
+
+    @Test
+    public void testDiscardReleasesCoveredChunks() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            memory.store(i * CHUNK_SIZE, 0x12345678, Sizes.SIZE_32_LOG2);
+        }
+
+        // Only chunks one and two are completely covered.
+        memory.discard(CHUNK_SIZE - 4, 2 * CHUNK_SIZE + 8);
+        assertEquals(2 * CHUNK_SIZE, memory.getResidentSize());
+        assertEquals(0x12345678, memory.load(0, Sizes.SIZE_32_LOG2));
+        assertEquals(0, memory.load(CHUNK_SIZE, Sizes.SIZE_32_LOG2));
+        assertEquals(0, memory.load(2 * CHUNK_SIZE, Sizes.SIZE_32_LOG2));
+        assertEquals(0x12345678, memory.load(3 * CHUNK_SIZE, Sizes.SIZE_32_LOG2));
+
+        assertThrows(MemoryAccessException.class, () -> memory.discard(15 * CHUNK_SIZE, 2 * CHUNK_SIZE));
+    }
+
+    @Test
+    public void testViewsRemainValidAfterDiscardAndClear() throws Exception {
+        final ByteBuffer view = memory.getView(CHUNK_SIZE + 16, 8);
+        assertNotNull(view);
+        view.putLong(0, 0x1122334455667788L);
+        assertEquals(0x1122334455667788L, memory.load(CHUNK_SIZE + 16, Sizes.SIZE_64_LOG2));
+
+        // The chunk is zeroed instead of released, so the view still writes to this memory.
+        memory.discard(CHUNK_SIZE, CHUNK_SIZE);
+        assertEquals(CHUNK_SIZE, memory.getResidentSize());
+        assertEquals(0, view.getLong(0));
+        assertEquals(0, memory.load(CHUNK_SIZE + 16, Sizes.SIZE_64_LOG2));
+        view.putLong(0, 42);
+        assertEquals(42, memory.load(CHUNK_SIZE + 16, Sizes.SIZE_64_LOG2));
+
+        memory.clear();
+        assertEquals(0, view.getLong(0));
+        view.putLong(0, 43);
+        assertEquals(43, memory.load(CHUNK_SIZE + 16, Sizes.SIZE_64_LOG2));
+
+        memory.close();
+        assertEquals(0, memory.getResidentSize());
+        assertEquals(43, view.getLong(0));
+    }
+}
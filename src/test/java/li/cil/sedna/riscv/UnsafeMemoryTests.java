@@ -0,0 +1,95 @@
+package li.cil.sedna.riscv;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.memory.UnsafeMemory;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnsafeMemoryTests {
+    @Test
+    public void testMemoryIsZeroInitialized() throws Exception {
+        try (final PhysicalMemory memory = UnsafeMemory.create(4 * 1024)) {
+            for (int offset = 0; offset < memory.getLength(); offset += 8) {
+                assertEquals(0, memory.load(offset, Sizes.SIZE_64_LOG2));
+            }
+        }
+    }
+
+    @Test
+    public void testBoundsAreChecked() throws Exception {
+        try (final PhysicalMemory memory = UnsafeMemory.create(4 * 1024)) {
+            memory.store(4 * 1024 - 8, 0x1122334455667788L, Sizes.SIZE_64_LOG2);
+            assertEquals(0x11223344, memory.load(4 * 1024 - 4, Sizes.SIZE_32_LOG2));
+            assertThrows(MemoryAccessException.class, () -> memory.load(4 * 1024 - 4, Sizes.SIZE_64_LOG2));
+            assertThrows(MemoryAccessException.class, () -> memory.store(-1, 0, Sizes.SIZE_8_LOG2));
+        }
+    }
+
+    @Test
+    public void testBlockCopiesWithHeapAndDirectBuffers() throws Exception {
+        try (final PhysicalMemory memory = UnsafeMemory.create(64 * 1024)) {
+            final byte[] data = new byte[40 * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i * 31);
+            }
+
+            // Heap buffer with a non-zero array offset and position.
+            final ByteBuffer heap = ByteBuffer.wrap(new byte[data.length + 16], 8, data.length).slice();
+            heap.put(data).flip();
+            memory.store(3, heap);
+            assertFalse(heap.hasRemaining());
+            assertEquals(data[0], (byte) memory.load(3, Sizes.SIZE_8_LOG2));
+
+            // Direct buffer larger than the intermediate copy buffer.
+            final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            memory.load(3, direct);
+            assertFalse(direct.hasRemaining());
+            direct.flip();
+            final byte[] result = new byte[data.length];
+            direct.get(result);
+            assertArrayEquals(data, result);
+
+            // Direct buffer as source, going through the same intermediate copy buffer.
+            direct.flip();
+            memory.store(20 * 1024, direct);
+            assertFalse(direct.hasRemaining());
+            final ByteBuffer copy = ByteBuffer.allocate(data.length);
+            memory.load(20 * 1024, copy);
+            assertArrayEquals(data, copy.array());
+
+            assertThrows(MemoryAccessException.class, () -> memory.load(32 * 1024, ByteBuffer.allocate(33 * 1024)));
+        }
+    }
+
+    @Test
+    public void testDiscardZeroesRegion() throws Exception {
+        try (final PhysicalMemory memory = UnsafeMemory.create(16 * 1024)) {
+            for (int offset = 0; offset < memory.getLength(); offset += 8) {
+                memory.store(offset, -1, Sizes.SIZE_64_LOG2);
+            }
+
+            memory.discard(4 * 1024, 8 * 1024);
+            assertEquals(-1, memory.load(4 * 1024 - 8, Sizes.SIZE_64_LOG2));
+            for (int offset = 4 * 1024; offset < 12 * 1024; offset += 8) {
+                assertEquals(0, memory.load(offset, Sizes.SIZE_64_LOG2));
+            }
+            assertEquals(-1, memory.load(12 * 1024, Sizes.SIZE_64_LOG2));
+
+            assertThrows(MemoryAccessException.class, () -> memory.discard(12 * 1024, 8 * 1024));
+        }
+    }
+
+    @Test
+    public void testClosedMemoryIsInaccessible() throws Exception {
+        final PhysicalMemory memory = UnsafeMemory.create(4 * 1024);
+        memory.close();
+        assertEquals(0, memory.getLength());
+        assertThrows(MemoryAccessException.class, () -> memory.load(0, Sizes.SIZE_32_LOG2));
+        memory.close();
+    }
+}